@@ -0,0 +1,81 @@
+/**
+ * 
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+
+/**
+ * Helper methods for calculating hashes of translation content.
+ */
+final class ContentHash {
+//> STATIC CONSTANTS
+	/** Digest algorithm used for content hashes */
+	private static final String ALGORITHM = "SHA-1";
+	/** Hex digits used when encoding a digest */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+//> CONSTRUCTORS
+	/** Static utility class; not instantiable. */
+	private ContentHash() {}
+
+//> STATIC HELPERS
+	/**
+	 * Calculates a hash of the supplied translations.  The hash is independent of the iteration order
+	 * of the map, so two maps with the same key-value pairs always have the same hash.
+	 * @param translations
+	 * @return hex-encoded hash of the translations
+	 */
+	static String of(Map<String, String> translations) {
+		MessageDigest digest = createDigest();
+		for(Entry<String, String> e : new TreeMap<String, String>(translations).entrySet()) {
+			digest.update(toBytes(e.getKey()));
+			digest.update((byte) '=');
+			digest.update(toBytes(e.getValue()));
+			digest.update((byte) '\n');
+		}
+		return toHex(digest.digest());
+	}
+
+	/** @return hex-encoded hash of a single string, encoded as UTF-8 */
+	static String of(String value) {
+		return of(toBytes(value));
+	}
+
+	/** @return hex-encoded hash of the supplied bytes */
+	static String of(byte[] content) {
+		return toHex(createDigest().digest(content));
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("Digest algorithm not available: " + ALGORITHM, ex);
+		}
+	}
+
+	private static byte[] toBytes(String s) {
+		try {
+			return s.getBytes(InternationalisationUtils.CHARSET_UTF8);
+		} catch (UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] hex = new char[bytes.length << 1];
+		for(int i = 0 ; i < bytes.length ; ++i) {
+			hex[i << 1] = HEX[(bytes[i] >> 4) & 0xF];
+			hex[(i << 1) + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(hex);
+	}
+}
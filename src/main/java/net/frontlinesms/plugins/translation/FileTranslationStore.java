@@ -0,0 +1,152 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+
+/**
+ * Keeps each language in a <code>.properties</code> file in a directory.  This is the format FrontlineSMS itself
+ * reads, so it is the default {@link TranslationStore}.
+ * <p>A language which has no file of its own is loaded from the directory's {@link LanguagePack}, if it has one.
+ * The language is saved to its own file, which is used from then on.  Packs are kept open once they have been
+ * read, so their dictionary and index are only read again if the pack is replaced.</p>
+ */
+class FileTranslationStore implements TranslationStore {
+//> STATIC CONSTANTS
+	/** Description given to the content loaded from a language file */
+	static final String CORE_DESCRIPTION = "FrontlineSMS Core";
+
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(FileTranslationStore.class);
+
+	/** Packs which have been opened, by pack file.  Guarded by the class. */
+	private static final Map<File, OpenPack> openPacks = new HashMap<File, OpenPack>();
+
+//> INSTANCE VARIABLES
+	/** Directory the language files are kept in */
+	private final File directory;
+
+//> CONSTRUCTORS
+	FileTranslationStore(File directory) {
+		this.directory = directory;
+	}
+
+//> TRANSLATION STORE METHODS
+	public TextFileContent load(String filename) throws IOException {
+		File file = new File(this.directory, filename);
+		if(!file.exists()) {
+			LanguagePackReader pack = getPack(this.directory);
+			if(pack != null && pack.contains(filename)) {
+				return pack.load(filename);
+			}
+		}
+		return TextFileContent.getFromFile(CORE_DESCRIPTION, file);
+	}
+
+	public void save(MasterTranslationFile languageBundle) throws IOException {
+		languageBundle.saveToDisk(this.directory);
+	}
+
+	/** Reads the translation from the language file, without loading the translations of plugins. */
+	public String getValue(String filename, String textKey) throws IOException {
+		return load(filename).getValue(textKey);
+	}
+
+	/**
+	 * Changes the translation in the language file, without loading the translations of plugins.  The rest of the
+	 * file is left as it is, and the file is replaced in the same way as when a language is saved.
+	 */
+	public void setValue(String filename, String textKey, String textValue) throws IOException {
+		TextFileContent content = load(filename);
+		try {
+			if(textValue == null || textValue.length() == 0) {
+				if(!content.containsKey(textKey)) {
+					return;
+				}
+				content.removeLine(content.getLine(textKey));
+			} else if(content.containsKey(textKey)) {
+				if(textValue.equals(content.getValue(textKey))) {
+					return;
+				}
+				content.updateValue(textKey, textValue);
+			} else {
+				content.addLine(textKey + "=" + textValue);
+			}
+		} catch (KeyNotFoundException ex) {
+			// Only thrown if the key is not defined, which has already been checked
+			throw new IllegalStateException(ex);
+		}
+		new TranslationSnapshot(filename, Collections.singletonList(content), Collections.singleton(textKey)).saveToDisk(this.directory);
+	}
+
+//> STATIC HELPERS
+	/**
+	 * Gets the filenames of the languages in a directory's pack.  Some of these may also have files of their own,
+	 * which are used instead.
+	 * @param directory a language directory
+	 * @return the filenames of the languages in the pack; empty if the directory has no pack or it could not be read
+	 */
+	static Set<String> getPackedFilenames(File directory) {
+		try {
+			LanguagePackReader pack = getPack(directory);
+			if(pack != null) {
+				return pack.getFilenames();
+			}
+		} catch (IOException ex) {
+			LOG.warn("Unable to read language pack in " + directory.getAbsolutePath(), ex);
+		}
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Gets the open pack of a directory, opening it if it has not been opened or has been replaced since.
+	 * @return the pack, or <code>null</code> if the directory has no pack
+	 * @throws IOException if the pack could not be read
+	 */
+	private static synchronized LanguagePackReader getPack(File directory) throws IOException {
+		File packFile = new File(directory, LanguagePack.FILENAME);
+		OpenPack open = openPacks.get(packFile);
+		if(open != null && !open.isCurrent(packFile)) {
+			openPacks.remove(packFile);
+			open.reader.close();
+			open = null;
+		}
+		if(open == null) {
+			if(!packFile.exists()) {
+				return null;
+			}
+			open = new OpenPack(packFile);
+			openPacks.put(packFile, open);
+		}
+		return open.reader;
+	}
+
+//> INNER CLASSES
+	/** An opened pack, and the state of its file when it was opened. */
+	private static final class OpenPack {
+		private final LanguagePackReader reader;
+		private final long length;
+		private final long lastModified;
+
+		OpenPack(File packFile) throws IOException {
+			this.length = packFile.length();
+			this.lastModified = packFile.lastModified();
+			this.reader = new LanguagePackReader(packFile);
+		}
+
+		/** @return <code>true</code> if the pack file is unchanged since it was opened */
+		boolean isCurrent(File packFile) {
+			return packFile.exists() && packFile.length() == this.length && packFile.lastModified() == this.lastModified;
+		}
+	}
+}
@@ -0,0 +1,405 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+
+/**
+ * Keeps languages in a database, e.g. an embedded H2 database, with one indexed row per translation and a history
+ * of every change.  Reading or changing one translation with {@link #getValue(String, String)} or
+ * {@link #setValue(String, String, String)} is an indexed query, and does not load the language.
+ * <p>FrontlineSMS itself reads the language files, so the files are kept in step with the database: saving a
+ * language, or changing one of its translations, writes its language file as well as the database, and the database
+ * changes are only committed once the file has been written.  Languages are loaded for editing from their files.</p>
+ * <p>The length and modification time of each language file are recorded when it is copied into the database or
+ * written by this store.  If the file has been changed by anything else since, e.g. edited by hand or written while
+ * the store was not configured, the language is copied into the database again before it is next used.  A language
+ * which is only in the directory's {@link LanguagePack} is copied from the pack.</p>
+ * <p>The store is switched on by setting the system property {@link #PROPERTY_URL} to a JDBC URL, e.g.
+ * <code>jdbc:h2:~/.frontlinesms/translations</code>.  The JDBC driver must be on the classpath.</p>
+ */
+class JdbcTranslationStore implements TranslationStore {
+//> STATIC CONSTANTS
+	/** System property: JDBC URL of the translation database.  Languages are kept in files if this is not set. */
+	static final String PROPERTY_URL = "frontlinesms.translation.store.url";
+	/** System property: user name for the translation database */
+	static final String PROPERTY_USER = "frontlinesms.translation.store.user";
+	/** System property: password for the translation database */
+	static final String PROPERTY_PASSWORD = "frontlinesms.translation.store.password";
+
+	/** Length recorded for a language which has no file of its own */
+	private static final long NO_FILE = -1;
+
+	/** Statements creating the tables, if they do not already exist */
+	private static final String[] CREATE_SCHEMA = {
+		"CREATE TABLE IF NOT EXISTS translation_language (filename VARCHAR(255) NOT NULL PRIMARY KEY, "
+				+ "file_length BIGINT NOT NULL, file_modified BIGINT NOT NULL, imported TIMESTAMP NOT NULL)",
+		"CREATE TABLE IF NOT EXISTS translation_value (filename VARCHAR(255) NOT NULL, text_key VARCHAR(1024) NOT NULL, text_value VARCHAR(65536) NOT NULL, PRIMARY KEY (filename, text_key))",
+		"CREATE TABLE IF NOT EXISTS translation_history (id BIGINT AUTO_INCREMENT PRIMARY KEY, filename VARCHAR(255) NOT NULL, text_key VARCHAR(1024) NOT NULL, "
+				+ "old_value VARCHAR(65536), new_value VARCHAR(65536), changed TIMESTAMP NOT NULL)",
+		"CREATE INDEX IF NOT EXISTS translation_history_key ON translation_history (filename, text_key)",
+	};
+	private static final String SELECT_LANGUAGE = "SELECT file_length, file_modified FROM translation_language WHERE filename=?";
+	private static final String INSERT_LANGUAGE = "INSERT INTO translation_language (filename, file_length, file_modified, imported) VALUES (?, ?, ?, ?)";
+	private static final String UPDATE_LANGUAGE = "UPDATE translation_language SET file_length=?, file_modified=? WHERE filename=?";
+	private static final String DELETE_LANGUAGE = "DELETE FROM translation_language WHERE filename=?";
+	private static final String SELECT_VALUE = "SELECT text_value FROM translation_value WHERE filename=? AND text_key=?";
+	private static final String INSERT_VALUE = "INSERT INTO translation_value (filename, text_key, text_value) VALUES (?, ?, ?)";
+	private static final String UPDATE_VALUE = "UPDATE translation_value SET text_value=? WHERE filename=? AND text_key=?";
+	private static final String DELETE_VALUE = "DELETE FROM translation_value WHERE filename=? AND text_key=?";
+	private static final String DELETE_VALUES = "DELETE FROM translation_value WHERE filename=?";
+	private static final String INSERT_HISTORY = "INSERT INTO translation_history (filename, text_key, old_value, new_value, changed) VALUES (?, ?, ?, ?, ?)";
+
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(JdbcTranslationStore.class);
+
+	/** The store configured by the system properties, or <code>null</code> if it has not been created */
+	private static JdbcTranslationStore configured;
+
+//> INSTANCE VARIABLES
+	private final String url;
+	private final String user;
+	private final String password;
+	/** Directory of the language files kept in step with the database */
+	private final File languageDirectory;
+	/** The language files, which languages are loaded from and copied into the database from */
+	private final FileTranslationStore files;
+	/** <code>true</code> once the tables are known to exist */
+	private boolean schemaCreated;
+
+//> CONSTRUCTORS
+	JdbcTranslationStore(String url, String user, String password, File languageDirectory) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.languageDirectory = languageDirectory;
+		this.files = new FileTranslationStore(languageDirectory);
+	}
+
+	/**
+	 * Gets the store configured by the system property {@link #PROPERTY_URL}.
+	 * @param languageDirectory directory of the language files kept in step with the database
+	 * @return the configured store, or <code>null</code> if no translation database has been configured
+	 */
+	static synchronized JdbcTranslationStore getConfigured(File languageDirectory) {
+		String url = System.getProperty(PROPERTY_URL);
+		if(url == null || url.length() == 0) {
+			return null;
+		}
+		if(configured == null || !configured.url.equals(url) || !configured.languageDirectory.equals(languageDirectory)) {
+			LOG.info("Keeping translations in database: " + url);
+			configured = new JdbcTranslationStore(url, System.getProperty(PROPERTY_USER, ""), System.getProperty(PROPERTY_PASSWORD, ""), languageDirectory);
+		}
+		return configured;
+	}
+
+//> TRANSLATION STORE METHODS
+	/** Loads the language from its file, which holds the same translations as the database. */
+	public TextFileContent load(String filename) throws IOException {
+		return this.files.load(filename);
+	}
+
+	/**
+	 * Saves a language to its language file, and then copies the saved file into the database, recording the change
+	 * to each translation edited in the language.  The file is saved as described in
+	 * {@link MasterTranslationFile#saveToDisk(File)}, so translations changed in the file since the language was loaded
+	 * are merged, and the save is stopped if any of them were also edited.  The saved file may also hold translations
+	 * of plugins, so it is copied whole rather than only the edited translations.  If the database could not be
+	 * written, it is left as it was, and is copied from the saved file when it is next used.
+	 */
+	public synchronized void save(MasterTranslationFile languageBundle) throws IOException {
+		String filename = languageBundle.getFilename();
+		Connection connection = null;
+		try {
+			connection = connect();
+			connection.setAutoCommit(false);
+			importIfChanged(connection, filename);
+			languageBundle.saveToDisk(this.languageDirectory);
+
+			TranslationSnapshot saved = languageBundle.getLastSaved();
+			Map<String, String> values = saved.getProperties();
+			for(String textKey : saved.getChanges()) {
+				String stored = select(connection, filename, textKey);
+				String value = values.get(textKey);
+				if(!equal(stored, value)) {
+					insertHistory(connection, filename, textKey, stored, value);
+				}
+			}
+			importFile(connection, filename);
+			connection.commit();
+		} catch (SQLException ex) {
+			rollback(connection);
+			throw toIOException("Unable to save language " + filename, ex);
+		} catch (IOException ex) {
+			rollback(connection);
+			throw ex;
+		} finally {
+			close(connection);
+		}
+	}
+
+	public synchronized String getValue(String filename, String textKey) throws IOException {
+		Connection connection = null;
+		try {
+			connection = connect();
+			connection.setAutoCommit(false);
+			importIfChanged(connection, filename);
+			String value = select(connection, filename, textKey);
+			connection.commit();
+			return value;
+		} catch (SQLException ex) {
+			rollback(connection);
+			throw toIOException("Unable to read " + textKey + " from " + filename, ex);
+		} finally {
+			close(connection);
+		}
+	}
+
+	/** Changes the translation in the database, and in the language file, as described in {@link FileTranslationStore#setValue(String, String, String)}. */
+	public synchronized void setValue(String filename, String textKey, String textValue) throws IOException {
+		Connection connection = null;
+		try {
+			connection = connect();
+			connection.setAutoCommit(false);
+			importIfChanged(connection, filename);
+			String stored = select(connection, filename, textKey);
+			String value = textValue == null || textValue.length() == 0 ? null : textValue;
+			if(!equal(stored, value)) {
+				write(connection, filename, textKey, stored, value);
+				this.files.setValue(filename, textKey, value);
+				recordFileState(connection, filename);
+			}
+			connection.commit();
+		} catch (SQLException ex) {
+			rollback(connection);
+			throw toIOException("Unable to write " + textKey + " to " + filename, ex);
+		} catch (IOException ex) {
+			rollback(connection);
+			throw ex;
+		} finally {
+			close(connection);
+		}
+	}
+
+//> INSTANCE METHODS
+	/** @return a connection to the database, creating the tables first if necessary */
+	private synchronized Connection connect() throws SQLException {
+		Connection connection = DriverManager.getConnection(this.url, this.user, this.password);
+		if(!this.schemaCreated) {
+			Statement statement = null;
+			try {
+				statement = connection.createStatement();
+				for(String sql : CREATE_SCHEMA) {
+					statement.execute(sql);
+				}
+				this.schemaCreated = true;
+			} catch (SQLException ex) {
+				close(connection);
+				throw ex;
+			} finally {
+				close(statement);
+			}
+		}
+		return connection;
+	}
+
+	/**
+	 * Copies a language into the database from its language file, if it has not been copied already or the file has
+	 * changed since it was last copied or written.  This is done in the connection's current transaction.
+	 */
+	private void importIfChanged(Connection connection, String filename) throws SQLException, IOException {
+		File file = new File(this.languageDirectory, filename);
+		PreparedStatement select = null;
+		ResultSet results = null;
+		try {
+			select = connection.prepareStatement(SELECT_LANGUAGE);
+			select.setString(1, filename);
+			results = select.executeQuery();
+			if(results.next() && results.getLong(1) == getLength(file) && results.getLong(2) == file.lastModified()) {
+				return;
+			}
+		} finally {
+			close(results);
+			close(select);
+		}
+		LOG.info("Copying language into translation database: " + filename);
+		importFile(connection, filename);
+	}
+
+	/**
+	 * Replaces the translations of a language in the database with those in its language file, and records the
+	 * state of the file.  This is done in the connection's current transaction.
+	 */
+	private void importFile(Connection connection, String filename) throws SQLException, IOException {
+		File file = new File(this.languageDirectory, filename);
+		// The state is taken first, so that a change made while the file is being read is found next time
+		long length = getLength(file);
+		long lastModified = file.lastModified();
+		Map<String, String> translations = MasterTranslationFile.getTranslationMap(Collections.singletonList(this.files.load(filename)));
+		execute(connection, DELETE_VALUES, filename);
+		execute(connection, DELETE_LANGUAGE, filename);
+		PreparedStatement insertValue = null;
+		PreparedStatement insertLanguage = null;
+		try {
+			insertValue = connection.prepareStatement(INSERT_VALUE);
+			for(Entry<String, String> e : translations.entrySet()) {
+				insertValue.setString(1, filename);
+				insertValue.setString(2, e.getKey());
+				insertValue.setString(3, e.getValue());
+				insertValue.addBatch();
+			}
+			insertValue.executeBatch();
+			insertLanguage = connection.prepareStatement(INSERT_LANGUAGE);
+			insertLanguage.setString(1, filename);
+			insertLanguage.setLong(2, length);
+			insertLanguage.setLong(3, lastModified);
+			insertLanguage.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+			insertLanguage.executeUpdate();
+		} finally {
+			close(insertValue);
+			close(insertLanguage);
+		}
+	}
+
+	/** Records the length and modification time of a language file which has just been written by this store. */
+	private void recordFileState(Connection connection, String filename) throws SQLException {
+		File file = new File(this.languageDirectory, filename);
+		PreparedStatement update = null;
+		try {
+			update = connection.prepareStatement(UPDATE_LANGUAGE);
+			update.setLong(1, getLength(file));
+			update.setLong(2, file.lastModified());
+			update.setString(3, filename);
+			update.executeUpdate();
+		} finally {
+			close(update);
+		}
+	}
+
+//> STATIC HELPER METHODS
+	/** @return the length of a language file, or {@link #NO_FILE} if it does not exist */
+	private static long getLength(File file) {
+		return file.exists() ? file.length() : NO_FILE;
+	}
+
+	/** @return the stored translation, or <code>null</code> if the key is not translated */
+	private static String select(Connection connection, String filename, String textKey) throws SQLException {
+		PreparedStatement select = null;
+		ResultSet results = null;
+		try {
+			select = connection.prepareStatement(SELECT_VALUE);
+			select.setString(1, filename);
+			select.setString(2, textKey);
+			results = select.executeQuery();
+			return results.next() ? results.getString(1) : null;
+		} finally {
+			close(results);
+			close(select);
+		}
+	}
+
+	/**
+	 * Changes a stored translation and records the change in the history.
+	 * @param stored the value currently stored, or <code>null</code> if there is none
+	 * @param value the new value, or <code>null</code> to remove the translation
+	 */
+	private static void write(Connection connection, String filename, String textKey, String stored, String value) throws SQLException {
+		PreparedStatement statement = null;
+		try {
+			if(value == null) {
+				statement = connection.prepareStatement(DELETE_VALUE);
+				statement.setString(1, filename);
+				statement.setString(2, textKey);
+			} else if(stored == null) {
+				statement = connection.prepareStatement(INSERT_VALUE);
+				statement.setString(1, filename);
+				statement.setString(2, textKey);
+				statement.setString(3, value);
+			} else {
+				statement = connection.prepareStatement(UPDATE_VALUE);
+				statement.setString(1, value);
+				statement.setString(2, filename);
+				statement.setString(3, textKey);
+			}
+			statement.executeUpdate();
+		} finally {
+			close(statement);
+		}
+		insertHistory(connection, filename, textKey, stored, value);
+	}
+
+	/**
+	 * Records a change to a translation in the history.
+	 * @param stored the value before the change, or <code>null</code> if there was none
+	 * @param value the value after the change, or <code>null</code> if the translation was removed
+	 */
+	private static void insertHistory(Connection connection, String filename, String textKey, String stored, String value) throws SQLException {
+		PreparedStatement history = null;
+		try {
+			history = connection.prepareStatement(INSERT_HISTORY);
+			history.setString(1, filename);
+			history.setString(2, textKey);
+			history.setString(3, stored);
+			history.setString(4, value);
+			history.setTimestamp(5, new Timestamp(System.currentTimeMillis()));
+			history.executeUpdate();
+		} finally {
+			close(history);
+		}
+	}
+
+	/** Executes a statement whose only parameter is the filename of a language. */
+	private static void execute(Connection connection, String sql, String filename) throws SQLException {
+		PreparedStatement statement = null;
+		try {
+			statement = connection.prepareStatement(sql);
+			statement.setString(1, filename);
+			statement.executeUpdate();
+		} finally {
+			close(statement);
+		}
+	}
+
+	/** @return <code>true</code> if both values are <code>null</code> or they are equal */
+	private static boolean equal(String one, String two) {
+		return one == null ? two == null : one.equals(two);
+	}
+
+	private static IOException toIOException(String message, SQLException cause) {
+		IOException ex = new IOException(message + ": " + cause.getMessage());
+		ex.initCause(cause);
+		return ex;
+	}
+
+	private static void rollback(Connection connection) {
+		if(connection != null) try { connection.rollback(); } catch(SQLException ex) {}
+	}
+
+	private static void close(Connection connection) {
+		if(connection != null) try { connection.close(); } catch(SQLException ex) {}
+	}
+
+	private static void close(Statement statement) {
+		if(statement != null) try { statement.close(); } catch(SQLException ex) {}
+	}
+
+	private static void close(ResultSet results) {
+		if(results != null) try { results.close(); } catch(SQLException ex) {}
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * 
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * The size, modification time and checksum of a language file at the time it was loaded or saved, used to
+ * tell whether the file has since been changed by something else.
+ */
+final class LanguageFileState {
+//> INSTANCE VARIABLES
+	/** The language file */
+	private final File file;
+	/** Length of the file in bytes */
+	private final long length;
+	/** Modification time of the file */
+	private final long lastModified;
+	/** CRC-32 checksum of the content of the file */
+	private final long checksum;
+
+//> CONSTRUCTORS
+	LanguageFileState(File file, long length, long lastModified, long checksum) {
+		this.file = file;
+		this.length = length;
+		this.lastModified = lastModified;
+		this.checksum = checksum;
+	}
+
+//> ACCESSORS
+	/** @return the language file */
+	File getFile() {
+		return file;
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Checks whether the file is still as it was when this state was recorded.  The length and modification time
+	 * are checked first; the content is only read if they have changed, in case the file was touched but not changed.
+	 * @return <code>true</code> if the content of the file has not changed; <code>false</code> otherwise
+	 * @throws IOException if there was a problem reading the file
+	 */
+	boolean isUnchanged() throws IOException {
+		if(this.file.length() == this.length && this.file.lastModified() == this.lastModified) {
+			return true;
+		}
+		return this.file.exists() && this.file.length() == this.length && checksum(this.file) == this.checksum;
+	}
+
+//> STATIC HELPERS
+	/** @return CRC-32 checksum of the content of the supplied file */
+	static long checksum(File file) throws IOException {
+		CheckedInputStream in = null;
+		try {
+			in = new CheckedInputStream(new FileInputStream(file), new CRC32());
+			byte[] buffer = new byte[8192];
+			while(in.read(buffer) != -1) {}
+			return in.getChecksum().getValue();
+		} finally {
+			if(in != null) try { in.close(); } catch(IOException ex) {}
+		}
+	}
+}
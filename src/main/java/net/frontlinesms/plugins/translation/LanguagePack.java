@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Constants and batch operations for language packs, which hold every language in a single file so that they can
+ * be sent to installations as one small download.  Packs are written with a {@link LanguagePackWriter} and read
+ * with a {@link LanguagePackReader}.
+ * <p>A pack contains, in order:</p>
+ * <ul>
+ * <li>a header: {@link #MAGIC} and {@link #VERSION}</li>
+ * <li>the blocks of each language: up to {@link #BLOCK_SIZE} translations, each stored as the key's number in the
+ * dictionary and the value, compressed together</li>
+ * <li>the dictionary: every key in the pack, compressed, numbered in the order they appear</li>
+ * <li>the index: for each language, its filename and the first key number, offset and length of each of its blocks</li>
+ * <li>a trailer of {@link #TRAILER_LENGTH} bytes: the offset and length of the dictionary, the offset of the index
+ * and {@link #MAGIC}</li>
+ * </ul>
+ * <p>A language directory may contain a pack named {@link #FILENAME}.  Languages are loaded from the pack if they do
+ * not have a file of their own; once such a language is saved, its file is used instead.</p>
+ */
+public final class LanguagePack {
+//> STATIC CONSTANTS
+	/** Name of the language pack in a language directory */
+	public static final String FILENAME = "languages.pack";
+	/** First and last four bytes of a language pack: <code>FLPK</code> */
+	static final int MAGIC = 0x464c504b;
+	/** Version of the format written */
+	static final short VERSION = 1;
+	/** Number of translations compressed together.  Reading one translation decompresses a block of this size. */
+	static final int BLOCK_SIZE = 256;
+	/** Length in bytes of the trailer at the end of a pack */
+	static final int TRAILER_LENGTH = 8 + 4 + 8 + 4;
+	/** Matches the filenames of language files */
+	private static final String LANGUAGE_FILENAME_PATTERN = "frontlineSMS[A-Za-z0-9_]*\\.properties";
+
+//> CONSTRUCTORS
+	/** Static utility class; not instantiable. */
+	private LanguagePack() {}
+
+//> STATIC METHODS
+	/**
+	 * Packs every language file in a directory.
+	 * @param languageDirectory the directory containing the language files
+	 * @param packFile the pack to write
+	 * @return the number of languages packed
+	 * @throws IOException
+	 */
+	public static int pack(File languageDirectory, File packFile) throws IOException {
+		String[] filenames = languageDirectory.list();
+		if(filenames == null) {
+			throw new IOException("Not a language directory: " + languageDirectory.getAbsolutePath());
+		}
+		Arrays.sort(filenames);
+
+		LanguagePackWriter writer = new LanguagePackWriter(new FileOutputStream(packFile));
+		int packed = 0;
+		try {
+			for(String filename : filenames) {
+				if(filename.matches(LANGUAGE_FILENAME_PATTERN)) {
+					TextFileContent content = TextFileContent.getFromFile(FileTranslationStore.CORE_DESCRIPTION, new File(languageDirectory, filename));
+					writer.addLanguage(filename, MasterTranslationFile.getTranslationMap(Collections.singletonList(content)));
+					++packed;
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		return packed;
+	}
+
+	/**
+	 * Writes every language in a pack to its own file.  Files which already exist are only changed where their
+	 * translations differ from the pack.
+	 * @param packFile the pack to read
+	 * @param languageDirectory the directory to write the language files to
+	 * @return the number of languages unpacked
+	 * @throws IOException
+	 */
+	public static int unpack(File packFile, File languageDirectory) throws IOException {
+		LanguagePackReader reader = new LanguagePackReader(packFile);
+		try {
+			for(String filename : reader.getFilenames()) {
+				new MasterTranslationFile(filename, Collections.singletonList(reader.load(filename))).snapshot().saveToDisk(languageDirectory);
+			}
+			return reader.getFilenames().size();
+		} finally {
+			reader.close();
+		}
+	}
+
+//> BATCH
+	/**
+	 * Packs or unpacks languages.
+	 * @param args <code>pack &lt;language directory&gt; &lt;pack file&gt;</code> or
+	 *   <code>unpack &lt;pack file&gt; &lt;language directory&gt;</code>
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length == 3 && args[0].equals("pack")) {
+			int packed = pack(new File(args[1]), new File(args[2]));
+			System.out.println(packed + " language(s) packed into " + args[2] + " (" + new File(args[2]).length() + " bytes)");
+		} else if(args.length == 3 && args[0].equals("unpack")) {
+			int unpacked = unpack(new File(args[1]), new File(args[2]));
+			System.out.println(unpacked + " language(s) unpacked into " + args[2]);
+		} else {
+			System.err.println("Usage: " + LanguagePack.class.getName() + " pack <language directory> <pack file>");
+			System.err.println("       " + LanguagePack.class.getName() + " unpack <pack file> <language directory>");
+		}
+	}
+
+//> INNER CLASSES
+	/** The location of a block of translations in a pack. */
+	static final class Block {
+		/** Number of the first key in the block.  Blocks of a language are in order of key number. */
+		private final int firstKeyNumber;
+		/** Offset of the block from the start of the pack */
+		private final long offset;
+		/** Compressed length of the block in bytes */
+		private final int length;
+
+		Block(int firstKeyNumber, long offset, int length) {
+			this.firstKeyNumber = firstKeyNumber;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		int getFirstKeyNumber() {
+			return firstKeyNumber;
+		}
+
+		long getOffset() {
+			return offset;
+		}
+
+		int getLength() {
+			return length;
+		}
+	}
+}
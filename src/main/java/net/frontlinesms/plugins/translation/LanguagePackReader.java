@@ -0,0 +1,241 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+
+/**
+ * Reads languages from a pack written by a {@link LanguagePackWriter}.
+ * <p>Only the dictionary and the index are read when the pack is opened.  Translations are read from the file when
+ * they are asked for, decompressing only the blocks which contain them, so reading one translation costs one seek
+ * and one block, however many languages the pack holds.</p>
+ */
+public class LanguagePackReader {
+//> INSTANCE VARIABLES
+	/** The pack.  Guarded by <code>this</code>, as reads move its file pointer. */
+	private final RandomAccessFile file;
+	/** Every key in the pack, by number */
+	private final String[] keys;
+	/** Number of each key in the pack */
+	private final Map<String, Integer> keyNumbers;
+	/** Blocks of each language, by filename, in the order the languages were written */
+	private final Map<String, List<LanguagePack.Block>> index;
+
+//> CONSTRUCTORS
+	/**
+	 * Opens a pack and reads its dictionary and index.
+	 * @param packFile
+	 * @throws IOException if the file could not be read or is not a language pack
+	 */
+	public LanguagePackReader(File packFile) throws IOException {
+		this.file = new RandomAccessFile(packFile, "r");
+		try {
+			long length = this.file.length();
+			if(length < 6 + LanguagePack.TRAILER_LENGTH || this.file.readInt() != LanguagePack.MAGIC) {
+				throw new IOException("Not a language pack: " + packFile.getAbsolutePath());
+			}
+			short version = this.file.readShort();
+			if(version != LanguagePack.VERSION) {
+				throw new IOException("Unsupported language pack version " + version + ": " + packFile.getAbsolutePath());
+			}
+			this.file.seek(length - LanguagePack.TRAILER_LENGTH);
+			long dictionaryOffset = this.file.readLong();
+			int dictionaryLength = this.file.readInt();
+			long indexOffset = this.file.readLong();
+			if(this.file.readInt() != LanguagePack.MAGIC) {
+				throw new IOException("Language pack is incomplete: " + packFile.getAbsolutePath());
+			}
+
+			DataInputStream dictionary = new DataInputStream(new ByteArrayInputStream(decompress(read(dictionaryOffset, dictionaryLength))));
+			this.keys = new String[dictionary.readInt()];
+			this.keyNumbers = new HashMap<String, Integer>(this.keys.length * 2);
+			for(int i = 0 ; i < this.keys.length ; ++i) {
+				this.keys[i] = readString(dictionary);
+				this.keyNumbers.put(this.keys[i], i);
+			}
+
+			DataInputStream index = new DataInputStream(new ByteArrayInputStream(read(indexOffset, (int) (length - LanguagePack.TRAILER_LENGTH - indexOffset))));
+			int languageCount = index.readInt();
+			this.index = new LinkedHashMap<String, List<LanguagePack.Block>>();
+			for(int i = 0 ; i < languageCount ; ++i) {
+				String filename = readString(index);
+				int blockCount = index.readInt();
+				List<LanguagePack.Block> blocks = new ArrayList<LanguagePack.Block>(blockCount);
+				for(int j = 0 ; j < blockCount ; ++j) {
+					blocks.add(new LanguagePack.Block(index.readInt(), index.readLong(), index.readInt()));
+				}
+				this.index.put(filename, blocks);
+			}
+		} catch (IOException ex) {
+			close();
+			throw ex;
+		} catch (RuntimeException ex) {
+			close();
+			throw ex;
+		}
+	}
+
+//> ACCESSORS
+	/** @return the filenames of the languages in the pack, in the order they were written */
+	public Set<String> getFilenames() {
+		return Collections.unmodifiableSet(this.index.keySet());
+	}
+
+	/** @return <code>true</code> if the pack contains the language with the supplied filename */
+	public boolean contains(String filename) {
+		return this.index.containsKey(filename);
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Reads one translation, decompressing only the block which contains it.
+	 * @param filename filename of the language
+	 * @param textKey
+	 * @return the translation, or <code>null</code> if the language does not translate the key
+	 * @throws IOException if the pack could not be read
+	 */
+	public String getValue(String filename, String textKey) throws IOException {
+		List<LanguagePack.Block> blocks = getBlocks(filename);
+		Integer keyNumber = this.keyNumbers.get(textKey);
+		if(keyNumber == null) {
+			return null;
+		}
+		// Find the last block starting at or before the key
+		int low = 0;
+		int high = blocks.size() - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			if(blocks.get(middle).getFirstKeyNumber() <= keyNumber) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		if(high < 0) {
+			return null;
+		}
+		return readBlock(blocks.get(high), null, keyNumber);
+	}
+
+	/**
+	 * Reads every translation of a language.
+	 * @param filename filename of the language
+	 * @return the translations of the language, by key
+	 * @throws IOException if the pack could not be read
+	 */
+	public Map<String, String> getTranslations(String filename) throws IOException {
+		Map<String, String> translations = new LinkedHashMap<String, String>();
+		for(LanguagePack.Block block : getBlocks(filename)) {
+			readBlock(block, translations, -1);
+		}
+		return translations;
+	}
+
+	/**
+	 * Reads a language as the content of a language file, for a {@link MasterTranslationFile}.
+	 * @param filename filename of the language
+	 * @return the translations of the language, one <code>key=value</code> line each
+	 * @throws IOException if the pack could not be read
+	 */
+	TextFileContent load(String filename) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for(Entry<String, String> e : getTranslations(filename).entrySet()) {
+			text.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+		}
+		return TextFileContent.getFromText(FileTranslationStore.CORE_DESCRIPTION, text);
+	}
+
+	/** Closes the pack. */
+	public void close() {
+		try { this.file.close(); } catch(IOException ex) {}
+	}
+
+	/** @return the blocks of a language */
+	private List<LanguagePack.Block> getBlocks(String filename) throws IOException {
+		List<LanguagePack.Block> blocks = this.index.get(filename);
+		if(blocks == null) {
+			throw new IOException("Language not in pack: " + filename);
+		}
+		return blocks;
+	}
+
+	/**
+	 * Decompresses a block, and either adds all of its translations to a map or finds the translation of one key.
+	 * @param translations map to add the translations to, or <code>null</code> if only one is wanted
+	 * @param keyNumber number of the key wanted, if <code>translations</code> is <code>null</code>
+	 * @return the translation of the key wanted, or <code>null</code> if it is not in the block or all were wanted
+	 */
+	private String readBlock(LanguagePack.Block block, Map<String, String> translations, int keyNumber) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(decompress(read(block.getOffset(), block.getLength()))));
+		int count = in.readInt();
+		for(int i = 0 ; i < count ; ++i) {
+			int number = in.readInt();
+			if(translations != null) {
+				translations.put(this.keys[number], readString(in));
+			} else if(number == keyNumber) {
+				return readString(in);
+			} else if(number > keyNumber) {
+				return null;
+			} else {
+				in.skipBytes(in.readInt());
+			}
+		}
+		return null;
+	}
+
+	/** @return bytes read from the pack */
+	private synchronized byte[] read(long offset, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		this.file.seek(offset);
+		this.file.readFully(bytes);
+		return bytes;
+	}
+
+//> STATIC HELPERS
+	/** Reads a string written as its length in bytes followed by its UTF-8 encoding. */
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, InternationalisationUtils.CHARSET_UTF8);
+	}
+
+	/** @return the supplied bytes, decompressed */
+	private static byte[] decompress(byte[] compressed) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(compressed.length * 4);
+			byte[] buffer = new byte[8192];
+			while(!inflater.finished()) {
+				int inflated = inflater.inflate(buffer);
+				if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Language pack is corrupt.");
+				}
+				bytes.write(buffer, 0, inflated);
+			}
+			return bytes.toByteArray();
+		} catch (DataFormatException ex) {
+			throw new IOException("Language pack is corrupt: " + ex.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+}
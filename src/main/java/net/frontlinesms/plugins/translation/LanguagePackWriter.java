@@ -0,0 +1,168 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+import java.util.zip.Deflater;
+
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+
+/**
+ * Writes a language pack: every language in a single file, to be read by a {@link LanguagePackReader}.
+ * <p>Languages are written as they are added, so only the language being added is held in memory.  Keys are
+ * replaced by numbers from a dictionary shared by all languages, and each language's translations are compressed
+ * in blocks of {@link LanguagePack#BLOCK_SIZE}, so one translation can be read without decompressing the rest of
+ * the language.  The dictionary and the index of the blocks are written at the end of the pack by {@link #close()}.</p>
+ */
+public class LanguagePackWriter {
+//> INSTANCE VARIABLES
+	/** Stream the pack is written to.  Its {@link DataOutputStream#size()} is the offset of the next byte written. */
+	private final DataOutputStream out;
+	/** Number of each key, in the order they were first added */
+	private final Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+	/** Blocks of each language added so far, by filename */
+	private final Map<String, List<LanguagePack.Block>> index = new LinkedHashMap<String, List<LanguagePack.Block>>();
+
+//> CONSTRUCTORS
+	/**
+	 * Starts writing a language pack.
+	 * @param out stream to write the pack to; it is closed by {@link #close()}
+	 * @throws IOException
+	 */
+	public LanguagePackWriter(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+		this.out.writeInt(LanguagePack.MAGIC);
+		this.out.writeShort(LanguagePack.VERSION);
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Adds a language to the pack.
+	 * @param filename filename of the language file
+	 * @param translations the translations of the language
+	 * @throws IOException
+	 */
+	public void addLanguage(String filename, Map<String, String> translations) throws IOException {
+		if(this.index.containsKey(filename)) {
+			throw new IllegalArgumentException("Language already added to the pack: " + filename);
+		}
+		// Translations are written in order of key number, so each block covers a range of key numbers
+		TreeMap<Integer, String> byKeyNumber = new TreeMap<Integer, String>();
+		for(Entry<String, String> e : translations.entrySet()) {
+			byKeyNumber.put(getKeyNumber(e.getKey()), e.getValue());
+		}
+
+		List<LanguagePack.Block> blocks = new ArrayList<LanguagePack.Block>();
+		List<Entry<Integer, String>> block = new ArrayList<Entry<Integer, String>>(LanguagePack.BLOCK_SIZE);
+		for(Entry<Integer, String> e : byKeyNumber.entrySet()) {
+			block.add(e);
+			if(block.size() == LanguagePack.BLOCK_SIZE) {
+				blocks.add(writeBlock(block));
+				block.clear();
+			}
+		}
+		if(!block.isEmpty()) {
+			blocks.add(writeBlock(block));
+		}
+		this.index.put(filename, blocks);
+	}
+
+	/**
+	 * Writes the dictionary and the index, and closes the pack.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			long dictionaryOffset = this.out.size();
+			ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream();
+			DataOutputStream dictionaryOut = new DataOutputStream(dictionaryBytes);
+			dictionaryOut.writeInt(this.dictionary.size());
+			for(String key : this.dictionary.keySet()) {
+				writeString(dictionaryOut, key);
+			}
+			byte[] dictionary = compress(dictionaryBytes.toByteArray());
+			this.out.write(dictionary);
+
+			long indexOffset = this.out.size();
+			this.out.writeInt(this.index.size());
+			for(Entry<String, List<LanguagePack.Block>> e : this.index.entrySet()) {
+				writeString(this.out, e.getKey());
+				this.out.writeInt(e.getValue().size());
+				for(LanguagePack.Block block : e.getValue()) {
+					this.out.writeInt(block.getFirstKeyNumber());
+					this.out.writeLong(block.getOffset());
+					this.out.writeInt(block.getLength());
+				}
+			}
+
+			this.out.writeLong(dictionaryOffset);
+			this.out.writeInt(dictionary.length);
+			this.out.writeLong(indexOffset);
+			this.out.writeInt(LanguagePack.MAGIC);
+		} finally {
+			this.out.close();
+		}
+	}
+
+	/** @return the number of a key in the dictionary, adding it if it is not already there */
+	private int getKeyNumber(String key) {
+		Integer number = this.dictionary.get(key);
+		if(number == null) {
+			number = this.dictionary.size();
+			this.dictionary.put(key, number);
+		}
+		return number;
+	}
+
+	/** Compresses and writes a block of translations. */
+	private LanguagePack.Block writeBlock(List<Entry<Integer, String>> translations) throws IOException {
+		ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+		DataOutputStream blockOut = new DataOutputStream(blockBytes);
+		blockOut.writeInt(translations.size());
+		for(Entry<Integer, String> e : translations) {
+			blockOut.writeInt(e.getKey());
+			writeString(blockOut, e.getValue());
+		}
+		byte[] compressed = compress(blockBytes.toByteArray());
+
+		LanguagePack.Block block = new LanguagePack.Block(translations.get(0).getKey(), this.out.size(), compressed.length);
+		this.out.write(compressed);
+		return block;
+	}
+
+//> STATIC HELPERS
+	/** Writes a string as its length in bytes followed by its UTF-8 encoding, so that it is not limited in length. */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(InternationalisationUtils.CHARSET_UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/** @return the supplied bytes, compressed */
+	private static byte[] compress(byte[] bytes) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2 + 16);
+			byte[] buffer = new byte[8192];
+			while(!deflater.finished()) {
+				compressed.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+}
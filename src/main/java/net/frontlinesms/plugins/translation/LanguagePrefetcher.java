@@ -0,0 +1,114 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+
+/**
+ * Loads languages in the background which the translation tab is likely to show next, so that selecting one of
+ * them only has to swap in a language which is already loaded.
+ * <p>Languages are loaded one at a time on a low priority thread, and kept in a {@link MasterTranslationFileCache}
+ * within its memory budget.  Each request replaces any earlier requests which have not yet started, as the
+ * selection has moved on since they were made.</p>
+ */
+class LanguagePrefetcher {
+//> STATIC CONSTANTS
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(LanguagePrefetcher.class);
+
+//> INSTANCE VARIABLES
+	/** Prepares loaded languages to be shown */
+	private final Preparer preparer;
+	/** Keeps the loaded languages */
+	private final MasterTranslationFileCache cache;
+	/** Loads languages, one at a time */
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Translation prefetch");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+	/** Number of the latest request.  Loads for earlier requests are skipped. */
+	private final AtomicInteger request = new AtomicInteger();
+
+//> CONSTRUCTORS
+	/**
+	 * @param preparer prepares loaded languages to be shown
+	 * @param cache keeps the loaded languages
+	 */
+	LanguagePrefetcher(Preparer preparer, MasterTranslationFileCache cache) {
+		this.preparer = preparer;
+		this.cache = cache;
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Loads and prepares languages in the background, unless they are already loaded.  Languages being edited are
+	 * already in memory, so are only prepared.
+	 * @param identifiers identifiers of the languages, most likely to be shown first
+	 */
+	void prefetch(List<String> identifiers) {
+		if(this.executor.isShutdown()) {
+			return;
+		}
+		final int requestNumber = this.request.incrementAndGet();
+		for(final String identifier : identifiers) {
+			this.executor.execute(new Runnable() {
+				public void run() {
+					if(request.get() != requestNumber) {
+						// a later request has been made, so this language is no longer likely to be needed
+						return;
+					}
+					try {
+						load(identifier);
+					} catch (RuntimeException ex) {
+						LOG.warn("Unable to prefetch language: " + identifier, ex);
+					}
+				}
+			});
+		}
+	}
+
+	/** Stops loading languages. */
+	void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	/** Loads and prepares a language, or prepares the copy being edited. */
+	private void load(String identifier) {
+		MasterTranslationFile edited = this.preparer.getEdited(identifier);
+		if(edited != null) {
+			this.preparer.prepare(edited);
+			return;
+		}
+		if(this.cache.contains(identifier)) {
+			return;
+		}
+		SelectedLanguageSession.Entry entry = SelectedLanguageSession.Entry.load(identifier);
+		this.preparer.prepare(entry.getLanguageBundle());
+		this.cache.put(entry);
+	}
+
+//> INNER CLASSES
+	/** Prepares languages to be shown, on the prefetch thread. */
+	interface Preparer {
+		/** @return the copy of a language being edited, or <code>null</code> if the language is not being edited */
+		MasterTranslationFile getEdited(String identifier);
+		/**
+		 * Prepares a language to be shown, e.g. by loading what is kept about it besides its translations.
+		 * @param languageBundle the language, which may be being edited meanwhile
+		 */
+		void prepare(MasterTranslationFile languageBundle);
+	}
+}
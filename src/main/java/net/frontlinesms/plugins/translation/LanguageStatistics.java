@@ -0,0 +1,178 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+
+/**
+ * How complete the translation of a language is: how many of the keys of the default translation it translates,
+ * how many of those translations are stale, and how many have unsaved edits.
+ * <p>Statistics are immutable, so may be shared between threads.  Once calculated, they can be kept up to date as
+ * translations are edited with {@link #update(boolean, boolean, boolean, boolean, boolean, boolean)}, without
+ * going through the language again.</p>
+ */
+public class LanguageStatistics {
+//> STATIC CONSTANTS
+	/** Prefix of the keys describing the language itself, which are not counted */
+	private static final String BUNDLE_PROPERTIES_PREFIX = "bundle.";
+	/** Header line of the report written by {@link #main(String[])} */
+	private static final String REPORT_HEADER = "filename,language,total,translated,missing,stale,complete";
+
+//> INSTANCE VARIABLES
+	/** Number of keys in the default translation */
+	private final int total;
+	/** Number of keys of the default translation which the language does not translate */
+	private final int missing;
+	/** Number of translations whose default value has changed since they were translated */
+	private final int stale;
+	/** Number of translations with unsaved edits */
+	private final int edited;
+
+//> CONSTRUCTORS
+	LanguageStatistics(int total, int missing, int stale, int edited) {
+		this.total = total;
+		this.missing = missing;
+		this.stale = stale;
+		this.edited = edited;
+	}
+
+//> ACCESSORS
+	/** @return the number of keys in the default translation */
+	public int getTotal() {
+		return total;
+	}
+
+	/** @return the number of keys of the default translation which the language translates */
+	public int getTranslated() {
+		return total - missing;
+	}
+
+	/** @return the number of keys of the default translation which the language does not translate */
+	public int getMissing() {
+		return missing;
+	}
+
+	/** @return the number of translations whose default value has changed since they were translated */
+	public int getStale() {
+		return stale;
+	}
+
+	/** @return the number of translations with unsaved edits */
+	public int getEdited() {
+		return edited;
+	}
+
+	/** @return the percentage of keys translated, rounded down so that only a complete language shows 100% */
+	public int getPercentComplete() {
+		return total == 0 ? 100 : (int) (getTranslated() * 100L / total);
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Gets the statistics after the translation of one key has been edited.
+	 * @param wasMissing <code>true</code> if the key had no translation before the edit
+	 * @param isMissing <code>true</code> if the key has no translation after the edit
+	 * @param wasStale <code>true</code> if the translation was stale before the edit
+	 * @param isStale <code>true</code> if the translation is stale after the edit
+	 * @param wasEdited <code>true</code> if the key had unsaved changes before the edit
+	 * @param isEdited <code>true</code> if the key has unsaved changes after the edit
+	 * @return the updated statistics
+	 */
+	LanguageStatistics update(boolean wasMissing, boolean isMissing, boolean wasStale, boolean isStale, boolean wasEdited, boolean isEdited) {
+		if(wasMissing == isMissing && wasStale == isStale && wasEdited == isEdited) {
+			return this;
+		}
+		return new LanguageStatistics(this.total,
+				this.missing + (isMissing ? 1 : 0) - (wasMissing ? 1 : 0),
+				this.stale + (isStale ? 1 : 0) - (wasStale ? 1 : 0),
+				this.edited + (isEdited ? 1 : 0) - (wasEdited ? 1 : 0));
+	}
+
+	/** @return the statistics after the language has been saved, so that it has no unsaved edits */
+	LanguageStatistics saved() {
+		return this.edited == 0 ? this : new LanguageStatistics(this.total, this.missing, this.stale, 0);
+	}
+
+	@Override
+	public String toString() {
+		return getTranslated() + "/" + total + " translated (" + getPercentComplete() + "%), "
+				+ missing + " missing, " + stale + " stale, " + edited + " edited";
+	}
+
+//> STATIC FACTORIES
+	/**
+	 * Calculates the statistics of a language.  The missing translations are counted from the language's live set of
+	 * missing keys, which is first compared against the default translation if it has not been already.
+	 * @param lang the language
+	 * @param defaults the default translation
+	 * @param staleKeys the keys whose translations are stale
+	 * @param edited the number of translations with unsaved edits
+	 * @return the statistics of the language
+	 */
+	static LanguageStatistics calculate(MasterTranslationFile lang, TranslationKeyIndex defaults, Set<String> staleKeys, int edited) {
+		TranslationTableModel.setReferenceKeys(lang, defaults);
+		return new LanguageStatistics(defaults.size(), lang.getMissingCount(), staleKeys.size(), edited);
+	}
+
+//> BATCH
+	/**
+	 * Writes a report of the statistics of every language in the languages directory, as comma-separated values.
+	 * @param args the file to write the report to; it is written to standard output if none is given
+	 * @throws IOException if the report could not be written
+	 */
+	public static void main(String[] args) throws IOException {
+		TranslationKeyIndex defaults = new TranslationKeyIndex(MasterTranslationFile.getDefault(), BUNDLE_PROPERTIES_PREFIX);
+		List<MasterTranslationFile> languageBundles = (List<MasterTranslationFile>) MasterTranslationFile.getAll();
+		Collections.sort(languageBundles);
+
+		FileOutputStream fos = null;
+		OutputStreamWriter osw = null;
+		PrintWriter out = null;
+		try {
+			if(args.length > 0) {
+				fos = new FileOutputStream(args[0]);
+				osw = new OutputStreamWriter(fos, InternationalisationUtils.CHARSET_UTF8);
+				out = new PrintWriter(osw);
+			} else {
+				out = new PrintWriter(System.out);
+			}
+			out.write(REPORT_HEADER + "\n");
+			for(MasterTranslationFile languageBundle : languageBundles) {
+				Map<String, String> translations = languageBundle.getProperties();
+				Set<String> staleKeys = SourceFingerprintIndex.load(languageBundle.getFilename()).getStaleKeys(defaults, translations);
+				LanguageStatistics statistics = calculate(languageBundle, defaults, staleKeys, 0);
+				out.write(languageBundle.getFilename() + "," + quote(languageBundle.getLanguageName()) + "," + statistics.getTotal()
+						+ "," + statistics.getTranslated() + "," + statistics.getMissing() + "," + statistics.getStale()
+						+ "," + statistics.getPercentComplete() + "\n");
+			}
+			out.flush();
+			if(out.checkError()) {
+				throw new IOException("Unable to write language statistics report.");
+			}
+		} finally {
+			if(fos != null) {
+				out.close();
+				if(osw != null) try { osw.close(); } catch(IOException ex) {}
+				try { fos.close(); } catch(IOException ex) {}
+			}
+		}
+	}
+
+	/** @return the value quoted for a comma-separated values file, if it needs to be */
+	private static String quote(String value) {
+		if(value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+			return value;
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * 
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.events.EventBus;
+import net.frontlinesms.events.EventObserver;
+import net.frontlinesms.events.FrontlineEventNotification;
+import net.frontlinesms.ui.FrontlineUI;
+import net.frontlinesms.ui.UiGeneratorController;
+import net.frontlinesms.ui.i18n.FileLanguageBundle;
+import net.frontlinesms.ui.i18n.LanguageBundle;
+import thinlet.Thinlet;
+
+/**
+ * Applies saved translations of the language the UI is currently shown in to the running UI, so that the
+ * translator can see them without reloading the whole UI.
+ * <p>Saved values are put into {@link FrontlineUI#currentResourceBundle}, and the changed keys are published
+ * as a single {@link TranslationsChangedNotification}.  When that notification is received, only the
+ * components whose text is the previous value of a changed translation are updated.  Components only show text,
+ * not the key it was translated from, so this is only done where no other translation had the same value.</p>
+ * <p>Some changes cannot be applied in place, e.g. translations which have been removed, translations whose
+ * previous value was shared with another translation, language properties such as the font, and text which was
+ * built from a translation with arguments.  The UI must still be reloaded to see these.</p>
+ */
+class LiveTranslationUpdater implements EventObserver {
+//> STATIC CONSTANTS
+	/** Prefix of the keys describing the language rather than translating text */
+	private static final String BUNDLE_PROPERTIES_PREFIX = "bundle.";
+	/** Thinlet classes whose <code>text</code> property is a translation, rather than user data */
+	private static final String[] TRANSLATED_CLASSES = {
+		"button", "checkbox", "checkboxmenuitem", "dialog", "label", "menu", "menuitem", "panel", "tab", "togglebutton",
+	};
+	/** Thinlet properties which may hold a translation */
+	private static final String[] TRANSLATED_PROPERTIES = { "text", "tooltip" };
+
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(LiveTranslationUpdater.class);
+
+//> INSTANCE VARIABLES
+	private final UiGeneratorController ui;
+	private final EventBus eventBus;
+
+//> CONSTRUCTORS
+	LiveTranslationUpdater(UiGeneratorController ui, EventBus eventBus) {
+		this.ui = ui;
+		this.eventBus = eventBus;
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Applies the changes in a saved language to the running UI, if the UI is shown in that language.
+	 * @param languageBundle a language which has just been saved
+	 * @return <code>true</code> if the UI must still be reloaded to show all of the saved changes; <code>false</code> otherwise
+	 */
+	boolean translationsSaved(MasterTranslationFile languageBundle) {
+		LanguageBundle live = FrontlineUI.currentResourceBundle;
+		if(!(live instanceof FileLanguageBundle)
+				|| !((FileLanguageBundle) live).getFile().getName().equals(languageBundle.getFilename())) {
+			return false;
+		}
+
+		TranslationSnapshot snapshot = languageBundle.snapshot();
+		Map<String, String> liveProperties = live.getProperties();
+		Map<String, String> previousValues = new HashMap<String, String>();
+		Map<String, String> newValues = new HashMap<String, String>();
+		Set<String> uniqueKeys = new HashSet<String>();
+		Map<String, Integer> valueCounts = null;
+		boolean reloadRequired = false;
+		for(String textKey : new HashSet<String>(snapshot.getChanges())) {
+			String value = snapshot.getProperties().get(textKey);
+			if(value == null || value.length() == 0 || textKey.startsWith(BUNDLE_PROPERTIES_PREFIX)) {
+				reloadRequired = true;
+				continue;
+			}
+			String previousValue = liveProperties.get(textKey);
+			if(!value.equals(previousValue)) {
+				previousValues.put(textKey, previousValue);
+				newValues.put(textKey, value);
+				if(previousValue != null) {
+					if(valueCounts == null) {
+						valueCounts = countValues(liveProperties);
+					}
+					if(valueCounts.get(previousValue).intValue() == 1) {
+						uniqueKeys.add(textKey);
+					} else {
+						// components showing the previous value may be showing another translation
+						reloadRequired = true;
+					}
+				}
+			}
+		}
+
+		try {
+			liveProperties.putAll(newValues);
+		} catch (UnsupportedOperationException ex) {
+			LOG.info("The current language cannot be changed in place, so the UI must be reloaded.");
+			return true;
+		}
+		if(!newValues.isEmpty()) {
+			this.eventBus.notifyObservers(new TranslationsChangedNotification(languageBundle.getFilename(), previousValues, newValues, uniqueKeys));
+		}
+		return reloadRequired;
+	}
+
+	/** Updates the components showing translations which have changed. */
+	public void notify(FrontlineEventNotification notification) {
+		if(notification instanceof TranslationsChangedNotification) {
+			TranslationsChangedNotification changes = (TranslationsChangedNotification) notification;
+			Map<String, String> replacements = new HashMap<String, String>();
+			for(String textKey : changes.getChangedKeys()) {
+				String previousValue = changes.getPreviousValue(textKey);
+				if(previousValue != null && changes.isPreviousValueUnique(textKey)) {
+					replacements.put(previousValue, changes.getNewValue(textKey));
+				}
+			}
+			if(!replacements.isEmpty()) {
+				updateComponents(this.ui.getDesktop(), replacements);
+			}
+		}
+	}
+
+	/** Replaces the text of the supplied component and its descendants wherever it is a replaced translation. */
+	private void updateComponents(Object component, Map<String, String> replacements) {
+		if(isTranslated(Thinlet.getClass(component))) {
+			for(String property : TRANSLATED_PROPERTIES) {
+				String replacement = replacements.get(this.ui.getString(component, property));
+				if(replacement != null) {
+					this.ui.setString(component, property, replacement);
+				}
+			}
+		}
+		for(Object child : this.ui.getItems(component)) {
+			updateComponents(child, replacements);
+		}
+	}
+
+	/** @return the number of translations with each value */
+	private static Map<String, Integer> countValues(Map<String, String> properties) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for(String value : properties.values()) {
+			Integer count = counts.get(value);
+			counts.put(value, count == null ? 1 : count + 1);
+		}
+		return counts;
+	}
+
+	/** @return <code>true</code> if the text of components of the supplied Thinlet class is a translation */
+	private static boolean isTranslated(String thinletClass) {
+		for(String translatedClass : TRANSLATED_CLASSES) {
+			if(translatedClass.equals(thinletClass)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -3,29 +3,42 @@
  */
 package net.frontlinesms.plugins.translation;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.Map.Entry;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 import org.apache.log4j.Logger;
 
 import net.frontlinesms.FrontlineUtils;
 import net.frontlinesms.plugins.PluginController;
+import net.frontlinesms.plugins.PluginControllerProperties;
 import net.frontlinesms.plugins.PluginProperties;
 import net.frontlinesms.plugins.translation.KeyNotFoundException;
 import net.frontlinesms.plugins.translation.MasterTranslationFile;
@@ -35,6 +48,10 @@ import net.frontlinesms.ui.i18n.*;
 
 /**
  * This creates a master translation file, containing translation for FrontlineSMS core and all available plugins.
+ * <p>Edits are made through the mutator methods of this class, which are serialised by a write lock.  The
+ * accessors take the read lock, or read from a {@link #snapshot()}, so they may be called from any thread.  Work
+ * which reads many translations away from the thread doing the editing, e.g. saving or validating, should read
+ * from a single {@link #snapshot()} so that it sees a consistent set of translations.</p>
  * @author Alex <alex@frontlinesms.com>
  * @author Morgan <morgan@frontlinesms.com>
  */
@@ -42,6 +59,10 @@ public class MasterTranslationFile extends LanguageBundle implements Comparable<
 //> STATIC CONSTANTS
 	/** prefix applied in {@link #getIdentifier()} */
 	private static final String IDENTIFIER_PREFIX = "master:";
+	/** System property: directory the languages are edited in, instead of FrontlineSMS's language directory, e.g. for tests */
+	static final String PROPERTY_LANGUAGE_DIRECTORY = "frontlinesms.translation.languageDirectory";
+	/** Pattern which the filename of a language other than the default must match */
+	private static final String LANGUAGE_FILENAME_PATTERN = "frontlineSMS_[A-Za-z0-9_]+\\.properties";
 
 	/** Logging object */
 	private static final Logger LOG = FrontlineUtils.getLogger(MasterTranslationFile.class);
@@ -50,16 +71,44 @@ public class MasterTranslationFile extends LanguageBundle implements Comparable<
 	private String filename;
 	
 	private final List<TextFileContent> translationFiles;
+	/** Translation files whose translations have not yet been added to the properties of this bundle, in order */
+	private final List<TextFileContent> pendingTranslationFiles;
 
 	private ArrayList<String> changes;
 	
+	/** Keys of the reference translation, usually the default translation, or <code>null</code> if no reference has been set */
+	private Set<String> referenceKeys;
+	/**
+	 * Keys of the {@link #referenceKeys} which have no value in the translation files loaded so far.  Kept up to date
+	 * as this file is edited, and as each pending translation file is loaded.
+	 */
+	private final Set<String> missingKeys = new HashSet<String>();
+	
+	/** Serialises edits, and stops them from happening while a {@link #snapshot()} is being taken. */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	/** The latest snapshot of this file, or <code>null</code> if it has been edited since the last snapshot was taken. */
+	private volatile TranslationSnapshot snapshot;
+	
+	/** State of the language file when it was loaded or last saved, or <code>null</code> if this was not loaded from a language file */
+	private LanguageFileState sourceState;
+	/** The snapshot which was last saved, or <code>null</code> if this has not been saved since it was loaded */
+	private TranslationSnapshot savedSnapshot;
+	/** The store this was loaded from, and is saved to by {@link #save()}, or <code>null</code> if it was not loaded from a store */
+	private TranslationStore store;
 
 	//> CONSTRUCTORS
 	public MasterTranslationFile(String filename, List<TextFileContent> translationFiles) {
-		super(getTranslationMap(translationFiles));
+		super(new SectionedTranslationMap(translationFiles));
 		this.filename = filename;
 		this.translationFiles = translationFiles;
+		this.pendingTranslationFiles = new ArrayList<TextFileContent>();
+		for(TextFileContent translationFile : translationFiles) {
+			if(!translationFile.isLoaded()) {
+				this.pendingTranslationFiles.add(translationFile);
+			}
+		}
 		this.changes = new ArrayList<String>();
+		this.sourceState = translationFiles.isEmpty() ? null : translationFiles.get(0).getSourceState();
 	}
 	
 //> ACCESSORS
@@ -69,81 +118,304 @@ public class MasterTranslationFile extends LanguageBundle implements Comparable<
 	}
 	
 	/**
-	 * Save the MTF to a file 
-	 * @throws IOException
+	 * Gets the value of a translation, first loading the plugin translation file which should contain it if
+	 * that file has not yet been loaded.
+	 * @see LanguageBundle#getValue(String)
+	 */
+	@Override
+	public String getValue(String key) throws MissingResourceException {
+		String value = get(key);
+		if(value == null) {
+			throw new MissingResourceException("Translation not found: " + key, getClass().getName(), key);
+		}
+		return value;
+	}
+	
+	/**
+	 * Gets the value of a translation, first loading the plugin translation file which should contain it if
+	 * that file has not yet been loaded.
+	 * @param textKey
+	 * @return the value of the translation, or <code>null</code> if it is not defined in this file
 	 */
-	void saveToDisk(File targetDirectory) throws IOException {
-		FileOutputStream fos = null;
-		OutputStreamWriter osw = null;
-		PrintWriter out = null;
+	public String get(String textKey) {
+		loadTranslationFilesFor(textKey);
+		lock.readLock().lock();
 		try {
-			File file = new File(targetDirectory, this.filename);
-			fos = new FileOutputStream(file);
-			osw = new OutputStreamWriter(fos, InternationalisationUtils.CHARSET_UTF8);
-			out = new PrintWriter(osw);
+			return super.getProperties().get(textKey);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Gets all translations in this bundle.  This loads any plugin translation files which have not yet been loaded.
+	 * @return the translations of the latest {@link #snapshot()}, which are not changed by later edits
+	 * @see LanguageBundle#getProperties()
+	 */
+	@Override
+	public Map<String, String> getProperties() {
+		return snapshot().getProperties();
+	}
+	
+	/**
+	 * Sets the keys this file is compared against to find missing translations, and works out which of them are
+	 * missing from the translation files loaded so far.  No translation files are loaded; the keys of each pending
+	 * file are checked off as it is loaded.  This should be called again whenever the reference keys change.
+	 * @param referenceKeys the keys of the reference translation; this set should not be modified afterwards
+	 */
+	public void setReferenceKeys(Set<String> referenceKeys) {
+		beginEdit();
+		try {
+			this.referenceKeys = referenceKeys;
+			this.missingKeys.clear();
+			Map<String, String> properties = super.getProperties();
+			for(String key : referenceKeys) {
+				String value = properties.get(key);
+				if(value == null || value.length() == 0) {
+					this.missingKeys.add(key);
+				}
+			}
+		} finally {
+			endEdit();
+		}
+	}
+	
+	/** @return the keys set with {@link #setReferenceKeys(Set)}, or <code>null</code> if they have not been set */
+	public Set<String> getReferenceKeys() {
+		lock.readLock().lock();
+		try {
+			return referenceKeys;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Gets the reference keys which have no translation in this file.  This loads any plugin translation files which
+	 * have not yet been loaded, so that their keys are checked off; use {@link #isMissing(String)} to check single keys.
+	 * @return a copy of the reference keys which have no translation in this file.  Empty if no reference keys have been set.
+	 */
+	public Set<String> getMissingKeys() {
+		loadAllTranslationFiles();
+		lock.readLock().lock();
+		try {
+			return Collections.unmodifiableSet(new HashSet<String>(this.missingKeys));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Counts the reference keys which have no translation in this file, loading any plugin translation files which
+	 * have not yet been loaded.
+	 * @return the number of {@link #getMissingKeys()}
+	 */
+	public int getMissingCount() {
+		loadAllTranslationFiles();
+		lock.readLock().lock();
+		try {
+			return this.missingKeys.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Checks whether a key has no translation in this file.  Only the translation files which may contain the key
+	 * are loaded.  Reference keys are looked up in the live set of missing keys; other keys are checked by value.
+	 * @param textKey
+	 * @return <code>true</code> if the key has no translation, or its translation is empty
+	 */
+	public boolean isMissing(String textKey) {
+		loadTranslationFilesFor(textKey);
+		lock.readLock().lock();
+		try {
+			if(this.referenceKeys != null && this.referenceKeys.contains(textKey)) {
+				return this.missingKeys.contains(textKey);
+			}
+			String value = super.getProperties().get(textKey);
+			return value == null || value.length() == 0;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Estimates the memory retained by the translation files of this which have been loaded.  Files which have
+	 * not been loaded are not counted, and are not loaded.
+	 * @return an estimate of the retained memory, in bytes
+	 */
+	long estimateLoadedSize() {
+		lock.readLock().lock();
+		try {
+			long size = 0;
 			for(TextFileContent translationFile : this.translationFiles) {
-				for(String line : translationFile.getLines()) {
-					out.write(line + "\n");
+				if(translationFile.isLoaded()) {
+					size += translationFile.estimateSize();
 				}
-				out.write("\n");
 			}
+			return size;
 		} finally {
-			if(out != null) out.close();
-			if(osw != null) try { osw.close(); } catch(IOException ex) {}
-			if(fos != null) try { fos.close(); } catch(IOException ex) {}
+			lock.readLock().unlock();
 		}
 	}
-
-//> STATIC HELPERS
-	/** @return map of key-value pairs of translations found in the MTF */
-	private static Map<String, String> getTranslationMap(List<TextFileContent> translationFiles) {
-		HashMap<String, String> translations = new HashMap<String, String>();
-		for(TextFileContent file : translationFiles) {
-			for(String line : file.getLines()) {
-				line = line.trim();
-				if(line.length() > 0 && line.charAt(0)!='#') {
-					int eqIndex = line.indexOf('=');
-					if (eqIndex < 0) {
-						// In case a line doesn't use the "property=value" format
-						continue;
-					}
-					// Do not overwrite entries from previous file contents
-					String key = line.substring(0, eqIndex);
-					String value = line.substring(eqIndex+1);
-					if(!translations.containsKey(key)) {
-						translations.put(key, value);
-					} else {
-						LOG.trace("Omitting overridden translation: " + key + "=" + value);
-					}
+	
+	/**
+	 * Gets an immutable snapshot of the current state of this file.  The snapshot is shared by all callers
+	 * until the next edit, so repeated calls without intervening edits are cheap.
+	 * @return a snapshot of the current state of this file
+	 */
+	public TranslationSnapshot snapshot() {
+		TranslationSnapshot snapshot = this.snapshot;
+		if(snapshot == null) {
+			loadAllTranslationFiles();
+			lock.readLock().lock();
+			try {
+				snapshot = new TranslationSnapshot(this.filename, this.translationFiles, this.changes);
+				this.snapshot = snapshot;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * Saves this to the store it was loaded from, or to the language directory's store if it was created in memory.
+	 * @throws TranslationConflictException if translations were changed both in the store and here
+	 * @throws IOException
+	 */
+	void save() throws IOException {
+		TranslationStore store = this.store;
+		if(store == null) {
+			store = getStore(getLanguageDirectory());
+		}
+		store.save(this);
+	}
+	
+	/**
+	 * Save the MTF to a file.
+	 * <p>If this was loaded from the file being saved, and the file has been changed by something else since it
+	 * was loaded or last saved, the changes made on disk are merged into this first.  The save is stopped if a
+	 * translation edited here was also changed on disk.</p>
+	 * @throws TranslationConflictException if translations were changed both on disk and here
+	 * @throws IOException
+	 */
+	synchronized void saveToDisk(File targetDirectory) throws IOException {
+		File file = new File(targetDirectory, this.filename);
+		if(this.sourceState != null && this.sourceState.getFile().equals(file) && file.exists() && !this.sourceState.isUnchanged()) {
+			mergeChangesOnDisk(file);
+		}
+		TranslationSnapshot snapshot = snapshot();
+		this.sourceState = snapshot.saveToDisk(targetDirectory);
+		setLastSaved(snapshot);
+	}
+	
+	/** @return the translations as they were last saved, or as they were loaded if they have not been saved since */
+	synchronized Map<String, String> getLastSavedTranslations() {
+		return this.savedSnapshot != null ? this.savedSnapshot.getProperties() : this.translationFiles.get(0).getOriginalTranslations();
+	}
+	
+	/** @return the snapshot of this which was last saved, or <code>null</code> if it has not been saved */
+	synchronized TranslationSnapshot getLastSaved() {
+		return this.savedSnapshot;
+	}
+	
+	/** Records that the supplied snapshot of this has been saved */
+	synchronized void setLastSaved(TranslationSnapshot snapshot) {
+		this.savedSnapshot = snapshot;
+	}
+	
+	/**
+	 * Merges translations changed in a language file since it was loaded or last saved into this.  Translations
+	 * edited here are not changed.
+	 * @throws TranslationConflictException if translations edited here have also been changed in the file
+	 */
+	private void mergeChangesOnDisk(File file) throws IOException {
+		LOG.info("Language file changed on disk since it was loaded: " + file.getAbsolutePath());
+		Map<String, String> onDisk = getTranslationMap(Collections.singletonList(TextFileContent.getFromStream(this.filename, new FileInputStream(file))));
+		Map<String, String> base = getLastSavedTranslations();
+		
+		loadAllTranslationFiles();
+		beginEdit();
+		try {
+			Map<String, String> properties = super.getProperties();
+			Map<String, String> merged = new HashMap<String, String>();
+			Set<String> conflicts = new TreeSet<String>();
+			Set<String> keys = new HashSet<String>(base.keySet());
+			keys.addAll(onDisk.keySet());
+			for(String key : keys) {
+				String diskValue = onDisk.get(key);
+				if(equal(diskValue, base.get(key)) || equal(diskValue, properties.get(key))) {
+					// Not changed on disk, or changed to the same value as here
+					continue;
+				}
+				if(this.changes.contains(key) && !equal(properties.get(key), base.get(key))) {
+					// Edited here since it was last loaded or saved
+					conflicts.add(key);
+				} else {
+					merged.put(key, diskValue);
 				}
 			}
+			if(!conflicts.isEmpty()) {
+				throw new TranslationConflictException(this.filename, conflicts);
+			}
+			
+			for(Entry<String, String> e : merged.entrySet()) {
+				if(e.getValue() == null) {
+					properties.remove(e.getKey());
+				} else {
+					properties.put(e.getKey(), e.getValue());
+				}
+				updateMissing(e.getKey());
+			}
+			LOG.info("Merged " + merged.size() + " translations changed on disk into " + this.filename);
+		} finally {
+			endEdit();
 		}
-		return translations;
+	}
+
+//> STATIC HELPERS
+	/** @return <code>true</code> if both values are <code>null</code> or they are equal */
+	private static boolean equal(String one, String two) {
+		return one == null ? two == null : one.equals(two);
+	}
+	
+	/** @return a copy of the key-value pairs of translations found in the loaded files */
+	static Map<String, String> getTranslationMap(List<TextFileContent> translationFiles) {
+		return new HashMap<String, String>(new SectionedTranslationMap(translationFiles));
 	}
 	
 //> STATIC FACTORIES
 	/**
-	 * <p>Creates a {@link MasterTranslationFile} for each {@link FileLanguageBundle} found in the languages directory.</p>
+	 * <p>Creates a {@link MasterTranslationFile} for each of the {@link #getLanguageFiles()}, and for each language in
+	 * the directory's {@link LanguagePack} which does not have a file of its own.</p>
 	 * <p>N.B. This does not create a {@link MasterTranslationFile} for the default language bundle.  This can be fetched
 	 * by calling the {@link #getDefault()} method.</p>
-	 * @return a {@link MasterTranslationFile} for each {@link FileLanguageBundle} found in the languages directory.
+	 * @return a {@link MasterTranslationFile} for each language found in the languages directory.
 	 */
 	public static Collection<MasterTranslationFile> getAll() {
 		ArrayList<MasterTranslationFile> all = new ArrayList<MasterTranslationFile>();
-		for(FileLanguageBundle languageBundle : InternationalisationUtils.getLanguageBundles()) {
-			all.add(get(languageBundle));
+		for(File file : getLanguageFiles()) {
+			all.add(get(file, getLocale(file.getName())));
+		}
+		for(File file : getPackedLanguageFiles()) {
+			all.add(get(file, getLocale(file.getName())));
 		}
 		return all;
 	}
 	
 	/**
 	 * Gets the language bundle corresponding to the language code
-	 * @return a {@link MasterTranslationFile} for each {@link FileLanguageBundle} found in the languages directory.
+	 * @return the {@link MasterTranslationFile} of the language in the languages directory with the language code, or <code>null</code> if there is none
 	 */
 	public static MasterTranslationFile getFromLanguageCode(String languageCode) {
-		for(FileLanguageBundle languageBundle : InternationalisationUtils.getLanguageBundles()) {
-			if (languageBundle.getLanguageCode().equals(languageCode)) {
-				return get(languageBundle);
+		List<File> files = getLanguageFiles();
+		files.addAll(getPackedLanguageFiles());
+		for(File file : files) {
+			MasterTranslationFile languageBundle = get(file, getLocale(file.getName()));
+			if (languageCode.equals(languageBundle.get(KEY_LANGUAGE_CODE))) {
+				return languageBundle;
 			}
 		}
 		return null;
@@ -151,22 +423,75 @@ public class MasterTranslationFile extends LanguageBundle implements Comparable<
 	
 	public static MasterTranslationFile getFromIdentifier(String identifier) {
 		String filename = identifier.substring(IDENTIFIER_PREFIX.length());
+		File file = new File(getLanguageDirectory() + File.separator, filename);
+		return MasterTranslationFile.get(file, getLocale(filename));
+	}
+
+	/**
+	 * @return the directory the languages are edited in: FrontlineSMS's language directory, unless another has been
+	 * set with the system property {@link #PROPERTY_LANGUAGE_DIRECTORY}
+	 */
+	static File getLanguageDirectory() {
+		String directory = System.getProperty(PROPERTY_LANGUAGE_DIRECTORY);
+		return directory == null ? InternationalisationUtils.getLanguageDirectory() : new File(directory);
+	}
+
+	/**
+	 * Gets the files of the languages in the language directory, other than the default translation.  These are the
+	 * files of the {@link FileLanguageBundle}s loaded by FrontlineSMS, or if {@link #PROPERTY_LANGUAGE_DIRECTORY} is
+	 * set, the language files found in that directory.
+	 * @return the files of the languages in the language directory
+	 */
+	static List<File> getLanguageFiles() {
+		List<File> files = new ArrayList<File>();
+		if(System.getProperty(PROPERTY_LANGUAGE_DIRECTORY) == null) {
+			for(FileLanguageBundle languageBundle : InternationalisationUtils.getLanguageBundles()) {
+				files.add(languageBundle.getFile());
+			}
+		} else {
+			File[] children = getLanguageDirectory().listFiles();
+			if(children != null) {
+				for(File file : children) {
+					if(file.isFile() && file.getName().matches(LANGUAGE_FILENAME_PATTERN)) {
+						files.add(file);
+					}
+				}
+			}
+			Collections.sort(files);
+		}
+		return files;
+	}
+	
+	/**
+	 * Gets the files of the languages in the language directory's {@link LanguagePack} which do not have a file of
+	 * their own yet.  These languages are loaded from the pack until they are first saved.
+	 * @return the files of the languages only in the pack, which do not exist
+	 */
+	static List<File> getPackedLanguageFiles() {
+		File directory = getLanguageDirectory();
+		List<File> files = new ArrayList<File>();
+		for(String filename : FileTranslationStore.getPackedFilenames(directory)) {
+			File file = new File(directory, filename);
+			if(!file.exists()) {
+				files.add(file);
+			}
+		}
+		return files;
+	}
+	
+	/** @return the locale of a language file, taken from its filename, e.g. <code>frontlineSMS_pt_BR.properties</code> */
+	static Locale getLocale(String filename) {
 		String localeBits = filename.substring("frontlineSMS".length(), filename.length() - ".properties".length());
 		String[] bits = localeBits.split("_");
-		
-		File file = new File(InternationalisationUtils.getLanguageDirectory() + File.separator, filename);
-		Locale locale;
-
 		if(bits.length <= 1) {
-			locale = new Locale("");
+			return new Locale("");
 		} else if(bits.length == 2) {
-			locale = new Locale(bits[1]);
+			return new Locale(bits[1]);
 		} else if(bits.length == 3) {
-			locale = new Locale(bits[1], bits[2]);
+			return new Locale(bits[1], bits[2]);
 		} else if(bits.length == 4) {
-			locale = new Locale(bits[1], bits[2], bits[3]);
+			return new Locale(bits[1], bits[2], bits[3]);
 		} else throw new RuntimeException("Too many bits in " + filename);
-		return MasterTranslationFile.get(file, locale);
 	}
 	
 
@@ -176,40 +501,43 @@ public class MasterTranslationFile extends LanguageBundle implements Comparable<
 
 	/** @return {@link MasterTranslationFile} for the supplied file */
 	static MasterTranslationFile get(File file, Locale locale) {
+		return get(file, locale, PluginProperties.getInstance().getPluginClasses());
+	}
+	
+	/** @return {@link MasterTranslationFile} for the supplied file, including translations for the supplied plugins */
+	static MasterTranslationFile get(File file, Locale locale, Collection<Class<? extends PluginController>> pluginClasses) {
 		List<TextFileContent> content = new ArrayList<TextFileContent>();
 		
-		// add core content
-		FileInputStream fis;
+		// add core content from the store holding the file's language
+		TranslationStore store = getStore(file.getParentFile());
 		try {
-			fis = new FileInputStream(file);
-		} catch (FileNotFoundException ex) {
+			content.add(store.load(file.getName()));
+		} catch (IOException ex) {
 			throw new RuntimeException(ex);
 		}
-		content.add(TextFileContent.getFromStream("FrontlineSMS Core", fis));
 		
-		// load plugin bundles for this language
-		Collection<Class<? extends PluginController>> pluginClasses = PluginProperties.getInstance().getPluginClasses();
+		// plugin bundles for this language are only loaded when they are first needed
 		for(Class<? extends PluginController> pluginClass : pluginClasses) {
-			try {
-				PluginController controller = pluginClass.newInstance();
-				Map<String, String> textResource;
-				if(isDefault(locale)) {
-					textResource = controller.getDefaultTextResource();
-				} else {
-					textResource = controller.getTextResource(locale);
-				}
-				String tfcDescription = "Plugin: " + controller.getName(FrontlineUI.currentResourceBundle.getLocale());
-				content.add(TextFileContent.getFromMap(tfcDescription, textResource, content.get(0)));
-			} catch (Exception ex) {
-				throw new RuntimeException("Unable to instantiate plugin: " + pluginClass.getName(), ex);
-			}
+			content.add(TextFileContent.getFromPlugin(pluginClass, locale, content.get(0)));
 		}
 		
-		return new MasterTranslationFile(file.getName(), content);
+		MasterTranslationFile mtf = new MasterTranslationFile(file.getName(), content);
+		mtf.store = store;
+		return mtf;
+	}
+	
+	/**
+	 * Gets the store that languages in a directory are loaded from and saved to.
+	 * @param directory a language directory
+	 * @return the store for languages in the directory
+	 */
+	static TranslationStore getStore(File directory) {
+		TranslationStore databaseStore = JdbcTranslationStore.getConfigured(directory);
+		return databaseStore != null ? databaseStore : new FileTranslationStore(directory);
 	}
 	
 	/** @return true if the supplied locale is for an unspecified language, country and variant; <code>false</code> otherwise */
-	private static boolean isDefault(Locale locale) {
+	static boolean isDefault(Locale locale) {
 		String lang = locale.getLanguage();
 		String var = locale.getVariant();
 		String country = locale.getCountry();
@@ -257,9 +585,9 @@ public class MasterTranslationFile extends LanguageBundle implements Comparable<
 		
 		processDefaultMtf(targetDir);
 		
-		for(FileLanguageBundle languageBundle : InternationalisationUtils.getLanguageBundles()) {
-			MasterTranslationFile mtf = get(languageBundle);
-			mtf.saveToDisk(new File(targetDir, languageBundle.getFile().getName()));	
+		for(File file : getLanguageFiles()) {
+			MasterTranslationFile mtf = get(file, getLocale(file.getName()));
+			mtf.saveToDisk(new File(targetDir, file.getName()));	
 		}
 	}
 
@@ -270,21 +598,127 @@ public class MasterTranslationFile extends LanguageBundle implements Comparable<
 	}
 
 	public void add(String textKey, String textValue) {
-		if (textValue.equals("")) {
-			try {
-				this.delete(textKey);
-			} catch (KeyNotFoundException e) {
-				// Key didn't exist
+		loadTranslationFilesFor(textKey);
+		beginEdit();
+		try {
+			if (textValue.equals("")) {
+				try {
+					this.delete(textKey);
+				} catch (KeyNotFoundException e) {
+					// Key didn't exist
+				}
+			} else {
+				String oldValue = super.getProperties().get(textKey);
+				if (super.getProperties().put(textKey, textValue) == null || !textValue.equals(oldValue)) {
+					this.valueChanged(textKey);
+				}
+				updateMissing(textKey);
 			}
-		} else {
-			String oldValue = super.getProperties().get(textKey);
-			if (super.getProperties().put(textKey, textValue) == null || !textValue.equals(oldValue)) {
-				this.valueChanged(textKey);
+		} finally {
+			endEdit();
+		}
+	}
+
+	/**
+	 * Sets the value of a translation, but only if its current value is the one expected.  This allows several
+	 * editors to change the same file without overwriting each other's edits.
+	 * @param textKey
+	 * @param expectedValue the value the translation is expected to have, or <code>null</code> if it is expected to be undefined
+	 * @param textValue the new value
+	 * @return <code>true</code> if the value was set; <code>false</code> if the current value was not the one expected
+	 */
+	public boolean replace(String textKey, String expectedValue, String textValue) {
+		loadTranslationFilesFor(textKey);
+		beginEdit();
+		try {
+			String currentValue = super.getProperties().get(textKey);
+			if(currentValue == null ? expectedValue != null : !currentValue.equals(expectedValue)) {
+				return false;
+			}
+			this.add(textKey, textValue);
+			return true;
+		} finally {
+			endEdit();
+		}
+	}
+
+	/** Starts an edit.  Must be followed by a call to {@link #endEdit()} in a <code>finally</code> block. */
+	private void beginEdit() {
+		lock.writeLock().lock();
+	}
+	
+	/** Ends an edit started with {@link #beginEdit()}, and discards the now out-of-date snapshot. */
+	private void endEdit() {
+		this.snapshot = null;
+		lock.writeLock().unlock();
+	}
+
+	/**
+	 * Loads the plugin translation files which may contain the supplied key, if the key is not already defined:
+	 * those whose namespace contains the key, and those whose namespace is not known.  Other plugins' files are
+	 * left unloaded, even if the key is still not found, so looking up a missing translation does not load them.
+	 * @param textKey
+	 */
+	private void loadTranslationFilesFor(String textKey) {
+		lock.readLock().lock();
+		try {
+			if(this.pendingTranslationFiles.isEmpty() || super.getProperties().containsKey(textKey)) {
+				return;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		beginEdit();
+		try {
+			if(this.pendingTranslationFiles.isEmpty() || super.getProperties().containsKey(textKey)) {
+				// loaded by another thread meanwhile
+				return;
+			}
+			for(TextFileContent translationFile : new ArrayList<TextFileContent>(this.pendingTranslationFiles)) {
+				String namespace = translationFile.getNamespace();
+				if(namespace == null || textKey.startsWith(namespace)) {
+					loadTranslationFile(translationFile);
+				}
+			}
+		} finally {
+			endEdit();
+		}
+	}
+	
+	/** Loads all plugin translation files which have not yet been loaded. */
+	private void loadAllTranslationFiles() {
+		lock.readLock().lock();
+		try {
+			if(this.pendingTranslationFiles.isEmpty()) {
+				return;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		beginEdit();
+		try {
+			while(!this.pendingTranslationFiles.isEmpty()) {
+				loadTranslationFile(this.pendingTranslationFiles.get(0));
+			}
+		} finally {
+			endEdit();
+		}
+	}
+	
+	/**
+	 * Loads a plugin translation file.  Its translations then appear in the properties of this bundle,
+	 * except where they are overridden by a translation file earlier in {@link #translationFiles}.
+	 * Must be called while editing.
+	 * @param translationFile
+	 */
+	private void loadTranslationFile(TextFileContent translationFile) {
+		translationFile.getLines();
+		this.pendingTranslationFiles.remove(translationFile);
+		if(this.referenceKeys != null) {
+			for(Iterator<Entry<String, String>> entries = translationFile.entryIterator() ; entries.hasNext() ; ) {
+				updateMissing(entries.next().getKey());
 			}
-			
-			updateTranslation(textKey, textValue);
 		}
-		
 	}
 
 	private void valueChanged(String textKey) {
@@ -292,29 +726,38 @@ public class MasterTranslationFile extends LanguageBundle implements Comparable<
 	}
 
 	/**
-	 * Updates the value of a translation in the attached files.
+	 * Updates whether a reference key is in the {@link #missingKeys}, after its value may have changed.  Must be
+	 * called while editing.
 	 * @param textKey
-	 * @param textValue
-	 * @throws KeyNotFoundException 
 	 */
-	private void updateTranslation(String textKey, String textValue) {
-		TextFileContent tfc;
-		try {
-			tfc = getTextFileContent(textKey);
-			tfc.updateValue(textKey, textValue);
-		} catch (KeyNotFoundException ex) {
-			tfc = this.translationFiles.get(0);
-			tfc.addLine(textKey + "=" + textValue);
+	private void updateMissing(String textKey) {
+		if(this.referenceKeys == null || !this.referenceKeys.contains(textKey)) {
+			return;
+		}
+		String value = super.getProperties().get(textKey);
+		if(value == null || value.length() == 0) {
+			this.missingKeys.add(textKey);
+		} else {
+			this.missingKeys.remove(textKey);
 		}
 	}
 
+	/**
+	 * Deletes a translation, so that it is no longer defined in this file.
+	 * @param textKey
+	 * @throws KeyNotFoundException if the translation is not defined in this file
+	 */
 	public void delete(String textKey) throws KeyNotFoundException {
-		TextFileContent tfc = getTextFileContent(textKey);
-		String line = tfc.getLine(textKey);
-		tfc.removeLine(line);
-		tfc.addLine(textKey + "=");
-		this.valueChanged(textKey);
-		super.getProperties().remove(textKey);
+		beginEdit();
+		try {
+			TextFileContent tfc = getTextFileContent(textKey);
+			String line = tfc.getLine(textKey);
+			tfc.removeLine(line);
+			this.valueChanged(textKey);
+			updateMissing(textKey);
+		} finally {
+			endEdit();
+		}
 	}
 	
 	/**
@@ -324,6 +767,7 @@ public class MasterTranslationFile extends LanguageBundle implements Comparable<
 	 * @throws KeyNotFoundException 
 	 */
 	private TextFileContent getTextFileContent(String textKey) throws KeyNotFoundException {
+		loadAllTranslationFiles();
 		for(TextFileContent tf : this.translationFiles) {
 			if(tf.containsKey(textKey)) {
 				return tf;
@@ -337,6 +781,7 @@ public class MasterTranslationFile extends LanguageBundle implements Comparable<
 	 * @return
 	 */
 	public List<TextFileContent> getTranslationFiles() {
+		loadAllTranslationFiles();
 		return translationFiles;
 	}
 
@@ -354,66 +799,107 @@ public class MasterTranslationFile extends LanguageBundle implements Comparable<
 	 * @param fileName
 	 */
 	public void setFilename (String fileName) {
-		this.filename = fileName;
+		beginEdit();
+		try {
+			this.filename = fileName;
+		} finally {
+			endEdit();
+		}
 	}
 
 	/** Sets the ISO-???? country code relating to the language in this bundle 
 	 * @throws KeyNotFoundException */
 	public void setCountry(String country) {
-		super.setCountry(country);
+		beginEdit();
 		try {
-			this.translationFiles.get(0).updateValue(KEY_LANGUAGE_COUNTRY, country);
-		} catch (KeyNotFoundException ex) { }
+			super.setCountry(country);
+			try {
+				this.translationFiles.get(0).updateValue(KEY_LANGUAGE_COUNTRY, country);
+			} catch (KeyNotFoundException ex) { }
+		} finally {
+			endEdit();
+		}
 	}
 	
 	/** Sets the name of this language bundle */
 	/** @throws KeyNotFoundException */
 	public void setLanguageName(String languageName) {
-		super.setLanguageName(languageName);
+		beginEdit();
 		try {
-			this.translationFiles.get(0).updateValue(KEY_LANGUAGE_NAME, languageName);
-		} catch (KeyNotFoundException ex) { }
+			super.setLanguageName(languageName);
+			try {
+				this.translationFiles.get(0).updateValue(KEY_LANGUAGE_NAME, languageName);
+			} catch (KeyNotFoundException ex) { }
+		} finally {
+			endEdit();
+		}
 	}
 
 	/** Sets the ISO-???? code relating to this language */
 	/** @throws KeyNotFoundException */
 	public void setLanguageCode(String languageCode) {
-		super.setLanguageCode(languageCode);
+		beginEdit();
 		try {
-			this.translationFiles.get(0).updateValue(KEY_LANGUAGE_CODE, languageCode);
-		} catch (KeyNotFoundException ex) { }
+			super.setLanguageCode(languageCode);
+			try {
+				this.translationFiles.get(0).updateValue(KEY_LANGUAGE_CODE, languageCode);
+			} catch (KeyNotFoundException ex) { }
+		} finally {
+			endEdit();
+		}
 	}
 	
 	/** Sets the font for this language bundle */
 	/** @throws KeyNotFoundException */
 	public void setLanguageFont(String fontNames) {
-		super.setLanguageFont(fontNames);
-		TextFileContent tfContent = this.translationFiles.get(0); 
-		if (fontNames == null || fontNames.length() == 0) {
-			try {
-				tfContent.removeLine(tfContent.getLine(KEY_LANGUAGE_FONT));
-			} catch (KeyNotFoundException e) {
-				// Font wasn't previously set. No problem.
-			}
-		} else {
-			try {
-				tfContent.updateValue(KEY_LANGUAGE_FONT, fontNames);
-			} catch (KeyNotFoundException ex) { 
-				tfContent.addLine(KEY_LANGUAGE_FONT + "=" + fontNames);
+		beginEdit();
+		try {
+			super.setLanguageFont(fontNames);
+			TextFileContent tfContent = this.translationFiles.get(0); 
+			if (fontNames == null || fontNames.length() == 0) {
+				try {
+					tfContent.removeLine(tfContent.getLine(KEY_LANGUAGE_FONT));
+				} catch (KeyNotFoundException e) {
+					// Font wasn't previously set. No problem.
+				}
+			} else {
+				try {
+					tfContent.updateValue(KEY_LANGUAGE_FONT, fontNames);
+				} catch (KeyNotFoundException ex) { 
+					tfContent.addLine(KEY_LANGUAGE_FONT + "=" + fontNames);
+				}
 			}
+		} finally {
+			endEdit();
 		}
 	}
 	
+	/** @return a copy of the keys which have been changed */
 	public ArrayList<String> getChanges() {
-		return changes;
+		lock.readLock().lock();
+		try {
+			return new ArrayList<String>(changes);
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
 	public void setChanges(ArrayList<String> changes) {
-		this.changes = changes;
+		beginEdit();
+		try {
+			this.changes = changes;
+		} finally {
+			endEdit();
+		}
 	}
 
 	public boolean hasBeenEdited(String textKey) {
-		return this.changes.contains(textKey);
+		lock.readLock().lock();
+		try {
+			return this.changes.contains(textKey);
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
 	public int compareTo(MasterTranslationFile o) {
@@ -421,92 +907,573 @@ public class MasterTranslationFile extends LanguageBundle implements Comparable<
 	}
 }
 
+/**
+ * The lines of a single translation file.
+ * <p>The text of the file is held in a single character buffer, and each line is stored as offsets into it:
+ * the start of the line, the position of its key-value separator and the end of the line.  Lines which are
+ * added or edited are written to a separate, much smaller, overlay buffer, so the original text is never
+ * modified.  Lines are only turned into {@link String}s when they are asked for.</p>
+ * <p>Keys are indexed in an open-addressing hash table of line ids, so looking up a key does not need to
+ * scan the lines of the file.  Where a key is defined more than once, the first definition is indexed.</p>
+ */
 class TextFileContent {
+//> STATIC CONSTANTS
+	/** Number of offsets stored for each line: the start of the line, its key-value separator and its end */
+	private static final int OFFSETS_PER_LINE = 3;
+	/** Offset of the key-value separator of a line which does not contain a key */
+	private static final int NO_KEY = -1;
+	/** Smallest size of {@link #keyTable} once it is in use */
+	private static final int MINIMUM_KEY_TABLE_SIZE = 16;
+	private static final char[] NO_CHARS = new char[0];
+	private static final int[] NO_INTS = new int[0];
+
+//> INSTANCE VARIABLES
 	/** Description of this file */
 	private String description;
-	/** Lines in the file */
-	private final LinkedList<String> lines = new LinkedList<String>();
-	
+	/** Text of the file as it was read.  Lines with an id below {@link #originalLineCount} point into this.  Never modified. */
+	private char[] buffer = NO_CHARS;
+	/** Text of lines added or edited since the file was read.  Lines with an id of {@link #originalLineCount} or more point into this. */
+	private char[] overlay = NO_CHARS;
+	/** Number of characters used in {@link #overlay} */
+	private int overlayLength;
+	/** {@link #OFFSETS_PER_LINE} offsets for each line, indexed by line id.  Entries are only ever appended. */
+	private int[] offsets = NO_INTS;
+	/** Number of line ids which have offsets in {@link #offsets} */
+	private int offsetCount;
+	/** Number of lines in {@link #buffer} */
+	private int originalLineCount;
+	/** Ids of the current lines of this file, in order */
+	private int[] lineIds = NO_INTS;
+	/** Number of entries used in {@link #lineIds} */
+	private int lineCount;
+	/** Hash table of the id of the line defining each key, plus one, so that an empty slot is zero */
+	private int[] keyTable = new int[MINIMUM_KEY_TABLE_SIZE];
+	/** Number of keys in {@link #keyTable} */
+	private int keyCount;
+	/** Prefix of the keys in this file, or <code>null</code> if it is not known */
+	private String namespace;
+	/** Loads the lines of this file when they are first needed, or <code>null</code> if they have already been loaded */
+	private PluginContentLoader loader;
+	/** State of the file this was read from when it was read, or <code>null</code> if it was not read from a file */
+	private LanguageFileState sourceState;
+
+//> CONSTRUCTORS
 	private TextFileContent(String description) {
 		this.description = description;
 	}
-	
-	public void removeLine(String line) {
-		this.lines.remove(line);
-	}
 
 	public static TextFileContent createEmpty() {
 		return new TextFileContent(null);
 	}
 
+//> ACCESSORS
 	public String getDescription() {
 		return description;
 	}
 	
-	public LinkedList<String> getLines() {
-		return lines;
+	/** @return the state of the file this was read from when it was read, or <code>null</code> if it was not read from a file */
+	LanguageFileState getSourceState() {
+		return sourceState;
 	}
-	
-	void addLine(String line) {
-		this.lines.add(line);
+
+	/** Takes the description and lines of this file from the content loaded by its {@link PluginContentLoader}. */
+	void setLoadedContent(TextFileContent loaded) {
+		this.description = loaded.description;
+		this.buffer = loaded.buffer;
+		this.overlay = loaded.overlay;
+		this.overlayLength = loaded.overlayLength;
+		this.offsets = loaded.offsets;
+		this.offsetCount = loaded.offsetCount;
+		this.originalLineCount = loaded.originalLineCount;
+		this.lineIds = loaded.lineIds;
+		this.lineCount = loaded.lineCount;
+		this.keyTable = loaded.keyTable;
+		this.keyCount = loaded.keyCount;
 	}
-	
-	/** @return <code>true</code> if this contains the supplied key; <code>false</code> otherwise */
-	boolean containsKey(String textKey) {
-		for(String line : getLines()) {
-			if(line.trim().startsWith(textKey + "=")) {
-				return true;
+
+	/** @return a read-only view of the lines in this file */
+	public List<String> getLines() {
+		ensureLoaded();
+		return new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				if(index < 0 || index >= lineCount) {
+					throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + lineCount);
+				}
+				return getLineText(lineIds[index]);
 			}
+			@Override
+			public int size() {
+				return lineCount;
+			}
+		};
+	}
+
+	/** @return <code>true</code> if the lines of this file have been loaded; <code>false</code> otherwise */
+	boolean isLoaded() {
+		return this.loader == null;
+	}
+
+	/** @return an estimate of the memory retained by the lines of this file, in bytes; zero if they have not been loaded */
+	long estimateSize() {
+		if(!isLoaded()) {
+			return 0;
 		}
-		return false;
+		return 2L * (this.buffer.length + this.overlay.length) + 4L * (this.offsets.length + this.lineIds.length + this.keyTable.length);
 	}
-	
-	/** 
-	 * @return the line containing the supplied key 
+
+	/** @return prefix of the keys in this file, or <code>null</code> if it is not known */
+	String getNamespace() {
+		return namespace;
+	}
+
+	/** @return <code>true</code> if this contains the supplied key; <code>false</code> otherwise */
+	boolean containsKey(String textKey) {
+		ensureLoaded();
+		return keyTable[findSlot(textKey)] != 0;
+	}
+
+	/** @return the value of the supplied key in this file, or <code>null</code> if it is not defined here */
+	String getValue(String textKey) {
+		ensureLoaded();
+		int entry = keyTable[findSlot(textKey)];
+		return entry == 0 ? null : getLineValue(entry - 1);
+	}
+
+	/**
+	 * @return the line containing the supplied key
 	 * @throws KeyNotFoundException
 	 */
 	String getLine(String textKey) throws KeyNotFoundException {
-		for(String line : getLines()) {
-			if(line.trim().startsWith(textKey + "=")) {
-				return line;
+		ensureLoaded();
+		int entry = keyTable[findSlot(textKey)];
+		if(entry == 0) {
+			throw new KeyNotFoundException(textKey);
+		}
+		return getLineText(entry - 1);
+	}
+
+	/** @return the key-value pairs defined in this file, in no particular order */
+	Iterator<Entry<String, String>> entryIterator() {
+		ensureLoaded();
+		return new Iterator<Entry<String, String>>() {
+			private int slot = nextEntrySlot(0);
+			public boolean hasNext() {
+				return slot < keyTable.length;
+			}
+			public Entry<String, String> next() {
+				if(!hasNext()) throw new NoSuchElementException();
+				int lineId = keyTable[slot] - 1;
+				slot = nextEntrySlot(slot + 1);
+				return new SimpleImmutableEntry<String, String>(getLineKey(lineId), getLineValue(lineId));
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/** @return the translations in the text this file was read from, ignoring any later changes */
+	Map<String, String> getOriginalTranslations() {
+		ensureLoaded();
+		Map<String, String> translations = new HashMap<String, String>();
+		for(int lineId=0; lineId<this.originalLineCount; ++lineId) {
+			if(getSeparator(lineId) != NO_KEY) {
+				String key = getLineKey(lineId);
+				if(!translations.containsKey(key)) {
+					translations.put(key, getLineValue(lineId));
+				}
+			}
+		}
+		return translations;
+	}
+
+	/** @return a copy of this content which is not affected by later changes to this */
+	TextFileContent copy() {
+		ensureLoaded();
+		TextFileContent copy = new TextFileContent(this.description);
+		copy.namespace = this.namespace;
+		copy.buffer = this.buffer;
+		copy.overlay = Arrays.copyOf(this.overlay, this.overlayLength);
+		copy.overlayLength = this.overlayLength;
+		copy.offsets = Arrays.copyOf(this.offsets, this.offsetCount * OFFSETS_PER_LINE);
+		copy.offsetCount = this.offsetCount;
+		copy.originalLineCount = this.originalLineCount;
+		copy.lineIds = Arrays.copyOf(this.lineIds, this.lineCount);
+		copy.lineCount = this.lineCount;
+		copy.keyTable = this.keyTable.clone();
+		copy.keyCount = this.keyCount;
+		return copy;
+	}
+
+//> MUTATORS
+	void addLine(String line) {
+		ensureLoaded();
+		int lineId = appendToOverlay(line);
+		appendLineId(lineId);
+		if((this.keyCount + 1) * 2 > this.keyTable.length) {
+			rebuildKeyTable();
+		} else {
+			indexKey(lineId);
+		}
+	}
+
+	public void removeLine(String line) {
+		ensureLoaded();
+		for(int i=0; i<this.lineCount; ++i) {
+			int lineId = this.lineIds[i];
+			if(lineEquals(lineId, line)) {
+				System.arraycopy(this.lineIds, i + 1, this.lineIds, i, this.lineCount - i - 1);
+				--this.lineCount;
+				if(getSeparator(lineId) != NO_KEY) {
+					// A later definition of the same key may now be the first
+					rebuildKeyTable();
+				}
+				return;
 			}
 		}
-		throw new KeyNotFoundException(textKey);
 	}
-	
+
 	/**
 	 * Changes the value for a text key in this file.
 	 * @param textKey
 	 * @param newValue
-	 * @throws KeyNotFoundException 
+	 * @throws KeyNotFoundException
 	 */
 	void updateValue(String textKey, String newValue) throws KeyNotFoundException {
-		String oldLine = getLine(textKey);
-		String newLine = textKey + "=" + newValue;
-		this.lines.set(lines.indexOf(oldLine), newLine);
+		ensureLoaded();
+		int slot = findSlot(textKey);
+		int oldLineId = this.keyTable[slot] - 1;
+		if(oldLineId < 0) {
+			throw new KeyNotFoundException(textKey);
+		}
+		int newLineId = appendToOverlay(textKey + "=" + newValue);
+		for(int i=0; i<this.lineCount; ++i) {
+			if(this.lineIds[i] == oldLineId) {
+				this.lineIds[i] = newLineId;
+				break;
+			}
+		}
+		this.keyTable[slot] = newLineId + 1;
 	}
-	
+
+	/** Loads the lines of this file if they have not been loaded yet. */
+	private void ensureLoaded() {
+		if(this.loader != null) {
+			this.loader.load(this);
+			this.loader = null;
+		}
+	}
+
+	/**
+	 * Sets the text of this file.  Lines are split in the same places as {@link java.io.BufferedReader#readLine()}.
+	 * @param text the text; this is kept, so must not be modified afterwards
+	 * @param length the number of characters of text in the array
+	 */
+	private void setText(char[] text, int length) {
+		if(text.length != length) {
+			text = Arrays.copyOf(text, length);
+		}
+		this.buffer = text;
+		int start = 0;
+		for(int i=0; i<length; ++i) {
+			char c = text[i];
+			if(c == '\n' || c == '\r') {
+				appendLineId(addOffsets(text, start, i));
+				if(c == '\r' && i + 1 < length && text[i + 1] == '\n') {
+					++i;
+				}
+				start = i + 1;
+			}
+		}
+		if(start < length) {
+			appendLineId(addOffsets(text, start, length));
+		}
+		this.originalLineCount = this.offsetCount;
+		rebuildKeyTable();
+	}
+
+	/** Adds a line to the end of {@link #overlay}, and returns its line id. */
+	private int appendToOverlay(String line) {
+		int length = line.length();
+		if(this.overlayLength + length > this.overlay.length) {
+			this.overlay = Arrays.copyOf(this.overlay, Math.max(this.overlayLength + length, this.overlay.length * 2));
+		}
+		line.getChars(0, length, this.overlay, this.overlayLength);
+		int lineId = addOffsets(this.overlay, this.overlayLength, this.overlayLength + length);
+		this.overlayLength += length;
+		return lineId;
+	}
+
+	/** Records the offsets of a new line, and returns its line id.  The line is not added to {@link #lineIds}. */
+	private int addOffsets(char[] text, int start, int end) {
+		int separator = NO_KEY;
+		int keyStart = skipWhitespace(text, start, end);
+		if(keyStart < end && text[keyStart] != '#') {
+			for(int i=keyStart; i<end; ++i) {
+				if(text[i] == '=') {
+					separator = i;
+					break;
+				}
+			}
+		}
+		if((this.offsetCount + 1) * OFFSETS_PER_LINE > this.offsets.length) {
+			this.offsets = Arrays.copyOf(this.offsets, Math.max(OFFSETS_PER_LINE * MINIMUM_KEY_TABLE_SIZE, this.offsets.length * 2));
+		}
+		int o = this.offsetCount * OFFSETS_PER_LINE;
+		this.offsets[o] = start;
+		this.offsets[o + 1] = separator;
+		this.offsets[o + 2] = end;
+		return this.offsetCount++;
+	}
+
+	private void appendLineId(int lineId) {
+		if(this.lineCount == this.lineIds.length) {
+			this.lineIds = Arrays.copyOf(this.lineIds, Math.max(MINIMUM_KEY_TABLE_SIZE, this.lineIds.length * 2));
+		}
+		this.lineIds[this.lineCount++] = lineId;
+	}
+
+//> KEY TABLE METHODS
+	/** Rebuilds {@link #keyTable} from the current lines, sized so that it is at most half full. */
+	private void rebuildKeyTable() {
+		int size = MINIMUM_KEY_TABLE_SIZE;
+		while(size < this.lineCount * 2) {
+			size <<= 1;
+		}
+		this.keyTable = new int[size];
+		this.keyCount = 0;
+		for(int i=0; i<this.lineCount; ++i) {
+			indexKey(this.lineIds[i]);
+		}
+	}
+
+	/** Adds the key of a line to {@link #keyTable}, unless it has no key or its key is already defined. */
+	private void indexKey(int lineId) {
+		int separator = getSeparator(lineId);
+		if(separator == NO_KEY) {
+			return;
+		}
+		char[] text = getText(lineId);
+		int keyStart = skipWhitespace(text, getStart(lineId), separator);
+		int hash = 0;
+		for(int i=keyStart; i<separator; ++i) {
+			hash = 31 * hash + text[i];
+		}
+		int mask = this.keyTable.length - 1;
+		int slot = mix(hash) & mask;
+		while(this.keyTable[slot] != 0) {
+			if(keyEquals(this.keyTable[slot] - 1, text, keyStart, separator)) {
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		this.keyTable[slot] = lineId + 1;
+		++this.keyCount;
+	}
+
+	/** @return the slot of {@link #keyTable} containing the key, or the empty slot where it would go */
+	private int findSlot(String textKey) {
+		int mask = this.keyTable.length - 1;
+		// String.hashCode() uses the same function as indexKey(int)
+		int slot = mix(textKey.hashCode()) & mask;
+		while(this.keyTable[slot] != 0 && !keyEquals(this.keyTable[slot] - 1, textKey)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/** @return the first slot of {@link #keyTable} from the supplied slot which holds an entry */
+	private int nextEntrySlot(int slot) {
+		while(slot < this.keyTable.length && this.keyTable[slot] == 0) {
+			++slot;
+		}
+		return slot;
+	}
+
+	/** Spreads the high bits of a hash code into the low bits used to pick a slot. */
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+//> LINE METHODS
+	private char[] getText(int lineId) {
+		return lineId < this.originalLineCount ? this.buffer : this.overlay;
+	}
+
+	private int getStart(int lineId) {
+		return this.offsets[lineId * OFFSETS_PER_LINE];
+	}
+
+	private int getSeparator(int lineId) {
+		return this.offsets[lineId * OFFSETS_PER_LINE + 1];
+	}
+
+	private int getEnd(int lineId) {
+		return this.offsets[lineId * OFFSETS_PER_LINE + 2];
+	}
+
+	private String getLineText(int lineId) {
+		int start = getStart(lineId);
+		return new String(getText(lineId), start, getEnd(lineId) - start);
+	}
+
+	/** @return the key of a line, i.e. the text before the separator without leading whitespace */
+	private String getLineKey(int lineId) {
+		int separator = getSeparator(lineId);
+		char[] text = getText(lineId);
+		int keyStart = skipWhitespace(text, getStart(lineId), separator);
+		return new String(text, keyStart, separator - keyStart);
+	}
+
+	/** @return the value of a line, i.e. the text after the separator without trailing whitespace */
+	private String getLineValue(int lineId) {
+		int valueStart = getSeparator(lineId) + 1;
+		char[] text = getText(lineId);
+		int valueEnd = getEnd(lineId);
+		while(valueEnd > valueStart && text[valueEnd - 1] <= ' ') {
+			--valueEnd;
+		}
+		return new String(text, valueStart, valueEnd - valueStart);
+	}
+
+	private boolean lineEquals(int lineId, String line) {
+		int start = getStart(lineId);
+		int length = getEnd(lineId) - start;
+		if(length != line.length()) {
+			return false;
+		}
+		char[] text = getText(lineId);
+		for(int i=0; i<length; ++i) {
+			if(text[start + i] != line.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean keyEquals(int lineId, String textKey) {
+		char[] text = getText(lineId);
+		int separator = getSeparator(lineId);
+		int keyStart = skipWhitespace(text, getStart(lineId), separator);
+		if(separator - keyStart != textKey.length()) {
+			return false;
+		}
+		for(int i=keyStart; i<separator; ++i) {
+			if(text[i] != textKey.charAt(i - keyStart)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean keyEquals(int lineId, char[] keyText, int keyStart, int keyEnd) {
+		char[] text = getText(lineId);
+		int separator = getSeparator(lineId);
+		int start = skipWhitespace(text, getStart(lineId), separator);
+		if(separator - start != keyEnd - keyStart) {
+			return false;
+		}
+		for(int i=0; i<keyEnd-keyStart; ++i) {
+			if(text[start + i] != keyText[keyStart + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** @return the position of the first character from start which is not whitespace, as defined by {@link String#trim()} */
+	private static int skipWhitespace(char[] text, int start, int end) {
+		while(start < end && text[start] <= ' ') {
+			++start;
+		}
+		return start;
+	}
+
+//> STATIC FACTORIES
+	/**
+	 * Creates content from a map of translations, leaving out those already in the core file.  The lines are
+	 * sorted by key, so the same translations always give the same content, whatever the order of the map.
+	 */
 	static TextFileContent getFromMap(String description, Map<String, String> map, TextFileContent coreFileContent) {
-		TextFileContent content = new TextFileContent(description);
-		for(Entry<String, String> entry : map.entrySet()) {
+		StringBuilder text = new StringBuilder();
+		for(Entry<String, String> entry : new TreeMap<String, String>(map).entrySet()) {
 			if (!coreFileContent.containsKey(entry.getKey())) {
-				content.addLine(entry.getKey() + "=" + entry.getValue());
+				text.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
 			}
 		}
+		return getFromText(description, text);
+	}
+	
+	/** @return content with the supplied text */
+	static TextFileContent getFromText(String description, CharSequence text) {
+		TextFileContent content = new TextFileContent(description);
+		char[] chars = new char[text.length()];
+		for(int i=0; i<chars.length; ++i) {
+			chars[i] = text.charAt(i);
+		}
+		content.setText(chars, chars.length);
 		return content;
 	}
 	
+	/**
+	 * Reads content from a file, noting the state of the file so that changes made to it by others can be found
+	 * when it is saved.
+	 * @throws FileNotFoundException if the file does not exist
+	 */
+	static TextFileContent getFromFile(String description, File file) throws FileNotFoundException {
+		long length = file.length();
+		long lastModified = file.lastModified();
+		CheckedInputStream in = new CheckedInputStream(new FileInputStream(file), new CRC32());
+		TextFileContent content = getFromStream(description, in);
+		content.sourceState = new LanguageFileState(file, length, lastModified, in.getChecksum().getValue());
+		return content;
+	}
+
+	/**
+	 * Creates content for a plugin's text resource.  Only the plugin's annotation is read now; the plugin
+	 * is instantiated and its text resource is loaded when the lines of the content are first needed.
+	 * @param pluginClass
+	 * @param locale the locale of the text resource to load
+	 * @param coreFileContent translations in the core file, which are not repeated in the plugin content
+	 * @return content for the plugin's text resource
+	 */
+	static TextFileContent getFromPlugin(Class<? extends PluginController> pluginClass, Locale locale, TextFileContent coreFileContent) {
+		PluginControllerProperties properties = pluginClass.getAnnotation(PluginControllerProperties.class);
+		TextFileContent content = new TextFileContent("Plugin: " + (properties == null ? pluginClass.getSimpleName() : properties.name()));
+		content.namespace = getNamespace(properties);
+		content.loader = new PluginContentLoader(pluginClass, locale, coreFileContent);
+		return content;
+	}
+
+	/**
+	 * Guesses the prefix of a plugin's text keys from the i18n key of its name, e.g. <code>plugins.translation.</code>
+	 * for <code>plugins.translation.tab.name</code>.
+	 * @return the namespace, or <code>null</code> if it could not be determined
+	 */
+	private static String getNamespace(PluginControllerProperties properties) {
+		if(properties == null) return null;
+		String i18nKey = properties.i18nKey();
+		int firstDot = i18nKey.indexOf('.');
+		int secondDot = i18nKey.indexOf('.', firstDot + 1);
+		return firstDot > 0 && secondDot > firstDot ? i18nKey.substring(0, secondDot + 1) : null;
+	}
+
 	static TextFileContent getFromStream(String description, InputStream is) {
-		BufferedReader in = null;
+		Reader in = null;
 		TextFileContent content = new TextFileContent(description);
 		try {
-			in = new BufferedReader(new InputStreamReader(is, InternationalisationUtils.CHARSET_UTF8));
-			String line;
-			while((line = in.readLine()) != null) {
-				//if (!line.startsWith(PLUGINS_PREFIX)) {
-					content.addLine(line);
-				//}
+			in = new InputStreamReader(is, InternationalisationUtils.CHARSET_UTF8);
+			char[] text = new char[8192];
+			int length = 0;
+			int read;
+			while((read = in.read(text, length, text.length - length)) != -1) {
+				length += read;
+				if(length == text.length) {
+					text = Arrays.copyOf(text, text.length * 2);
+				}
 			}
+			content.setText(text, length);
 			return content;
 		} catch (IOException ex) {
 			throw new IllegalStateException("Unhandled problem reading stream: '" + description + "'", ex);
@@ -516,6 +1483,189 @@ class TextFileContent {
 	}
 }
 
+/**
+ * The translations in a list of {@link TextFileContent}, read from and written to the files themselves rather
+ * than copied out of them.  Where a key is defined in more than one file, the value from the first file is used.
+ * Files which have not been loaded yet are ignored.
+ */
+class SectionedTranslationMap extends AbstractMap<String, String> {
+	/** The files containing the translations, in order of precedence */
+	private final List<TextFileContent> translationFiles;
+
+	SectionedTranslationMap(List<TextFileContent> translationFiles) {
+		this.translationFiles = translationFiles;
+	}
+
+	@Override
+	public String get(Object key) {
+		if(!(key instanceof String)) {
+			return null;
+		}
+		for(TextFileContent translationFile : this.translationFiles) {
+			if(translationFile.isLoaded()) {
+				String value = translationFile.getValue((String) key);
+				if(value != null) {
+					return value;
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	/** Updates the value in the file which defines the key, or adds it to the first file if no file does. */
+	@Override
+	public String put(String key, String value) {
+		TextFileContent translationFile = getDefiningFile(key);
+		if(translationFile == null) {
+			this.translationFiles.get(0).addLine(key + "=" + value);
+			return null;
+		}
+		String oldValue = translationFile.getValue(key);
+		try {
+			translationFile.updateValue(key, value);
+		} catch (KeyNotFoundException ex) {
+			throw new IllegalStateException(ex);
+		}
+		return oldValue;
+	}
+
+	@Override
+	public String remove(Object key) {
+		if(!(key instanceof String)) {
+			return null;
+		}
+		TextFileContent translationFile = getDefiningFile((String) key);
+		if(translationFile == null) {
+			return null;
+		}
+		try {
+			String oldValue = translationFile.getValue((String) key);
+			translationFile.removeLine(translationFile.getLine((String) key));
+			return oldValue;
+		} catch (KeyNotFoundException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	@Override
+	public Set<Entry<String, String>> entrySet() {
+		return new AbstractSet<Entry<String, String>>() {
+			@Override
+			public Iterator<Entry<String, String>> iterator() {
+				return new EntryIterator();
+			}
+			@Override
+			public int size() {
+				int size = 0;
+				for(Iterator<Entry<String, String>> i = iterator(); i.hasNext(); i.next()) {
+					++size;
+				}
+				return size;
+			}
+		};
+	}
+
+	/** @return the first loaded file which defines the key, or <code>null</code> if none does */
+	private TextFileContent getDefiningFile(String key) {
+		for(TextFileContent translationFile : this.translationFiles) {
+			if(translationFile.isLoaded() && translationFile.containsKey(key)) {
+				return translationFile;
+			}
+		}
+		return null;
+	}
+
+	/** Iterates over the entries of each loaded file in turn, skipping keys already defined by an earlier file. */
+	private class EntryIterator implements Iterator<Entry<String, String>> {
+		private int fileIndex = -1;
+		private Iterator<Entry<String, String>> fileEntries = Collections.<Entry<String, String>>emptyList().iterator();
+		private Entry<String, String> next = findNext();
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public Entry<String, String> next() {
+			if(next == null) throw new NoSuchElementException();
+			Entry<String, String> current = next;
+			next = findNext();
+			return current;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private Entry<String, String> findNext() {
+			while(true) {
+				while(!fileEntries.hasNext()) {
+					if(++fileIndex >= translationFiles.size()) {
+						return null;
+					}
+					TextFileContent translationFile = translationFiles.get(fileIndex);
+					if(translationFile.isLoaded()) {
+						fileEntries = translationFile.entryIterator();
+					}
+				}
+				Entry<String, String> entry = fileEntries.next();
+				if(!isDefinedBefore(entry.getKey(), fileIndex)) {
+					return entry;
+				}
+			}
+		}
+
+		/** @return <code>true</code> if a loaded file before the supplied position defines the key */
+		private boolean isDefinedBefore(String key, int position) {
+			for(int i=0; i<position; ++i) {
+				TextFileContent translationFile = translationFiles.get(i);
+				if(translationFile.isLoaded() && translationFile.containsKey(key)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
+
+/**
+ * Loads the text resource of a plugin into a {@link TextFileContent} created with
+ * {@link TextFileContent#getFromPlugin(Class, Locale, TextFileContent)}.
+ */
+class PluginContentLoader {
+	private final Class<? extends PluginController> pluginClass;
+	private final Locale locale;
+	private final TextFileContent coreFileContent;
+	
+	PluginContentLoader(Class<? extends PluginController> pluginClass, Locale locale, TextFileContent coreFileContent) {
+		this.pluginClass = pluginClass;
+		this.locale = locale;
+		this.coreFileContent = coreFileContent;
+	}
+	
+	/** Loads the plugin's text resource, and adds it to the supplied content. */
+	void load(TextFileContent content) {
+		try {
+			PluginController controller = pluginClass.newInstance();
+			Map<String, String> textResource;
+			if(MasterTranslationFile.isDefault(locale)) {
+				textResource = controller.getDefaultTextResource();
+			} else {
+				textResource = controller.getTextResource(locale);
+			}
+			TextFileContent loaded = TextFileContent.getFromMap("Plugin: " + controller.getName(FrontlineUI.currentResourceBundle.getLocale()),
+					textResource, coreFileContent);
+			content.setLoadedContent(loaded);
+		} catch (Exception ex) {
+			throw new RuntimeException("Unable to instantiate plugin: " + pluginClass.getName(), ex);
+		}
+	}
+}
+
 class KeyNotFoundException extends Exception {
 	/**
 	 * 
@@ -0,0 +1,256 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+
+/**
+ * Keeps recently loaded languages in memory, so that showing a language again does not load it from disk again.
+ * <p>Languages are weighed by an estimate of the memory retained by their translation files which have been loaded.
+ * As more of a language's files are loaded while it is shown, its weight is estimated again each time a language is
+ * cached.  When the languages kept are over the memory budget set by {@link #PROPERTY_MEMORY_BUDGET}, the least
+ * recently used are evicted.  Languages are only softly
+ * referenced, so the collector can still clear them if memory runs short within the budget.  Languages with pending
+ * edits are never evicted and are strongly referenced; they are not counted towards the budget, as they are held
+ * in memory until they are saved anyway.</p>
+ * <p>The numbers of hits, misses and evictions are kept so that the budget can be tuned, and are logged by
+ * {@link #clear()}.</p>
+ */
+class MasterTranslationFileCache {
+//> STATIC CONSTANTS
+	/** System property setting the memory budget for cached languages, in bytes */
+	static final String PROPERTY_MEMORY_BUDGET = "frontlinesms.translation.cache.budget";
+	/** Memory budget used if {@link #PROPERTY_MEMORY_BUDGET} is not set */
+	private static final long DEFAULT_MEMORY_BUDGET = 16L * 1024 * 1024;
+
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(MasterTranslationFileCache.class);
+
+//> INSTANCE VARIABLES
+	/** Estimated memory which cached languages without pending edits may retain, in bytes */
+	private final long memoryBudget;
+	/** Languages with pending edits, by identifier, which must not be evicted */
+	private final Map<String, MasterTranslationFile> editedLanguages;
+	/** Cached languages by identifier, least recently used first.  Guarded by <code>this</code>. */
+	private final LinkedHashMap<String, Cached> cached = new LinkedHashMap<String, Cached>(16, 0.75f, true);
+	/** Estimated memory retained by the cached languages without pending edits, in bytes.  Guarded by <code>this</code>. */
+	private long cachedSize;
+	/** Number of requests for languages which were cached.  Guarded by <code>this</code>. */
+	private long hits;
+	/** Number of requests for languages which were not cached, or whose files had changed.  Guarded by <code>this</code>. */
+	private long misses;
+	/** Number of languages evicted to keep within the budget.  Guarded by <code>this</code>. */
+	private long evictions;
+	/** Number of languages cleared by the collector.  Guarded by <code>this</code>. */
+	private long collected;
+
+//> CONSTRUCTORS
+	/**
+	 * @param memoryBudget estimated memory which cached languages without pending edits may retain, in bytes
+	 * @param editedLanguages languages with pending edits, by identifier, which must not be evicted
+	 */
+	MasterTranslationFileCache(long memoryBudget, Map<String, MasterTranslationFile> editedLanguages) {
+		this.memoryBudget = memoryBudget;
+		this.editedLanguages = editedLanguages;
+	}
+
+	/** @return a new cache, with the memory budget set by {@link #PROPERTY_MEMORY_BUDGET} */
+	static MasterTranslationFileCache fromSystemProperties(Map<String, MasterTranslationFile> editedLanguages) {
+		return new MasterTranslationFileCache(Long.getLong(PROPERTY_MEMORY_BUDGET, DEFAULT_MEMORY_BUDGET), editedLanguages);
+	}
+
+//> ACCESSORS
+	/**
+	 * Gets a cached language, counting a hit or a miss.
+	 * @param identifier identifier of the language
+	 * @return the cached language, or <code>null</code> if it is not cached or its file has changed since it was loaded
+	 */
+	synchronized SelectedLanguageSession.Entry get(String identifier) {
+		SelectedLanguageSession.Entry entry = getIfCached(identifier);
+		if(entry == null) {
+			++this.misses;
+		} else {
+			++this.hits;
+		}
+		return entry;
+	}
+
+	/** @return <code>true</code> if the language is cached and its file is unchanged; hits and misses are not counted */
+	synchronized boolean contains(String identifier) {
+		return getIfCached(identifier) != null;
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/** @return the number of languages cleared by the collector because memory ran short */
+	synchronized long getCollected() {
+		return collected;
+	}
+
+	/** @return the estimated memory retained by the cached languages without pending edits, in bytes */
+	synchronized long getSize() {
+		return cachedSize;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return this.cached.size() + " language(s), " + (this.cachedSize / 1024) + "KB of " + (this.memoryBudget / 1024) + "KB; "
+				+ this.hits + " hit(s), " + this.misses + " miss(es), " + this.evictions + " eviction(s), " + this.collected + " collected";
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Caches a language which has just been loaded, evicting the least recently used languages if the cache is
+	 * now over its budget.  The language just added is never evicted.
+	 */
+	void put(SelectedLanguageSession.Entry entry) {
+		long size = estimateSize(entry.getLanguageBundle());
+		synchronized(this) {
+			remove(entry.getIdentifier());
+			Cached cached = new Cached(entry, size);
+			this.cached.put(entry.getIdentifier(), cached);
+			if(isEdited(entry.getIdentifier())) {
+				cached.pinned = entry;
+			} else {
+				this.cachedSize += size;
+			}
+			trim(entry.getIdentifier());
+		}
+	}
+
+	/**
+	 * Pins a cached language which now has pending edits, so that it cannot be evicted or cleared by the collector.
+	 * It is unpinned once its edits have been saved, the next time a language is cached.
+	 */
+	synchronized void pin(String identifier) {
+		Cached cached = this.cached.get(identifier);
+		if(cached != null && cached.pinned == null) {
+			cached.pinned = cached.reference.get();
+			if(cached.pinned != null) {
+				this.cachedSize -= cached.size;
+			}
+		}
+	}
+
+	/** Removes a language from the cache. */
+	synchronized void remove(String identifier) {
+		Cached cached = this.cached.remove(identifier);
+		if(cached != null && cached.pinned == null) {
+			this.cachedSize -= cached.size;
+		}
+	}
+
+	/** Empties the cache, logging how well it has worked. */
+	synchronized void clear() {
+		LOG.info("Master translation file cache: " + this);
+		this.cached.clear();
+		this.cachedSize = 0;
+	}
+
+	/** @return the cached language, if its file is unchanged, without counting a hit or a miss */
+	private SelectedLanguageSession.Entry getIfCached(String identifier) {
+		Cached cached = this.cached.get(identifier);
+		if(cached == null) {
+			return null;
+		}
+		SelectedLanguageSession.Entry entry = cached.reference.get();
+		if(entry == null || entry.isStale()) {
+			if(entry == null) {
+				++this.collected;
+			}
+			remove(identifier);
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Pins languages which now have pending edits and unpins those which no longer have, clears out languages
+	 * cleared by the collector, estimates again the size of languages whose translation files may have been loaded
+	 * since, and evicts the least recently used languages until the cache is within its budget.
+	 * @param keep identifier of a language which must not be evicted
+	 */
+	private void trim(String keep) {
+		Iterator<Map.Entry<String, Cached>> languages = this.cached.entrySet().iterator();
+		while(languages.hasNext()) {
+			Map.Entry<String, Cached> language = languages.next();
+			Cached cached = language.getValue();
+			SelectedLanguageSession.Entry entry = cached.reference.get();
+			boolean edited = isEdited(language.getKey());
+			if(entry == null) {
+				languages.remove();
+				this.cachedSize -= cached.size;
+				++this.collected;
+			} else if(edited && cached.pinned == null) {
+				cached.pinned = entry;
+				this.cachedSize -= cached.size;
+			} else if(!edited && cached.pinned != null) {
+				cached.pinned = null;
+				this.cachedSize += cached.size;
+			}
+			if(entry != null) {
+				long size = estimateSize(entry.getLanguageBundle());
+				if(cached.pinned == null) {
+					this.cachedSize += size - cached.size;
+				}
+				cached.size = size;
+			}
+		}
+
+		languages = this.cached.entrySet().iterator();
+		while(this.cachedSize > this.memoryBudget && languages.hasNext()) {
+			Map.Entry<String, Cached> language = languages.next();
+			Cached cached = language.getValue();
+			if(cached.pinned == null && !language.getKey().equals(keep)) {
+				languages.remove();
+				this.cachedSize -= cached.size;
+				++this.evictions;
+			}
+		}
+	}
+
+	/** @return <code>true</code> if the language has pending edits */
+	private boolean isEdited(String identifier) {
+		return this.editedLanguages != null && this.editedLanguages.containsKey(identifier);
+	}
+
+//> STATIC HELPERS
+	/** @return an estimate of the memory retained by a loaded language, in bytes, without loading any more of it */
+	private static long estimateSize(MasterTranslationFile languageBundle) {
+		return languageBundle.estimateLoadedSize();
+	}
+
+//> INNER CLASSES
+	/** A cached language and its estimated size */
+	private static final class Cached {
+		/** The language, which the collector may clear if memory runs short */
+		private final SoftReference<SelectedLanguageSession.Entry> reference;
+		/** Estimated memory retained by the language, in bytes */
+		private long size;
+		/** The language, while it has pending edits, so that it cannot be cleared; otherwise <code>null</code> */
+		private SelectedLanguageSession.Entry pinned;
+
+		Cached(SelectedLanguageSession.Entry entry, long size) {
+			this.reference = new SoftReference<SelectedLanguageSession.Entry>(entry);
+			this.size = size;
+		}
+	}
+}
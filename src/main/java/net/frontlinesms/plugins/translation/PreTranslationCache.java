@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+
+/**
+ * Machine translations already fetched from a {@link TranslationProvider} into one language, by source text, so that
+ * repeated texts and later runs of the {@link PreTranslator} do not ask the provider again.
+ * <p>Each provider and target language has its own cache file in the plugin's working directory.  The cache only
+ * saves requests, so a failure to read or write it is logged rather than thrown.</p>
+ */
+class PreTranslationCache {
+//> STATIC CONSTANTS
+	/** Name of the directory, within the plugin's working directory, where cached translations are kept */
+	private static final String CACHE_DIRECTORY = "pretranslation" + File.separator + "cache";
+
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(PreTranslationCache.class);
+
+//> INSTANCE VARIABLES
+	/** File the translations are stored in */
+	private final File file;
+	/** Translations, by source text.  Guarded by <code>this</code>. */
+	private final Properties translations;
+	/** <code>true</code> if translations have been added since the cache was last saved.  Guarded by <code>this</code>. */
+	private boolean modified;
+
+//> CONSTRUCTORS
+	private PreTranslationCache(File file, Properties translations) {
+		this.file = file;
+		this.translations = translations;
+	}
+
+	/**
+	 * Loads the cached translations of a provider into a language from the default cache directory.
+	 * @param providerName the {@link TranslationProvider#getName()} of the provider
+	 * @param targetLanguageCode the language translated into
+	 * @return the cached translations; empty if there are none
+	 */
+	static PreTranslationCache load(String providerName, String targetLanguageCode) {
+		File directory = new File(new File(TranslationPluginController.getWorkingDirectory(), CACHE_DIRECTORY), providerName);
+		return load(new File(directory, targetLanguageCode + ".properties"));
+	}
+
+	/** @return the translations cached in the supplied file; empty if it does not exist or could not be read */
+	static PreTranslationCache load(File file) {
+		Properties translations = new Properties();
+		if(file.exists()) {
+			InputStreamReader in = null;
+			try {
+				in = new InputStreamReader(new FileInputStream(file), InternationalisationUtils.CHARSET_UTF8);
+				translations.load(in);
+			} catch (IOException ex) {
+				LOG.warn("Unable to read cached translations; they will be fetched again: " + file.getAbsolutePath(), ex);
+				translations.clear();
+			} finally {
+				if(in != null) try { in.close(); } catch(IOException ex) {}
+			}
+		}
+		return new PreTranslationCache(file, translations);
+	}
+
+//> ACCESSORS
+	/** @return the cached translation of the source text, or <code>null</code> if it has not been translated */
+	synchronized String get(String sourceText) {
+		return this.translations.getProperty(sourceText);
+	}
+
+	/** @return the number of cached translations */
+	synchronized int size() {
+		return this.translations.size();
+	}
+
+//> INSTANCE METHODS
+	/** Adds the translation of a source text to the cache. */
+	synchronized void put(String sourceText, String translation) {
+		Object previous = this.translations.setProperty(sourceText, translation);
+		this.modified |= !translation.equals(previous);
+	}
+
+	/** Saves the cache if translations have been added to it. */
+	synchronized void save() {
+		if(!this.modified) {
+			return;
+		}
+		File directory = this.file.getParentFile();
+		if(!directory.exists() && !directory.mkdirs()) {
+			LOG.warn("Unable to create translation cache directory: " + directory.getAbsolutePath());
+			return;
+		}
+
+		FileOutputStream fos = null;
+		OutputStreamWriter osw = null;
+		try {
+			fos = new FileOutputStream(this.file);
+			osw = new OutputStreamWriter(fos, InternationalisationUtils.CHARSET_UTF8);
+			this.translations.store(osw, "Machine translations by source text");
+			this.modified = false;
+		} catch (IOException ex) {
+			LOG.warn("Unable to write cached translations: " + this.file.getAbsolutePath(), ex);
+		} finally {
+			if(osw != null) try { osw.close(); } catch(IOException ex) {}
+			if(fos != null) try { fos.close(); } catch(IOException ex) {}
+		}
+	}
+}
@@ -0,0 +1,281 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+
+/**
+ * Suggests translations for the missing keys of a language using a {@link TranslationProvider}, so that a new
+ * language need not be typed in from scratch.
+ * <p>The default texts of the missing keys are sent to the provider in batches, with only a limited number of
+ * batches being translated at once; no further batches are handed out until one of those has finished.  Each default
+ * text is only sent once however many keys use it, and texts already in the {@link PreTranslationCache} are not sent
+ * at all, so running the pre-translation again costs nothing.</p>
+ * <p>The suggestions are not added to the language.  They are returned as a {@link TranslationDelta}, which can be
+ * written out with {@link #writeChangeSet(TranslationDelta)}, checked and corrected by a translator, and then merged
+ * into the language with {@link TranslationDelta#applyTo(MasterTranslationFile)}.</p>
+ */
+public class PreTranslator {
+//> STATIC CONSTANTS
+	/**
+	 * System property: class name of the {@link TranslationProvider} to use.  There is no default, so that made-up
+	 * suggestions are never offered by accident; set it to {@link StubTranslationProvider} to try pre-translation offline.
+	 */
+	static final String PROPERTY_PROVIDER = "frontlinesms.translation.pretranslate.provider";
+	/** System property: number of texts sent to the provider at once.  Defaults to {@link #DEFAULT_BATCH_SIZE}. */
+	static final String PROPERTY_BATCH_SIZE = "frontlinesms.translation.pretranslate.batchSize";
+	/** System property: number of batches translated at once.  Defaults to {@link #DEFAULT_CONCURRENCY}. */
+	static final String PROPERTY_CONCURRENCY = "frontlinesms.translation.pretranslate.concurrency";
+	/** Default value for {@link #PROPERTY_BATCH_SIZE} */
+	private static final int DEFAULT_BATCH_SIZE = 50;
+	/** Default value for {@link #PROPERTY_CONCURRENCY} */
+	private static final int DEFAULT_CONCURRENCY = 4;
+	/** Prefix of the keys describing the language itself, which are not translated */
+	private static final String BUNDLE_PROPERTIES_PREFIX = "bundle.";
+	/** Name of the directory, within the plugin's working directory, where change sets are written */
+	private static final String CHANGE_SET_DIRECTORY = "pretranslation";
+
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(PreTranslator.class);
+
+//> INSTANCE VARIABLES
+	/** The service which translates the texts */
+	private final TranslationProvider provider;
+	/** Number of texts sent to the provider at once */
+	private final int batchSize;
+	/** Number of batches translated at once */
+	private final int concurrency;
+
+//> CONSTRUCTORS
+	/**
+	 * @param provider the service which translates the texts
+	 * @param batchSize the number of texts sent to the provider at once
+	 * @param concurrency the number of batches translated at once
+	 */
+	public PreTranslator(TranslationProvider provider, int batchSize, int concurrency) {
+		if(batchSize <= 0 || concurrency <= 0) {
+			throw new IllegalArgumentException("Batch size and concurrency must be positive: " + batchSize + ", " + concurrency);
+		}
+		this.provider = provider;
+		this.batchSize = batchSize;
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Creates a pre-translator configured by the system properties {@link #PROPERTY_PROVIDER},
+	 * {@link #PROPERTY_BATCH_SIZE} and {@link #PROPERTY_CONCURRENCY}.
+	 * @return a new pre-translator
+	 * @throws IllegalArgumentException if no provider has been configured, or the configured provider could not be created
+	 */
+	public static PreTranslator fromSystemProperties() {
+		String providerClass = System.getProperty(PROPERTY_PROVIDER);
+		if(providerClass == null || providerClass.trim().length() == 0) {
+			throw new IllegalArgumentException("No translation provider has been configured with " + PROPERTY_PROVIDER);
+		}
+		providerClass = providerClass.trim();
+		TranslationProvider provider;
+		try {
+			provider = (TranslationProvider) Class.forName(providerClass).newInstance();
+		} catch (Exception ex) {
+			throw new IllegalArgumentException("Unable to create translation provider: " + providerClass, ex);
+		}
+		return new PreTranslator(provider,
+				Integer.getInteger(PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE),
+				Integer.getInteger(PROPERTY_CONCURRENCY, DEFAULT_CONCURRENCY));
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Suggests translations for the keys of the default translation which are missing from a language.
+	 * @param languageBundle the language to suggest translations for; it is not changed
+	 * @param defaultTranslation the default translation, e.g. {@link MasterTranslationFile#getDefault()}
+	 * @return the suggested translations, as a change to the current translations of the language
+	 */
+	public TranslationDelta preTranslate(MasterTranslationFile languageBundle, MasterTranslationFile defaultTranslation) {
+		return preTranslate(languageBundle, new TranslationKeyIndex(defaultTranslation, BUNDLE_PROPERTIES_PREFIX));
+	}
+
+	/**
+	 * Suggests translations as described in {@link #preTranslate(MasterTranslationFile, MasterTranslationFile)},
+	 * using an index of the default translation which can be shared between languages.
+	 */
+	TranslationDelta preTranslate(MasterTranslationFile languageBundle, TranslationKeyIndex defaults) {
+		return preTranslate(languageBundle, defaults, loadCache(languageBundle.getLanguageCode()));
+	}
+	
+	/** @return the translations into a language already fetched from the provider */
+	PreTranslationCache loadCache(String targetLanguageCode) {
+		return PreTranslationCache.load(this.provider.getName(), targetLanguageCode);
+	}
+
+	/** Suggests translations as described in {@link #preTranslate(MasterTranslationFile, TranslationKeyIndex)}, using the supplied cache. */
+	TranslationDelta preTranslate(MasterTranslationFile languageBundle, TranslationKeyIndex defaults, PreTranslationCache cache) {
+		TranslationSnapshot snapshot = languageBundle.snapshot();
+		Map<String, String> current = snapshot.getProperties();
+
+		// Missing keys, grouped by their default text so that each text is only translated once
+		Map<String, List<String>> keysBySource = new LinkedHashMap<String, List<String>>();
+		for(int i = 0 ; i < defaults.size() ; ++i) {
+			String value = current.get(defaults.getKey(i));
+			String source = defaults.getDefaultValue(i);
+			if((value == null || value.length() == 0) && source != null && source.length() > 0) {
+				List<String> keys = keysBySource.get(source);
+				if(keys == null) {
+					keys = new ArrayList<String>(1);
+					keysBySource.put(source, keys);
+				}
+				keys.add(defaults.getKey(i));
+			}
+		}
+
+		List<String> uncached = new ArrayList<String>();
+		for(String source : keysBySource.keySet()) {
+			if(cache.get(source) == null) {
+				uncached.add(source);
+			}
+		}
+		int failedBatches = translateAll(uncached, languageBundle.getLanguageCode(), cache);
+		cache.save();
+
+		Map<String, String> suggested = new TreeMap<String, String>(current);
+		int untranslated = 0;
+		for(Entry<String, List<String>> e : keysBySource.entrySet()) {
+			String translation = cache.get(e.getKey());
+			for(String key : e.getValue()) {
+				if(translation != null) {
+					suggested.put(key, translation);
+				} else {
+					++untranslated;
+				}
+			}
+		}
+		LOG.info("Pre-translated " + snapshot.getFilename() + " with " + this.provider.getName() + ": "
+				+ keysBySource.size() + " text(s) for missing keys, " + (keysBySource.size() - uncached.size()) + " cached, "
+				+ uncached.size() + " sent, " + failedBatches + " failed batch(es), " + untranslated + " key(s) left untranslated");
+		return TranslationDelta.compute(snapshot.getFilename(), current, suggested);
+	}
+
+	/**
+	 * Writes suggested translations to the pre-translation directory of the plugin's working directory, for a
+	 * translator to review.
+	 * @param suggestions suggestions made by {@link #preTranslate(MasterTranslationFile, MasterTranslationFile)}
+	 * @return the file written
+	 * @throws IOException
+	 */
+	public File writeChangeSet(TranslationDelta suggestions) throws IOException {
+		File directory = new File(TranslationPluginController.getWorkingDirectory(), CHANGE_SET_DIRECTORY);
+		if(!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Unable to create pre-translation directory: " + directory.getAbsolutePath());
+		}
+		File file = new File(directory, suggestions.getFilename());
+		suggestions.writeTo(file);
+		return file;
+	}
+
+	/**
+	 * Sends texts to the provider in batches, with at most {@link #concurrency} batches being translated at once,
+	 * and adds the translations to the cache.  A batch which fails is logged and its texts are left untranslated.
+	 * @return the number of batches which failed
+	 */
+	private int translateAll(List<String> texts, final String targetLanguageCode, final PreTranslationCache cache) {
+		if(texts.isEmpty()) {
+			return 0;
+		}
+		int batchCount = (texts.size() + this.batchSize - 1) / this.batchSize;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.concurrency, batchCount));
+		// A permit is held by each batch being translated, so batches are not queued faster than the provider answers them
+		final Semaphore inProgress = new Semaphore(this.concurrency);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>(batchCount);
+			for(int start = 0 ; start < texts.size() ; start += this.batchSize) {
+				final List<String> batch = texts.subList(start, Math.min(texts.size(), start + this.batchSize));
+				inProgress.acquire();
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						try {
+							translateBatch(batch, targetLanguageCode, cache);
+							return null;
+						} finally {
+							inProgress.release();
+						}
+					}
+				}));
+			}
+
+			int failedBatches = 0;
+			for(Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException ex) {
+					++failedBatches;
+					LOG.warn("Unable to pre-translate a batch of texts into " + targetLanguageCode, ex.getCause());
+				}
+			}
+			return failedBatches;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while pre-translating.", ex);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** Translates one batch of texts, and adds the translations to the cache. */
+	private void translateBatch(List<String> batch, String targetLanguageCode, PreTranslationCache cache) throws IOException {
+		List<String> translations = this.provider.translate(batch, targetLanguageCode);
+		if(translations == null || translations.size() != batch.size()) {
+			throw new IOException(this.provider.getName() + " returned " + (translations == null ? "nothing" : translations.size() + " translation(s)")
+					+ " for " + batch.size() + " text(s).");
+		}
+		for(int i = 0 ; i < batch.size() ; ++i) {
+			String translation = translations.get(i);
+			if(translation != null && translation.length() > 0) {
+				cache.put(batch.get(i), translation);
+			}
+		}
+	}
+
+//> BATCH
+	/**
+	 * Suggests translations for the missing keys of languages, and writes them as change sets for review.
+	 * The provider and batching are configured with system properties, as described in {@link #fromSystemProperties()}.
+	 * @param args the ISO 639-1 codes of the languages to pre-translate; all languages if none are given
+	 * @throws IOException if a change set could not be written
+	 */
+	public static void main(String[] args) throws IOException {
+		PreTranslator preTranslator = fromSystemProperties();
+		TranslationKeyIndex defaults = new TranslationKeyIndex(MasterTranslationFile.getDefault(), BUNDLE_PROPERTIES_PREFIX);
+		List<String> languageCodes = Arrays.asList(args);
+		for(MasterTranslationFile languageBundle : MasterTranslationFile.getAll()) {
+			if(!languageCodes.isEmpty() && !languageCodes.contains(languageBundle.getLanguageCode())) {
+				continue;
+			}
+			TranslationDelta suggestions = preTranslator.preTranslate(languageBundle, defaults);
+			if(suggestions.isEmpty()) {
+				System.out.println(languageBundle.getFilename() + ": nothing to pre-translate");
+			} else {
+				File file = preTranslator.writeChangeSet(suggestions);
+				System.out.println(languageBundle.getFilename() + ": " + suggestions.size() + " suggested translation(s) written to " + file.getAbsolutePath());
+			}
+		}
+	}
+}
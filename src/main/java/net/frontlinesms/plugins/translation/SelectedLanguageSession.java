@@ -0,0 +1,106 @@
+/**
+ * 
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.File;
+
+/**
+ * Holds the {@link MasterTranslationFile} for the language most recently read, usually the language selected in the
+ * translation tab, so that it is only loaded from disk once per selection rather than every time it is needed.
+ * <p>The loaded file is discarded when a different language is requested, or when the size or modification time
+ * of the language file on disk changes.  The current entry is replaced atomically, so no locking is required
+ * to read it.  When a language is not held, it is taken from the {@link MasterTranslationFileCache} if it is
+ * there, e.g. because the {@link LanguagePrefetcher} has loaded it, and languages loaded here are cached so they
+ * need not be loaded again if they are selected again.  The session is shared by the editors of a
+ * {@link TranslationWorkspace}, so a language read by the {@link TranslationHttpService} replaces the held language,
+ * and the tab's language is then taken from the cache.</p>
+ */
+class SelectedLanguageSession {
+//> INSTANCE VARIABLES
+	/** The currently loaded language, or <code>null</code> if none is loaded */
+	private volatile Entry current;
+	/** Recently loaded languages, or <code>null</code> if they are not cached */
+	private final MasterTranslationFileCache cache;
+
+//> CONSTRUCTORS
+	SelectedLanguageSession() {
+		this(null);
+	}
+
+	/** @param cache recently loaded languages, or <code>null</code> if they are not cached */
+	SelectedLanguageSession(MasterTranslationFileCache cache) {
+		this.cache = cache;
+	}
+
+//> ACCESSORS
+	/**
+	 * Gets the {@link MasterTranslationFile} with the supplied identifier, loading it if it is not the
+	 * currently held language or if its file has changed on disk since it was loaded.
+	 * @param identifier identifier of the language, as returned by {@link MasterTranslationFile#getIdentifier()}
+	 * @return the language with the supplied identifier
+	 */
+	MasterTranslationFile get(String identifier) {
+		Entry entry = this.current;
+		if(entry == null || !entry.identifier.equals(identifier) || entry.isStale()) {
+			entry = this.cache == null ? null : this.cache.get(identifier);
+			if(entry == null) {
+				entry = Entry.load(identifier);
+				if(this.cache != null) {
+					this.cache.put(entry);
+				}
+			}
+			this.current = entry;
+		}
+		return entry.languageBundle;
+	}
+
+	/** Discards the currently held language, so that it will be reloaded next time it is requested. */
+	void invalidate() {
+		this.current = null;
+	}
+
+//> STATIC HELPERS
+	/** @return the file on disk that the supplied language is loaded from */
+	private static File getFile(MasterTranslationFile languageBundle) {
+		return new File(MasterTranslationFile.getLanguageDirectory(), languageBundle.getFilename());
+	}
+
+//> INNER CLASSES
+	/** A loaded language and the state of its file when it was loaded. */
+	static final class Entry {
+		private final String identifier;
+		private final MasterTranslationFile languageBundle;
+		private final File file;
+		private final long lastModified;
+		private final long length;
+
+		Entry(String identifier, MasterTranslationFile languageBundle, File file) {
+			this.identifier = identifier;
+			this.languageBundle = languageBundle;
+			this.file = file;
+			this.lastModified = file.lastModified();
+			this.length = file.length();
+		}
+
+		/** @return the language with the supplied identifier, loaded from disk */
+		static Entry load(String identifier) {
+			MasterTranslationFile languageBundle = MasterTranslationFile.getFromIdentifier(identifier);
+			return new Entry(identifier, languageBundle, getFile(languageBundle));
+		}
+
+		String getIdentifier() {
+			return identifier;
+		}
+
+		MasterTranslationFile getLanguageBundle() {
+			return languageBundle;
+		}
+
+		/** @return <code>true</code> if the file has changed on disk since this entry was created */
+		boolean isStale() {
+			return this.file.lastModified() != this.lastModified
+					|| this.file.length() != this.length;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+
+/**
+ * Records, for each translated key of a language, a fingerprint of the default value it was translated from, so
+ * that translations whose default value has changed since can be found.
+ * <p>The fingerprints are kept in a sidecar file in the plugin's working directory, so the language files themselves
+ * are not changed.  A translation with no recorded fingerprint is taken to be up to date with the current default,
+ * and that default's fingerprint is recorded for it and saved straight away, so it is not taken from a later default
+ * if the language is not saved before the defaults change.</p>
+ * <p>The stale keys are found with one pass over the {@link TranslationKeyIndex}, comparing integer fingerprints, and
+ * are then kept up to date as translations are edited.</p>
+ */
+class SourceFingerprintIndex {
+//> STATIC CONSTANTS
+	/** Name of the directory, within the plugin's working directory, where fingerprints are kept */
+	private static final String FINGERPRINT_DIRECTORY = "sources";
+
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(SourceFingerprintIndex.class);
+
+//> INSTANCE VARIABLES
+	/** File the fingerprints are stored in */
+	private final File file;
+	/** Fingerprint of the default value each translation was made from, by key */
+	private final Map<String, Integer> fingerprints;
+	/** The fingerprints as they are stored in {@link #file}, which do not include edits not yet saved */
+	private final Map<String, Integer> savedFingerprints;
+	/** Translated keys whose default value has changed since they were translated */
+	private final Set<String> staleKeys = new HashSet<String>();
+	/** The defaults the {@link #staleKeys} were found from, or <code>null</code> if they have not been found yet */
+	private TranslationKeyIndex checkedDefaults;
+	/** <code>true</code> if fingerprints have changed since they were last saved */
+	private boolean modified;
+
+//> CONSTRUCTORS
+	private SourceFingerprintIndex(File file, Map<String, Integer> fingerprints) {
+		this.file = file;
+		this.fingerprints = fingerprints;
+		this.savedFingerprints = new HashMap<String, Integer>(fingerprints);
+	}
+
+	/**
+	 * Loads the fingerprints of a language from the default fingerprint directory.
+	 * @param filename the filename of the language file
+	 * @return the fingerprints of the language; empty if none have been recorded
+	 */
+	static SourceFingerprintIndex load(String filename) {
+		return load(new File(new File(TranslationPluginController.getWorkingDirectory(), FINGERPRINT_DIRECTORY), filename));
+	}
+
+	/** @return the fingerprints stored in the supplied file; empty if it does not exist or could not be read */
+	static SourceFingerprintIndex load(File file) {
+		Map<String, Integer> fingerprints = new HashMap<String, Integer>();
+		if(file.exists()) {
+			BufferedReader in = null;
+			try {
+				in = new BufferedReader(new InputStreamReader(new FileInputStream(file), InternationalisationUtils.CHARSET_UTF8));
+				String line;
+				while((line = in.readLine()) != null) {
+					int separator = line.lastIndexOf('=');
+					if(separator > 0) {
+						try {
+							fingerprints.put(line.substring(0, separator), (int) Long.parseLong(line.substring(separator + 1), 16));
+						} catch (NumberFormatException ex) {
+							LOG.warn("Ignoring bad fingerprint in " + file.getAbsolutePath() + ": " + line);
+						}
+					}
+				}
+			} catch (IOException ex) {
+				LOG.warn("Unable to read fingerprints; all translations will be treated as up to date: " + file.getAbsolutePath(), ex);
+				fingerprints.clear();
+			} finally {
+				if(in != null) try { in.close(); } catch(IOException ex) {}
+			}
+		}
+		return new SourceFingerprintIndex(file, fingerprints);
+	}
+
+//> ACCESSORS
+	/**
+	 * Gets the keys whose translation was made from a different default value to the current one.  The first call
+	 * with a new set of defaults compares every translation against them; later calls return the stale keys kept up
+	 * to date by {@link #translationChanged(String, String, TranslationKeyIndex)}.
+	 * @param defaults the current default translation
+	 * @param translations the current translations of the language
+	 * @return the stale keys, as an unmodifiable set
+	 */
+	synchronized Set<String> getStaleKeys(TranslationKeyIndex defaults, Map<String, String> translations) {
+		if(this.checkedDefaults != defaults) {
+			boolean recorded = false;
+			this.staleKeys.clear();
+			for(int i = 0 ; i < defaults.size() ; ++i) {
+				String key = defaults.getKey(i);
+				Integer fingerprint = this.fingerprints.get(key);
+				if(fingerprint != null && fingerprint.intValue() == defaults.getDefaultFingerprint(i)) {
+					// Up to date.  This is by far the most common case, so it is decided without looking up the translation.
+					continue;
+				}
+				String value = translations.get(key);
+				if(value == null || value.length() == 0) {
+					continue;
+				}
+				if(fingerprint == null) {
+					this.fingerprints.put(key, defaults.getDefaultFingerprint(i));
+					this.savedFingerprints.put(key, defaults.getDefaultFingerprint(i));
+					recorded = true;
+				} else {
+					this.staleKeys.add(key);
+				}
+			}
+			this.checkedDefaults = defaults;
+			if(recorded) {
+				// Existing translations are recorded against today's defaults, whether or not the language is saved
+				write(this.savedFingerprints);
+			}
+		}
+		return Collections.unmodifiableSet(this.staleKeys);
+	}
+
+	/**
+	 * Checks whether one translation was made from a different default value to the current one, without comparing
+	 * the whole language.  A translation with no recorded fingerprint is taken to be up to date, as it would be by
+	 * {@link #getStaleKeys(TranslationKeyIndex, Map)}.
+	 * @param key the key of the translation
+	 * @param value the current translation, or <code>null</code> or empty if there is none
+	 * @param defaults the current default translation
+	 * @return <code>true</code> if the translation is stale
+	 */
+	synchronized boolean isStale(String key, String value, TranslationKeyIndex defaults) {
+		int index = defaults.indexOf(key);
+		if(value == null || value.length() == 0 || index < 0) {
+			return false;
+		}
+		Integer fingerprint = this.fingerprints.get(key);
+		return fingerprint != null && fingerprint.intValue() != defaults.getDefaultFingerprint(index);
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Records that a translation has been edited, so that it is now translated from the current default value.
+	 * @param key the edited key
+	 * @param value the new translation, or <code>null</code> or empty if it has been deleted
+	 * @param defaults the current default translation
+	 */
+	synchronized void translationChanged(String key, String value, TranslationKeyIndex defaults) {
+		this.staleKeys.remove(key);
+		int index = defaults.indexOf(key);
+		if(value == null || value.length() == 0 || index < 0) {
+			this.modified |= this.fingerprints.remove(key) != null;
+		} else {
+			Integer previous = this.fingerprints.put(key, defaults.getDefaultFingerprint(index));
+			this.modified |= previous == null || previous.intValue() != defaults.getDefaultFingerprint(index);
+		}
+	}
+
+	/**
+	 * Saves the fingerprints if they have changed.  The fingerprints are only an aid to translators, so a failure
+	 * to save them is logged rather than thrown.
+	 */
+	synchronized void save() {
+		if(this.modified && write(this.fingerprints)) {
+			this.modified = false;
+			this.savedFingerprints.clear();
+			this.savedFingerprints.putAll(this.fingerprints);
+		}
+	}
+
+	/**
+	 * Writes fingerprints to {@link #file}, logging any failure.
+	 * @return <code>true</code> if the fingerprints were written; <code>false</code> otherwise
+	 */
+	private boolean write(Map<String, Integer> fingerprints) {
+		File directory = this.file.getParentFile();
+		if(!directory.exists() && !directory.mkdirs()) {
+			LOG.warn("Unable to create fingerprint directory: " + directory.getAbsolutePath());
+			return false;
+		}
+
+		FileOutputStream fos = null;
+		OutputStreamWriter osw = null;
+		PrintWriter out = null;
+		try {
+			fos = new FileOutputStream(this.file);
+			osw = new OutputStreamWriter(fos, InternationalisationUtils.CHARSET_UTF8);
+			out = new PrintWriter(osw);
+			for(Entry<String, Integer> e : new TreeMap<String, Integer>(fingerprints).entrySet()) {
+				out.write(e.getKey() + "=" + Integer.toHexString(e.getValue()) + "\n");
+			}
+			if(out.checkError()) {
+				LOG.warn("Unable to write fingerprints: " + this.file.getAbsolutePath());
+				return false;
+			}
+			return true;
+		} catch (IOException ex) {
+			LOG.warn("Unable to write fingerprints: " + this.file.getAbsolutePath(), ex);
+			return false;
+		} finally {
+			if(out != null) out.close();
+			if(osw != null) try { osw.close(); } catch(IOException ex) {}
+			if(fos != null) try { fos.close(); } catch(IOException ex) {}
+		}
+	}
+
+//> STATIC HELPERS
+	/**
+	 * Calculates the fingerprint of a default value.  {@link String#hashCode()} is specified by the platform, so it is
+	 * stable between runs, and is cached by each string, so comparing fingerprints costs almost nothing.
+	 * @return the fingerprint of the default value
+	 */
+	static int of(String defaultValue) {
+		return defaultValue == null ? 0 : defaultValue.hashCode();
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link TranslationProvider} which works offline, for trying out the {@link PreTranslator}.  Each text is
+ * "translated" by prefixing it with the target language code, e.g. <code>[fr] Save</code>, so placeholders are kept
+ * and suggested translations are easy to spot.
+ * <p>A delay per batch can be set with the system property {@link #PROPERTY_DELAY}, to see how the pipeline behaves
+ * with a slow service.</p>
+ */
+public class StubTranslationProvider implements TranslationProvider {
+//> STATIC CONSTANTS
+	/** System property: milliseconds to wait before returning each batch.  Defaults to no delay. */
+	static final String PROPERTY_DELAY = "frontlinesms.translation.pretranslate.stubDelay";
+
+//> INSTANCE VARIABLES
+	/** Milliseconds to wait before returning each batch */
+	private final long delay;
+
+//> CONSTRUCTORS
+	public StubTranslationProvider() {
+		this(Long.getLong(PROPERTY_DELAY, 0));
+	}
+
+	StubTranslationProvider(long delay) {
+		this.delay = delay;
+	}
+
+//> TRANSLATION PROVIDER METHODS
+	public String getName() {
+		return "stub";
+	}
+
+	public List<String> translate(List<String> texts, String targetLanguageCode) throws IOException {
+		if(this.delay > 0) {
+			try {
+				Thread.sleep(this.delay);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while translating.");
+			}
+		}
+		List<String> translations = new ArrayList<String>(texts.size());
+		for(String text : texts) {
+			translations.add("[" + targetLanguageCode + "] " + text);
+		}
+		return translations;
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * 
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+
+/**
+ * Stores the version of each language which was last submitted to FrontlineSMS support, so that later
+ * submissions need only contain a {@link TranslationDelta}.
+ * <p>Each baseline is kept as a snapshot file whose first line records the hash of its content.  If the
+ * recorded hash does not match the snapshot, the snapshot is discarded and treated as missing.</p>
+ */
+public class SubmissionBaseline {
+//> STATIC CONSTANTS
+	/** Name of the directory, within the plugin's working directory, where baselines are kept */
+	private static final String BASELINE_DIRECTORY = "submitted";
+	/** Name of the directory, within the plugin's working directory, where languages are kept as they were before they were first edited */
+	private static final String INSTALLED_DIRECTORY = "installed";
+	/** Prefix of the first line of a baseline file, which contains the hash of the file's translations */
+	private static final String HASH_PREFIX = "#hash=";
+
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(SubmissionBaseline.class);
+
+//> INSTANCE VARIABLES
+	/** Directory the baseline snapshots are stored in */
+	private final File directory;
+
+//> CONSTRUCTORS
+	/** Create a {@link SubmissionBaseline} using the default baseline directory. */
+	public SubmissionBaseline() {
+		this(new File(TranslationPluginController.getWorkingDirectory(), BASELINE_DIRECTORY));
+	}
+
+	SubmissionBaseline(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Creates a {@link SubmissionBaseline} holding each language as it was before it was first edited with this
+	 * plugin, which a language that has never been submitted can be compared with instead.
+	 */
+	public static SubmissionBaseline getInstalled() {
+		return new SubmissionBaseline(new File(TranslationPluginController.getWorkingDirectory(), INSTALLED_DIRECTORY));
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Calculates the delta between the last submitted version of a language and its current translations.
+	 * @param languageBundle
+	 * @return the delta from the last submitted version
+	 */
+	public TranslationDelta getDelta(MasterTranslationFile languageBundle) {
+		TranslationSnapshot snapshot = languageBundle.snapshot();
+		return TranslationDelta.compute(snapshot.getFilename(),
+				load(snapshot.getFilename()), snapshot.getProperties());
+	}
+
+	/**
+	 * Loads the baseline for a language file.
+	 * @param filename the filename of the language file
+	 * @return the baseline translations, or <code>null</code> if there is no valid baseline for the file
+	 */
+	Map<String, String> load(String filename) {
+		File file = getFile(filename);
+		if(!file.exists()) {
+			return null;
+		}
+		
+		List<String> lines;
+		try {
+			lines = TextFileContent.getFromStream(filename, new FileInputStream(file)).getLines();
+		} catch (FileNotFoundException ex) {
+			return null;
+		}
+		if(lines.isEmpty() || !lines.get(0).startsWith(HASH_PREFIX)) {
+			LOG.warn("Ignoring baseline without hash: " + file.getAbsolutePath());
+			return null;
+		}
+		
+		String expectedHash = lines.get(0).substring(HASH_PREFIX.length());
+		TextFileContent content = TextFileContent.createEmpty();
+		for(String line : lines.subList(1, lines.size())) {
+			content.addLine(line);
+		}
+		Map<String, String> baseline = MasterTranslationFile.getTranslationMap(Collections.singletonList(content));
+		if(!expectedHash.equals(ContentHash.of(baseline))) {
+			LOG.warn("Ignoring baseline with mismatched hash: " + file.getAbsolutePath());
+			return null;
+		}
+		return baseline;
+	}
+
+	/**
+	 * Records the current translations of a language as its new baseline.  This should be called once the
+	 * translations have been successfully submitted.
+	 * @param languageBundle
+	 * @throws IOException
+	 */
+	public void store(MasterTranslationFile languageBundle) throws IOException {
+		TranslationSnapshot snapshot = languageBundle.snapshot();
+		Map<String, String> translations = new TreeMap<String, String>(snapshot.getProperties());
+		
+		if(!this.directory.exists() && !this.directory.mkdirs()) {
+			throw new IOException("Unable to create baseline directory: " + this.directory.getAbsolutePath());
+		}
+		
+		FileOutputStream fos = null;
+		OutputStreamWriter osw = null;
+		PrintWriter out = null;
+		try {
+			fos = new FileOutputStream(getFile(snapshot.getFilename()));
+			osw = new OutputStreamWriter(fos, InternationalisationUtils.CHARSET_UTF8);
+			out = new PrintWriter(osw);
+			out.write(HASH_PREFIX + ContentHash.of(translations) + "\n");
+			for(Entry<String, String> e : translations.entrySet()) {
+				out.write(e.getKey() + "=" + e.getValue() + "\n");
+			}
+		} finally {
+			if(out != null) out.close();
+			if(osw != null) try { osw.close(); } catch(IOException ex) {}
+			if(fos != null) try { fos.close(); } catch(IOException ex) {}
+		}
+	}
+
+	/**
+	 * Records the current translations of a language as its baseline, unless it already has one.
+	 * @param languageBundle
+	 * @return <code>true</code> if the baseline was recorded, <code>false</code> if there already was one
+	 * @throws IOException
+	 */
+	boolean storeIfAbsent(MasterTranslationFile languageBundle) throws IOException {
+		if(getFile(languageBundle.getFilename()).exists()) {
+			return false;
+		}
+		store(languageBundle);
+		return true;
+	}
+
+	/**
+	 * Gets a file in the baseline directory which a delta can be written to before it is sent.
+	 * @param filename the filename of the language file
+	 * @return the file to write the delta to
+	 * @throws IOException if the baseline directory could not be created
+	 */
+	public File getDeltaFile(String filename) throws IOException {
+		if(!this.directory.exists() && !this.directory.mkdirs()) {
+			throw new IOException("Unable to create baseline directory: " + this.directory.getAbsolutePath());
+		}
+		return new File(this.directory, filename.replace(".properties", ".delta.properties"));
+	}
+
+//> INSTANCE HELPERS
+	/** @return the file the baseline for a language file is stored in */
+	private File getFile(String filename) {
+		return new File(this.directory, filename);
+	}
+}
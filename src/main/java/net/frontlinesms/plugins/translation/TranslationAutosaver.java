@@ -0,0 +1,223 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+
+/**
+ * Saves edited {@link MasterTranslationFile}s in the background.
+ * <p>Edits are collected until no edit has been made for a quiet period, and then all files edited since the
+ * last save are written in one go.  Saves are never closer together than a minimum interval, so a burst of
+ * edits causes a single write.  Each file is written from a {@link MasterTranslationFile#snapshot()}, so the
+ * translator can carry on editing while it is saved.</p>
+ * <p>Autosave is optional, and is switched on by setting the system property {@link #PROPERTY_QUIET_PERIOD}.</p>
+ */
+class TranslationAutosaver {
+//> STATIC CONSTANTS
+	/** System property: milliseconds without an edit before edited files are saved.  Autosave is off if this is not set. */
+	static final String PROPERTY_QUIET_PERIOD = "frontlinesms.translation.autosave.quietPeriod";
+	/** System property: minimum milliseconds between two saves.  Defaults to {@link #DEFAULT_MINIMUM_INTERVAL}. */
+	static final String PROPERTY_MINIMUM_INTERVAL = "frontlinesms.translation.autosave.minimumInterval";
+	/** Default value for {@link #PROPERTY_MINIMUM_INTERVAL} */
+	private static final long DEFAULT_MINIMUM_INTERVAL = 10000;
+	/** Saving is not put off for longer than this many quiet periods after the first unsaved edit, even if editing continues */
+	private static final int MAXIMUM_DELAY_IN_QUIET_PERIODS = 10;
+
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(TranslationAutosaver.class);
+
+//> INSTANCE VARIABLES
+	/** Milliseconds without an edit before edited files are saved */
+	private final long quietPeriod;
+	/** Minimum milliseconds between two saves */
+	private final long minimumInterval;
+	/** Told about the result of each save */
+	private final Listener listener;
+	/** Runs the saves.  Its thread is not a daemon, so a save started on shutdown is allowed to finish. */
+	private final ScheduledExecutorService executor;
+
+	/** Files edited since they were last saved, by identifier.  Guarded by <code>this</code>. */
+	private final Map<String, MasterTranslationFile> unsaved = new LinkedHashMap<String, MasterTranslationFile>();
+	/** The next save, or <code>null</code> if none is scheduled.  Guarded by <code>this</code>. */
+	private ScheduledFuture<?> scheduledSave;
+	/** Time of the first edit since the last save.  Guarded by <code>this</code>. */
+	private long firstUnsavedEditTime;
+	/** Time the last save was started.  Guarded by <code>this</code>. */
+	private long lastSaveTime;
+	/** <code>true</code> while files are being written.  Guarded by <code>this</code>. */
+	private boolean saving;
+
+//> CONSTRUCTORS
+	TranslationAutosaver(long quietPeriod, long minimumInterval, Listener listener) {
+		this.quietPeriod = quietPeriod;
+		this.minimumInterval = minimumInterval;
+		this.listener = listener;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "Translation autosave");
+			}
+		});
+	}
+
+	/**
+	 * Creates an autosaver configured by the system properties {@link #PROPERTY_QUIET_PERIOD} and
+	 * {@link #PROPERTY_MINIMUM_INTERVAL}.
+	 * @return a new autosaver, or <code>null</code> if autosave has not been switched on
+	 */
+	static TranslationAutosaver fromSystemProperties(Listener listener) {
+		Long quietPeriod = getLongProperty(PROPERTY_QUIET_PERIOD);
+		if(quietPeriod == null || quietPeriod <= 0) {
+			return null;
+		}
+		Long minimumInterval = getLongProperty(PROPERTY_MINIMUM_INTERVAL);
+		LOG.info("Autosaving translations after " + quietPeriod + "ms without edits.");
+		return new TranslationAutosaver(quietPeriod, minimumInterval == null ? DEFAULT_MINIMUM_INTERVAL : minimumInterval, listener);
+	}
+
+//> ACCESSORS
+	/** @return <code>true</code> if there are edits which have not yet been written to disk */
+	synchronized boolean hasUnsavedEdits() {
+		return this.saving || !this.unsaved.isEmpty();
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Records that a file has been edited, and schedules it to be saved once editing has paused.
+	 * Must be called after the edit has been made.
+	 */
+	synchronized void edited(MasterTranslationFile languageBundle) {
+		long now = System.currentTimeMillis();
+		if(this.unsaved.isEmpty()) {
+			this.firstUnsavedEditTime = now;
+		}
+		this.unsaved.put(languageBundle.getIdentifier(), languageBundle);
+
+		long saveTime = now + this.quietPeriod;
+		saveTime = Math.min(saveTime, this.firstUnsavedEditTime + this.quietPeriod * MAXIMUM_DELAY_IN_QUIET_PERIODS);
+		saveTime = Math.max(saveTime, this.lastSaveTime + this.minimumInterval);
+		schedule(saveTime - now);
+	}
+
+	/**
+	 * Forgets about edits to the supplied files, e.g. because they have just been saved by the user.
+	 */
+	synchronized void discard(Collection<MasterTranslationFile> languageBundles) {
+		for(MasterTranslationFile languageBundle : languageBundles) {
+			this.unsaved.remove(languageBundle.getIdentifier());
+		}
+		if(this.unsaved.isEmpty() && this.scheduledSave != null) {
+			this.scheduledSave.cancel(false);
+			this.scheduledSave = null;
+		}
+	}
+
+	/** Saves any unsaved edits straight away, and stops autosaving once they have been written. */
+	synchronized void shutdown() {
+		if(!this.unsaved.isEmpty()) {
+			schedule(0);
+		}
+		this.executor.shutdown();
+	}
+
+	/** Replaces the scheduled save with one after the supplied delay.  Must be called while holding the lock on <code>this</code>. */
+	private void schedule(long delay) {
+		if(this.scheduledSave != null) {
+			this.scheduledSave.cancel(false);
+		}
+		this.scheduledSave = this.executor.schedule(new Runnable() {
+			public void run() {
+				save();
+			}
+		}, Math.max(0, delay), TimeUnit.MILLISECONDS);
+	}
+
+	/** Writes all files which have unsaved edits.  Runs on the {@link #executor}. */
+	private void save() {
+		List<MasterTranslationFile> languageBundles;
+		synchronized(this) {
+			languageBundles = new ArrayList<MasterTranslationFile>(this.unsaved.values());
+			this.unsaved.clear();
+			this.scheduledSave = null;
+			this.lastSaveTime = System.currentTimeMillis();
+			this.saving = true;
+		}
+
+		int saved = 0;
+		try {
+			for(MasterTranslationFile languageBundle : languageBundles) {
+				// Any edit made after this snapshot is taken will have marked the file as unsaved again
+				try {
+					languageBundle.save();
+					++saved;
+				} catch (TranslationConflictException ex) {
+					// Saving again will not help until the translator has dealt with the conflict, so it is left for them
+					// to save.  It is still unsaved though, so it is kept until they do.
+					LOG.info("Not autosaving translations also changed by another program: " + ex.getFilename() + " " + ex.getConflictingKeys());
+					keepUnsaved(languageBundle);
+					this.listener.autosaveFailed(languageBundle, ex);
+				} catch (IOException ex) {
+					LOG.warn("Unable to autosave translation: " + languageBundle.getFilename(), ex);
+					keepUnsaved(languageBundle);
+					this.listener.autosaveFailed(languageBundle, ex);
+				}
+			}
+		} finally {
+			synchronized(this) {
+				this.saving = false;
+			}
+		}
+		if(saved > 0) {
+			this.listener.autosaved(saved);
+		}
+	}
+
+	/** Marks a file which could not be saved as still unsaved, so it is retried with the next save and is not forgotten. */
+	private synchronized void keepUnsaved(MasterTranslationFile languageBundle) {
+		if(!this.unsaved.containsKey(languageBundle.getIdentifier())) {
+			this.unsaved.put(languageBundle.getIdentifier(), languageBundle);
+		}
+	}
+
+//> STATIC HELPERS
+	/** @return the value of a system property as a number, or <code>null</code> if it is not set or is not a number */
+	private static Long getLongProperty(String name) {
+		String value = System.getProperty(name);
+		if(value == null) {
+			return null;
+		}
+		try {
+			return Long.valueOf(value.trim());
+		} catch (NumberFormatException ex) {
+			LOG.warn("Ignoring invalid value for " + name + ": " + value);
+			return null;
+		}
+	}
+
+//> INNER CLASSES
+	/** Told about the result of each autosave.  Methods are called on the autosave thread. */
+	interface Listener {
+		/** Called once files have been saved. */
+		void autosaved(int fileCount);
+		/**
+		 * Called if a file could not be saved.  The file is still unsaved, and will be retried at the next save.  If
+		 * saving it was stopped by a {@link TranslationConflictException}, it will not be saved until the translator
+		 * has dealt with the conflict.
+		 */
+		void autosaveFailed(MasterTranslationFile languageBundle, IOException ex);
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ * 
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Thrown when a language file cannot be saved because translations which have been edited were also changed
+ * in the file on disk, e.g. by another program, since it was loaded.
+ */
+public class TranslationConflictException extends IOException {
+	private static final long serialVersionUID = -2412396517207380185L;
+
+	/** Filename of the language which could not be saved */
+	private final String filename;
+	/** Keys of the translations changed both on disk and in the editor */
+	private final Set<String> conflictingKeys;
+
+	TranslationConflictException(String filename, Set<String> conflictingKeys) {
+		super("Translations changed on disk and in the editor: " + filename + " " + conflictingKeys);
+		this.filename = filename;
+		this.conflictingKeys = Collections.unmodifiableSet(conflictingKeys);
+	}
+
+	/** @return filename of the language which could not be saved */
+	public String getFilename() {
+		return filename;
+	}
+
+	/** @return keys of the translations changed both on disk and in the editor */
+	public Set<String> getConflictingKeys() {
+		return conflictingKeys;
+	}
+}
@@ -0,0 +1,226 @@
+/**
+ * 
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.Map.Entry;
+
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+
+/**
+ * The differences between a language's current translations and a baseline version of the same language,
+ * e.g. the version last submitted to FrontlineSMS support.
+ * <p>The delta is written as a valid properties file: added and changed translations are written as normal
+ * <code>key=value</code> lines, so can be merged directly into a language file, and removed keys are written
+ * as comment lines starting with {@link #REMOVED_PREFIX}.</p>
+ */
+public class TranslationDelta {
+//> STATIC CONSTANTS
+	/** Prefix for lines in a delta file listing keys which have been removed */
+	static final String REMOVED_PREFIX = "#-";
+	/** Header line introducing the added translations */
+	private static final String SECTION_ADDED = "## added";
+	/** Header line introducing the changed translations */
+	private static final String SECTION_CHANGED = "## changed";
+	/** Header line introducing the removed translations */
+	private static final String SECTION_REMOVED = "## removed";
+
+//> INSTANCE VARIABLES
+	/** Filename of the language file this is a delta for */
+	private final String filename;
+	/** Hash of the baseline translations, or <code>null</code> if there was no baseline */
+	private final String baselineHash;
+	/** Translations which are not in the baseline */
+	private final SortedMap<String, String> added;
+	/** Translations whose values differ from the baseline */
+	private final SortedMap<String, String> changed;
+	/** Keys which are in the baseline but have since been removed */
+	private final SortedSet<String> removed;
+
+//> CONSTRUCTORS
+	private TranslationDelta(String filename, String baselineHash,
+			SortedMap<String, String> added, SortedMap<String, String> changed, SortedSet<String> removed) {
+		this.filename = filename;
+		this.baselineHash = baselineHash;
+		this.added = added;
+		this.changed = changed;
+		this.removed = removed;
+	}
+
+//> ACCESSORS
+	/** @return filename of the language file this is a delta for */
+	public String getFilename() {
+		return filename;
+	}
+
+	/** @return hash of the baseline this delta was calculated against, or <code>null</code> if there was no baseline */
+	public String getBaselineHash() {
+		return baselineHash;
+	}
+
+	/** @return translations which are not in the baseline */
+	public Map<String, String> getAdded() {
+		return Collections.unmodifiableMap(added);
+	}
+
+	/** @return translations whose values differ from the baseline */
+	public Map<String, String> getChanged() {
+		return Collections.unmodifiableMap(changed);
+	}
+
+	/** @return keys which are in the baseline but have since been removed */
+	public Set<String> getRemoved() {
+		return Collections.unmodifiableSet(removed);
+	}
+
+	/** @return <code>true</code> if there are no differences from the baseline; <code>false</code> otherwise */
+	public boolean isEmpty() {
+		return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+	}
+
+	/** @return the total number of added, changed and removed keys */
+	public int size() {
+		return added.size() + changed.size() + removed.size();
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Writes this delta to a file.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeTo(File file) throws IOException {
+		FileOutputStream fos = null;
+		OutputStreamWriter osw = null;
+		PrintWriter out = null;
+		try {
+			fos = new FileOutputStream(file);
+			osw = new OutputStreamWriter(fos, InternationalisationUtils.CHARSET_UTF8);
+			out = new PrintWriter(osw);
+			out.write("# FrontlineSMS translation delta for " + this.filename + "\n");
+			out.write("# baseline=" + (this.baselineHash == null ? "none" : this.baselineHash) + "\n");
+			out.write("# added=" + added.size() + " changed=" + changed.size() + " removed=" + removed.size() + "\n");
+			out.write(SECTION_ADDED + "\n");
+			for(Entry<String, String> e : added.entrySet()) {
+				out.write(e.getKey() + "=" + e.getValue() + "\n");
+			}
+			out.write(SECTION_CHANGED + "\n");
+			for(Entry<String, String> e : changed.entrySet()) {
+				out.write(e.getKey() + "=" + e.getValue() + "\n");
+			}
+			out.write(SECTION_REMOVED + "\n");
+			for(String key : removed) {
+				out.write(REMOVED_PREFIX + key + "\n");
+			}
+		} finally {
+			if(out != null) out.close();
+			if(osw != null) try { osw.close(); } catch(IOException ex) {}
+			if(fos != null) try { fos.close(); } catch(IOException ex) {}
+		}
+	}
+
+	/**
+	 * Merges this delta into a language bundle.
+	 * @param target the bundle to apply the delta to
+	 */
+	public void applyTo(MasterTranslationFile target) {
+		for(Entry<String, String> e : added.entrySet()) {
+			target.add(e.getKey(), e.getValue());
+		}
+		for(Entry<String, String> e : changed.entrySet()) {
+			target.add(e.getKey(), e.getValue());
+		}
+		for(String key : removed) {
+			try {
+				target.delete(key);
+			} catch (KeyNotFoundException ex) {
+				// Already removed from the target
+			}
+		}
+	}
+
+//> STATIC FACTORIES
+	/**
+	 * Calculates the delta between a baseline and the current translations of a language.
+	 * @param filename filename of the language file
+	 * @param baseline the baseline translations, or <code>null</code> if there is no baseline, in which case
+	 *   all current translations are considered to be added
+	 * @param current the current translations
+	 * @return the delta from the baseline to the current translations
+	 */
+	public static TranslationDelta compute(String filename, Map<String, String> baseline, Map<String, String> current) {
+		SortedMap<String, String> added = new TreeMap<String, String>();
+		SortedMap<String, String> changed = new TreeMap<String, String>();
+		SortedSet<String> removed = new TreeSet<String>();
+		
+		if(baseline == null) {
+			added.putAll(current);
+			return new TranslationDelta(filename, null, added, changed, removed);
+		}
+		
+		String baselineHash = ContentHash.of(baseline);
+		if(!baselineHash.equals(ContentHash.of(current))) {
+			for(Entry<String, String> e : current.entrySet()) {
+				String oldValue = baseline.get(e.getKey());
+				if(oldValue == null) {
+					added.put(e.getKey(), e.getValue());
+				} else if(!oldValue.equals(e.getValue())) {
+					changed.put(e.getKey(), e.getValue());
+				}
+			}
+			for(String key : baseline.keySet()) {
+				if(!current.containsKey(key)) {
+					removed.add(key);
+				}
+			}
+		}
+		return new TranslationDelta(filename, baselineHash, added, changed, removed);
+	}
+
+	/**
+	 * Reads a delta previously written with {@link #writeTo(File)}.
+	 * @param filename filename of the language file the delta applies to
+	 * @param in stream to read the delta from
+	 * @return the delta read from the stream
+	 */
+	public static TranslationDelta read(String filename, InputStream in) {
+		SortedMap<String, String> added = new TreeMap<String, String>();
+		SortedMap<String, String> changed = new TreeMap<String, String>();
+		SortedSet<String> removed = new TreeSet<String>();
+		SortedMap<String, String> section = added;
+		String baselineHash = null;
+		for(String line : TextFileContent.getFromStream(filename, in).getLines()) {
+			if(line.equals(SECTION_ADDED)) {
+				section = added;
+			} else if(line.equals(SECTION_CHANGED)) {
+				section = changed;
+			} else if(line.equals(SECTION_REMOVED)) {
+				section = null;
+			} else if(line.startsWith(REMOVED_PREFIX)) {
+				removed.add(line.substring(REMOVED_PREFIX.length()));
+			} else if(line.startsWith("# baseline=")) {
+				String hash = line.substring("# baseline=".length());
+				if(!hash.equals("none")) baselineHash = hash;
+			} else if(section != null && line.length() > 0 && line.charAt(0) != '#') {
+				int eqIndex = line.indexOf('=');
+				if(eqIndex > 0) {
+					section.put(line.substring(0, eqIndex), line.substring(eqIndex + 1));
+				}
+			}
+		}
+		return new TranslationDelta(filename, baselineHash, added, changed, removed);
+	}
+}
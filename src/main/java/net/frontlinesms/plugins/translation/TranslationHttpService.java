@@ -0,0 +1,624 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+
+/**
+ * Embedded HTTP service allowing several translators to edit the translations of this FrontlineSMS instance at
+ * once, e.g. from other machines on the LAN.
+ * <p>The service edits the same {@link MasterTranslationFile}s as the translation tab, through the shared
+ * {@link TranslationWorkspace}, so edits made through the service show up in the tab and vice versa.  Languages
+ * which are only read are shared with the tab through the workspace's cache, so they are not loaded twice.  Requests
+ * are accepted by the JDK's selector-based {@link HttpServer} and handled by a small thread pool.</p>
+ * <p>Each translation has a <em>version</em>, which is a hash of its value.  An update must give the version
+ * it was based on, and is rejected as a conflict if the translation has changed since, so translators cannot
+ * silently overwrite each other's work.</p>
+ * <p>Endpoints, all under {@link #CONTEXT_PATH}.  Responses are JSON, and request bodies are form-encoded:</p>
+ * <ul>
+ * <li><code>GET languages</code>: the available languages</li>
+ * <li><code>GET languages/{file}/keys?prefix=&amp;offset=&amp;limit=</code>: translations, in key order</li>
+ * <li><code>GET languages/{file}/keys/{key}</code>: a single translation</li>
+ * <li><code>GET languages/{file}/search?q=&amp;missing=true&amp;limit=</code>: translations whose key, value or default contain the query</li>
+ * <li><code>POST languages/{file}/keys</code>: updates translations given as repeated <code>key</code>, <code>value</code> and <code>version</code> parameters,
+ * returning the {@link ValidationFinding}s of each updated translation</li>
+ * <li><code>POST languages/{file}/save</code>: saves the language's edits to disk</li>
+ * </ul>
+ * <p>The service is optional, and is started by setting the system property {@link #PROPERTY_PORT}.  Each time it
+ * is started it makes up a secret token, which is logged and must be sent in the {@link #HEADER_TOKEN} header of
+ * every request, so that only translators who have been given the token can read or change translations.  Only
+ * the keys of the default translation may be updated, and keys and values may not contain line breaks, as these
+ * would add lines to the language file.</p>
+ */
+class TranslationHttpService {
+//> STATIC CONSTANTS
+	/** System property: port the service listens on.  The service is not started if this is not set. */
+	static final String PROPERTY_PORT = "frontlinesms.translation.service.port";
+	/** System property: address the service binds to.  Defaults to {@link #DEFAULT_ADDRESS}; set to <code>0.0.0.0</code> to allow access from the LAN. */
+	static final String PROPERTY_ADDRESS = "frontlinesms.translation.service.address";
+	/** Default value of {@link #PROPERTY_ADDRESS}, which only allows access from this machine */
+	private static final String DEFAULT_ADDRESS = "127.0.0.1";
+	/** Request header which must contain the token of the running service */
+	static final String HEADER_TOKEN = "X-Translation-Token";
+	/** Number of random bytes in a token */
+	private static final int TOKEN_BYTES = 16;
+	/** Path under which all endpoints of the service are found */
+	static final String CONTEXT_PATH = "/translation/";
+	/** Number of threads handling requests */
+	private static final int HANDLER_THREADS = 4;
+	/** Number of translations returned when a request does not give a limit */
+	private static final int DEFAULT_LIMIT = 100;
+	/** Prefix of keys which describe the language rather than translate text, and are not listed */
+	private static final String BUNDLE_PROPERTIES_PREFIX = "bundle.";
+	/** Pattern which the filename of a language must match */
+	private static final String LANGUAGE_FILENAME_PATTERN = "frontlineSMS[A-Za-z0-9_]*\\.properties";
+
+	private static final int HTTP_OK = 200;
+	private static final int HTTP_BAD_REQUEST = 400;
+	private static final int HTTP_FORBIDDEN = 403;
+	private static final int HTTP_NOT_FOUND = 404;
+	private static final int HTTP_METHOD_NOT_ALLOWED = 405;
+	private static final int HTTP_CONFLICT = 409;
+	private static final int HTTP_INTERNAL_ERROR = 500;
+
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(TranslationHttpService.class);
+
+//> INSTANCE VARIABLES
+	/** Address the service listens on */
+	private final InetSocketAddress address;
+	/** Files being edited, shared with the translation tab */
+	private final TranslationWorkspace workspace;
+	/** The sorted keys of the default translation.  Created when first needed. */
+	private TranslationKeyIndex keyIndex;
+	/** Validator used to check updated translations.  Created when first needed. */
+	private TranslationValidator validator;
+	/** The running server, or <code>null</code> if the service is not running */
+	private HttpServer server;
+	/** Threads handling requests, or <code>null</code> if the service is not running */
+	private ExecutorService executor;
+	/** Secret which each request must send in the {@link #HEADER_TOKEN} header.  Made up each time the service is started. */
+	private volatile String token;
+
+//> CONSTRUCTORS
+	TranslationHttpService(InetSocketAddress address, TranslationWorkspace workspace) {
+		this.address = address;
+		this.workspace = workspace;
+	}
+
+	/**
+	 * Creates a service configured by the system properties {@link #PROPERTY_PORT} and {@link #PROPERTY_ADDRESS}.
+	 * @return a new service, or <code>null</code> if the service has not been switched on
+	 */
+	static TranslationHttpService fromSystemProperties(TranslationWorkspace workspace) {
+		String port = System.getProperty(PROPERTY_PORT);
+		if(port == null) {
+			return null;
+		}
+		try {
+			return new TranslationHttpService(new InetSocketAddress(System.getProperty(PROPERTY_ADDRESS, DEFAULT_ADDRESS), Integer.parseInt(port.trim())), workspace);
+		} catch (IllegalArgumentException ex) {
+			LOG.warn("Not starting translation service; invalid address or port: " + port, ex);
+			return null;
+		}
+	}
+
+//> INSTANCE METHODS
+	/** Starts listening for requests. */
+	synchronized void start() throws IOException {
+		this.token = createToken();
+		HttpServer server = HttpServer.create(this.address, 0);
+		server.createContext(CONTEXT_PATH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				TranslationHttpService.this.handle(exchange);
+			}
+		});
+		this.executor = Executors.newFixedThreadPool(HANDLER_THREADS, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Translation service");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(this.executor);
+		server.start();
+		this.server = server;
+		LOG.info("Translation service listening on " + server.getAddress() + CONTEXT_PATH + "; requests must send the header " + HEADER_TOKEN + ": " + this.token);
+	}
+
+	/** Stops the service, if it is running. */
+	synchronized void stop() {
+		if(this.server != null) {
+			this.server.stop(0);
+			this.executor.shutdown();
+			this.server = null;
+			this.executor = null;
+		}
+	}
+
+	/** @return the address the service is listening on, or <code>null</code> if it is not running */
+	synchronized InetSocketAddress getAddress() {
+		return this.server == null ? null : this.server.getAddress();
+	}
+
+	/** @return the token which requests must send in the {@link #HEADER_TOKEN} header, or <code>null</code> if the service has not been started */
+	String getToken() {
+		return this.token;
+	}
+
+//> REQUEST HANDLING
+	/** Handles a request, and sends a JSON response. */
+	private void handle(HttpExchange exchange) throws IOException {
+		int status;
+		String response;
+		try {
+			requireToken(exchange.getRequestHeaders().getFirst(HEADER_TOKEN));
+			String path = exchange.getRequestURI().getRawPath().substring(CONTEXT_PATH.length());
+			String[] segments = path.length() == 0 ? new String[0] : path.split("/");
+			for(int i = 0 ; i < segments.length ; ++i) {
+				segments[i] = decode(segments[i]);
+			}
+			String method = exchange.getRequestMethod();
+			Map<String, List<String>> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+			if("POST".equals(method)) {
+				for(Map.Entry<String, List<String>> e : parseParameters(readBody(exchange)).entrySet()) {
+					parameters.put(e.getKey(), e.getValue());
+				}
+			}
+
+			StringBuilder json = new StringBuilder();
+			status = route(method, segments, parameters, json);
+			response = json.toString();
+		} catch (RequestException ex) {
+			status = ex.status;
+			response = "{\"error\":" + quote(ex.getMessage()) + "}";
+		} catch (IOException ex) {
+			LOG.warn("Problem handling translation service request: " + exchange.getRequestURI(), ex);
+			status = HTTP_INTERNAL_ERROR;
+			response = "{\"error\":" + quote(String.valueOf(ex.getMessage())) + "}";
+		} catch (RuntimeException ex) {
+			LOG.warn("Problem handling translation service request: " + exchange.getRequestURI(), ex);
+			status = HTTP_INTERNAL_ERROR;
+			response = "{\"error\":" + quote(String.valueOf(ex.getMessage())) + "}";
+		}
+
+		byte[] body = response.getBytes(InternationalisationUtils.CHARSET_UTF8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=" + InternationalisationUtils.CHARSET_UTF8);
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(body);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Passes a request to the method handling its endpoint.
+	 * @return the HTTP status of the response
+	 */
+	private int route(String method, String[] segments, Map<String, List<String>> parameters, StringBuilder json) throws RequestException, IOException {
+		if(segments.length == 0 || !segments[0].equals("languages")) {
+			throw new RequestException(HTTP_NOT_FOUND, "Unknown endpoint");
+		}
+		if(segments.length == 1) {
+			requireMethod(method, "GET");
+			listLanguages(json);
+			return HTTP_OK;
+		}
+
+		String filename = segments[1];
+		if(!filename.matches(LANGUAGE_FILENAME_PATTERN) || !isLanguage(filename)) {
+			throw new RequestException(HTTP_NOT_FOUND, "Unknown language: " + filename);
+		}
+		String identifier = MasterTranslationFile.getIdentifier(filename);
+		String endpoint = segments.length > 2 ? segments[2] : "";
+		if(endpoint.equals("keys") && segments.length == 3) {
+			if("POST".equals(method)) {
+				return updateTranslations(identifier, parameters, json);
+			}
+			requireMethod(method, "GET");
+			listTranslations(identifier, parameters, json);
+		} else if(endpoint.equals("keys") && segments.length == 4) {
+			requireMethod(method, "GET");
+			getTranslation(identifier, filename, segments[3], json);
+		} else if(endpoint.equals("search") && segments.length == 3) {
+			requireMethod(method, "GET");
+			searchTranslations(identifier, parameters, json);
+		} else if(endpoint.equals("save") && segments.length == 3) {
+			requireMethod(method, "POST");
+			saveTranslations(identifier, json);
+		} else {
+			throw new RequestException(HTTP_NOT_FOUND, "Unknown endpoint");
+		}
+		return HTTP_OK;
+	}
+
+	/** Lists the available languages. */
+	private void listLanguages(StringBuilder json) {
+		json.append('[');
+		boolean first = true;
+		List<File> files = MasterTranslationFile.getLanguageFiles();
+		files.addAll(MasterTranslationFile.getPackedLanguageFiles());
+		for(File file : files) {
+			if(!first) json.append(',');
+			first = false;
+			MasterTranslationFile languageBundle = getLanguage(MasterTranslationFile.getIdentifier(file.getName()));
+			appendLanguage(file.getName(), languageBundle.getLanguageName(), languageBundle.getLanguageCode(), json);
+		}
+		json.append(']');
+	}
+
+	/** Adds a language to a list of languages. */
+	private void appendLanguage(String filename, String name, String code, StringBuilder json) {
+		json.append("{\"file\":").append(quote(filename))
+				.append(",\"name\":").append(quote(name))
+				.append(",\"code\":").append(quote(code))
+				.append(",\"edited\":").append(this.workspace.getEditedFiles().containsKey(MasterTranslationFile.getIdentifier(filename)))
+				.append('}');
+	}
+
+	/** @return <code>true</code> if the language directory has a file for the language, or its pack contains the language */
+	private static boolean isLanguage(String filename) {
+		File directory = MasterTranslationFile.getLanguageDirectory();
+		return new File(directory, filename).isFile() || FileTranslationStore.getPackedFilenames(directory).contains(filename);
+	}
+
+	/** Lists the translations of a language in key order, starting with the keys with the supplied prefix. */
+	private void listTranslations(String identifier, Map<String, List<String>> parameters, StringBuilder json) throws RequestException {
+		MasterTranslationFile lang = getLanguage(identifier);
+		TranslationKeyIndex keyIndex = getKeyIndex();
+		String prefix = getParameter(parameters, "prefix", "");
+		int offset = getIntParameter(parameters, "offset", 0);
+		int limit = getIntParameter(parameters, "limit", DEFAULT_LIMIT);
+
+		Map<String, String> properties = lang.getProperties();
+		json.append('[');
+		int count = 0;
+		for(int i = keyIndex.getStartIndex(prefix) + offset ; i < keyIndex.size() && count < limit ; ++i) {
+			String key = keyIndex.getKey(i);
+			if(!key.startsWith(prefix)) {
+				break;
+			}
+			if(count++ > 0) json.append(',');
+			appendTranslation(json, lang, key, properties.get(key), keyIndex.getDefaultValue(i));
+		}
+		json.append(']');
+	}
+
+	/**
+	 * Gets a single translation.  If the language is not already loaded, the translation is read from the language's
+	 * {@link TranslationStore} without loading it.  The language is only loaded if the store does not hold the
+	 * translation, as it may then be translated by a plugin.
+	 */
+	private void getTranslation(String identifier, String filename, String key, StringBuilder json) throws RequestException, IOException {
+		TranslationKeyIndex keyIndex = getKeyIndex();
+		int index = keyIndex.indexOf(key);
+		String defaultValue = index < 0 ? null : keyIndex.getDefaultValue(index);
+		if(!this.workspace.isLoaded(identifier)) {
+			String value = MasterTranslationFile.getStore(MasterTranslationFile.getLanguageDirectory()).getValue(filename, key);
+			if(value != null) {
+				appendTranslation(json, key, value, defaultValue, false);
+				return;
+			}
+		}
+		MasterTranslationFile lang = getLanguage(identifier);
+		String value = lang.get(key);
+		if(index < 0 && value == null) {
+			throw new RequestException(HTTP_NOT_FOUND, "Unknown key: " + key);
+		}
+		appendTranslation(json, lang, key, value, defaultValue);
+	}
+
+	/** Finds translations whose key, value or default value contain the query, ignoring case. */
+	private void searchTranslations(String identifier, Map<String, List<String>> parameters, StringBuilder json) throws RequestException {
+		MasterTranslationFile lang = getLanguage(identifier);
+		TranslationKeyIndex keyIndex = getKeyIndex();
+		String query = getParameter(parameters, "q", "").toLowerCase();
+		boolean missingOnly = Boolean.valueOf(getParameter(parameters, "missing", "false"));
+		int limit = getIntParameter(parameters, "limit", DEFAULT_LIMIT);
+
+		Map<String, String> properties = lang.getProperties();
+		json.append('[');
+		int count = 0;
+		for(int i = 0 ; i < keyIndex.size() && count < limit ; ++i) {
+			String key = keyIndex.getKey(i);
+			String value = properties.get(key);
+			String defaultValue = keyIndex.getDefaultValue(i);
+			if(missingOnly && value != null && value.length() > 0) {
+				continue;
+			}
+			if(key.toLowerCase().contains(query)
+					|| (value != null && value.toLowerCase().contains(query))
+					|| (defaultValue != null && defaultValue.toLowerCase().contains(query))) {
+				if(count++ > 0) json.append(',');
+				appendTranslation(json, lang, key, value, defaultValue);
+			}
+		}
+		json.append(']');
+	}
+
+	/**
+	 * Updates translations of a language.  Each update is only applied if the translation still has the version
+	 * it was based on.  The updated translations are checked by the {@link TranslationValidator}, and any problems
+	 * found are returned with them, as the translation tab shows them when a translation is edited.
+	 * @return {@link #HTTP_OK} if all updates were applied, or {@link #HTTP_CONFLICT} if any were rejected
+	 */
+	private int updateTranslations(String identifier, Map<String, List<String>> parameters, StringBuilder json) throws RequestException {
+		List<String> keys = getParameters(parameters, "key");
+		List<String> values = getParameters(parameters, "value");
+		List<String> versions = getParameters(parameters, "version");
+		if(keys.isEmpty() || keys.size() != values.size() || keys.size() != versions.size()) {
+			throw new RequestException(HTTP_BAD_REQUEST, "Each update needs a key, value and version");
+		}
+		TranslationKeyIndex keyIndex = getKeyIndex();
+		for(int i = 0 ; i < keys.size() ; ++i) {
+			if(keyIndex.indexOf(keys.get(i)) < 0) {
+				throw new RequestException(HTTP_BAD_REQUEST, "Unknown key: " + keys.get(i));
+			}
+			if(hasLineBreak(values.get(i))) {
+				throw new RequestException(HTTP_BAD_REQUEST, "Value may not contain line breaks: " + keys.get(i));
+			}
+		}
+
+		MasterTranslationFile lang = this.workspace.startEditing(getLanguage(identifier));
+		TranslationValidator validator = getValidator();
+		List<String> updatedKeys = new ArrayList<String>();
+		json.append('[');
+		for(int i = 0 ; i < keys.size() ; ++i) {
+			String key = keys.get(i);
+			String currentValue = lang.get(key);
+			boolean updated = getVersion(currentValue).equals(versions.get(i))
+					&& lang.replace(key, currentValue, values.get(i));
+			if(updated) {
+				updatedKeys.add(key);
+				currentValue = lang.get(key);
+			}
+			if(i > 0) json.append(',');
+			json.append("{\"key\":").append(quote(key))
+					.append(",\"status\":").append(quote(updated ? "updated" : "conflict"))
+					.append(",\"value\":").append(quote(currentValue))
+					.append(",\"version\":").append(quote(getVersion(currentValue)));
+			if(updated) {
+				appendFindings(json, validator.validate(lang, Collections.singleton(key)));
+			}
+			json.append('}');
+		}
+		json.append(']');
+
+		if(!updatedKeys.isEmpty()) {
+			this.workspace.fireEdited(null, lang, updatedKeys);
+		}
+		return updatedKeys.size() == keys.size() ? HTTP_OK : HTTP_CONFLICT;
+	}
+
+	/** Saves the edits made to a language. */
+	private void saveTranslations(String identifier, StringBuilder json) throws RequestException, IOException {
+		MasterTranslationFile lang = this.workspace.getEditedFiles().get(identifier);
+		if(lang != null) {
+			try {
+				lang.save();
+			} catch (TranslationConflictException ex) {
+				throw new RequestException(HTTP_CONFLICT, "Translations also changed elsewhere: " + ex.getConflictingKeys());
+			}
+			this.workspace.fireSaved(null, lang);
+		}
+		json.append("{\"saved\":").append(lang != null).append('}');
+	}
+
+//> HELPER METHODS
+	/** @return the language being edited, or the language as it is on disk if it is not being edited */
+	private MasterTranslationFile getLanguage(String identifier) {
+		return this.workspace.getLanguage(identifier);
+	}
+
+	/** @return the sorted index of the keys of the default translation */
+	private synchronized TranslationKeyIndex getKeyIndex() {
+		if(this.keyIndex == null) {
+			this.keyIndex = new TranslationKeyIndex(MasterTranslationFile.getDefault(), BUNDLE_PROPERTIES_PREFIX);
+		}
+		return this.keyIndex;
+	}
+
+	/** @return the validator for checking updated translations against the default translation */
+	private synchronized TranslationValidator getValidator() {
+		if(this.validator == null) {
+			this.validator = new TranslationValidator(MasterTranslationFile.getDefault());
+		}
+		return this.validator;
+	}
+
+	/** Appends a translation of a loaded language as a JSON object. */
+	private void appendTranslation(StringBuilder json, MasterTranslationFile lang, String key, String value, String defaultValue) {
+		appendTranslation(json, key, value, defaultValue, lang.hasBeenEdited(key));
+	}
+
+	/** Appends a translation as a JSON object. */
+	private static void appendTranslation(StringBuilder json, String key, String value, String defaultValue, boolean edited) {
+		json.append("{\"key\":").append(quote(key))
+				.append(",\"value\":").append(quote(value))
+				.append(",\"default\":").append(quote(defaultValue))
+				.append(",\"version\":").append(quote(getVersion(value)))
+				.append(",\"edited\":").append(edited)
+				.append('}');
+	}
+
+	/** Appends the problems found with a translation, as a <code>findings</code> field of its JSON object. */
+	private static void appendFindings(StringBuilder json, List<ValidationFinding> findings) {
+		json.append(",\"findings\":[");
+		for(int i = 0 ; i < findings.size() ; ++i) {
+			if(i > 0) json.append(',');
+			json.append("{\"type\":").append(quote(findings.get(i).getType().name()))
+					.append(",\"description\":").append(quote(findings.get(i).getDescription()))
+					.append('}');
+		}
+		json.append(']');
+	}
+
+	/** @return the version of a translation's value, or an empty string if the translation is not defined */
+	static String getVersion(String value) {
+		return value == null ? "" : ContentHash.of(value);
+	}
+
+	/** Checks that a request has sent the token of the running service. */
+	private void requireToken(String sentToken) throws RequestException {
+		String token = this.token;
+		if(sentToken == null || token == null || !MessageDigest.isEqual(token.getBytes(), sentToken.getBytes())) {
+			throw new RequestException(HTTP_FORBIDDEN, "Missing or wrong " + HEADER_TOKEN + " header");
+		}
+	}
+
+	/** @return a new random token, as hex */
+	private static String createToken() {
+		byte[] bytes = new byte[TOKEN_BYTES];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder token = new StringBuilder(2 * bytes.length);
+		for(byte b : bytes) {
+			token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return token.toString();
+	}
+
+	/** @return <code>true</code> if the text contains a carriage return or line feed, which would start a new line in the language file */
+	private static boolean hasLineBreak(String text) {
+		return text.indexOf('\r') >= 0 || text.indexOf('\n') >= 0;
+	}
+
+	private static void requireMethod(String method, String expected) throws RequestException {
+		if(!expected.equals(method)) {
+			throw new RequestException(HTTP_METHOD_NOT_ALLOWED, "Method not allowed: " + method);
+		}
+	}
+
+	private static String getParameter(Map<String, List<String>> parameters, String name, String defaultValue) {
+		List<String> values = parameters.get(name);
+		return values == null ? defaultValue : values.get(0);
+	}
+
+	private static List<String> getParameters(Map<String, List<String>> parameters, String name) {
+		List<String> values = parameters.get(name);
+		return values == null ? new ArrayList<String>() : values;
+	}
+
+	private static int getIntParameter(Map<String, List<String>> parameters, String name, int defaultValue) throws RequestException {
+		String value = getParameter(parameters, name, null);
+		if(value == null) {
+			return defaultValue;
+		}
+		try {
+			int i = Integer.parseInt(value);
+			if(i < 0) throw new NumberFormatException();
+			return i;
+		} catch (NumberFormatException ex) {
+			throw new RequestException(HTTP_BAD_REQUEST, "Invalid value for " + name + ": " + value);
+		}
+	}
+
+	/** @return the values of each parameter in a form-encoded string, in the order they appear */
+	private static Map<String, List<String>> parseParameters(String encoded) {
+		Map<String, List<String>> parameters = new LinkedHashMap<String, List<String>>();
+		if(encoded == null || encoded.length() == 0) {
+			return parameters;
+		}
+		for(String pair : encoded.split("&")) {
+			int eqIndex = pair.indexOf('=');
+			String name = decode(eqIndex < 0 ? pair : pair.substring(0, eqIndex));
+			String value = eqIndex < 0 ? "" : decode(pair.substring(eqIndex + 1));
+			List<String> values = parameters.get(name);
+			if(values == null) {
+				values = new ArrayList<String>();
+				parameters.put(name, values);
+			}
+			values.add(value);
+		}
+		return parameters;
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		try {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while((read = in.read(buffer)) != -1) {
+				body.write(buffer, 0, read);
+			}
+			return body.toString(InternationalisationUtils.CHARSET_UTF8);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String decode(String encoded) {
+		try {
+			return URLDecoder.decode(encoded, InternationalisationUtils.CHARSET_UTF8);
+		} catch (UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/** @return the supplied string as a JSON string literal, or <code>null</code> */
+	static String quote(String s) {
+		if(s == null) {
+			return "null";
+		}
+		StringBuilder quoted = new StringBuilder(s.length() + 2);
+		quoted.append('"');
+		for(int i = 0 ; i < s.length() ; ++i) {
+			char c = s.charAt(i);
+			switch(c) {
+			case '"': quoted.append("\\\""); break;
+			case '\\': quoted.append("\\\\"); break;
+			case '\n': quoted.append("\\n"); break;
+			case '\r': quoted.append("\\r"); break;
+			case '\t': quoted.append("\\t"); break;
+			default:
+				if(c < ' ') {
+					quoted.append(String.format("\\u%04x", (int) c));
+				} else {
+					quoted.append(c);
+				}
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+//> INNER CLASSES
+	/** Thrown when a request cannot be handled, giving the HTTP status to respond with. */
+	private static class RequestException extends Exception {
+		private static final long serialVersionUID = 1L;
+		private final int status;
+
+		RequestException(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+}
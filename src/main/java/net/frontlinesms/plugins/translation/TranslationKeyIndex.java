@@ -0,0 +1,112 @@
+/**
+ * 
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The keys of the default translation in display order, along with their default values.
+ * <p>The index is sorted once when it is created, so the translation tables can be built by walking
+ * the index rather than by sorting their rows on every refresh.</p>
+ */
+class TranslationKeyIndex {
+//> INSTANCE VARIABLES
+	/** The keys, in display order */
+	private final String[] keys;
+	/** The default value of each key; <code>defaultValues[i]</code> is the value of <code>keys[i]</code> */
+	private final String[] defaultValues;
+	/** The {@link SourceFingerprintIndex#of(String)} fingerprint of each default value */
+	private final int[] defaultFingerprints;
+	/** Description of the translation file of the default translation which defines each key, e.g. a plugin */
+	private final String[] sections;
+	/** The keys, as a set for fast lookup */
+	private final Set<String> keySet;
+
+//> CONSTRUCTORS
+	/**
+	 * Create an index of the keys in the default translation.
+	 * @param defaultTranslation the default translation
+	 * @param excludedPrefix keys starting with this prefix are left out of the index
+	 */
+	TranslationKeyIndex(MasterTranslationFile defaultTranslation, String excludedPrefix) {
+		Map<String, String> properties = defaultTranslation.getProperties();
+		List<String> keys = new ArrayList<String>(properties.size());
+		for(String key : properties.keySet()) {
+			if(!key.startsWith(excludedPrefix)) {
+				keys.add(key);
+			}
+		}
+		this.keys = keys.toArray(new String[keys.size()]);
+		Arrays.sort(this.keys);
+		
+		List<TextFileContent> translationFiles = defaultTranslation.getTranslationFiles();
+		this.defaultValues = new String[this.keys.length];
+		this.defaultFingerprints = new int[this.keys.length];
+		this.sections = new String[this.keys.length];
+		for(int i = 0 ; i < this.keys.length ; ++i) {
+			this.defaultValues[i] = properties.get(this.keys[i]);
+			this.defaultFingerprints[i] = SourceFingerprintIndex.of(this.defaultValues[i]);
+			for(TextFileContent translationFile : translationFiles) {
+				if(translationFile.containsKey(this.keys[i])) {
+					this.sections[i] = translationFile.getDescription();
+					break;
+				}
+			}
+		}
+		this.keySet = Collections.unmodifiableSet(new HashSet<String>(keys));
+	}
+
+//> ACCESSORS
+	/** @return the number of keys in the index */
+	int size() {
+		return keys.length;
+	}
+
+	/** @return the key at the supplied position */
+	String getKey(int index) {
+		return keys[index];
+	}
+
+	/** @return the default value of the key at the supplied position */
+	String getDefaultValue(int index) {
+		return defaultValues[index];
+	}
+
+	/** @return the fingerprint of the default value of the key at the supplied position */
+	int getDefaultFingerprint(int index) {
+		return defaultFingerprints[index];
+	}
+
+	/** @return the description of the translation file which defines the key at the supplied position, or <code>null</code> if it is not known */
+	String getSection(int index) {
+		return sections[index];
+	}
+
+	/** @return all keys in the index, as an unmodifiable set */
+	Set<String> getKeySet() {
+		return keySet;
+	}
+
+	/**
+	 * Gets the position of the first key starting with the supplied prefix.  As the keys are sorted, all keys
+	 * starting with the prefix follow it in the index.
+	 * @param prefix
+	 * @return the position of the first key starting with the prefix, or of the first key after where such a key would be
+	 */
+	int getStartIndex(String prefix) {
+		int index = Arrays.binarySearch(keys, prefix);
+		return index >= 0 ? index : -(index + 1);
+	}
+
+	/** @return the position of the supplied key in the index, or a negative number if it is not in the index */
+	int indexOf(String key) {
+		return Arrays.binarySearch(keys, key);
+	}
+}
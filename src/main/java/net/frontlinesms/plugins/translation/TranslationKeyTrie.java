@@ -0,0 +1,145 @@
+/**
+ * 
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Prefix tree of the namespaces of translation keys, e.g. <code>plugins.</code> and <code>plugins.translation.</code>
+ * for the key <code>plugins.translation.tab.name</code>.  Each namespace keeps counts of the keys it contains,
+ * which can be updated as translations are edited without rebuilding the tree.
+ * <p>Only namespaces have nodes in the tree; the keys themselves are just counted.</p>
+ */
+class TranslationKeyTrie {
+//> INSTANCE VARIABLES
+	/** The root namespace, which contains every key */
+	private final Node root = new Node("", "");
+
+//> ACCESSORS
+	/** @return the root namespace, which contains every key */
+	Node getRoot() {
+		return root;
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Adds a key to the trie.
+	 * @param key
+	 * @param missing <code>true</code> if the key has no translation
+	 * @param edited <code>true</code> if the key has unsaved changes
+	 */
+	void add(String key, boolean missing, boolean edited) {
+		for(Node node : getPath(key, true)) {
+			++node.total;
+			if(missing) ++node.missing;
+			if(edited) ++node.edited;
+		}
+	}
+
+	/**
+	 * Updates the counts of all namespaces containing a key after the key's translation has changed.
+	 * @param key
+	 * @param wasMissing <code>true</code> if the key had no translation before the change
+	 * @param isMissing <code>true</code> if the key has no translation after the change
+	 * @param wasEdited <code>true</code> if the key had unsaved changes before the change
+	 * @param isEdited <code>true</code> if the key has unsaved changes after the change
+	 * @return the namespaces whose counts changed, from the root downwards; empty if nothing changed
+	 */
+	List<Node> update(String key, boolean wasMissing, boolean isMissing, boolean wasEdited, boolean isEdited) {
+		if(wasMissing == isMissing && wasEdited == isEdited) {
+			return Collections.emptyList();
+		}
+		int missingDelta = (isMissing ? 1 : 0) - (wasMissing ? 1 : 0);
+		int editedDelta = (isEdited ? 1 : 0) - (wasEdited ? 1 : 0);
+		List<Node> path = getPath(key, false);
+		for(Node node : path) {
+			node.missing += missingDelta;
+			node.edited += editedDelta;
+		}
+		return path;
+	}
+
+	/**
+	 * Gets the namespaces containing a key, from the root downwards.
+	 * @param key
+	 * @param create <code>true</code> if missing namespaces should be created
+	 * @return the namespaces containing the key
+	 */
+	private List<Node> getPath(String key, boolean create) {
+		List<Node> path = new ArrayList<Node>();
+		Node node = this.root;
+		path.add(node);
+		int start = 0;
+		for(int dot = key.indexOf('.') ; dot >= 0 ; dot = key.indexOf('.', start)) {
+			String name = key.substring(start, dot);
+			Node child = node.children.get(name);
+			if(child == null) {
+				if(!create) break;
+				child = new Node(name, key.substring(0, dot + 1));
+				node.children.put(name, child);
+			}
+			node = child;
+			path.add(node);
+			start = dot + 1;
+		}
+		return path;
+	}
+
+//> INNER CLASSES
+	/** A namespace of translation keys. */
+	static final class Node {
+		/** The last part of this namespace, e.g. <code>translation</code> for <code>plugins.translation.</code> */
+		private final String name;
+		/** The full prefix of keys in this namespace, including the trailing dot */
+		private final String prefix;
+		/** Namespaces directly inside this namespace, by name */
+		private final Map<String, Node> children = new TreeMap<String, Node>();
+		/** Number of keys in this namespace */
+		private int total;
+		/** Number of keys in this namespace which have no translation */
+		private int missing;
+		/** Number of keys in this namespace which have unsaved changes */
+		private int edited;
+
+		private Node(String name, String prefix) {
+			this.name = name;
+			this.prefix = prefix;
+		}
+
+		/** @return the last part of this namespace */
+		String getName() {
+			return name;
+		}
+
+		/** @return the full prefix of keys in this namespace */
+		String getPrefix() {
+			return prefix;
+		}
+
+		/** @return namespaces directly inside this namespace, in alphabetical order */
+		Collection<Node> getChildren() {
+			return Collections.unmodifiableCollection(children.values());
+		}
+
+		/** @return number of keys in this namespace */
+		int getTotal() {
+			return total;
+		}
+
+		/** @return number of keys in this namespace which have no translation */
+		int getMissing() {
+			return missing;
+		}
+
+		/** @return number of keys in this namespace which have unsaved changes */
+		int getEdited() {
+			return edited;
+		}
+	}
+}
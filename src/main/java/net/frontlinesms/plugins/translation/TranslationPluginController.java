@@ -3,9 +3,15 @@
  */
 package net.frontlinesms.plugins.translation;
 
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
 import org.springframework.context.ApplicationContext;
 
 import net.frontlinesms.FrontlineSMS;
+import net.frontlinesms.FrontlineUtils;
 import net.frontlinesms.plugins.BasePluginController;
 import net.frontlinesms.plugins.PluginControllerProperties;
 import net.frontlinesms.plugins.PluginInitialisationException;
@@ -21,15 +27,28 @@ public class TranslationPluginController extends BasePluginController {
 //> STATIC CONSTANTS
 	/** Filename and path of the XML for the translation tab. */
 	private static final String UI_FILE_TAB = "/ui/plugins/translation/translationTab.xml";
+	/** Name of the directory, alongside the languages directory, where this plugin keeps its working files. */
+	private static final String WORKING_DIRECTORY = "translation";
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(TranslationPluginController.class);
+	
+//> INSTANCE VARIABLES
+	/** Controller for the translation tab, or <code>null</code> if the tab has not been created */
+	private TranslationThinletTabController tabController;
+	/** The translations being edited, shared by the translation tab and the {@link #translationService} */
+	private final TranslationWorkspace workspace = new TranslationWorkspace(SubmissionBaseline.getInstalled());
+	/** Service allowing translations to be edited over HTTP, or <code>null</code> if it is not running */
+	private TranslationHttpService translationService;
 	
 //> INSTANCE METHODS
 	/** @see net.frontlinesms.plugins.PluginController#getTab(net.frontlinesms.ui.UiGeneratorController) */
 	public Object initThinletTab(UiGeneratorController uiController) {
-		TranslationThinletTabController tabController = new TranslationThinletTabController(this, uiController);
+		tabController = new TranslationThinletTabController(this, uiController);
 
 		Object translationTab = uiController.loadComponentFromFile(UI_FILE_TAB, tabController);
 		tabController.setTabComponent(translationTab);
 		
+		// Cheap: the languages are loaded in the background when the tab is first shown
 		tabController.init();
 		
 		return translationTab;
@@ -37,17 +56,44 @@ public class TranslationPluginController extends BasePluginController {
 
 	/** @see net.frontlinesms.plugins.PluginController#deinit() */
 	public void deinit() {
-		// Nothing to do here yet.  May want to warn if the tab is disabled without saving current modifications though.
+		// May want to warn if the tab is disabled without saving current modifications though.
+		if(tabController != null) {
+			tabController.deinit();
+		}
+		if(translationService != null) {
+			translationService.stop();
+			translationService = null;
+		}
 	}
 
 	/** @see net.frontlinesms.plugins.PluginController#init(net.frontlinesms.FrontlineSMS, org.springframework.context.ApplicationContext) */
 	public void init(FrontlineSMS frontlineController,
 			ApplicationContext applicationContext)
 			throws PluginInitialisationException {
-		// TODO Auto-generated method stub
+		TranslationHttpService translationService = TranslationHttpService.fromSystemProperties(workspace);
+		if(translationService != null) {
+			try {
+				translationService.start();
+				this.translationService = translationService;
+			} catch (IOException ex) {
+				// The service is optional, so the plugin can carry on without it
+				LOG.warn("Unable to start translation service.", ex);
+			}
+		}
+	}
+
+	/** @return the translations being edited, shared by everything which edits translations */
+	TranslationWorkspace getWorkspace() {
+		return workspace;
 	}
 
 	public String getTitle() {
 		return this.getName(InternationalisationUtils.getCurrentLocale());
 	}
+
+//> STATIC ACCESSORS
+	/** @return the directory in which this plugin keeps its own working files, e.g. submission baselines */
+	public static File getWorkingDirectory() {
+		return new File(MasterTranslationFile.getLanguageDirectory().getParentFile(), WORKING_DIRECTORY);
+	}
 }
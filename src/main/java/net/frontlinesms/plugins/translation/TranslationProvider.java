@@ -0,0 +1,30 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A machine translation service used by the {@link PreTranslator} to suggest translations of missing keys.
+ * <p>Implementations are created by class name, so must be public and have a public no-argument constructor.  They
+ * are called from several threads at once, up to the concurrency the {@link PreTranslator} was configured with.</p>
+ */
+public interface TranslationProvider {
+	/**
+	 * @return a short name for this provider, used to keep its results apart from other providers' in the cache.
+	 *   This should change if the provider would translate the same text differently, e.g. a different model.
+	 */
+	String getName();
+
+	/**
+	 * Translates a batch of texts from the default language.
+	 * @param texts the texts to translate, in the default language
+	 * @param targetLanguageCode the ISO 639-1 code of the language to translate into
+	 * @return the translations, in the same order as the texts.  An element may be <code>null</code> if that
+	 *   text could not be translated.
+	 * @throws IOException if the batch could not be translated
+	 */
+	List<String> translate(List<String> texts, String targetLanguageCode) throws IOException;
+}
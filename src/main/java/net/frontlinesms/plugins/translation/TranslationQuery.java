@@ -0,0 +1,551 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A filter for the translation tables, compiled from the text typed into the filter field.
+ * <p>A query is a list of terms, all of which must match.  Terms may be combined with <code>or</code>, negated with
+ * <code>not</code> or a leading <code>-</code>, and grouped with brackets.  A term is one of:</p>
+ * <ul>
+ * <li><code>is:missing</code>, <code>is:translated</code>, <code>is:edited</code>, <code>is:stale</code> or
+ * <code>is:same</code>, the last matching translations identical to the default text</li>
+ * <li><code>key:plugins.forms.</code>: the key starts with the text</li>
+ * <li><code>default:text</code>, <code>local:text</code>, <code>section:text</code> or <code>text:text</code>: the
+ * default text, translation, translation file or any of key, default text and translation contains the text</li>
+ * <li><code>key~regex</code>, <code>default~regex</code>, <code>local~regex</code>, <code>section~regex</code> or
+ * <code>text~regex</code>: the regular expression is found in the value</li>
+ * <li><code>length&gt;160</code> or <code>defaultlength&lt;=20</code>: the length of the translation or default text
+ * compared with a number, using <code>&lt;</code>, <code>&lt;=</code>, <code>=</code>, <code>&gt;=</code> or
+ * <code>&gt;</code></li>
+ * <li>any other text: the key, default text or translation contains the text.  Text may be quoted to include
+ * spaces, e.g. <code>local:"two words"</code></li>
+ * </ul>
+ * <p>Text is matched ignoring case; regular expressions are case sensitive unless they start with <code>(?i)</code>.
+ * A query is compiled once into a plan which checks the cheapest terms first, and is run against {@link Record}s
+ * prepared when the tables are built, so filtering never reads the table components.</p>
+ */
+class TranslationQuery {
+//> STATIC CONSTANTS
+	/** Matches every translation */
+	static final TranslationQuery ALL = new TranslationQuery(new Always());
+
+	/** Matches a field name and operator at the start of a term, e.g. <code>local:</code> or <code>key~</code> */
+	private static final Pattern FIELD_TERM = Pattern.compile("([a-z]+)([:~])(.*)", Pattern.DOTALL);
+	/** Matches a length comparison, e.g. <code>length&gt;160</code> */
+	private static final Pattern LENGTH_TERM = Pattern.compile("(length|defaultlength)(<=|>=|<|>|=)(\\d+)");
+
+	/** Orders conditions from cheapest to most expensive to check */
+	private static final Comparator<Condition> BY_COST = new Comparator<Condition>() {
+		public int compare(Condition one, Condition other) {
+			return one.getCost() - other.getCost();
+		}
+	};
+
+//> INSTANCE VARIABLES
+	/** The compiled query */
+	private final Condition plan;
+
+//> CONSTRUCTORS
+	private TranslationQuery(Condition plan) {
+		this.plan = plan;
+	}
+
+	/**
+	 * Compiles a query.
+	 * @param text the query, as typed into the filter field
+	 * @return the compiled query
+	 * @throws ParseException if the text is not a valid query
+	 */
+	static TranslationQuery compile(String text) throws ParseException {
+		return new TranslationQuery(new Parser(text).parse());
+	}
+
+	/** @return a query matching translations whose key, default text or translation contains the supplied text */
+	static TranslationQuery text(String text) {
+		return new TranslationQuery(text.length() == 0 ? new Always() : new Contains(Field.ANY, text));
+	}
+
+//> INSTANCE METHODS
+	/** @return <code>true</code> if the translation matches this query */
+	boolean matches(Record record) {
+		return this.plan.matches(record);
+	}
+
+	/** @return the compiled plan, with terms in the order they are checked */
+	@Override
+	public String toString() {
+		return this.plan.toString();
+	}
+
+//> INNER CLASSES
+	/** The attributes of one translation that queries are run against, prepared when the translation tables are built. */
+	static final class Record {
+		private final String key;
+		private final String defaultValue;
+		private final String localValue;
+		private final String section;
+		private final boolean missing;
+		private final boolean edited;
+		private final boolean stale;
+		/** Lower case copies of the key, default text, translation and section, made when first needed */
+		private String[] lowerCase;
+
+		/**
+		 * @param key
+		 * @param defaultValue the default text
+		 * @param localValue the translation; empty if it is missing
+		 * @param section description of the translation file defining the key, or <code>null</code> if not known
+		 * @param missing <code>true</code> if the key has no translation
+		 * @param edited <code>true</code> if the translation has unsaved changes
+		 * @param stale <code>true</code> if the default text has changed since the key was translated
+		 */
+		Record(String key, String defaultValue, String localValue, String section, boolean missing, boolean edited, boolean stale) {
+			this.key = key;
+			this.defaultValue = defaultValue == null ? "" : defaultValue;
+			this.localValue = localValue == null ? "" : localValue;
+			this.section = section == null ? "" : section;
+			this.missing = missing;
+			this.edited = edited;
+			this.stale = stale;
+		}
+
+		String getKey() {
+			return key;
+		}
+
+		String getDefaultValue() {
+			return defaultValue;
+		}
+
+		String getLocalValue() {
+			return localValue;
+		}
+
+		boolean isMissing() {
+			return missing;
+		}
+
+		boolean isEdited() {
+			return edited;
+		}
+
+		boolean isStale() {
+			return stale;
+		}
+
+		/** @return the value of a field */
+		private String get(Field field) {
+			switch(field) {
+			case KEY: return key;
+			case DEFAULT: return defaultValue;
+			case LOCAL: return localValue;
+			case SECTION: return section;
+			default: throw new IllegalArgumentException("Not a single field: " + field);
+			}
+		}
+
+		/** @return the value of a field in lower case */
+		private String getLowerCase(Field field) {
+			if(this.lowerCase == null) {
+				this.lowerCase = new String[] {
+						key.toLowerCase(Locale.ENGLISH), defaultValue.toLowerCase(Locale.ENGLISH),
+						localValue.toLowerCase(Locale.ENGLISH), section.toLowerCase(Locale.ENGLISH) };
+			}
+			return this.lowerCase[field.ordinal()];
+		}
+	}
+
+	/** The values of a translation that text can be matched against */
+	private enum Field {
+		KEY, DEFAULT, LOCAL, SECTION,
+		/** The key, default text or translation */
+		ANY;
+
+		/** The fields checked by {@link #ANY} */
+		private static final Field[] ANY_FIELDS = { KEY, DEFAULT, LOCAL };
+
+		/** @return the fields to check for this field */
+		Field[] getFields() {
+			return this == ANY ? ANY_FIELDS : new Field[] { this };
+		}
+
+		/** @return the field with the supplied name in a query, or <code>null</code> if there is none */
+		static Field fromQueryName(String name) {
+			if(name.equals("text")) return ANY;
+			for(Field field : values()) {
+				if(field != ANY && field.name().toLowerCase(Locale.ENGLISH).equals(name)) {
+					return field;
+				}
+			}
+			return null;
+		}
+	}
+
+	/** The statuses that can be checked with <code>is:</code> */
+	private enum Status {
+		MISSING, TRANSLATED, EDITED, STALE, SAME;
+
+		boolean of(Record record) {
+			switch(this) {
+			case MISSING: return record.missing;
+			case TRANSLATED: return !record.missing;
+			case EDITED: return record.edited;
+			case STALE: return record.stale;
+			case SAME: return !record.missing && record.localValue.equals(record.defaultValue);
+			default: throw new IllegalStateException();
+			}
+		}
+	}
+
+	/** One step of a compiled query */
+	private interface Condition {
+		boolean matches(Record record);
+		/** @return roughly how expensive this is to check, so that cheap conditions can be checked first */
+		int getCost();
+	}
+
+	/** Matches everything; the plan for an empty query */
+	private static final class Always implements Condition {
+		public boolean matches(Record record) { return true; }
+		public int getCost() { return 0; }
+		@Override public String toString() { return "all"; }
+	}
+
+	/** Matches translations with a status */
+	private static final class StatusIs implements Condition {
+		private final Status status;
+		StatusIs(Status status) { this.status = status; }
+		public boolean matches(Record record) { return status.of(record); }
+		public int getCost() { return 1; }
+		@Override public String toString() { return "is:" + status.name().toLowerCase(Locale.ENGLISH); }
+	}
+
+	/** Compares the length of the translation or default text with a number */
+	private static final class Length implements Condition {
+		private final Field field;
+		private final String operator;
+		private final int length;
+		Length(Field field, String operator, int length) {
+			this.field = field;
+			this.operator = operator;
+			this.length = length;
+		}
+		public boolean matches(Record record) {
+			int actual = record.get(field).length();
+			if(operator.equals("<")) return actual < length;
+			if(operator.equals("<=")) return actual <= length;
+			if(operator.equals(">")) return actual > length;
+			if(operator.equals(">=")) return actual >= length;
+			return actual == length;
+		}
+		public int getCost() { return 2; }
+		@Override public String toString() { return (field == Field.DEFAULT ? "defaultlength" : "length") + operator + length; }
+	}
+
+	/** Matches keys starting with some text */
+	private static final class KeyPrefix implements Condition {
+		private final String prefix;
+		KeyPrefix(String prefix) { this.prefix = prefix.toLowerCase(Locale.ENGLISH); }
+		public boolean matches(Record record) { return record.getLowerCase(Field.KEY).startsWith(prefix); }
+		public int getCost() { return 3; }
+		@Override public String toString() { return "key:" + prefix; }
+	}
+
+	/** Matches translations where a field contains some text, ignoring case */
+	private static final class Contains implements Condition {
+		private final Field field;
+		private final String text;
+		Contains(Field field, String text) {
+			this.field = field;
+			this.text = text.toLowerCase(Locale.ENGLISH);
+		}
+		public boolean matches(Record record) {
+			for(Field f : field.getFields()) {
+				if(record.getLowerCase(f).contains(text)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		public int getCost() { return field == Field.ANY ? 12 : 5; }
+		@Override public String toString() { return field.name().toLowerCase(Locale.ENGLISH) + ":\"" + text + "\""; }
+	}
+
+	/** Matches translations where a regular expression is found in a field */
+	private static final class Regex implements Condition {
+		private final Field field;
+		private final Pattern pattern;
+		Regex(Field field, Pattern pattern) {
+			this.field = field;
+			this.pattern = pattern;
+		}
+		public boolean matches(Record record) {
+			for(Field f : field.getFields()) {
+				if(pattern.matcher(record.get(f)).find()) {
+					return true;
+				}
+			}
+			return false;
+		}
+		public int getCost() { return field == Field.ANY ? 60 : 20; }
+		@Override public String toString() { return field.name().toLowerCase(Locale.ENGLISH) + "~" + pattern.pattern(); }
+	}
+
+	private static final class Not implements Condition {
+		private final Condition condition;
+		Not(Condition condition) { this.condition = condition; }
+		public boolean matches(Record record) { return !condition.matches(record); }
+		public int getCost() { return condition.getCost(); }
+		@Override public String toString() { return "not " + condition; }
+	}
+
+	/** Matches translations matching all of its conditions, which are checked cheapest first */
+	private static final class And implements Condition {
+		private final Condition[] conditions;
+		private final int cost;
+		And(List<Condition> conditions) {
+			List<Condition> sorted = new ArrayList<Condition>(conditions);
+			Collections.sort(sorted, BY_COST);
+			this.conditions = sorted.toArray(new Condition[sorted.size()]);
+			int cost = 0;
+			for(Condition condition : sorted) cost += condition.getCost();
+			this.cost = cost;
+		}
+		public boolean matches(Record record) {
+			for(Condition condition : conditions) {
+				if(!condition.matches(record)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		public int getCost() { return cost; }
+		@Override public String toString() { return join(conditions, " and "); }
+	}
+
+	/** Matches translations matching any of its conditions, which are checked cheapest first */
+	private static final class Or implements Condition {
+		private final Condition[] conditions;
+		private final int cost;
+		Or(List<Condition> conditions) {
+			List<Condition> sorted = new ArrayList<Condition>(conditions);
+			Collections.sort(sorted, BY_COST);
+			this.conditions = sorted.toArray(new Condition[sorted.size()]);
+			int cost = 0;
+			for(Condition condition : sorted) cost += condition.getCost();
+			this.cost = cost;
+		}
+		public boolean matches(Record record) {
+			for(Condition condition : conditions) {
+				if(condition.matches(record)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		public int getCost() { return cost; }
+		@Override public String toString() { return join(conditions, " or "); }
+	}
+
+	/** @return the conditions, bracketed and separated by the supplied operator */
+	private static String join(Condition[] conditions, String operator) {
+		StringBuilder text = new StringBuilder("(");
+		for(int i = 0 ; i < conditions.length ; ++i) {
+			if(i > 0) text.append(operator);
+			text.append(conditions[i]);
+		}
+		return text.append(')').toString();
+	}
+
+	/** A word or bracket of a query */
+	private static final class Token {
+		/** The token as typed, including any quotes */
+		private final String raw;
+		/** Position of the token in the query */
+		private final int position;
+		Token(String raw, int position) {
+			this.raw = raw;
+			this.position = position;
+		}
+		/** @return <code>true</code> if this is the supplied keyword or bracket, which must not be quoted */
+		boolean is(String keyword) {
+			return raw.equalsIgnoreCase(keyword);
+		}
+	}
+
+	/** Parses the text of a query into a plan, by recursive descent. */
+	private static final class Parser {
+		private final String text;
+		private final List<Token> tokens;
+		/** Index of the next token to parse */
+		private int next;
+
+		Parser(String text) throws ParseException {
+			this.text = text;
+			this.tokens = tokenise(text);
+		}
+
+		/** @return the plan for the whole query */
+		Condition parse() throws ParseException {
+			if(this.tokens.isEmpty()) {
+				return new Always();
+			}
+			Condition condition = parseOr();
+			if(this.next < this.tokens.size()) {
+				Token unexpected = this.tokens.get(this.next);
+				throw new ParseException("Unexpected " + unexpected.raw, unexpected.position);
+			}
+			return condition;
+		}
+
+		/** or := and ("or" and)* */
+		private Condition parseOr() throws ParseException {
+			List<Condition> conditions = new ArrayList<Condition>();
+			conditions.add(parseAnd());
+			while(peekIs("or")) {
+				++this.next;
+				conditions.add(parseAnd());
+			}
+			return conditions.size() == 1 ? conditions.get(0) : new Or(conditions);
+		}
+
+		/** and := unary (["and"] unary)* */
+		private Condition parseAnd() throws ParseException {
+			List<Condition> conditions = new ArrayList<Condition>();
+			conditions.add(parseUnary());
+			while(this.next < this.tokens.size() && !peekIs(")") && !peekIs("or")) {
+				if(peekIs("and")) {
+					++this.next;
+				}
+				conditions.add(parseUnary());
+			}
+			return conditions.size() == 1 ? conditions.get(0) : new And(conditions);
+		}
+
+		/** unary := ("not" | "-") unary | "(" or ")" | term */
+		private Condition parseUnary() throws ParseException {
+			if(this.next >= this.tokens.size()) {
+				throw new ParseException("Query is incomplete", this.text.length());
+			}
+			Token token = this.tokens.get(this.next++);
+			if(token.is("not")) {
+				return new Not(parseUnary());
+			} else if(token.is("(")) {
+				Condition condition = parseOr();
+				if(!peekIs(")")) {
+					throw new ParseException("Missing )", this.text.length());
+				}
+				++this.next;
+				return condition;
+			} else if(token.is(")") || token.is("and") || token.is("or")) {
+				throw new ParseException("Unexpected " + token.raw, token.position);
+			} else if(token.raw.length() > 1 && token.raw.charAt(0) == '-') {
+				return new Not(parseTerm(token.raw.substring(1), token.position + 1));
+			} else {
+				return parseTerm(token.raw, token.position);
+			}
+		}
+
+		/** @return the condition for a single term */
+		private Condition parseTerm(String term, int position) throws ParseException {
+			Matcher length = LENGTH_TERM.matcher(term);
+			if(length.matches()) {
+				int limit;
+				try {
+					limit = Integer.parseInt(length.group(3));
+				} catch (NumberFormatException ex) {
+					throw new ParseException("Length is too large: " + length.group(3), position + length.start(3));
+				}
+				return new Length(length.group(1).equals("length") ? Field.LOCAL : Field.DEFAULT, length.group(2), limit);
+			}
+
+			Matcher fieldTerm = FIELD_TERM.matcher(term);
+			if(fieldTerm.matches()) {
+				String name = fieldTerm.group(1);
+				boolean regex = fieldTerm.group(2).equals("~");
+				String value = unquote(fieldTerm.group(3));
+				if(name.equals("is") && !regex) {
+					try {
+						return new StatusIs(Status.valueOf(value.toUpperCase(Locale.ENGLISH)));
+					} catch (IllegalArgumentException ex) {
+						throw new ParseException("Unknown status: " + value, position);
+					}
+				}
+				Field field = Field.fromQueryName(name);
+				if(field != null) {
+					if(regex) {
+						try {
+							return new Regex(field, Pattern.compile(value));
+						} catch (PatternSyntaxException ex) {
+							throw new ParseException("Invalid regular expression: " + ex.getDescription(), position);
+						}
+					} else if(field == Field.KEY) {
+						return new KeyPrefix(value);
+					} else {
+						return new Contains(field, value);
+					}
+				}
+				// not a field name, so the colon or tilde is just part of the text
+			}
+			return new Contains(Field.ANY, unquote(term));
+		}
+
+		/** @return <code>true</code> if the next token is the supplied keyword or bracket */
+		private boolean peekIs(String keyword) {
+			return this.next < this.tokens.size() && this.tokens.get(this.next).is(keyword);
+		}
+
+		/**
+		 * Splits a query into words and brackets.  Spaces and brackets inside quotes are part of the word, as are
+		 * balanced brackets inside a word, e.g. in a regular expression.
+		 */
+		private static List<Token> tokenise(String text) throws ParseException {
+			List<Token> tokens = new ArrayList<Token>();
+			int i = 0;
+			while(i < text.length()) {
+				char c = text.charAt(i);
+				if(Character.isWhitespace(c)) {
+					++i;
+				} else if(c == '(' || c == ')') {
+					tokens.add(new Token(Character.toString(c), i));
+					++i;
+				} else {
+					int start = i;
+					int depth = 0;
+					boolean quoted = false;
+					for(; i < text.length() ; ++i) {
+						c = text.charAt(i);
+						if(c == '"') {
+							quoted = !quoted;
+						} else if(!quoted) {
+							if(Character.isWhitespace(c)) break;
+							if(c == '(') ++depth;
+							if(c == ')' && depth-- == 0) break;
+						}
+					}
+					if(quoted) {
+						throw new ParseException("Missing \"", text.length());
+					}
+					tokens.add(new Token(text.substring(start, i), start));
+				}
+			}
+			return tokens;
+		}
+
+		/** @return the text with any quotes removed */
+		private static String unquote(String text) {
+			return text.indexOf('"') < 0 ? text : text.replace("\"", "");
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ * 
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+
+/**
+ * An immutable copy of the state of a {@link MasterTranslationFile} at a single point in time.
+ * <p>Snapshots are intended for work done away from the UI thread, e.g. saving, indexing or validating,
+ * which must see a consistent set of translations while the translator carries on editing.</p>
+ */
+public final class TranslationSnapshot {
+//> STATIC CONSTANTS
+	/** Suffix of the temporary file a snapshot is written to before it replaces the translation file */
+	private static final String TEMPORARY_FILE_SUFFIX = ".saving";
+	/** Held while a snapshot is saved, so that two saves of the same file cannot share a temporary file */
+	private static final Object SAVE_LOCK = new Object();
+
+//> INSTANCE VARIABLES
+	/** Filename of the master translation file */
+	private final String filename;
+	/** Key-value pairs of the translations */
+	private final Map<String, String> properties;
+	/** Content of each of the translation files, in order */
+	private final List<Section> sections;
+	/** Keys which had been changed when the snapshot was taken */
+	private final List<String> changes;
+
+//> CONSTRUCTORS
+	TranslationSnapshot(String filename, List<TextFileContent> translationFiles, Collection<String> changes) {
+		this.filename = filename;
+		// Copies of the content share the text read from disk, so the snapshot only copies the line offsets
+		List<TextFileContent> copies = new ArrayList<TextFileContent>(translationFiles.size());
+		List<Section> sections = new ArrayList<Section>(translationFiles.size());
+		for(TextFileContent translationFile : translationFiles) {
+			TextFileContent copy = translationFile.copy();
+			copies.add(copy);
+			sections.add(new Section(copy.getDescription(), copy.getLines()));
+		}
+		this.properties = Collections.unmodifiableMap(new SectionedTranslationMap(copies));
+		this.sections = Collections.unmodifiableList(sections);
+		this.changes = Collections.unmodifiableList(new ArrayList<String>(changes));
+	}
+
+//> ACCESSORS
+	/** @return filename of the master translation file */
+	public String getFilename() {
+		return filename;
+	}
+
+	/** @return key-value pairs of the translations */
+	public Map<String, String> getProperties() {
+		return properties;
+	}
+
+	/** @return content of each of the translation files, in order */
+	public List<Section> getSections() {
+		return sections;
+	}
+
+	/** @return keys which had been changed when the snapshot was taken */
+	public List<String> getChanges() {
+		return changes;
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Save the snapshot to a file in the target directory.
+	 * <ul>
+	 * <li>If the file already has the same content, confirmed by a content hash, it is not written at all.</li>
+	 * <li>Otherwise, including when the file does not exist, the snapshot is written to a temporary file first, which
+	 * then replaces the file, so a failed save does not leave a partly written file.</li>
+	 * </ul>
+	 * @return the state of the saved file
+	 * @throws IOException
+	 */
+	LanguageFileState saveToDisk(File targetDirectory) throws IOException {
+		synchronized(SAVE_LOCK) {
+			return writeToDisk(targetDirectory);
+		}
+	}
+
+	/** Writes the snapshot as described in {@link #saveToDisk(File)}.  Must be called while holding {@link #SAVE_LOCK}. */
+	private LanguageFileState writeToDisk(File targetDirectory) throws IOException {
+		File file = new File(targetDirectory, this.filename);
+		byte[] content = getContent();
+		if(!file.exists() || file.length() != content.length
+				|| !ContentHash.of(readFile(file)).equals(ContentHash.of(content))) {
+			writeViaTemporaryFile(file, content);
+		}
+		CRC32 checksum = new CRC32();
+		checksum.update(content);
+		return new LanguageFileState(file, file.length(), file.lastModified(), checksum.getValue());
+	}
+
+	/** @return the content of the file this snapshot is saved as, encoded as UTF-8 */
+	private byte[] getContent() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStreamWriter out = new OutputStreamWriter(bytes, InternationalisationUtils.CHARSET_UTF8);
+		for(Section section : this.sections) {
+			for(String line : section.getLines()) {
+				out.write(line);
+				out.write('\n');
+			}
+			out.write('\n');
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes a file via a temporary file, which then replaces it, so that a failed save leaves the file as it was, or
+	 * leaves no file behind if it did not exist.
+	 */
+	private void writeViaTemporaryFile(File file, byte[] content) throws IOException {
+		File temporaryFile = new File(file.getParentFile(), this.filename + TEMPORARY_FILE_SUFFIX);
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(temporaryFile);
+			fos.write(content);
+		} finally {
+			if(fos != null) try { fos.close(); } catch(IOException ex) {}
+		}
+		replace(file, temporaryFile);
+	}
+
+	/** @return the content of a file */
+	private static byte[] readFile(File file) throws IOException {
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return bytes.toByteArray();
+		} finally {
+			if(in != null) try { in.close(); } catch(IOException ex) {}
+		}
+	}
+
+	/**
+	 * Replaces a file with another.  Where renaming over an existing file is not supported, e.g. on Windows,
+	 * the file is deleted first.
+	 * @throws IOException if the replacement could not be renamed
+	 */
+	private static void replace(File file, File replacement) throws IOException {
+		if(!replacement.renameTo(file)) {
+			file.delete();
+			if(!replacement.renameTo(file)) {
+				throw new IOException("Unable to replace translation file: " + file.getAbsolutePath());
+			}
+		}
+	}
+
+//> INNER CLASSES
+	/** Immutable copy of the content of a single translation file. */
+	public static final class Section {
+		/** Description of the translation file */
+		private final String description;
+		/** Lines in the translation file */
+		private final List<String> lines;
+
+		/** @param lines the lines, which must not be modified afterwards */
+		Section(String description, List<String> lines) {
+			this.description = description;
+			this.lines = lines;
+		}
+
+		/** @return description of the translation file */
+		public String getDescription() {
+			return description;
+		}
+
+		/** @return lines in the translation file */
+		public List<String> getLines() {
+			return lines;
+		}
+	}
+}
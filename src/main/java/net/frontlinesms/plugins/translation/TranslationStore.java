@@ -0,0 +1,47 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.IOException;
+
+/**
+ * Where the translations of languages are kept.  {@link MasterTranslationFile}s load their core translations from a
+ * store and are saved back to it; translations of plugins are always read from the plugins themselves.
+ * <p>Languages are kept in <code>.properties</code> files by {@link FileTranslationStore}, unless a translation
+ * database has been configured for {@link JdbcTranslationStore}.</p>
+ */
+interface TranslationStore {
+	/**
+	 * Loads the translations of a language.
+	 * @param filename the filename of the language file
+	 * @return the translations, as the core content of a {@link MasterTranslationFile}
+	 * @throws IOException if the language is not in this store or could not be read
+	 */
+	TextFileContent load(String filename) throws IOException;
+
+	/**
+	 * Saves a language which was loaded from this store.
+	 * @throws TranslationConflictException if translations edited in the language were also changed in the store
+	 * @throws IOException if the language could not be saved
+	 */
+	void save(MasterTranslationFile languageBundle) throws IOException;
+
+	/**
+	 * Reads a single core translation of a language, without loading the language.
+	 * @param filename the filename of the language file
+	 * @param textKey the key of the translation
+	 * @return the translation, or <code>null</code> if the store does not hold one for the key
+	 * @throws IOException if the language is not in this store or could not be read
+	 */
+	String getValue(String filename, String textKey) throws IOException;
+
+	/**
+	 * Changes a single core translation of a language, without loading the language.
+	 * @param filename the filename of the language file
+	 * @param textKey the key of the translation
+	 * @param textValue the new translation, or <code>null</code> or an empty string to remove it
+	 * @throws IOException if the language is not in this store or could not be written
+	 */
+	void setValue(String filename, String textKey, String textValue) throws IOException;
+}
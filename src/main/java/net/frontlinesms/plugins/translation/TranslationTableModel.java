@@ -0,0 +1,98 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The {@link TranslationQuery.Record}s of the rows of each translation table, for the keys of a language in one
+ * namespace.
+ * <p>The records are built by walking the {@link TranslationKeyIndex}, so each list is in key order.  Only the keys
+ * in the namespace are walked; they are all next to each other in the index.  Each translation is looked up by key,
+ * so only the translation files which may contain the namespace are loaded.  Missing translations are read from the
+ * language's live set of missing keys, which is kept against the keys of the index.</p>
+ */
+class TranslationTableModel {
+//> INSTANCE VARIABLES
+	/** Records of every key in the namespace */
+	private final List<TranslationQuery.Record> all = new ArrayList<TranslationQuery.Record>();
+	/** Records of the keys which have no translation */
+	private final List<TranslationQuery.Record> missing = new ArrayList<TranslationQuery.Record>();
+	/** Records of the translations whose default text has changed since they were translated */
+	private final List<TranslationQuery.Record> stale = new ArrayList<TranslationQuery.Record>();
+
+//> CONSTRUCTORS
+	private TranslationTableModel() {}
+
+	/**
+	 * Builds the records of a language's translation tables.
+	 * @param lang the language
+	 * @param keyIndex the default translation
+	 * @param fingerprints the fingerprints of the language, which tell which translations are stale
+	 * @param editedKeys the keys of the language with unsaved changes
+	 * @param namespace prefix of the keys to include; empty for every key
+	 * @return the records of each table
+	 */
+	static TranslationTableModel build(MasterTranslationFile lang, TranslationKeyIndex keyIndex,
+			SourceFingerprintIndex fingerprints, Set<String> editedKeys, String namespace) {
+		TranslationTableModel model = new TranslationTableModel();
+		setReferenceKeys(lang, keyIndex);
+		for(int i = keyIndex.getStartIndex(namespace) ; i < keyIndex.size() ; ++i) {
+			if(!keyIndex.getKey(i).startsWith(namespace)) {
+				break;
+			}
+			TranslationQuery.Record record = createRecord(lang, keyIndex, i, fingerprints, editedKeys.contains(keyIndex.getKey(i)));
+			model.all.add(record);
+			if(record.isMissing()) {
+				model.missing.add(record);
+			} else if(record.isStale()) {
+				model.stale.add(record);
+			}
+		}
+		return model;
+	}
+
+//> ACCESSORS
+	/** @return the records of the rows of a table, in key order */
+	List<TranslationQuery.Record> getRecords(TranslationView view) {
+		switch(view) {
+		case ALL: return all;
+		case MISSING: return missing;
+		case STALE: return stale;
+		default: throw new IllegalArgumentException("Unknown view: " + view);
+		}
+	}
+
+//> STATIC HELPER METHODS
+	/** Compares a language against the keys of the index to find its missing translations, unless it already is */
+	static void setReferenceKeys(MasterTranslationFile lang, TranslationKeyIndex keyIndex) {
+		if(lang.getReferenceKeys() != keyIndex.getKeySet()) {
+			lang.setReferenceKeys(keyIndex.getKeySet());
+		}
+	}
+
+	/**
+	 * Creates the record of one translation.
+	 * @param lang the language
+	 * @param keyIndex the default translation
+	 * @param index position of the key in the default translation
+	 * @param fingerprints the fingerprints of the language
+	 * @param edited <code>true</code> if the translation has unsaved changes
+	 * @return the record of the translation
+	 */
+	static TranslationQuery.Record createRecord(MasterTranslationFile lang, TranslationKeyIndex keyIndex, int index,
+			SourceFingerprintIndex fingerprints, boolean edited) {
+		String key = keyIndex.getKey(index);
+		String langValue = lang.get(key);
+		if(langValue == null) {
+			langValue = "";
+		}
+		boolean missing = lang.isMissing(key);
+		boolean stale = !missing && fingerprints.isStale(key, langValue, keyIndex);
+		return new TranslationQuery.Record(key, keyIndex.getDefaultValue(index), langValue, keyIndex.getSection(index),
+				missing, edited, stale);
+	}
+}
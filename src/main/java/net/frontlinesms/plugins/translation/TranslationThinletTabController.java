@@ -3,21 +3,27 @@
  */
 package net.frontlinesms.plugins.translation;
 
+import java.awt.EventQueue;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.MissingResourceException;
 import java.util.Set;
-import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import net.frontlinesms.events.EventObserver;
 import net.frontlinesms.events.FrontlineEventNotification;
@@ -28,7 +34,6 @@ import net.frontlinesms.ui.UiGeneratorController;
 import net.frontlinesms.ui.events.TabChangedNotification;
 import net.frontlinesms.ui.i18n.InternationalisationUtils;
 import net.frontlinesms.ui.i18n.LanguageBundle;
-import thinlet.Thinlet;
 
 /**
  * @author Alex Anderson <alex@frontlinesms.com>
@@ -38,24 +43,46 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 
 	
 	//> STATIC CONSTANTS
-	/** Filename and path of the XML for the Translation tab. */
-	private static final String UI_FILE_TRANSLATE_DIALOG = "/ui/plugins/translation/dgTranslate.xml";
-
 	private static final String BUNDLE_PROPERTIES_PREFIX = "bundle.";
+	/** Number of languages either side of the selected language in the language list which are prefetched */
+	private static final int PREFETCH_NEIGHBOURS = 1;
+	/** Number of recently selected languages which are prefetched */
+	private static final int PREFETCH_RECENT_LANGUAGES = 3;
 	
 	private static final String I18N_TRANSLATION_DELETED = "plugins.translation.translation.file.deleted";
 	private static final String I18N_CONFIRM_RESTART = "plugins.translation.confirm.restart";
 	private static final String I18N_MESSAGE_TRANSLATION_TAB_LOADED = "plugins.translation.tab.loaded";
 	private static final String I18N_TRANSLATION_SAVED = "plugins.translation.translations.saved";
+	private static final String I18N_TRANSLATIONS_MISSING = "plugins.translation.translations.missing";
+	private static final String I18N_TRANSLATIONS_STALE = "plugins.translation.translations.stale";
+	private static final String I18N_VALIDATION_PROBLEM = "plugins.translation.validation.problem";
+	private static final String I18N_NAMESPACE_ALL = "plugins.translation.namespace.all";
+	private static final String I18N_NAMESPACE_COUNTS = "plugins.translation.namespace.counts";
+	private static final String I18N_NAMESPACE_COUNTS_EDITED = "plugins.translation.namespace.counts.edited";
 	private static final String I18N_WARNING_TRANSLATIONS_NOT_SAVED = "plugins.translation.warning.translations.not.saved";
+	private static final String I18N_TRANSLATIONS_AUTOSAVED = "plugins.translation.translations.autosaved";
+	private static final String I18N_AUTOSAVE_FAILED = "plugins.translation.autosave.failed";
+	private static final String I18N_SAVE_CONFLICT = "plugins.translation.save.conflict";
+	private static final String I18N_LANGUAGES_LOADING = "plugins.translation.languages.loading";
+	private static final String I18N_LANGUAGE_COMPLETION = "plugins.translation.language.completion";
+	private static final String I18N_FILTER_INVALID = "plugins.translation.filter.invalid";
+	private static final String I18N_NO_MORE_MISSING = "plugins.translation.edit.no.more.missing";
 	
 	private static final String UI_COMPONENT_BT_DELETE = "btDelete";
 	private static final String UI_COMPONENT_BT_EDIT = "btEdit";
 	private static final String UI_COMPONENT_BT_SAVE = "saveTranslations";
+	private static final String UI_COMPONENT_BT_USE_SUGGESTION = "btUseSuggestion";
 	private static final String UI_COMPONENT_CL_CURRENT_LANGUAGE = "clCurrentLanguage";
+	private static final String UI_COMPONENT_LB_EDIT_LOCAL = "lbEditLocal";
 	private static final String UI_COMPONENT_LS_LANGUAGES = "lsLanguages";
+	private static final String UI_COMPONENT_PN_EDIT_TRANSLATION = "pnEditTranslation";
 	private static final String UI_COMPONENT_PN_RESTART_FRONTLINE = "restartFrontline";
+	private static final String UI_COMPONENT_TF_EDIT_DEFAULT = "tfEditDefault";
+	private static final String UI_COMPONENT_TF_EDIT_KEY = "tfEditKey";
+	private static final String UI_COMPONENT_TF_EDIT_LOCAL = "tfEditLocal";
+	private static final String UI_COMPONENT_TF_EDIT_SUGGESTION = "tfEditSuggestion";
 	private static final String UI_COMPONENT_TF_TRANSLATION_FILTER = "tfTranslationFilter";
+	private static final String UI_COMPONENT_TR_NAMESPACES = "trNamespaces";
 	
 	private static final Object UI_TRANSLATION_TAB_NAME = ":translation";
 
@@ -70,26 +97,190 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 	 * For each {@link TranslationView}, this map will contain all rows that could be shown, even those which are currently filtered out.
 	 */
 	private Map<TranslationView, List<Object>> translationTableRows;
-	/** The dialog used for editing a translation.  When the dialog is not visible, this should be <code>null</code>. */
-	private Object editDialog;
+	/** The attributes of each row in {@link #translationTableRows}, which the filter query is run against */
+	private Map<TranslationView, List<TranslationQuery.Record>> translationTableRecords;
+	/** The text of the last filter query compiled */
+	private String filterQueryText;
+	/** The filter query compiled from {@link #filterQueryText} */
+	private TranslationQuery filterQuery = TranslationQuery.ALL;
+	/** Key of the translation shown in the edit panel, or <code>null</code> if the panel is empty */
+	private String editPanelKey;
+	/** Identifier of the language of the translation shown in the edit panel */
+	private String editPanelIdentifier;
+	/** Suggested translations of default texts into the selected language, from the pre-translation cache.  Loaded in the background when a language is selected. */
+	private volatile PreTranslationCache suggestions;
+	/** Identifier of the language which the {@link #suggestions} are for */
+	private volatile String suggestionsIdentifier;
 	/** The localized language file which we are currently editing/working on. */
 	MasterTranslationFile selectedLanguageFile;
-	/** The localized languages file which we are currently editing/working on. */
+	/** The localized languages file which we are currently editing/working on.  Shared with other editors through the {@link #workspace}. */
 	private Map<String, MasterTranslationFile> languageBundles;
+	/** The translations being edited, shared with other editors such as the {@link TranslationHttpService} */
+	private final TranslationWorkspace workspace;
+	/**
+	 * Shows edits and saves made by other editors in this tab.  Other editors call this on their own threads, so
+	 * the UI is updated on the UI thread.
+	 */
+	private final TranslationWorkspace.Listener workspaceListener = new TranslationWorkspace.Listener() {
+		public void translationsEdited(final MasterTranslationFile languageBundle, final Collection<String> textKeys) {
+			if(autosaver != null) {
+				autosaver.edited(languageBundle);
+			}
+			updateSourceFingerprints(languageBundle, textKeys);
+			runOnUiThread(new Runnable() {
+				public void run() {
+					showEditedByOtherEditor(languageBundle, textKeys);
+				}
+			});
+		}
+		public void translationsSaved(final MasterTranslationFile languageBundle) {
+			if(autosaver != null) {
+				autosaver.discard(Collections.singleton(languageBundle));
+			}
+			saveSourceFingerprints(languageBundle);
+			languageStatisticsSaved(languageBundle);
+			runOnUiThread(new Runnable() {
+				public void run() {
+					showSavedByOtherEditor(languageBundle);
+				}
+			});
+		}
+	};
+	/** Recently loaded languages, kept within a memory budget.  Shared with other editors through the {@link #workspace}. */
+	private final MasterTranslationFileCache masterFileCache;
+	/** Loads languages in the background which are likely to be selected next */
+	private final LanguagePrefetcher prefetcher;
+	/** Holds the selected language while it has no pending edits, so it is not reloaded every time it is needed.  Shared with other editors through the {@link #workspace}. */
+	private final SelectedLanguageSession selectedLanguageSession;
+	/** Identifiers of the most recently selected languages, most recent first */
+	private final LinkedList<String> recentLanguages = new LinkedList<String>();
 	/** The selected property in the current table. */
 	private String selectedProperty;
+	/** The default translation.  Loaded when first needed. */
+	private MasterTranslationFile defaultLanguageFile;
+	/** The sorted keys of the {@link #defaultLanguageFile}.  Created when first needed. */
+	private TranslationKeyIndex keyIndex;
+	/** Validator used to check translations as they are edited.  Created when first needed. */
+	private TranslationValidator validator;
+	/** Namespaces of the keys of the selected language, or <code>null</code> if they need to be rebuilt. */
+	private TranslationKeyTrie namespaceTrie;
+	/** Identifier of the language which the {@link #namespaceTrie} was built for, or is being built for */
+	private String namespaceTrieIdentifier;
+	/** Number of the latest request to build the {@link #namespaceTrie}.  Tries built for earlier requests are not shown. */
+	private int namespaceTrieRequest;
+	/** Nodes of the namespace tree, by namespace prefix */
+	private Map<String, Object> namespaceTreeNodes;
+	/** Prefix of the namespace selected in the namespace tree.  Only keys in this namespace are shown in the tables. */
+	private String selectedNamespace = "";
+	/** Shows saved changes to the current language in the running UI */
+	private LiveTranslationUpdater liveTranslationUpdater;
+	/** Fingerprints of the default values each language was translated from, by language identifier.  Loaded when first needed. */
+	private final Map<String, SourceFingerprintIndex> sourceFingerprints = new HashMap<String, SourceFingerprintIndex>();
+	/** How complete each language is, by language identifier.  Calculated in the background when a language is first listed. */
+	private final ConcurrentMap<String, LanguageStatistics> languageStatistics = new ConcurrentHashMap<String, LanguageStatistics>();
+	/** Calculates the {@link #languageStatistics}, one language at a time */
+	private final ExecutorService statisticsExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Translation statistics");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	/** Saves edits in the background, or <code>null</code> if autosave is switched off */
+	private TranslationAutosaver autosaver;
+	/** <code>true</code> once the language list has been loaded.  Until then the tab only shows that it is loading. */
+	private volatile boolean languagesLoaded;
+	/** <code>true</code> once loading of the language list has been started by the tab first being shown */
+	private boolean languageLoadStarted;
 
 	//> CONSTRUCTORS
 	protected TranslationThinletTabController(TranslationPluginController pluginController, UiGeneratorController uiController) {
 		super(pluginController, uiController);
+		this.workspace = pluginController.getWorkspace();
+		this.masterFileCache = this.workspace.getLanguageCache();
+		this.prefetcher = new LanguagePrefetcher(new LanguagePrefetcher.Preparer() {
+			public MasterTranslationFile getEdited(String identifier) {
+				return languageBundles.get(identifier);
+			}
+			public void prepare(MasterTranslationFile languageBundle) {
+				prepareLanguage(languageBundle);
+			}
+		}, this.masterFileCache);
+		this.selectedLanguageSession = this.workspace.getLanguageSession();
 	}
 
 	public void init() {
 		this.ui.getFrontlineController().getEventBus().registerObserver(this);
+		this.liveTranslationUpdater = new LiveTranslationUpdater(this.ui, this.ui.getFrontlineController().getEventBus());
+		this.ui.getFrontlineController().getEventBus().registerObserver(this.liveTranslationUpdater);
 		this.visibleTab = TranslationView.ALL;
-		this.languageBundles = new HashMap<String, MasterTranslationFile>();
+		this.languageBundles = this.workspace.getEditedFiles();
+		this.workspace.addListener(this.workspaceListener);
+		this.autosaver = TranslationAutosaver.fromSystemProperties(new TranslationAutosaver.Listener() {
+			public void autosaved(int fileCount) {
+				saveSourceFingerprints(null);
+				showStatus(InternationalisationUtils.getI18nString(I18N_TRANSLATIONS_AUTOSAVED));
+			}
+			public void autosaveFailed(MasterTranslationFile languageBundle, IOException ex) {
+				if(ex instanceof TranslationConflictException) {
+					TranslationConflictException conflict = (TranslationConflictException) ex;
+					showStatus(InternationalisationUtils.getI18nString(I18N_SAVE_CONFLICT, conflict.getFilename(), conflict.getConflictingKeys().toString()));
+				} else {
+					showStatus(InternationalisationUtils.getI18nString(I18N_AUTOSAVE_FAILED, languageBundle.getLanguageName()));
+				}
+			}
+			/** Shows a message in the status bar, on the UI thread, as the autosaver calls this on its own thread */
+			private void showStatus(final String message) {
+				runOnUiThread(new Runnable() {
+					public void run() {
+						ui.setStatus(message);
+					}
+				});
+			}
+		});
 		
-		refreshLanguageList();
+		// Languages are not loaded until the tab is first shown, so that startup does not depend on how many are installed
+		Object loadingItem = ui.createListItem(InternationalisationUtils.getI18nString(I18N_LANGUAGES_LOADING), null);
+		ui.setEnabled(loadingItem, false);
+		ui.add(getLanguageList(), loadingItem);
+	}
+	
+	/**
+	 * Loads the language list in the background the first time it is called.  Until it has loaded, the tab just
+	 * shows that it is loading.
+	 */
+	private synchronized void loadLanguagesInBackground() {
+		if(this.languageLoadStarted) {
+			return;
+		}
+		this.languageLoadStarted = true;
+		this.ui.setStatus(InternationalisationUtils.getI18nString(I18N_LANGUAGES_LOADING));
+		Thread loader = new Thread("Translation tab loader") {
+			public void run() {
+				final List<MasterTranslationFile> existingLanguageBundles = getSortedLanguageBundles();
+				runOnUiThread(new Runnable() {
+					public void run() {
+						showLanguageList(existingLanguageBundles);
+						languagesLoaded = true;
+						ui.setStatus(InternationalisationUtils.getI18nString(I18N_MESSAGE_TRANSLATION_TAB_LOADED));
+					}
+				});
+			}
+		};
+		loader.setDaemon(true);
+		loader.start();
+	}
+	
+	/** Stops listening to other editors, and saves any edits not yet saved by the autosaver. */
+	public void deinit() {
+		this.workspace.removeListener(this.workspaceListener);
+		this.ui.getFrontlineController().getEventBus().unregisterObserver(this.liveTranslationUpdater);
+		if(this.autosaver != null) {
+			this.autosaver.shutdown();
+		}
+		this.statisticsExecutor.shutdownNow();
+		this.prefetcher.shutdown();
+		this.masterFileCache.clear();
 	}
 
 //> UI METHODS
@@ -98,27 +289,43 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 		this.visibleTab = TranslationView.getFromTabIndex(selectedTabIndex);
 	}
 
-	/** UI Event method: show the editor for the selected translation in the translation table. */
+	/** UI Event method: edit the selected translation in the translation table, in the edit panel below the tables. */
 	public void editText() {
-		String textKey = getSelectedTextKey(this.visibleTab);
-		String defaultValue = "";
-		try { defaultValue = MasterTranslationFile.getDefault().getValue(textKey); } catch(MissingResourceException ex) {};
-		
-		MasterTranslationFile selectedLanguageBundle = getSelectedLanguageBundle();
-		String localValue = "";
-		try { localValue = selectedLanguageBundle.getValue(textKey); } catch(MissingResourceException ex) {};
-		
-		// Load the dialog
-		this.editDialog = ui.loadComponentFromFile(UI_FILE_TRANSLATE_DIALOG, this);
-		ui.setText(ui.find(this.editDialog, "lbLocalTranslation"), selectedLanguageBundle.getLanguageName());
-		
-		// Initialize textfield values
-		ui.setText(ui.find(this.editDialog, "tfKey"), textKey);
-		ui.setText(ui.find(this.editDialog, "tfDefault"), defaultValue);
-		ui.setText(ui.find(this.editDialog, "tfLocal"), localValue);
+		showInEditPanel(getSelectedTextKey(this.visibleTab));
+		if (this.editPanelKey != null) {
+			ui.requestFocus(find(UI_COMPONENT_TF_EDIT_LOCAL));
+		}
+	}
 	
-		// Display the dialog
-		ui.add(this.editDialog);
+	/**
+	 * UI Event method: triggered by pressing enter in the edit panel, or its next button.  Saves the translation in
+	 * the edit panel, unless it is unchanged, and moves on to the next missing translation in the current table.
+	 * @param textValue the translation typed into the edit panel
+	 */
+	public void editNextMissing(String textValue) {
+		String textKey = this.editPanelKey;
+		if (textKey == null) {
+			return;
+		}
+		String localValue = getSelectedLanguageBundle().get(textKey);
+		if (!textValue.equals(localValue == null ? "" : localValue)) {
+			propertyEdited(textKey, textValue);
+		}
+		showNextMissing(textKey);
+	}
+	
+	/** UI Event method: leaves the translation in the edit panel unchanged, and moves on to the next missing translation. */
+	public void skipToNextMissing() {
+		if (this.editPanelKey != null) {
+			showNextMissing(this.editPanelKey);
+		}
+	}
+	
+	/** UI Event method: copies the suggested translation into the translation field of the edit panel. */
+	public void useSuggestion() {
+		Object localField = find(UI_COMPONENT_TF_EDIT_LOCAL);
+		ui.setText(localField, ui.getText(find(UI_COMPONENT_TF_EDIT_SUGGESTION)));
+		ui.requestFocus(localField);
 	}
 
 	/**
@@ -130,8 +337,6 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 		if(textKey != null) {
 			ui.showConfirmationDialog("deleteText('" + textKey + "')", this);
 		}
-		
-		removeEditDialog();
 	}
 	
 	/**
@@ -140,44 +345,122 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 	 * @throws IOException If there is a problem saving the translation file.
 	 */
 	public void deleteText(String textKey) throws IOException {
-		MasterTranslationFile languageBundle = this.getSelectedLanguageBundle();
+		MasterTranslationFile languageBundle = this.workspace.startEditing(this.getSelectedLanguageBundle());
+		boolean wasMissing = isMissing(languageBundle, textKey);
+		boolean wasEdited = hasUnsavedChange(languageBundle, textKey);
+		boolean wasStale = isStale(languageBundle, textKey);
 		try {
 			languageBundle.delete(textKey);
 		} catch (KeyNotFoundException e) {
 			throw new IllegalStateException("Could not delete text with key '" + textKey + "' because it does not exist.");
 		}
 		
-		if (!languageBundles.containsKey(languageBundle.getIdentifier())) {
-			languageBundles.put(languageBundle.getIdentifier(), languageBundle);
+		updateNamespaceCounts(languageBundle, textKey, wasMissing, wasEdited);
+		getSourceFingerprints(languageBundle).translationChanged(textKey, null, getKeyIndex());
+		updateLanguageStatistics(languageBundle, textKey, wasMissing, wasStale, wasEdited);
+		if(this.autosaver != null) {
+			this.autosaver.edited(languageBundle);
 		}
+		this.workspace.fireEdited(this.workspaceListener, languageBundle, Collections.singleton(textKey));
 		
 		refreshTables();
+		showInEditPanel(this.editPanelKey);
 		this.ui.setEnabled(this.ui.find(UI_COMPONENT_BT_SAVE), true);
 
 		ui.removeConfirmationDialog();
 	}
 	
 	/**
-	 * Method called when a translation has been edited.
+	 * Method called when a translation has been edited.  Only the rows of the edited translation are updated,
+	 * unless this is the first edit to the language, in which case the language list and tables are refreshed.
 	 * @param textKey
 	 * @param textValue
-	 * @throws IOException
 	 */
 	public void propertyEdited(String textKey, String textValue) {
-		MasterTranslationFile languageBundle = this.getSelectedLanguageBundle();
+		boolean wasPending = languageBundles.containsKey(this.getSelectedLanguageBundle().getIdentifier());
+		MasterTranslationFile languageBundle = this.workspace.startEditing(this.getSelectedLanguageBundle());
+		boolean wasMissing = isMissing(languageBundle, textKey);
+		boolean wasEdited = hasUnsavedChange(languageBundle, textKey);
+		boolean wasStale = isStale(languageBundle, textKey);
 		languageBundle.add(textKey, textValue);
+		List<ValidationFinding> findings = getValidator().validate(languageBundle, Collections.singleton(textKey));
 		
-		if (!languageBundles.containsKey(languageBundle.getIdentifier())) {
-			languageBundles.put(languageBundle.getIdentifier(), languageBundle);
+		updateNamespaceCounts(languageBundle, textKey, wasMissing, wasEdited);
+		getSourceFingerprints(languageBundle).translationChanged(textKey, textValue, getKeyIndex());
+		updateLanguageStatistics(languageBundle, textKey, wasMissing, wasStale, wasEdited);
+		if(this.autosaver != null) {
+			this.autosaver.edited(languageBundle);
 		}
+		this.workspace.fireEdited(this.workspaceListener, languageBundle, Collections.singleton(textKey));
 		
-		removeEditDialog();
-		
-		this.refreshLanguagesAndReselect();
-		this.refreshTables();		
+		if (!wasPending) {
+			// the language is now shown as edited in the language list
+			this.refreshLanguagesAndReselect();
+		} else if (updateTableRows(languageBundle, textKey)) {
+			updateMissingCount(languageBundle);
+			updateStaleCount(languageBundle);
+		} else {
+			this.refreshTables();
+		}
 		
 		this.ui.setEnabled(this.ui.find(UI_COMPONENT_BT_SAVE), true);
-		// TODO: Try to add focus on the selected line, so keyboard shortcut can be used
+		if (!findings.isEmpty()) {
+			this.ui.setStatus(InternationalisationUtils.getI18nString(I18N_VALIDATION_PROBLEM, textKey, findings.get(0).getDescription()));
+		}
+	}
+	
+	/**
+	 * Shows translations edited by another editor.  Only the item of the language in the language list and, if the
+	 * language is selected, the rows of the edited translations are updated.
+	 * @param languageBundle the edited language
+	 * @param textKeys the edited keys
+	 */
+	private void showEditedByOtherEditor(MasterTranslationFile languageBundle, Collection<String> textKeys) {
+		recalculateLanguageStatistics(languageBundle);
+		refreshLanguageListItem(languageBundle);
+		if (isSelected(languageBundle)) {
+			this.namespaceTrie = null;
+			refreshNamespaceTree();
+			boolean updated = true;
+			for (String textKey : textKeys) {
+				updated = updated && updateTableRows(languageBundle, textKey);
+			}
+			if (updated) {
+				updateMissingCount(languageBundle);
+				updateStaleCount(languageBundle);
+			} else {
+				refreshTables();
+			}
+			if (this.editPanelKey != null && textKeys.contains(this.editPanelKey)) {
+				showInEditPanel(this.editPanelKey);
+			}
+		}
+		this.ui.setEnabled(this.ui.find(UI_COMPONENT_BT_SAVE), true);
+	}
+	
+	/**
+	 * Shows that a language has been saved by another editor.  Only the item of the language in the language list
+	 * and, if the language is selected, the tables are refreshed.
+	 * @param languageBundle the saved language
+	 */
+	private void showSavedByOtherEditor(MasterTranslationFile languageBundle) {
+		if (this.liveTranslationUpdater.translationsSaved(languageBundle)) {
+			this.ui.setVisible(this.ui.find(UI_COMPONENT_PN_RESTART_FRONTLINE), true);
+		}
+		refreshLanguageListItem(languageBundle);
+		if (isSelected(languageBundle)) {
+			this.selectedLanguageSession.invalidate();
+			this.namespaceTrie = null;
+			refreshNamespaceTree();
+			refreshTables();
+		}
+		this.ui.setEnabled(this.ui.find(UI_COMPONENT_BT_SAVE), !this.languageBundles.isEmpty());
+	}
+	
+	/** @return <code>true</code> if the supplied language is selected in the language list */
+	private boolean isSelected(MasterTranslationFile languageBundle) {
+		Object selectedItem = ui.getSelectedItem(getLanguageList());
+		return selectedItem != null && languageBundle.getIdentifier().equals(ui.getAttachedObject(selectedItem));
 	}
 	
 	/**
@@ -197,33 +480,69 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 	 * @throws IOException
 	 */
 	public void saveTranslations () throws IOException {
-		// save all language bundles to disk
-		for (MasterTranslationFile languageBundle : languageBundles.values()) {
-			languageBundle.saveToDisk(InternationalisationUtils.getLanguageDirectory());
+		// save all language bundles to disk, and show any changes to the current language straight away
+		boolean reloadRequired = false;
+		TranslationConflictException conflict = null;
+		for (MasterTranslationFile languageBundle : new ArrayList<MasterTranslationFile>(languageBundles.values())) {
+			try {
+				languageBundle.save();
+			} catch (TranslationConflictException ex) {
+				// leave this language unsaved so that the translator can sort out the conflict, and save the others
+				conflict = ex;
+				continue;
+			}
+			if(this.autosaver != null) {
+				// this has just been saved, so the autosaver need not save it too
+				this.autosaver.discard(Collections.singleton(languageBundle));
+			}
+			this.workspace.fireSaved(this.workspaceListener, languageBundle);
+			saveSourceFingerprints(languageBundle);
+			languageStatisticsSaved(languageBundle);
+			reloadRequired |= this.liveTranslationUpdater.translationsSaved(languageBundle);
 		}
 		
-		this.ui.setEnabled(this.ui.find(UI_COMPONENT_BT_SAVE), false);
-		this.languageBundles.clear();
+		this.ui.setEnabled(this.ui.find(UI_COMPONENT_BT_SAVE), !languageBundles.isEmpty());
+		this.selectedLanguageSession.invalidate();
+		this.namespaceTrie = null;
 		this.refreshLanguagesAndReselect();
-		this.ui.infoMessage(InternationalisationUtils.getI18nString(I18N_TRANSLATION_SAVED));
-		this.ui.setVisible(this.ui.find(UI_COMPONENT_PN_RESTART_FRONTLINE), true);
+		if (conflict != null) {
+			this.ui.alert(InternationalisationUtils.getI18nString(I18N_SAVE_CONFLICT, conflict.getFilename(), conflict.getConflictingKeys().toString()));
+		} else {
+			this.ui.infoMessage(InternationalisationUtils.getI18nString(I18N_TRANSLATION_SAVED));
+		}
+		if (reloadRequired) {
+			this.ui.setVisible(this.ui.find(UI_COMPONENT_PN_RESTART_FRONTLINE), true);
+		}
 	}
 	
 	/**
-	 * Removes the edit dialog.
+	 * UI Event method: triggered when the user select a language on the left list.
 	 */
-	public void removeEditDialog() {
-		ui.remove(this.editDialog);
-		this.editDialog = null;
+	public void languageSelectionChanged() {
+		this.refreshNamespaceTree();
+		this.refreshTables();
+		this.enableBottomButtons();
+		ui.setEnabled(getFilterTextfield(), true);
+		MasterTranslationFile lang = getSelectedLanguageBundle();
+		if (lang == null || !lang.getIdentifier().equals(this.editPanelIdentifier)) {
+			// a different language has been selected.  If it is the same one, the edit panel is left alone so
+			// that a translation being typed is not lost when the tables are refreshed.
+			showInEditPanel(null);
+		}
+		if (lang != null) {
+			requestSuggestions(lang);
+			prefetchLikelyLanguages(lang);
+		}
 	}
 	
 	/**
-	 * UI Event method: triggered when the user select a language on the left list.
+	 * UI Event method: triggered when the user selects a namespace in the namespace tree.
 	 */
-	public void languageSelectionChanged() {
+	public void namespaceSelectionChanged() {
+		Object selectedNode = ui.getSelectedItem(find(UI_COMPONENT_TR_NAMESPACES));
+		this.selectedNamespace = selectedNode == null ? "" : ui.getAttachedObject(selectedNode, String.class);
 		this.refreshTables();
 		this.enableBottomButtons();
-		ui.setEnabled(getFilterTextfield(), true);
 	}
 	
 	/**
@@ -232,6 +551,9 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 	public void propertyItemChanged () {
 		this.selectedProperty  = this.getSelectedTextKey(this.visibleTab);
 		this.enableBottomButtons();
+		if (this.selectedProperty != null) {
+			showInEditPanel(this.selectedProperty);
+		}
 	}
 	
 	/**
@@ -245,7 +567,7 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 		
 		if (shouldEnable) {
 			String propertyKey = this.getSelectedTextKey(this.visibleTab);
-			shouldEnable = this.getSelectedLanguageBundle().getProperties().containsKey(propertyKey);
+			shouldEnable = this.getSelectedLanguageBundle().get(propertyKey) != null;
 		}
 		
 		this.ui.setEnabled(btDelete, shouldEnable);
@@ -258,29 +580,32 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 	public void filterTranslations(String filterText) {
 		filterTable(TranslationView.ALL);
 		filterTable(TranslationView.MISSING);
+		filterTable(TranslationView.STALE);
 	}
 	
 //>
 	/**
-	 * Filter the elements of a translation table, hiding all rows that do not match the filter text
-	 * and showing all that do.
+	 * Filter the elements of a translation table, hiding all rows that do not match the filter query
+	 * and showing all that do.  The query is run against the {@link #translationTableRecords}, so the rows
+	 * themselves are not read.
 	 */
 	private void filterTable(TranslationView view) {
 		Object table = find(view.getTableName());
-		String filterText = getFilterText();
+		TranslationQuery query = getFilterQuery();
 		ui.removeAll(table);
 		List<Object> tableRows = this.translationTableRows.get(view);
+		List<TranslationQuery.Record> tableRecords = this.translationTableRecords.get(view);
 		int selectedPropertyIndex = -1;
 		if(tableRows != null) {
+			int shown = 0;
 			for(int i = 0 ; i < tableRows.size() ; ++i) {
-				Object tableRow = tableRows.get(i);
-				
-				boolean show = rowMatches(tableRow, filterText);
-				if(show) {
-					ui.add(table, tableRow);
-					if (this.visibleTab.equals(TranslationView.ALL) && this.ui.getAttachedObject(tableRow, String.class).equals(this.selectedProperty)) {
-						selectedPropertyIndex = i;
+				TranslationQuery.Record record = tableRecords.get(i);
+				if(query.matches(record)) {
+					ui.add(table, tableRows.get(i));
+					if (this.visibleTab.equals(TranslationView.ALL) && record.getKey().equals(this.selectedProperty)) {
+						selectedPropertyIndex = shown;
 					}
+					++shown;
 				}
 			}
 			// if this.selectedProperty has been set before, selectedPropertyIndex should be positive
@@ -289,24 +614,22 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 	}
 
 	/**
-	 * Check if any column in the given table row matches our filter text.
-	 * @param row Thinlet ROW element.
-	 * @param filterText Text to filter with
-	 * @return <code>true</code> if the filter text is contained in any column in the supplied row; <code>false</code> otherwise.
+	 * Gets the query typed into the filter field, compiling it if it has changed.  If it is not a valid query,
+	 * the reason is shown in the status bar and its text is searched for as it is.
+	 * @return the filter query
 	 */
-	private boolean rowMatches(Object row, String filterText) {
-		assert(Thinlet.getClass(row).equals(Thinlet.ROW)) : "This method is only applicable to Thinlet <row/> components.";
-		
-		if(filterText.length() == 0) {
-			// If the filter text is empty, there is no need to check - it will match everything!
-			return true;
-		}
-		for(Object col : ui.getItems(row)) {
-			if(ui.getText(col).toLowerCase().contains(filterText.toLowerCase())) {
-				return true;
+	private TranslationQuery getFilterQuery() {
+		String filterText = getFilterText();
+		if(!filterText.equals(this.filterQueryText)) {
+			try {
+				this.filterQuery = TranslationQuery.compile(filterText);
+			} catch (ParseException ex) {
+				this.ui.setStatus(InternationalisationUtils.getI18nString(I18N_FILTER_INVALID, ex.getMessage()));
+				this.filterQuery = TranslationQuery.text(filterText.trim());
 			}
+			this.filterQueryText = filterText;
 		}
-		return false;
+		return this.filterQuery;
 	}
 	
 	/**
@@ -335,70 +658,237 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 	 */
 	private void refreshTables() {
 		this.translationTableRows = new HashMap<TranslationView, List<Object>>();
+		this.translationTableRecords = new HashMap<TranslationView, List<TranslationQuery.Record>>();
 		
-		if (getSelectedLanguageBundle() == null) {
+		MasterTranslationFile lang = getSelectedLanguageBundle();
+		if (lang == null) {
 			ArrayList<Object> emptyList = new ArrayList<Object>();
-			this.translationTableRows.put(TranslationView.ALL, emptyList);
-			this.translationTableRows.put(TranslationView.MISSING, emptyList);
-		} else {
-			MasterTranslationFile lang = getSelectedLanguageBundle();
-			MasterTranslationFile defaultLang = MasterTranslationFile.getDefault();
-			Set<String> missingKeys = new HashSet<String>();
-			Comparator<Object> comparator = new PropertyRowComparator(this.ui);  
-			
-			// Generate the "all" table rows
-			ArrayList<Object> allRows = new ArrayList<Object>(defaultLang.getProperties().size());
-			for(Entry<String, String> defaultEntry : defaultLang.getProperties().entrySet()) {
-				String key = defaultEntry.getKey();
-				if (key.startsWith(BUNDLE_PROPERTIES_PREFIX)) {
-					continue;
-				}
-				
-				String langValue = null;
-				try {
-					langValue = lang.getValue(key);
-				} catch(MissingResourceException ex) {
-					langValue = "";
-				}
-				if (langValue.equals("")) {
-					missingKeys.add(key);
-				}
-				Object tableRow = createTableRow(key, defaultEntry.getValue(), langValue);
-				allRows.add(tableRow);
+			ArrayList<TranslationQuery.Record> emptyRecords = new ArrayList<TranslationQuery.Record>();
+			for(TranslationView view : new TranslationView[] { TranslationView.ALL, TranslationView.MISSING, TranslationView.STALE }) {
+				this.translationTableRows.put(view, emptyList);
+				this.translationTableRecords.put(view, emptyRecords);
 			}
-			
-			Collections.sort(allRows, comparator);
-			this.translationTableRows.put(TranslationView.ALL, allRows);
-			
-			LanguageBundleComparison comp = new LanguageBundleComparison(defaultLang, lang);
-			
-			// populate and enable the missing table
-			missingKeys.addAll(comp.getKeysIn1Only());
-			ArrayList<Object> missingRows = new ArrayList<Object>(missingKeys.size());
-			for(String key : missingKeys) {
-				if (key.startsWith(BUNDLE_PROPERTIES_PREFIX)) {
-					continue;
+		} else {
+			TranslationTableModel model = TranslationTableModel.build(lang, getKeyIndex(), getSourceFingerprints(lang),
+					getEditedKeys(lang), this.selectedNamespace);
+			for(TranslationView view : new TranslationView[] { TranslationView.ALL, TranslationView.MISSING, TranslationView.STALE }) {
+				List<TranslationQuery.Record> records = model.getRecords(view);
+				ArrayList<Object> rows = new ArrayList<Object>(records.size());
+				for(TranslationQuery.Record record : records) {
+					rows.add(createTableRow(record));
 				}
-				Object tableRow = createTableRow(key, comp.get1(key), "");
-				missingRows.add(tableRow);
+				this.translationTableRows.put(view, rows);
+				this.translationTableRecords.put(view, records);
 			}
-			
-			Collections.sort(missingRows, comparator);
-			this.translationTableRows.put(TranslationView.MISSING, missingRows);
 		}
+		updateMissingCount(lang);
+		updateStaleCount(lang);
 		
-		initTable(TranslationView.ALL);
-		initTable(TranslationView.MISSING);
+		initTable(TranslationView.ALL, lang);
+		initTable(TranslationView.MISSING, lang);
+		initTable(TranslationView.STALE, lang);
+	}
+	
+	/**
+	 * Checks whether a key of the default translation has no translation in a language.  Only the translation
+	 * files which may contain the key are loaded.
+	 * @return <code>true</code> if the key is in the default translation but has no translation in the language
+	 */
+	private boolean isMissing(MasterTranslationFile lang, String textKey) {
+		return getKeyIndex().indexOf(textKey) >= 0 && lang.isMissing(textKey);
+	}
+	
+	/** @return the keys of a language which have unsaved changes */
+	private Set<String> getEditedKeys(MasterTranslationFile lang) {
+		if (!languageBundles.containsKey(lang.getIdentifier())) {
+			return Collections.emptySet();
+		}
+		return new HashSet<String>(lang.getChanges());
+	}
+	
+	/**
+	 * @return <code>true</code> if the translation of the supplied key has unsaved changes
+	 */
+	private boolean hasUnsavedChange(MasterTranslationFile lang, String textKey) {
+		return languageBundles.containsKey(lang.getIdentifier()) && lang.hasBeenEdited(textKey);
+	}
+	
+	/**
+	 * @return <code>true</code> if there are edits which have not been written to disk, either by the user or by the {@link #autosaver}
+	 */
+	private boolean hasUnsavedEdits() {
+		if(this.autosaver != null) {
+			return this.autosaver.hasUnsavedEdits();
+		} else {
+			return this.languageBundles.size() > 0;
+		}
+	}
+	
+	/**
+	 * Rebuilds the namespace tree for the selected language in the background, unless it has already been built
+	 * for that language.
+	 */
+	private void refreshNamespaceTree() {
+		Object tree = find(UI_COMPONENT_TR_NAMESPACES);
+		MasterTranslationFile lang = getSelectedLanguageBundle();
+		if (lang == null) {
+			this.namespaceTrie = null;
+			this.namespaceTrieIdentifier = null;
+			++this.namespaceTrieRequest;
+			this.selectedNamespace = "";
+			ui.removeAll(tree);
+			return;
+		}
+		if (this.namespaceTrie != null && lang.getIdentifier().equals(this.namespaceTrieIdentifier)) {
+			return;
+		}
+		this.namespaceTrie = null;
+		this.namespaceTrieIdentifier = lang.getIdentifier();
+		requestNamespaceTrie(lang);
+	}
+	
+	/**
+	 * Counts the missing and edited translations in each namespace of a language in the background, as this
+	 * compares the whole language, and then shows them in the namespace tree.  Until then the tree keeps showing
+	 * the namespaces, which are the same for every language, with the counts of the previous language.
+	 */
+	private void requestNamespaceTrie(final MasterTranslationFile lang) {
+		if (this.statisticsExecutor.isShutdown()) {
+			return;
+		}
+		final int request = ++this.namespaceTrieRequest;
+		final boolean hasPendingEdits = languageBundles.containsKey(lang.getIdentifier());
+		this.statisticsExecutor.execute(new Runnable() {
+			public void run() {
+				final TranslationKeyTrie trie = buildNamespaceTrie(lang, hasPendingEdits);
+				runOnUiThread(new Runnable() {
+					public void run() {
+						if (request == namespaceTrieRequest) {
+							showNamespaceTree(trie);
+						}
+					}
+				});
+			}
+		});
+	}
+	
+	/** @return the namespaces of the default translation, with their counts in a snapshot of the supplied language */
+	private TranslationKeyTrie buildNamespaceTrie(MasterTranslationFile lang, boolean hasPendingEdits) {
+		TranslationKeyIndex keyIndex = getKeyIndex();
+		TranslationSnapshot snapshot = lang.snapshot();
+		Map<String, String> translations = snapshot.getProperties();
+		Set<String> editedKeys = hasPendingEdits ? new HashSet<String>(snapshot.getChanges()) : Collections.<String>emptySet();
+		TranslationKeyTrie trie = new TranslationKeyTrie();
+		for (int i = 0 ; i < keyIndex.size() ; ++i) {
+			String key = keyIndex.getKey(i);
+			String value = translations.get(key);
+			trie.add(key, value == null || value.length() == 0, editedKeys.contains(key));
+		}
+		return trie;
+	}
+	
+	/** Shows the namespaces counted by {@link #requestNamespaceTrie(MasterTranslationFile)} in the namespace tree. */
+	private void showNamespaceTree(TranslationKeyTrie trie) {
+		Object tree = find(UI_COMPONENT_TR_NAMESPACES);
+		this.namespaceTrie = trie;
+		ui.removeAll(tree);
+		this.namespaceTreeNodes = new HashMap<String, Object>();
+		ui.add(tree, createNamespaceNode(trie.getRoot(), true));
+		if (!this.namespaceTreeNodes.containsKey(this.selectedNamespace)) {
+			// The previously selected namespace does not exist any more
+			this.selectedNamespace = "";
+			refreshTables();
+		}
+		ui.setSelectedItem(tree, this.namespaceTreeNodes.get(this.selectedNamespace));
+	}
+	
+	/**
+	 * Creates a tree node for a namespace and, recursively, for all namespaces inside it.
+	 * @param namespace
+	 * @param expanded <code>true</code> if the node should initially be expanded
+	 * @return the tree node
+	 */
+	private Object createNamespaceNode(TranslationKeyTrie.Node namespace, boolean expanded) {
+		Object node = ui.createNode(getNamespaceLabel(namespace), namespace.getPrefix());
+		ui.setBoolean(node, "expanded", expanded);
+		this.namespaceTreeNodes.put(namespace.getPrefix(), node);
+		for (TranslationKeyTrie.Node child : namespace.getChildren()) {
+			ui.add(node, createNamespaceNode(child, false));
+		}
+		return node;
+	}
+	
+	/** @return the text to display for a namespace in the namespace tree */
+	private String getNamespaceLabel(TranslationKeyTrie.Node namespace) {
+		String name = namespace.getPrefix().length() == 0 ? InternationalisationUtils.getI18nString(I18N_NAMESPACE_ALL) : namespace.getName();
+		if (namespace.getEdited() > 0) {
+			return InternationalisationUtils.getI18nString(I18N_NAMESPACE_COUNTS_EDITED, name,
+					Integer.toString(namespace.getMissing()), Integer.toString(namespace.getTotal()), Integer.toString(namespace.getEdited()));
+		} else {
+			return InternationalisationUtils.getI18nString(I18N_NAMESPACE_COUNTS, name,
+					Integer.toString(namespace.getMissing()), Integer.toString(namespace.getTotal()));
+		}
+	}
+	
+	/**
+	 * Updates the counts shown in the namespace tree after a translation has been edited.
+	 * @param lang the edited language
+	 * @param textKey the edited key
+	 * @param wasMissing <code>true</code> if the key was missing before the edit
+	 * @param wasEdited <code>true</code> if the key had unsaved changes before the edit
+	 */
+	private void updateNamespaceCounts(MasterTranslationFile lang, String textKey, boolean wasMissing, boolean wasEdited) {
+		if (!lang.getIdentifier().equals(this.namespaceTrieIdentifier) || getKeyIndex().indexOf(textKey) < 0) {
+			return;
+		}
+		if (this.namespaceTrie == null) {
+			// the counts are still being made, perhaps from before this edit, so they are made again
+			requestNamespaceTrie(lang);
+			return;
+		}
+		for (TranslationKeyTrie.Node namespace : this.namespaceTrie.update(textKey,
+				wasMissing, isMissing(lang, textKey), wasEdited, hasUnsavedChange(lang, textKey))) {
+			ui.setText(this.namespaceTreeNodes.get(namespace.getPrefix()), getNamespaceLabel(namespace));
+		}
+	}
+	
+	/**
+	 * Shows the number of missing translations of the current language in the title of the MISSING tab, once the
+	 * statistics of the language have been calculated.
+	 * @param lang the selected language, or <code>null</code> if none is selected
+	 */
+	private void updateMissingCount(MasterTranslationFile lang) {
+		String title = InternationalisationUtils.getI18nString(I18N_TRANSLATIONS_MISSING);
+		LanguageStatistics statistics = lang == null ? null : this.languageStatistics.get(lang.getIdentifier());
+		if (statistics != null) {
+			title += " (" + statistics.getMissing() + ")";
+		}
+		ui.setText(find(TranslationView.MISSING.getTabName()), title);
+	}
+	
+	/**
+	 * Shows the number of stale translations of the current language in the title of the STALE tab, once the
+	 * statistics of the language have been calculated.
+	 * @param lang the selected language, or <code>null</code> if none is selected
+	 */
+	private void updateStaleCount(MasterTranslationFile lang) {
+		String title = InternationalisationUtils.getI18nString(I18N_TRANSLATIONS_STALE);
+		LanguageStatistics statistics = lang == null ? null : this.languageStatistics.get(lang.getIdentifier());
+		if (statistics != null) {
+			title += " (" + statistics.getStale() + ")";
+		}
+		ui.setText(find(TranslationView.STALE.getTabName()), title);
 	}
 	
 	/**
 	 * Inits the table header, functions of the current language
 	 * @param view
+	 * @param lang the selected language, or <code>null</code> if none is selected
 	 */
-	private void initTable(TranslationView view) {
-		if (getSelectedLanguageBundle() != null) {
+	private void initTable(TranslationView view, MasterTranslationFile lang) {
+		if (lang != null) {
 			Object table = find(view.getTableName());
-			ui.setText(ui.find(table, UI_COMPONENT_CL_CURRENT_LANGUAGE), getSelectedLanguageBundle().getLanguageName());
+			ui.setText(ui.find(table, UI_COMPONENT_CL_CURRENT_LANGUAGE), lang.getLanguageName());
 		}
 		filterTable(view);
 	}
@@ -449,9 +939,16 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 		if (languageBundle != null) {
 			// We remove the MasterTranslationFile from the current editing bundles, if it is in
 			languageBundles.remove(languageBundle.getIdentifier());
+			this.languageStatistics.remove(languageBundle.getIdentifier());
+			// ...and make sure nothing still holds it, so it is neither autosaved nor shown again
+			if(this.autosaver != null) {
+				this.autosaver.discard(Collections.singleton(languageBundle));
+			}
+			this.masterFileCache.remove(languageBundle.getIdentifier());
+			this.selectedLanguageSession.invalidate();
 			
 			// Then we remove the file
-			if (new File(InternationalisationUtils.getLanguageDirectory() + File.separator + languageBundle.getFilename()).delete()) {
+			if (new File(MasterTranslationFile.getLanguageDirectory() + File.separator + languageBundle.getFilename()).delete()) {
 				this.ui.infoMessage(InternationalisationUtils.getI18nString(I18N_TRANSLATION_DELETED));
 			}
 			
@@ -475,18 +972,25 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 	}
 
 	/**
-	 * Creates a Thinlet table row for a translation.  The first column value, i.e. 
+	 * Creates the Thinlet table row showing the key, default text and translation of a record.
+	 * @param record
+	 * @return
+	 */
+	private Object createTableRow(TranslationQuery.Record record) {
+		return createTableRow(record.isEdited(), record.getKey(), record.getDefaultValue(), record.getLocalValue());
+	}
+
+	/**
+	 * Creates a Thinlet table row for a translation.  The first column value, i.e.
 	 * the translation key, is attached, to the row, as well as appearing in the first
 	 * column.
+	 * @param hasBeenEdited <code>true</code> if the translation has unsaved changes, in which case it is highlighted
 	 * @param columnValues
 	 * @return
 	 */
-	private Object createTableRow(String... columnValues) {
+	private Object createTableRow(boolean hasBeenEdited, String... columnValues) {
 		assert(columnValues.length > 0) : "The translation key should be provided as the first column value.";
 		Object row = ui.createTableRow(columnValues[0]);
-		String languageFileIdentifier = ui.getAttachedObject(ui.getSelectedItem(getLanguageList()), String.class);
-		
-		boolean hasBeenEdited = languageBundles.containsKey(languageFileIdentifier) && this.getSelectedLanguageBundle().hasBeenEdited(columnValues[0]); 
 		for(int i = 0 ; i < columnValues.length ; ++i) {
 			String col = columnValues[i];
 			ui.add(row, ui.createTableCell(col, hasBeenEdited));
@@ -495,22 +999,420 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 	}
 
 //> INSTANCE HELPER METHODS
+	/** Runs a task on the UI thread, as the UI components may only be changed from there. */
+	private static void runOnUiThread(Runnable task) {
+		EventQueue.invokeLater(task);
+	}
+	
 	/** Refresh language list on the left pane */
 	public void refreshLanguageList() {
-		// Refresh language list
-		Object languageList = getLanguageList();
-		super.removeAll(languageList);
+		if(!this.languagesLoaded) {
+			// the list will be up to date when the languages have been loaded
+			return;
+		}
+		showLanguageList(getSortedLanguageBundles());
+	}
+	
+	/** @return all installed languages, in display order */
+	private static List<MasterTranslationFile> getSortedLanguageBundles() {
 		List<MasterTranslationFile> existingLanguageBundles = (List<MasterTranslationFile>) MasterTranslationFile.getAll();
 		Collections.sort(existingLanguageBundles);
-		
+		return existingLanguageBundles;
+	}
+	
+	/** Replaces the contents of the language list with the supplied languages */
+	private void showLanguageList(List<MasterTranslationFile> existingLanguageBundles) {
+		Object languageList = getLanguageList();
+		super.removeAll(languageList);
 		for (MasterTranslationFile languageBundle : existingLanguageBundles) {
-			boolean shouldBeBold = languageBundles.containsKey(languageBundle.getIdentifier());
-			Object item = ui.createListItem(languageBundle.getLanguageName(), languageBundle.getIdentifier(), shouldBeBold);
-			ui.setIcon(item, ui.getFlagIcon(languageBundle));
-			ui.add(languageList, item);
+			ui.add(languageList, createLanguageListItem(languageBundle));
+			requestLanguageStatistics(languageBundle);
+		}
+	}
+	
+	/** @return an item for the language list, shown in bold if the language has pending edits */
+	private Object createLanguageListItem(MasterTranslationFile languageBundle) {
+		boolean shouldBeBold = languageBundles.containsKey(languageBundle.getIdentifier());
+		Object item = ui.createListItem(getLanguageLabel(languageBundle), languageBundle.getIdentifier(), shouldBeBold);
+		ui.setIcon(item, ui.getFlagIcon(languageBundle));
+		return item;
+	}
+	
+	/**
+	 * Replaces the item of one language in the language list, e.g. after it has started or stopped having pending
+	 * edits, rather than reloading the whole list.  The selection is kept.
+	 */
+	private void refreshLanguageListItem(MasterTranslationFile languageBundle) {
+		Object languageList = getLanguageList();
+		Object[] items = ui.getItems(languageList);
+		for (int i = 0 ; i < items.length ; ++i) {
+			if (languageBundle.getIdentifier().equals(ui.getAttachedObject(items[i]))) {
+				boolean selected = items[i] == ui.getSelectedItem(languageList);
+				ui.remove(items[i]);
+				ui.add(languageList, createLanguageListItem(languageBundle), i);
+				if (selected) {
+					ui.setSelectedIndex(languageList, i);
+				}
+				return;
+			}
+		}
+	}
+	
+	/** @return the text to display for a language in the language list, including how complete it is once that is known */
+	private String getLanguageLabel(MasterTranslationFile languageBundle) {
+		LanguageStatistics statistics = this.languageStatistics.get(languageBundle.getIdentifier());
+		if (statistics == null) {
+			return languageBundle.getLanguageName();
+		}
+		return InternationalisationUtils.getI18nString(I18N_LANGUAGE_COMPLETION, languageBundle.getLanguageName(), Integer.toString(statistics.getPercentComplete()));
+	}
+	
+	/** Updates the text of a language in the language list, e.g. after its statistics have changed */
+	private void showLanguageStatistics(MasterTranslationFile languageBundle) {
+		for (Object item : ui.getItems(getLanguageList())) {
+			if (languageBundle.getIdentifier().equals(ui.getAttachedObject(item))) {
+				ui.setText(item, getLanguageLabel(languageBundle));
+			}
+		}
+		if (isSelected(languageBundle)) {
+			updateMissingCount(languageBundle);
+			updateStaleCount(languageBundle);
+		}
+	}
+	
+//> EDIT PANEL METHODS
+	/**
+	 * Shows a translation of the selected language in the edit panel.  Everything shown is already in memory:
+	 * the default text comes from the {@link #keyIndex} and the suggestion from the {@link #suggestions}.
+	 * @param textKey the key to show, or <code>null</code> to empty the panel
+	 */
+	private void showInEditPanel(String textKey) {
+		MasterTranslationFile lang = getSelectedLanguageBundle();
+		Object panel = find(UI_COMPONENT_PN_EDIT_TRANSLATION);
+		if (lang == null || textKey == null) {
+			this.editPanelKey = null;
+			this.editPanelIdentifier = null;
+			ui.setText(ui.find(panel, UI_COMPONENT_TF_EDIT_KEY), "");
+			ui.setText(ui.find(panel, UI_COMPONENT_TF_EDIT_DEFAULT), "");
+			ui.setText(ui.find(panel, UI_COMPONENT_TF_EDIT_SUGGESTION), "");
+			ui.setText(ui.find(panel, UI_COMPONENT_TF_EDIT_LOCAL), "");
+			ui.setEnabled(ui.find(panel, UI_COMPONENT_TF_EDIT_LOCAL), false);
+			ui.setEnabled(ui.find(panel, UI_COMPONENT_BT_USE_SUGGESTION), false);
+			return;
+		}
+		this.editPanelKey = textKey;
+		this.editPanelIdentifier = lang.getIdentifier();
+		TranslationKeyIndex keyIndex = getKeyIndex();
+		int index = keyIndex.indexOf(textKey);
+		String defaultValue = index >= 0 ? keyIndex.getDefaultValue(index) : "";
+		String localValue = lang.get(textKey);
+		
+		ui.setText(ui.find(panel, UI_COMPONENT_LB_EDIT_LOCAL), lang.getLanguageName());
+		ui.setText(ui.find(panel, UI_COMPONENT_TF_EDIT_KEY), textKey);
+		ui.setText(ui.find(panel, UI_COMPONENT_TF_EDIT_DEFAULT), defaultValue);
+		ui.setText(ui.find(panel, UI_COMPONENT_TF_EDIT_LOCAL), localValue == null ? "" : localValue);
+		ui.setEnabled(ui.find(panel, UI_COMPONENT_TF_EDIT_LOCAL), true);
+		showSuggestion(lang, defaultValue);
+	}
+	
+	/** Shows the suggested translation of a default text in the edit panel, if one has been loaded. */
+	private void showSuggestion(MasterTranslationFile lang, String defaultValue) {
+		Object panel = find(UI_COMPONENT_PN_EDIT_TRANSLATION);
+		PreTranslationCache suggestions = this.suggestions;
+		String suggestion = null;
+		if (suggestions != null && lang.getIdentifier().equals(this.suggestionsIdentifier) && defaultValue.length() > 0) {
+			suggestion = suggestions.get(defaultValue);
+		}
+		ui.setText(ui.find(panel, UI_COMPONENT_TF_EDIT_SUGGESTION), suggestion == null ? "" : suggestion);
+		ui.setEnabled(ui.find(panel, UI_COMPONENT_BT_USE_SUGGESTION), suggestion != null);
+	}
+	
+	/**
+	 * Selects the first missing translation after the supplied key in the current table, going back to the start
+	 * of the table if there is none, and shows it in the edit panel ready to be translated.
+	 * @param textKey the key to start looking after
+	 */
+	private void showNextMissing(String textKey) {
+		MasterTranslationFile lang = getSelectedLanguageBundle();
+		Object table = find(this.visibleTab.getTableName());
+		Object[] rows = ui.getItems(table);
+		TranslationKeyIndex keyIndex = getKeyIndex();
+		
+		// Rows are in key order, so find the first row after the key, then look for a missing translation from there
+		int keyPosition = keyIndex.indexOf(textKey);
+		int low = 0;
+		int high = rows.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (keyIndex.indexOf(ui.getAttachedObject(rows[middle], String.class)) <= keyPosition) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		for (int i = 0 ; i < rows.length ; ++i) {
+			int rowIndex = (low + i) % rows.length;
+			String rowKey = ui.getAttachedObject(rows[rowIndex], String.class);
+			if (!rowKey.equals(textKey) && isMissing(lang, rowKey)) {
+				ui.setSelectedIndex(table, rowIndex);
+				this.selectedProperty = rowKey;
+				this.enableBottomButtons();
+				showInEditPanel(rowKey);
+				ui.requestFocus(find(UI_COMPONENT_TF_EDIT_LOCAL));
+				return;
+			}
+		}
+		ui.setSelectedIndex(table, -1);
+		this.selectedProperty = null;
+		this.enableBottomButtons();
+		showInEditPanel(null);
+		ui.setStatus(InternationalisationUtils.getI18nString(I18N_NO_MORE_MISSING));
+	}
+	
+	/**
+	 * Updates the rows of one translation in the tables after it has been edited, rather than rebuilding the tables.
+	 * Rows are replaced, or removed from the MISSING and STALE tables if the translation no longer belongs in them.
+	 * @param lang the edited language
+	 * @param textKey the edited key
+	 * @return <code>false</code> if the translation now belongs in a table it was not in, so the tables must be rebuilt
+	 */
+	private boolean updateTableRows(MasterTranslationFile lang, String textKey) {
+		TranslationKeyIndex keyIndex = getKeyIndex();
+		int index = keyIndex.indexOf(textKey);
+		if (index < 0 || !textKey.startsWith(this.selectedNamespace) || this.translationTableRecords == null) {
+			// the translation is not in the tables
+			return true;
+		}
+		TranslationQuery.Record record = TranslationTableModel.createRecord(lang, keyIndex, index,
+				getSourceFingerprints(lang), hasUnsavedChange(lang, textKey));
+		boolean show = getFilterQuery().matches(record);
+		
+		for (TranslationView view : new TranslationView[] { TranslationView.ALL, TranslationView.MISSING, TranslationView.STALE }) {
+			List<Object> rows = this.translationTableRows.get(view);
+			List<TranslationQuery.Record> records = this.translationTableRecords.get(view);
+			boolean belongs = view == TranslationView.ALL || (view == TranslationView.MISSING ? record.isMissing() : record.isStale());
+			int position = indexOfRecord(records, textKey);
+			if (position < 0) {
+				if (belongs) {
+					return false;
+				}
+				continue;
+			}
+			
+			Object table = find(view.getTableName());
+			Object oldRow = rows.get(position);
+			int tablePosition = -1;
+			Object[] tableRows = ui.getItems(table);
+			for (int i = 0 ; i < tableRows.length ; ++i) {
+				if (tableRows[i] == oldRow) {
+					tablePosition = i;
+					break;
+				}
+			}
+			if (tablePosition >= 0) {
+				ui.remove(oldRow);
+			}
+			if (belongs) {
+				Object row = createTableRow(record);
+				rows.set(position, row);
+				records.set(position, record);
+				if (tablePosition >= 0 && show) {
+					ui.add(table, row, tablePosition);
+				}
+			} else {
+				rows.remove(position);
+				records.remove(position);
+			}
+		}
+		return true;
+	}
+	
+	/** @return the position of the record of a key in a list of records in key order, or a negative number if it is not there */
+	private int indexOfRecord(List<TranslationQuery.Record> records, String textKey) {
+		int low = 0;
+		int high = records.size() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = records.get(middle).getKey().compareTo(textKey);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Loads the suggested translations for a language in the background, unless they are already loaded, and
+	 * then shows the suggestion for the translation in the edit panel.
+	 */
+	private void requestSuggestions(final MasterTranslationFile lang) {
+		if (lang.getIdentifier().equals(this.suggestionsIdentifier) || this.statisticsExecutor.isShutdown()) {
+			return;
+		}
+		this.suggestions = null;
+		this.suggestionsIdentifier = lang.getIdentifier();
+		this.statisticsExecutor.execute(new Runnable() {
+			public void run() {
+				PreTranslationCache suggestions;
+				try {
+					suggestions = PreTranslator.fromSystemProperties().loadCache(lang.getLanguageCode());
+				} catch (IllegalArgumentException ex) {
+					// no translation provider has been configured, so there are no suggestions
+					return;
+				}
+				synchronized(TranslationThinletTabController.this) {
+					if (!lang.getIdentifier().equals(suggestionsIdentifier)) {
+						// another language has been selected since
+						return;
+					}
+					TranslationThinletTabController.this.suggestions = suggestions;
+				}
+				runOnUiThread(new Runnable() {
+					public void run() {
+						String textKey = editPanelKey;
+						if (textKey != null && lang.getIdentifier().equals(editPanelIdentifier)) {
+							int index = getKeyIndex().indexOf(textKey);
+							showSuggestion(lang, index >= 0 ? getKeyIndex().getDefaultValue(index) : "");
+						}
+					}
+				});
+			}
+		});
+	}
+	
+//> PREFETCH METHODS
+	/**
+	 * Prefetches the languages most likely to be selected after the supplied one: its neighbours in the
+	 * language list, the most recently selected languages and the languages with pending edits.
+	 * @param lang the selected language
+	 */
+	private void prefetchLikelyLanguages(MasterTranslationFile lang) {
+		String identifier = lang.getIdentifier();
+		this.recentLanguages.remove(identifier);
+		this.recentLanguages.addFirst(identifier);
+		while (this.recentLanguages.size() > PREFETCH_RECENT_LANGUAGES + 1) {
+			this.recentLanguages.removeLast();
+		}
+		
+		List<String> likelyLanguages = new ArrayList<String>();
+		Object[] items = ui.getItems(getLanguageList());
+		int selectedIndex = ui.getSelectedIndex(getLanguageList());
+		for (int distance = 1 ; distance <= PREFETCH_NEIGHBOURS ; ++distance) {
+			for (int index : new int[] { selectedIndex + distance, selectedIndex - distance }) {
+				if (index >= 0 && index < items.length) {
+					addLikelyLanguage(likelyLanguages, identifier, (String) ui.getAttachedObject(items[index]));
+				}
+			}
+		}
+		for (String recentLanguage : this.recentLanguages) {
+			addLikelyLanguage(likelyLanguages, identifier, recentLanguage);
+		}
+		for (String editedLanguage : this.languageBundles.keySet()) {
+			addLikelyLanguage(likelyLanguages, identifier, editedLanguage);
+		}
+		this.prefetcher.prefetch(likelyLanguages);
+	}
+	
+	/** Adds a language to the list of those to prefetch, unless it is already in it or is the selected language */
+	private static void addLikelyLanguage(List<String> likelyLanguages, String selectedIdentifier, String identifier) {
+		if (identifier != null && !identifier.equals(selectedIdentifier) && !likelyLanguages.contains(identifier)) {
+			likelyLanguages.add(identifier);
+		}
+	}
+	
+	/**
+	 * Prepares a language to be shown, on the prefetch thread: loads its source fingerprints, as
+	 * {@link #refreshTables()} would when it is selected.  Its translation files are left to be loaded as the
+	 * namespaces they are in are shown.
+	 * @param lang the language
+	 */
+	private void prepareLanguage(MasterTranslationFile lang) {
+		getSourceFingerprints(lang);
+	}
+	
+//> LANGUAGE STATISTICS METHODS
+	/**
+	 * Calculates the statistics of a language in the background, unless they are already known, and then shows
+	 * them in the language list.
+	 * @param languageBundle the language as listed; if it is being edited, the edited copy is counted instead
+	 */
+	private void requestLanguageStatistics(final MasterTranslationFile languageBundle) {
+		if (this.languageStatistics.containsKey(languageBundle.getIdentifier()) || this.statisticsExecutor.isShutdown()) {
+			return;
+		}
+		this.statisticsExecutor.execute(new Runnable() {
+			public void run() {
+				String identifier = languageBundle.getIdentifier();
+				if (languageStatistics.containsKey(identifier)) {
+					// already calculated for an earlier request
+					return;
+				}
+				MasterTranslationFile lang = languageBundles.get(identifier);
+				languageStatistics.putIfAbsent(identifier, calculateLanguageStatistics(lang != null ? lang : languageBundle));
+				runOnUiThread(new Runnable() {
+					public void run() {
+						showLanguageStatistics(languageBundle);
+					}
+				});
+			}
+		});
+	}
+	
+	/** Calculates the statistics of a language again in the background, e.g. after it has been edited by another editor. */
+	private void recalculateLanguageStatistics(MasterTranslationFile languageBundle) {
+		this.languageStatistics.remove(languageBundle.getIdentifier());
+		requestLanguageStatistics(languageBundle);
+	}
+	
+	/** @return the statistics of a language, counted from a snapshot so that the language may be edited meanwhile */
+	private LanguageStatistics calculateLanguageStatistics(MasterTranslationFile lang) {
+		TranslationKeyIndex keyIndex = getKeyIndex();
+		TranslationSnapshot snapshot = lang.snapshot();
+		Map<String, String> translations = snapshot.getProperties();
+		Set<String> staleKeys = getSourceFingerprints(lang).getStaleKeys(keyIndex, translations);
+		int edited = 0;
+		if (languageBundles.containsKey(lang.getIdentifier())) {
+			for (String textKey : snapshot.getChanges()) {
+				if (keyIndex.getKeySet().contains(textKey)) {
+					++edited;
+				}
+			}
+		}
+		return LanguageStatistics.calculate(lang, keyIndex, staleKeys, edited);
+	}
+	
+	/**
+	 * Updates the statistics of a language after the translation of one key has been edited in this tab.
+	 * @param wasMissing <code>true</code> if the key had no translation before the edit
+	 * @param wasStale <code>true</code> if the translation was stale before the edit
+	 * @param wasEdited <code>true</code> if the key had unsaved changes before the edit
+	 */
+	private void updateLanguageStatistics(MasterTranslationFile lang, String textKey, boolean wasMissing, boolean wasStale, boolean wasEdited) {
+		LanguageStatistics statistics = this.languageStatistics.get(lang.getIdentifier());
+		if (statistics != null && getKeyIndex().getKeySet().contains(textKey)) {
+			this.languageStatistics.put(lang.getIdentifier(), statistics.update(wasMissing, isMissing(lang, textKey),
+					wasStale, isStale(lang, textKey), wasEdited, hasUnsavedChange(lang, textKey)));
+			showLanguageStatistics(lang);
+		}
+	}
+	
+	/** Records that a language has been saved, so has no unsaved edits */
+	private void languageStatisticsSaved(MasterTranslationFile lang) {
+		LanguageStatistics statistics = this.languageStatistics.get(lang.getIdentifier());
+		if (statistics != null) {
+			this.languageStatistics.put(lang.getIdentifier(), statistics.saved());
 		}
 	}
 	
+	/** @return <code>true</code> if the translation of the supplied key was made from a different default value to the current one */
+	private boolean isStale(MasterTranslationFile lang, String textKey) {
+		return getSourceFingerprints(lang).isStale(textKey, lang.get(textKey), getKeyIndex());
+	}
+	
 //> UI ACCESSORS
 	/**
 	 * Gets the language list component on the left pane
@@ -521,22 +1423,85 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 	
 	/**
 	 * Gets the selected language bundle as a {@link MasterTranslationFile} 
-	 * @return A new {@link MasterTranslationFile} if the selected language is not stored in the {@link #languageBundles}, the stored
+	 * @return The {@link MasterTranslationFile} held by the {@link #selectedLanguageSession} if the selected language is not stored in the {@link #languageBundles}, the stored
 	 * {@link MasterTranslationFile} if it is, or <code>null</code> if no item was selected
 	 */
-	private synchronized MasterTranslationFile getSelectedLanguageBundle() {
-		if (ui.getSelectedItem(getLanguageList()) == null) {
+	private MasterTranslationFile getSelectedLanguageBundle() {
+		Object selectedItem = ui.getSelectedItem(getLanguageList());
+		if (selectedItem == null) {
 			return null;
 		}
 		
-		String languageFileIdentifier = ui.getAttachedObject(ui.getSelectedItem(getLanguageList()), String.class);
-		if (languageBundles.containsKey(languageFileIdentifier)) {
-			return languageBundles.get(languageFileIdentifier);
+		String languageFileIdentifier = ui.getAttachedObject(selectedItem, String.class);
+		MasterTranslationFile editedBundle = languageBundles.get(languageFileIdentifier);
+		if (editedBundle != null) {
+			return editedBundle;
 		} else {
-			return MasterTranslationFile.getFromIdentifier(languageFileIdentifier);
+			return this.selectedLanguageSession.get(languageFileIdentifier);
+		}
+	}
+	
+	/** @return the default translation */
+	private synchronized MasterTranslationFile getDefaultLanguageFile() {
+		if (this.defaultLanguageFile == null) {
+			this.defaultLanguageFile = MasterTranslationFile.getDefault();
+		}
+		return this.defaultLanguageFile;
+	}
+	
+	/** @return the fingerprints of the default values the supplied language was translated from */
+	private synchronized SourceFingerprintIndex getSourceFingerprints(MasterTranslationFile lang) {
+		SourceFingerprintIndex fingerprints = this.sourceFingerprints.get(lang.getIdentifier());
+		if (fingerprints == null) {
+			fingerprints = SourceFingerprintIndex.load(lang.getFilename());
+			this.sourceFingerprints.put(lang.getIdentifier(), fingerprints);
+		}
+		return fingerprints;
+	}
+	
+	/**
+	 * Records translations edited by another editor as translated from the current defaults.  Languages whose
+	 * fingerprints have not been loaded are left alone; they are checked in full when they are loaded.
+	 */
+	private synchronized void updateSourceFingerprints(MasterTranslationFile lang, Collection<String> textKeys) {
+		SourceFingerprintIndex fingerprints = this.sourceFingerprints.get(lang.getIdentifier());
+		if (fingerprints != null && this.keyIndex != null) {
+			for (String textKey : textKeys) {
+				fingerprints.translationChanged(textKey, lang.get(textKey), this.keyIndex);
+			}
+		}
+	}
+	
+	/**
+	 * Saves the fingerprints of a language which has just been saved.
+	 * @param lang the saved language, or <code>null</code> to save the fingerprints of every language
+	 */
+	private synchronized void saveSourceFingerprints(MasterTranslationFile lang) {
+		if (lang == null) {
+			for (SourceFingerprintIndex fingerprints : this.sourceFingerprints.values()) {
+				fingerprints.save();
+			}
+		} else if (this.sourceFingerprints.containsKey(lang.getIdentifier())) {
+			this.sourceFingerprints.get(lang.getIdentifier()).save();
 		}
 	}
 	
+	/** @return the sorted index of the keys of the default translation */
+	private synchronized TranslationKeyIndex getKeyIndex() {
+		if (this.keyIndex == null) {
+			this.keyIndex = new TranslationKeyIndex(getDefaultLanguageFile(), BUNDLE_PROPERTIES_PREFIX);
+		}
+		return this.keyIndex;
+	}
+	
+	/** @return the validator for checking edited translations against the default translation */
+	private TranslationValidator getValidator() {
+		if (this.validator == null) {
+			this.validator = new TranslationValidator(getDefaultLanguageFile());
+		}
+		return this.validator;
+	}
+	
 	/**
 	 * Gets the text typed in the search field
 	 * @return The search text
@@ -566,7 +1531,7 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 		FileOutputStream fos = null;
 		OutputStreamWriter osw = null;
 		PrintWriter out = null;
-		File newFile = new File(InternationalisationUtils.getLanguageDirectory() + File.separator, filename);
+		File newFile = new File(MasterTranslationFile.getLanguageDirectory() + File.separator, filename);
 		MasterTranslationFile languageBundle = MasterTranslationFile.getFromLanguageCode(this.ui.getAttachedObject(baseLanguageCode, String.class));
 		
 		if (languageBundle != null) {
@@ -578,7 +1543,7 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 			newLanguageBundle.setLanguageCode(isoCode);
 			newLanguageBundle.setLanguageFont(fontNames);
 			
-			newLanguageBundle.saveToDisk(InternationalisationUtils.getLanguageDirectory());
+			newLanguageBundle.saveToDisk(MasterTranslationFile.getLanguageDirectory());
 		} else {
 			try {
 				fos = new FileOutputStream(newFile);
@@ -626,13 +1591,13 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 		newLanguageBundle.setLanguageCode(isoCode);
 		newLanguageBundle.setLanguageFont(fontNames);
 		
-		newLanguageBundle.saveToDisk(InternationalisationUtils.getLanguageDirectory());
+		newLanguageBundle.saveToDisk(MasterTranslationFile.getLanguageDirectory());
 		
 		if (!filename.equals(originalLanguageBundle.getFilename())) {
 			// If the ISO code has changed during the editing, we have to rename the file
 			// NB: if the filename included the countryCode, and this one changed, we rename it as well
-			File oldFile = new File(InternationalisationUtils.getLanguageDirectory(), originalLanguageBundle.getFilename());
-			File newFile = new File(InternationalisationUtils.getLanguageDirectory(), filename);
+			File oldFile = new File(MasterTranslationFile.getLanguageDirectory(), originalLanguageBundle.getFilename());
+			File newFile = new File(MasterTranslationFile.getLanguageDirectory(), filename);
 			newLanguageBundle.setFilename(filename);
 			oldFile.renameTo(newFile);
 		}
@@ -643,6 +1608,8 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 		}
 		
 		this.saveTranslations();
+		// Language properties, e.g. the font, cannot be changed in the running UI
+		this.ui.setVisible(this.ui.find(UI_COMPONENT_PN_RESTART_FRONTLINE), true);
 	}
 
 	/**
@@ -670,44 +1637,25 @@ public class TranslationThinletTabController extends BasePluginThinletTabControl
 			if (!newTabName.equals(UI_TRANSLATION_TAB_NAME)) {
 				if (this.shouldWarnWhenLostFocus) {
 					// Focus lost
-					if (this.languageBundles.size() > 0) {
+					if (hasUnsavedEdits()) {
 						// Then this means we're currently editing some translations, which need to be saved
 						this.ui.alert(InternationalisationUtils.getI18nString(I18N_WARNING_TRANSLATIONS_NOT_SAVED));
 					}
 				}
-			} else {
+			} else if (this.languagesLoaded) {
 				this.ui.setStatus(InternationalisationUtils.getI18nString(I18N_MESSAGE_TRANSLATION_TAB_LOADED));
+			} else {
+				loadLanguagesInBackground();
 			}
 			this.shouldWarnWhenLostFocus = (newTabName.equals(UI_TRANSLATION_TAB_NAME));
 		}
 	}
-	
-	/**
-	 * Classe used to sort the properties alphabetically in the lists
-	 * @author Morgan Belkadi <morgan@frontlinesms.com>
-	 */
-	public class PropertyRowComparator implements Comparator<Object> {
-		/** Instance of {@link UiGeneratorController} used to get the attached objects */
-		private UiGeneratorController ui;
-
-		public PropertyRowComparator (UiGeneratorController ui) {
-			this.ui = ui;
-		}
-		
-		/**
-		 * Inherited compare method from Comparator interface
-		 * Comparison is made on the attached object (String) 
-		 */
-		@SuppressWarnings("unchecked")
-		public int compare(Object o1, Object o2) {
-			return ((Comparable<Object>)this.ui.getAttachedObject(o1)).compareTo(this.ui.getAttachedObject(o2));
-		}
-	}
 }
 
 enum TranslationView {
 	ALL("tbAll", 0, "tbAllTranslations"),
-	MISSING("tbMissing", 1, "tbMissingTranslations");
+	MISSING("tbMissing", 1, "tbMissingTranslations"),
+	STALE("tbStale", 2, "tbStaleTranslations");
 	
 	private final String tabName;
 	private final int tabIndex;
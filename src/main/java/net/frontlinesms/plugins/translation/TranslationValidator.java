@@ -0,0 +1,284 @@
+/**
+ * 
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.frontlinesms.plugins.translation.ValidationFinding.Type;
+
+/**
+ * Checks the translations of {@link MasterTranslationFile}s against the default translation for problems
+ * which would otherwise only be noticed as garbled text in the UI or in SMS, e.g. missing placeholders.
+ * <p>The default translation is analysed once when the validator is created; the validator is immutable
+ * after that, so a single instance can validate several languages in parallel.</p>
+ */
+public class TranslationValidator {
+//> STATIC CONSTANTS
+	/** Matches {@link java.text.MessageFormat} arguments, e.g. <code>{0}</code> or <code>{1,number}</code> */
+	private static final Pattern MESSAGE_FORMAT_ARGUMENT = Pattern.compile("\\{(\\d+)[^}]*\\}");
+	/** Matches FrontlineSMS-style arguments, e.g. <code>%0</code> */
+	private static final Pattern PERCENT_ARGUMENT = Pattern.compile("%(\\d+)");
+	/** Matches characters which should not appear in a value read with the correct encoding */
+	private static final Pattern SUSPICIOUS_CHARACTERS = Pattern.compile("[\\uFFFD\\x00-\\x08\\x0B\\x0C\\x0E-\\x1F]");
+
+//> INSTANCE VARIABLES
+	/** Placeholders found in each default translation.  Keys without placeholders are not included. */
+	private final Map<String, Set<String>> defaultArguments;
+	/** Keys of default translations which contain an odd number of double quotes */
+	private final Set<String> defaultUnbalancedQuotes;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a validator which checks translations against the supplied default translation.
+	 * @param defaultTranslation
+	 */
+	public TranslationValidator(MasterTranslationFile defaultTranslation) {
+		Map<String, Set<String>> defaultArguments = new HashMap<String, Set<String>>();
+		Set<String> defaultUnbalancedQuotes = new TreeSet<String>();
+		for(Entry<String, String> e : defaultTranslation.getProperties().entrySet()) {
+			Set<String> arguments = getArguments(e.getValue());
+			if(!arguments.isEmpty()) {
+				defaultArguments.put(e.getKey(), arguments);
+			}
+			if(countQuotes(e.getValue()) % 2 != 0) {
+				defaultUnbalancedQuotes.add(e.getKey());
+			}
+		}
+		this.defaultArguments = defaultArguments;
+		this.defaultUnbalancedQuotes = defaultUnbalancedQuotes;
+	}
+
+//> VALIDATION METHODS
+	/**
+	 * Validates every key of a language, including the raw lines of all of its translation files.
+	 * The language is validated from a {@link TranslationSnapshot}, so this is safe to call while the
+	 * language is being edited on another thread.
+	 * @param languageBundle
+	 * @return all problems found with the language
+	 */
+	public List<ValidationFinding> validate(MasterTranslationFile languageBundle) {
+		TranslationSnapshot snapshot = languageBundle.snapshot();
+		List<ValidationFinding> findings = new ArrayList<ValidationFinding>();
+		validateLines(snapshot, findings);
+		for(Entry<String, String> e : snapshot.getProperties().entrySet()) {
+			validateValue(e.getKey(), e.getValue(), findings);
+		}
+		return findings;
+	}
+
+	/**
+	 * Validates the supplied keys of a language.  This is intended for checking translations as they are edited,
+	 * and must be called on the thread doing the editing; the raw lines of the translation files are not checked.
+	 * Each key is looked up on its own, so only the translation files which may contain the keys are loaded.
+	 * @param languageBundle
+	 * @param keys
+	 * @return all problems found with the supplied keys
+	 */
+	public List<ValidationFinding> validate(MasterTranslationFile languageBundle, Collection<String> keys) {
+		List<ValidationFinding> findings = new ArrayList<ValidationFinding>();
+		for(String key : keys) {
+			String value = languageBundle.get(key);
+			if(value != null) {
+				validateValue(key, value, findings);
+			}
+		}
+		return findings;
+	}
+
+	/**
+	 * Validates several languages in parallel.
+	 * @param languageBundles
+	 * @return the problems found for each language, in the same order as the supplied languages
+	 */
+	public Map<MasterTranslationFile, List<ValidationFinding>> validateAll(Collection<MasterTranslationFile> languageBundles) {
+		List<MasterTranslationFile> bundles = new ArrayList<MasterTranslationFile>(languageBundles);
+		List<Callable<List<ValidationFinding>>> tasks = new ArrayList<Callable<List<ValidationFinding>>>();
+		for(final MasterTranslationFile languageBundle : bundles) {
+			tasks.add(new Callable<List<ValidationFinding>>() {
+				public List<ValidationFinding> call() {
+					return validate(languageBundle);
+				}
+			});
+		}
+		
+		Map<MasterTranslationFile, List<ValidationFinding>> results = new LinkedHashMap<MasterTranslationFile, List<ValidationFinding>>();
+		List<List<ValidationFinding>> findings = runAll(tasks);
+		for(int i = 0 ; i < bundles.size() ; ++i) {
+			results.put(bundles.get(i), findings.get(i));
+		}
+		return results;
+	}
+
+//> VALIDATION HELPERS
+	/** Checks a single translated value against the default translation. */
+	private void validateValue(String key, String value, List<ValidationFinding> findings) {
+		Set<String> expected = this.defaultArguments.get(key);
+		if(expected == null) expected = Collections.emptySet();
+		Set<String> actual = getArguments(value);
+		for(String argument : expected) {
+			if(!actual.contains(argument)) {
+				findings.add(new ValidationFinding(Type.MISSING_ARGUMENT, key, argument));
+			}
+		}
+		for(String argument : actual) {
+			if(!expected.contains(argument)) {
+				findings.add(new ValidationFinding(Type.UNKNOWN_ARGUMENT, key, argument));
+			}
+		}
+		
+		if(countQuotes(value) % 2 != 0 && !this.defaultUnbalancedQuotes.contains(key)) {
+			findings.add(new ValidationFinding(Type.UNBALANCED_QUOTES, key));
+		}
+		
+		if(SUSPICIOUS_CHARACTERS.matcher(value).find()) {
+			findings.add(new ValidationFinding(Type.ENCODING, key));
+		}
+	}
+
+	/** Checks the raw lines of each translation file, as read before {@link MasterTranslationFile#getTranslationMap(List)}. */
+	private void validateLines(TranslationSnapshot snapshot, List<ValidationFinding> findings) {
+		Map<String, String> definedIn = new HashMap<String, String>();
+		for(TranslationSnapshot.Section file : snapshot.getSections()) {
+			for(String line : file.getLines()) {
+				line = line.trim();
+				if(line.length() == 0 || line.charAt(0) == '#') {
+					continue;
+				}
+				int eqIndex = line.indexOf('=');
+				if(eqIndex < 0) {
+					findings.add(new ValidationFinding(Type.MALFORMED_LINE, line, file.getDescription()));
+					continue;
+				}
+				String key = line.substring(0, eqIndex);
+				if(key.length() == 0 || containsWhitespaceOrSeparator(key) || line.startsWith("=", eqIndex + 1)) {
+					findings.add(new ValidationFinding(Type.MALFORMED_KEY, key, file.getDescription()));
+				}
+				String firstDefinition = definedIn.get(key);
+				if(firstDefinition == null) {
+					definedIn.put(key, file.getDescription());
+				} else {
+					findings.add(new ValidationFinding(Type.OVERRIDDEN_KEY, key, file.getDescription(), firstDefinition));
+				}
+			}
+		}
+	}
+
+//> STATIC HELPERS
+	/** @return the placeholders found in a translation */
+	private static Set<String> getArguments(String value) {
+		if(value.indexOf('{') < 0 && value.indexOf('%') < 0) {
+			return Collections.emptySet();
+		}
+		Set<String> arguments = new TreeSet<String>();
+		Matcher m = MESSAGE_FORMAT_ARGUMENT.matcher(value);
+		while(m.find()) {
+			arguments.add("{" + m.group(1) + "}");
+		}
+		m = PERCENT_ARGUMENT.matcher(value);
+		while(m.find()) {
+			arguments.add("%" + m.group(1));
+		}
+		return arguments;
+	}
+
+	/** @return the number of double quotes in a translation */
+	private static int countQuotes(String value) {
+		int count = 0;
+		for(int i = value.indexOf('"') ; i >= 0 ; i = value.indexOf('"', i + 1)) {
+			++count;
+		}
+		return count;
+	}
+
+	/** @return <code>true</code> if the key contains whitespace or a properties separator character */
+	private static boolean containsWhitespaceOrSeparator(String key) {
+		for(int i = 0 ; i < key.length() ; ++i) {
+			char c = key.charAt(i);
+			if(Character.isWhitespace(c) || c == ':') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the supplied tasks on a thread pool sized for the number of available processors.
+	 * @return the results of the tasks, in the same order as the tasks
+	 */
+	private static <T> List<T> runAll(List<Callable<T>> tasks) {
+		int threadCount = Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			List<T> results = new ArrayList<T>(tasks.size());
+			for(Future<T> future : executor.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while validating translations.", ex);
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException("Problem validating translations.", ex.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+//> BATCH
+	/**
+	 * Validates every language in the languages directory, and prints a report of the problems found.
+	 * Each language is loaded and validated on its own thread.
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		final TranslationValidator validator = new TranslationValidator(MasterTranslationFile.getDefault());
+		
+		List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+		List<File> files = new ArrayList<File>();
+		List<Locale> locales = new ArrayList<Locale>();
+		files.addAll(MasterTranslationFile.getLanguageFiles());
+		files.addAll(MasterTranslationFile.getPackedLanguageFiles());
+		for(File file : files) {
+			locales.add(MasterTranslationFile.getLocale(file.getName()));
+		}
+		for(int i = 0 ; i < files.size() ; ++i) {
+			final File file = files.get(i);
+			final Locale locale = locales.get(i);
+			tasks.add(new Callable<String>() {
+				public String call() {
+					MasterTranslationFile mtf = MasterTranslationFile.get(file, locale);
+					List<ValidationFinding> findings = validator.validate(mtf);
+					StringBuilder report = new StringBuilder();
+					report.append(mtf.getFilename()).append(": ").append(findings.size()).append(" problem(s)\n");
+					for(ValidationFinding finding : findings) {
+						report.append('\t').append(finding).append('\n');
+					}
+					return report.toString();
+				}
+			});
+		}
+		
+		for(String report : runAll(tasks)) {
+			System.out.print(report);
+		}
+	}
+}
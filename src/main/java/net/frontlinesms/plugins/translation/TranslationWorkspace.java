@@ -0,0 +1,163 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+
+/**
+ * The {@link MasterTranslationFile}s with unsaved edits, shared by everything that edits translations, e.g. the
+ * translation tab and the {@link TranslationHttpService}, so that they all edit the same instance of each file.
+ * <p>Languages without edits are read through the workspace's {@link SelectedLanguageSession} and
+ * {@link MasterTranslationFileCache}, so that editors share the languages they have loaded, and the memory they
+ * use stays within the cache's budget however many languages are read.</p>
+ * <p>Editors tell the workspace about edits and saves they make, and it passes these on to its {@link Listener}s
+ * so that other editors can show them.</p>
+ * <p>When a language is first edited, the workspace can record it as it was in a {@link SubmissionBaseline}, so
+ * that a language which has never been submitted need only submit the edits made to it.</p>
+ */
+class TranslationWorkspace {
+//> STATIC CONSTANTS
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(TranslationWorkspace.class);
+
+//> INSTANCE VARIABLES
+	/** Files with unsaved edits, by identifier */
+	private final ConcurrentMap<String, MasterTranslationFile> editedFiles = new ConcurrentHashMap<String, MasterTranslationFile>();
+	/** Recently loaded languages, kept within a memory budget.  Languages with unsaved edits are never evicted. */
+	private final MasterTranslationFileCache languageCache = MasterTranslationFileCache.fromSystemProperties(this.editedFiles);
+	/** Holds the language most recently read, taking other languages from the {@link #languageCache} */
+	private final SelectedLanguageSession languageSession = new SelectedLanguageSession(this.languageCache);
+	/** Listeners told about edits and saves */
+	private final Collection<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	/** Records each language as it was before it was first edited, or <code>null</code> if they are not recorded */
+	private final SubmissionBaseline installedVersions;
+
+//> CONSTRUCTORS
+	/** Creates a workspace which does not record languages before they are edited. */
+	TranslationWorkspace() {
+		this(null);
+	}
+
+	/**
+	 * @param installedVersions records each language as it was before it was first edited, or <code>null</code>
+	 *   not to record them
+	 */
+	TranslationWorkspace(SubmissionBaseline installedVersions) {
+		this.installedVersions = installedVersions;
+	}
+
+//> ACCESSORS
+	/** @return the files with unsaved edits, by identifier.  This map is shared and may be changed by other threads. */
+	ConcurrentMap<String, MasterTranslationFile> getEditedFiles() {
+		return editedFiles;
+	}
+
+	/** @return recently loaded languages, shared by every editor */
+	MasterTranslationFileCache getLanguageCache() {
+		return languageCache;
+	}
+
+	/** @return holder of the language most recently read, shared by every editor */
+	SelectedLanguageSession getLanguageSession() {
+		return languageSession;
+	}
+
+	/**
+	 * @param identifier identifier of the language, as returned by {@link MasterTranslationFile#getIdentifier()}
+	 * @return the language being edited, or the language as it is on disk if it is not being edited
+	 */
+	MasterTranslationFile getLanguage(String identifier) {
+		MasterTranslationFile languageBundle = this.editedFiles.get(identifier);
+		return languageBundle != null ? languageBundle : this.languageSession.get(identifier);
+	}
+
+	/**
+	 * @param identifier identifier of the language, as returned by {@link MasterTranslationFile#getIdentifier()}
+	 * @return <code>true</code> if the language is being edited, or is cached and unchanged on disk
+	 */
+	boolean isLoaded(String identifier) {
+		return this.editedFiles.containsKey(identifier) || this.languageCache.contains(identifier);
+	}
+
+	/**
+	 * Gets the file which should be edited for a language.  This is the file already being edited, if there is
+	 * one, or otherwise the supplied file, which will then be returned to any other editor of the same language.
+	 * If the language has never been recorded as it was before it was edited, the supplied file is recorded now.
+	 * The language is pinned in the {@link #languageCache} until it is saved.
+	 * @param languageBundle a freshly loaded copy of the language, or the copy currently being edited
+	 * @return the instance of the language to edit
+	 */
+	MasterTranslationFile startEditing(MasterTranslationFile languageBundle) {
+		MasterTranslationFile existing = this.editedFiles.putIfAbsent(languageBundle.getIdentifier(), languageBundle);
+		if(existing != null) {
+			return existing;
+		}
+		this.languageCache.pin(languageBundle.getIdentifier());
+		recordInstalledVersion(languageBundle);
+		return languageBundle;
+	}
+
+	void addListener(Listener listener) {
+		this.listeners.add(listener);
+	}
+
+	void removeListener(Listener listener) {
+		this.listeners.remove(listener);
+	}
+
+	/** Records a language as it is before its first edit, unless it has already been recorded. */
+	private void recordInstalledVersion(MasterTranslationFile languageBundle) {
+		if(this.installedVersions == null) {
+			return;
+		}
+		try {
+			this.installedVersions.storeIfAbsent(languageBundle);
+		} catch (IOException ex) {
+			// Not fatal: the language's first submission will just include every translation
+			LOG.warn("Unable to record the installed version of " + languageBundle.getFilename(), ex);
+		}
+	}
+
+//> EVENT METHODS
+	/**
+	 * Tells listeners, other than the one which made the edit, that translations have been edited.
+	 * @param source the listener which made the edit, or <code>null</code> if it was not made by a listener
+	 */
+	void fireEdited(Listener source, MasterTranslationFile languageBundle, Collection<String> textKeys) {
+		for(Listener listener : this.listeners) {
+			if(listener != source) {
+				listener.translationsEdited(languageBundle, textKeys);
+			}
+		}
+	}
+
+	/**
+	 * Records that a file has been saved, so no longer has unsaved edits, and tells listeners other than the one
+	 * which saved it.
+	 * @param source the listener which saved the file, or <code>null</code> if it was not saved by a listener
+	 */
+	void fireSaved(Listener source, MasterTranslationFile languageBundle) {
+		this.editedFiles.remove(languageBundle.getIdentifier(), languageBundle);
+		for(Listener listener : this.listeners) {
+			if(listener != source) {
+				listener.translationsSaved(languageBundle);
+			}
+		}
+	}
+
+//> INNER CLASSES
+	/** Told about edits and saves made by other editors.  Methods may be called on any thread. */
+	interface Listener {
+		void translationsEdited(MasterTranslationFile languageBundle, Collection<String> textKeys);
+		void translationsSaved(MasterTranslationFile languageBundle);
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * 
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import net.frontlinesms.events.FrontlineEventNotification;
+
+/**
+ * Published on the event bus when saved translations have been applied to the language the UI is currently
+ * shown in.  One notification is published for each save, listing every translation it changed.
+ */
+public class TranslationsChangedNotification implements FrontlineEventNotification {
+//> INSTANCE VARIABLES
+	/** Filename of the language which was changed */
+	private final String filename;
+	/** Values of the changed translations before the save, by key.  A value is <code>null</code> if the key was not translated. */
+	private final Map<String, String> previousValues;
+	/** Values of the changed translations after the save, by key */
+	private final Map<String, String> newValues;
+	/** Keys whose previous value was not the value of any other translation, so text showing it can only be this translation */
+	private final Set<String> uniqueKeys;
+
+//> CONSTRUCTORS
+	TranslationsChangedNotification(String filename, Map<String, String> previousValues, Map<String, String> newValues, Set<String> uniqueKeys) {
+		this.filename = filename;
+		this.previousValues = Collections.unmodifiableMap(previousValues);
+		this.newValues = Collections.unmodifiableMap(newValues);
+		this.uniqueKeys = Collections.unmodifiableSet(uniqueKeys);
+	}
+
+//> ACCESSORS
+	/** @return filename of the language which was changed */
+	public String getFilename() {
+		return filename;
+	}
+
+	/** @return keys of the translations which were changed */
+	public Set<String> getChangedKeys() {
+		return newValues.keySet();
+	}
+
+	/** @return the value of a changed translation before the save, or <code>null</code> if it was not translated */
+	public String getPreviousValue(String textKey) {
+		return previousValues.get(textKey);
+	}
+
+	/** @return the value of a changed translation after the save */
+	public String getNewValue(String textKey) {
+		return newValues.get(textKey);
+	}
+
+	/**
+	 * @return <code>true</code> if no other translation had the same value as the changed translation before the
+	 * save, so that text showing its previous value can only have come from it; <code>false</code> otherwise
+	 */
+	public boolean isPreviousValueUnique(String textKey) {
+		return uniqueKeys.contains(textKey);
+	}
+}
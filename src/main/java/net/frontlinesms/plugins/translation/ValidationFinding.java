@@ -0,0 +1,79 @@
+/**
+ * 
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.util.Arrays;
+
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+
+/**
+ * A problem found with a translation by the {@link TranslationValidator}.
+ */
+public class ValidationFinding {
+	/** The kinds of problem that a translation can have */
+	public enum Type {
+		/** A placeholder such as <code>{0}</code> or <code>%0</code> in the default text is missing from the translation */
+		MISSING_ARGUMENT("plugins.translation.validation.missing.argument"),
+		/** The translation contains a placeholder which is not in the default text */
+		UNKNOWN_ARGUMENT("plugins.translation.validation.unknown.argument"),
+		/** The translation contains an odd number of quotes, and the default text does not */
+		UNBALANCED_QUOTES("plugins.translation.validation.unbalanced.quotes"),
+		/** The translation contains characters which were probably caused by reading the file with the wrong encoding */
+		ENCODING("plugins.translation.validation.encoding"),
+		/** The key of the line is not well formed, e.g. it contains whitespace or a stray <code>=</code> */
+		MALFORMED_KEY("plugins.translation.validation.malformed.key"),
+		/** The line is not a comment, but is not in <code>key=value</code> format */
+		MALFORMED_LINE("plugins.translation.validation.malformed.line"),
+		/** The key is defined more than once, so all but the first definition are ignored */
+		OVERRIDDEN_KEY("plugins.translation.validation.overridden.key");
+
+		/** Key of the i18n string describing this type of problem */
+		private final String i18nKey;
+
+		Type(String i18nKey) {
+			this.i18nKey = i18nKey;
+		}
+	}
+
+//> INSTANCE VARIABLES
+	/** The type of problem */
+	private final Type type;
+	/** The key of the translation with the problem */
+	private final String key;
+	/** Details of the problem, e.g. the missing placeholder, which are filled in to its description */
+	private final String[] details;
+
+//> CONSTRUCTORS
+	ValidationFinding(Type type, String key, String... details) {
+		this.type = type;
+		this.key = key;
+		this.details = details;
+	}
+
+//> ACCESSORS
+	/** @return the type of problem */
+	public Type getType() {
+		return type;
+	}
+
+	/** @return the key of the translation with the problem */
+	public String getKey() {
+		return key;
+	}
+
+	/** @return details of the problem, e.g. the missing placeholder */
+	public String[] getDetails() {
+		return details.clone();
+	}
+
+	/** @return human-readable description of the problem, in the current language of the UI */
+	public String getDescription() {
+		return InternationalisationUtils.getI18nString(this.type.i18nKey, this.details);
+	}
+
+	@Override
+	public String toString() {
+		return this.type + " " + this.key + (this.details.length == 0 ? "" : ": " + Arrays.toString(this.details));
+	}
+}
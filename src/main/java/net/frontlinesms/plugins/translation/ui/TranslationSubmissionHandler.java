@@ -20,12 +20,17 @@
 package net.frontlinesms.plugins.translation.ui;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.log4j.Logger;
+
 import net.frontlinesms.FrontlineUtils;
 import net.frontlinesms.email.EmailException;
 import net.frontlinesms.plugins.translation.MasterTranslationFile;
+import net.frontlinesms.plugins.translation.SubmissionBaseline;
+import net.frontlinesms.plugins.translation.TranslationDelta;
 import net.frontlinesms.ui.ThinletUiEventHandler;
 import net.frontlinesms.ui.UiGeneratorController;
 import net.frontlinesms.ui.i18n.InternationalisationUtils;
@@ -44,6 +49,7 @@ public class TranslationSubmissionHandler implements ThinletUiEventHandler {
 	private static final String UI_FILE_SUBMIT_TRANSLATION = "/ui/plugins/translation/dgSubmitTranslation.xml";
 	
 	private static final String I18N_COMMON_INVALID_EMAIL = "common.invalid.email";
+	private static final String I18N_NOTHING_TO_SUBMIT = "plugins.translation.nothing.to.submit";
 	private static final String I18N_TRANSLATION_SENT = "plugins.translation.translation.sent";
 	private static final String I18N_UNABLE_SEND_TRANSLATION = "plugins.translation.unable.send.translation";
 
@@ -53,6 +59,8 @@ public class TranslationSubmissionHandler implements ThinletUiEventHandler {
 
 	private static final String EMAIL_REG_EXP = "^[\\w\\-]([\\.\\w])+[\\w]+@([\\w\\-]+\\.)+[A-Z]{2,4}$";
 
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(TranslationSubmissionHandler.class);
 	
 //> INSTANCE VARIABLES
 	private MasterTranslationFile languageBundle;
@@ -127,16 +135,53 @@ public class TranslationSubmissionHandler implements ThinletUiEventHandler {
 		if (this.isValidEmailAddress(userEmail)) {
 			this.ui.alert(InternationalisationUtils.getI18nString(I18N_COMMON_INVALID_EMAIL));
 		} else {
+			// Only the changes since the last submission are sent, rather than the whole language file
+			SubmissionBaseline baseline = new SubmissionBaseline();
+			TranslationDelta delta = baseline.getDelta(this.languageBundle);
+			boolean sinceInstalled = false;
+			if (delta.getBaselineHash() == null) {
+				// Never submitted: only the changes since the language was first edited are sent, if it was recorded then
+				TranslationDelta installedDelta = SubmissionBaseline.getInstalled().getDelta(this.languageBundle);
+				if (installedDelta.getBaselineHash() != null) {
+					delta = installedDelta;
+					sinceInstalled = true;
+				}
+			}
+			if (delta.isEmpty()) {
+				this.ui.alert(InternationalisationUtils.getI18nString(I18N_NOTHING_TO_SUBMIT));
+				return;
+			}
+			
 			String subject = "FrontlineSMS translation: " + this.languageBundle.getLanguageName();
 			String textContent = "Sent translation: " + this.languageBundle.getLanguageName() + " (" + this.languageBundle.getLanguageCode() + ").\n" +
-								 userName + (contribute ? " would" : " wouldn't") + " like to appear as a contributor for this translation.";
+								 userName + (contribute ? " would" : " wouldn't") + " like to appear as a contributor for this translation.\n" +
+								 (delta.getBaselineHash() == null ? "First submission: all translations attached." :
+									 (sinceInstalled ? "First submission: changes since the language was first edited: " : "Changes since last submission: ")
+									 + delta.getAdded().size() + " added, " + delta.getChanged().size() + " changed, " + delta.getRemoved().size() + " removed.");
+			File deltaFile = null;
 			try {
-				FrontlineUtils.sendToFrontlineSupport(userName, userEmail, subject, textContent, InternationalisationUtils.getLanguageDirectory() + File.separator + languageBundle.getFilename());
-				this.removeDialog();
-				this.ui.infoMessage(InternationalisationUtils.getI18nString(I18N_TRANSLATION_SENT));
+				deltaFile = baseline.getDeltaFile(this.languageBundle.getFilename());
+				delta.writeTo(deltaFile);
+				FrontlineUtils.sendToFrontlineSupport(userName, userEmail, subject, textContent, deltaFile.getAbsolutePath());
+			} catch (IOException e) {
+				LOG.warn("Unable to write translation delta.", e);
+				this.ui.alert(InternationalisationUtils.getI18nString(I18N_UNABLE_SEND_TRANSLATION));
+				return;
 			} catch (EmailException e) {
 				this.ui.alert(InternationalisationUtils.getI18nString(I18N_UNABLE_SEND_TRANSLATION));
+				return;
+			} finally {
+				if (deltaFile != null) deltaFile.delete();
+			}
+			
+			try {
+				baseline.store(this.languageBundle);
+			} catch (IOException e) {
+				// The translation was sent, so this is not fatal; the next submission will just be larger
+				LOG.warn("Unable to store submission baseline for " + this.languageBundle.getFilename(), e);
 			}
+			this.removeDialog();
+			this.ui.infoMessage(InternationalisationUtils.getI18nString(I18N_TRANSLATION_SENT));
 		}
 	}
 	
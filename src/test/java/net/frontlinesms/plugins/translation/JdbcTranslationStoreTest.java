@@ -0,0 +1,177 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import net.frontlinesms.plugins.PluginController;
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+import net.frontlinesms.ui.i18n.LanguageBundle;
+
+/**
+ * Tests {@link JdbcTranslationStore} with an in-memory H2 database, checking that the language file FrontlineSMS
+ * reads is kept in step with the database.
+ */
+public class JdbcTranslationStoreTest extends TestCase {
+//> STATIC CONSTANTS
+	/** Filename of the language written for the tests */
+	private static final String FILENAME = "frontlineSMS_fr.properties";
+
+//> INSTANCE VARIABLES
+	/** Directory holding the test's language file */
+	private File directory;
+	/** The language file written for the test */
+	private File languageFile;
+	/** JDBC URL of the test's database */
+	private String url;
+	/** The store under test */
+	private JdbcTranslationStore store;
+
+//> SETUP METHODS
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("translationstore", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+		this.languageFile = new File(this.directory, FILENAME);
+		write(LanguageBundle.KEY_LANGUAGE_CODE + "=fr",
+				"common.cancel=Annuler",
+				"common.save=Enregistrer");
+
+		Class.forName("org.h2.Driver");
+		this.url = "jdbc:h2:mem:" + this.directory.getName() + ";DB_CLOSE_DELAY=-1";
+		System.setProperty(JdbcTranslationStore.PROPERTY_URL, this.url);
+		this.store = JdbcTranslationStore.getConfigured(this.directory);
+		assertSame(this.store, MasterTranslationFile.getStore(this.directory));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		System.clearProperty(JdbcTranslationStore.PROPERTY_URL);
+		execute("SHUTDOWN");
+		for(File file : this.directory.listFiles()) {
+			file.delete();
+		}
+		this.directory.delete();
+	}
+
+//> TEST METHODS
+	public void testPointReadsAndWritesKeepTheFileInStep() throws IOException, SQLException {
+		assertEquals("Annuler", this.store.getValue(FILENAME, "common.cancel"));
+		assertNull(this.store.getValue(FILENAME, "common.delete"));
+
+		this.store.setValue(FILENAME, "common.cancel", "Abandonner");
+		this.store.setValue(FILENAME, "common.delete", "Supprimer");
+		this.store.setValue(FILENAME, "common.save", "");
+		assertEquals("Abandonner", this.store.getValue(FILENAME, "common.cancel"));
+		assertEquals("Supprimer", this.store.getValue(FILENAME, "common.delete"));
+		assertNull(this.store.getValue(FILENAME, "common.save"));
+
+		Properties saved = readLanguageFile();
+		assertEquals("Abandonner", saved.getProperty("common.cancel"));
+		assertEquals("Supprimer", saved.getProperty("common.delete"));
+		assertNull(saved.getProperty("common.save"));
+		assertEquals("fr", saved.getProperty(LanguageBundle.KEY_LANGUAGE_CODE));
+
+		assertEquals(3, count("SELECT COUNT(*) FROM translation_history"));
+		// Setting the same value again changes nothing
+		this.store.setValue(FILENAME, "common.cancel", "Abandonner");
+		assertEquals(3, count("SELECT COUNT(*) FROM translation_history"));
+	}
+
+	public void testSavedLanguagesAreWrittenToTheFile() throws IOException, SQLException {
+		List<Class<? extends PluginController>> noPlugins = Collections.emptyList();
+		MasterTranslationFile french = MasterTranslationFile.get(this.languageFile, new Locale("fr"), noPlugins);
+		french.add("common.cancel", "Abandonner");
+		french.add("common.delete", "Supprimer");
+		french.save();
+
+		Properties saved = readLanguageFile();
+		assertEquals("Abandonner", saved.getProperty("common.cancel"));
+		assertEquals("Supprimer", saved.getProperty("common.delete"));
+		assertEquals("Enregistrer", saved.getProperty("common.save"));
+		assertEquals("Abandonner", this.store.getValue(FILENAME, "common.cancel"));
+		assertEquals("Supprimer", this.store.getValue(FILENAME, "common.delete"));
+		assertEquals(2, count("SELECT COUNT(*) FROM translation_history"));
+
+		// The language is read from the file when it is loaded again, e.g. after a restart
+		MasterTranslationFile reloaded = MasterTranslationFile.get(this.languageFile, new Locale("fr"), noPlugins);
+		assertEquals("Abandonner", reloaded.get("common.cancel"));
+		assertEquals("Supprimer", reloaded.get("common.delete"));
+	}
+
+	public void testFilesChangedElsewhereAreCopiedAgain() throws IOException {
+		assertEquals("Annuler", this.store.getValue(FILENAME, "common.cancel"));
+		write(LanguageBundle.KEY_LANGUAGE_CODE + "=fr",
+				"common.cancel=Annuler la modification");
+		assertEquals("Annuler la modification", this.store.getValue(FILENAME, "common.cancel"));
+		assertNull(this.store.getValue(FILENAME, "common.save"));
+	}
+
+//> HELPER METHODS
+	/** Writes lines to the test language file. */
+	private void write(String... lines) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(this.languageFile), InternationalisationUtils.CHARSET_UTF8);
+		try {
+			for(String line : lines) {
+				out.write(line + "\n");
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/** @return the translations in the test language file, as they are on disk */
+	private Properties readLanguageFile() throws IOException {
+		Properties properties = new Properties();
+		Reader in = new InputStreamReader(new FileInputStream(this.languageFile), InternationalisationUtils.CHARSET_UTF8);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		return properties;
+	}
+
+	/** @return the number given by a <code>COUNT</code> query on the test database */
+	private int count(String sql) throws SQLException {
+		Connection connection = DriverManager.getConnection(this.url, "", "");
+		try {
+			ResultSet results = connection.createStatement().executeQuery(sql);
+			results.next();
+			return results.getInt(1);
+		} finally {
+			connection.close();
+		}
+	}
+
+	/** Executes a statement on the test database. */
+	private void execute(String sql) throws SQLException {
+		Connection connection = DriverManager.getConnection(this.url, "", "");
+		try {
+			Statement statement = connection.createStatement();
+			statement.execute(sql);
+		} finally {
+			connection.close();
+		}
+	}
+}
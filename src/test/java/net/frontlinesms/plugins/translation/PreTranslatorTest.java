@@ -0,0 +1,196 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+import net.frontlinesms.plugins.PluginController;
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+import net.frontlinesms.ui.i18n.LanguageBundle;
+
+/**
+ * Tests {@link PreTranslator} with the {@link StubTranslationProvider}, whose batches are recorded.  The default
+ * translation has seven keys; the French translation translates one of them, and two of the missing keys share
+ * their default text.
+ */
+public class PreTranslatorTest extends TestCase {
+//> STATIC CONSTANTS
+	/** Default text of the keys whose batch is made to fail by {@link RecordingProvider} */
+	private static final String FAILING_TEXT = "Failing text";
+
+//> INSTANCE VARIABLES
+	/** Directory holding the test's files */
+	private File directory;
+	/** The default translation */
+	private TranslationKeyIndex defaults;
+	/** The language pre-translated */
+	private MasterTranslationFile french;
+	/** File the cache of translations is kept in */
+	private File cacheFile;
+	/** The provider the pre-translator sends its batches to */
+	private RecordingProvider provider;
+
+//> SETUP METHODS
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("pretranslator", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+		File defaultFile = write("frontlineSMS.properties",
+				LanguageBundle.KEY_LANGUAGE_CODE + "=en",
+				"common.cancel=Cancel",
+				"common.delete=Delete",
+				"common.remove=Delete",
+				"common.save=Save",
+				"message.failed=" + FAILING_TEXT,
+				"message.sent=Message sent",
+				"message.welcome=Welcome");
+		File frenchFile = write("frontlineSMS_fr.properties",
+				LanguageBundle.KEY_LANGUAGE_CODE + "=fr",
+				"common.save=Enregistrer");
+		List<Class<? extends PluginController>> noPlugins = Collections.emptyList();
+		this.defaults = new TranslationKeyIndex(MasterTranslationFile.get(defaultFile, new Locale(""), noPlugins), "bundle.");
+		this.french = MasterTranslationFile.get(frenchFile, new Locale("fr"), noPlugins);
+		this.cacheFile = new File(this.directory, "cache.properties");
+		this.provider = new RecordingProvider();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for(File file : this.directory.listFiles()) {
+			file.delete();
+		}
+		this.directory.delete();
+	}
+
+//> TEST METHODS
+	public void testMissingKeysAreTranslatedInBatches() {
+		TranslationDelta suggestions = new PreTranslator(this.provider, 2, 2).preTranslate(this.french, this.defaults, PreTranslationCache.load(this.cacheFile));
+
+		// "Delete" is used by two keys but only sent once, and the translated key is not sent
+		assertEquals(5, this.provider.getSentTexts().size());
+		assertEquals(new HashSet<String>(Arrays.asList("Cancel", "Delete", FAILING_TEXT, "Message sent", "Welcome")),
+				new HashSet<String>(this.provider.getSentTexts()));
+		assertEquals(3, this.provider.getBatchCount());
+		assertTrue("A batch was bigger than the batch size", this.provider.getLargestBatch() <= 2);
+
+		assertEquals("[fr] Cancel", suggestions.getAdded().get("common.cancel"));
+		assertEquals("[fr] Delete", suggestions.getAdded().get("common.delete"));
+		assertEquals("[fr] Delete", suggestions.getAdded().get("common.remove"));
+		assertEquals("[fr] Message sent", suggestions.getAdded().get("message.sent"));
+		assertEquals("[fr] Welcome", suggestions.getAdded().get("message.welcome"));
+		assertFalse("An existing translation was suggested", suggestions.getAdded().containsKey("common.save"));
+		assertTrue(suggestions.getChanged().isEmpty());
+		assertTrue(suggestions.getRemoved().isEmpty());
+
+		// the language itself is left alone
+		assertNull(this.french.get("common.cancel"));
+	}
+
+	public void testCachedTextsAreNotSentAgain() {
+		new PreTranslator(this.provider, 2, 2).preTranslate(this.french, this.defaults, PreTranslationCache.load(this.cacheFile));
+		assertTrue("The cache was not saved", this.cacheFile.exists());
+		assertEquals(5, PreTranslationCache.load(this.cacheFile).size());
+
+		RecordingProvider secondProvider = new RecordingProvider();
+		TranslationDelta suggestions = new PreTranslator(secondProvider, 2, 2).preTranslate(this.french, this.defaults, PreTranslationCache.load(this.cacheFile));
+		assertEquals(0, secondProvider.getBatchCount());
+		assertEquals(6, suggestions.getAdded().size());
+		assertEquals("[fr] Welcome", suggestions.getAdded().get("message.welcome"));
+	}
+
+	public void testFailedBatchesAreLeftUntranslated() {
+		this.provider.failOn(FAILING_TEXT);
+		TranslationDelta suggestions = new PreTranslator(this.provider, 1, 3).preTranslate(this.french, this.defaults, PreTranslationCache.load(this.cacheFile));
+
+		assertEquals(5, this.provider.getBatchCount());
+		assertFalse("A failed translation was suggested", suggestions.getAdded().containsKey("message.failed"));
+		assertEquals(5, suggestions.getAdded().size());
+		assertEquals("[fr] Message sent", suggestions.getAdded().get("message.sent"));
+
+		// the failed text is not cached, so it is sent again next time
+		PreTranslationCache cache = PreTranslationCache.load(this.cacheFile);
+		assertNull(cache.get(FAILING_TEXT));
+		RecordingProvider secondProvider = new RecordingProvider();
+		suggestions = new PreTranslator(secondProvider, 1, 3).preTranslate(this.french, this.defaults, cache);
+		assertEquals(Collections.singletonList(FAILING_TEXT), secondProvider.getSentTexts());
+		assertEquals("[fr] " + FAILING_TEXT, suggestions.getAdded().get("message.failed"));
+	}
+
+//> HELPER METHODS
+	/** Writes lines to a file in the test directory. */
+	private File write(String filename, String... lines) throws IOException {
+		File file = new File(this.directory, filename);
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), InternationalisationUtils.CHARSET_UTF8);
+		try {
+			for(String line : lines) {
+				out.write(line + "\n");
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+//> INNER CLASSES
+	/** Translates with a {@link StubTranslationProvider}, recording each batch, and fails batches containing a chosen text. */
+	private static class RecordingProvider implements TranslationProvider {
+		private final TranslationProvider stub = new StubTranslationProvider();
+		/** Every batch sent, in the order they arrived */
+		private final List<List<String>> batches = new ArrayList<List<String>>();
+		/** Batches containing this text fail; <code>null</code> if none fail */
+		private String failingText;
+
+		void failOn(String text) {
+			this.failingText = text;
+		}
+
+		public String getName() {
+			return this.stub.getName();
+		}
+
+		public List<String> translate(List<String> texts, String targetLanguageCode) throws IOException {
+			synchronized(this) {
+				this.batches.add(new ArrayList<String>(texts));
+			}
+			if(this.failingText != null && texts.contains(this.failingText)) {
+				throw new IOException("Unable to translate: " + this.failingText);
+			}
+			return this.stub.translate(texts, targetLanguageCode);
+		}
+
+		synchronized int getBatchCount() {
+			return this.batches.size();
+		}
+
+		synchronized int getLargestBatch() {
+			int largest = 0;
+			for(List<String> batch : this.batches) {
+				largest = Math.max(largest, batch.size());
+			}
+			return largest;
+		}
+
+		/** @return every text sent, in the order the batches arrived */
+		synchronized List<String> getSentTexts() {
+			List<String> texts = new ArrayList<String>();
+			for(List<String> batch : this.batches) {
+				texts.addAll(batch);
+			}
+			return texts;
+		}
+	}
+}
@@ -0,0 +1,389 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import net.frontlinesms.plugins.PluginController;
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+import net.frontlinesms.ui.i18n.LanguageBundle;
+
+/**
+ * Generates a realistic translation repository at a configurable scale, so that problems which only show up with
+ * many languages, keys or plugins can be reproduced on a developer machine.
+ * <p>The repository is generated into a directory containing:
+ * <ul>
+ * <li><code>languages/</code>: the default core translation and a core translation for each language</li>
+ * <li><code>plugins/&lt;name&gt;/</code>: the default and per-language text resources of each plugin</li>
+ * <li><code>src/</code> and <code>classes/</code>: a fake {@link PluginController} for each plugin, which serves its
+ * text resources.  These are compiled with the system Java compiler, so a JDK is needed.</li>
+ * </ul></p>
+ * <p>Keys are made from a small vocabulary of nested prefixes, values have a spread of lengths and sometimes contain
+ * placeholders, and each language leaves a random share of keys untranslated.  The same seed always generates the
+ * same repository.</p>
+ */
+public class SyntheticTranslationRepository {
+//> STATIC CONSTANTS
+	/** Package of the generated plugin controllers */
+	private static final String PLUGIN_PACKAGE = "net.frontlinesms.plugins.synthetic";
+	/** Filename of the default core translation */
+	static final String DEFAULT_FILENAME = "frontlineSMS.properties";
+	/** Leading parts of core keys */
+	private static final String[] CORE_PREFIXES = { "common", "action", "message", "sentence", "tooltip", "menuitem", "contact", "group", "keyword", "phone", "email", "settings" };
+	/** Later parts of keys */
+	private static final String[] KEY_WORDS = { "name", "number", "title", "label", "status", "sent", "received", "pending", "failed", "delete", "edit", "new", "confirm", "details", "list", "filter", "export", "import", "help", "warning", "error", "type", "date", "time", "description" };
+	/** Words values are made from */
+	private static final String[] VALUE_WORDS = { "the", "message", "contact", "group", "was", "could", "not", "be", "sent", "please", "try", "again", "select", "phone", "number", "keyword", "settings", "save", "changes", "delete", "all", "selected", "new", "incoming", "outgoing", "email", "account", "connected", "device", "modem", "are", "you", "sure", "want", "to", "this" };
+
+//> INSTANCE VARIABLES
+	/** Directory the repository is generated in */
+	private final File directory;
+	/** Number of languages other than the default */
+	private final int languageCount;
+	/** Total number of keys in the default translation, shared between the core and the plugins */
+	private final int keyCount;
+	/** Number of plugins */
+	private final int pluginCount;
+	/** Largest share of keys left untranslated by a language.  Each language leaves between none and this share untranslated. */
+	private final double maximumMissingRatio;
+	/** Source of all random choices */
+	private final Random random;
+
+	/** The generated plugin controllers, or <code>null</code> if they have not been generated */
+	private List<Class<? extends PluginController>> pluginClasses;
+
+//> CONSTRUCTORS
+	/**
+	 * @param directory directory the repository is generated in
+	 * @param languageCount number of languages other than the default
+	 * @param keyCount total number of keys, shared between the core and the plugins
+	 * @param pluginCount number of plugins
+	 * @param maximumMissingRatio largest share of keys left untranslated by a language, between 0 and 1
+	 * @param seed seed for the random choices
+	 */
+	public SyntheticTranslationRepository(File directory, int languageCount, int keyCount, int pluginCount, double maximumMissingRatio, long seed) {
+		this.directory = directory;
+		this.languageCount = languageCount;
+		this.keyCount = keyCount;
+		this.pluginCount = pluginCount;
+		this.maximumMissingRatio = maximumMissingRatio;
+		this.random = new Random(seed);
+	}
+
+//> ACCESSORS
+	/** @return the directory containing the generated core translations */
+	public File getLanguageDirectory() {
+		return new File(this.directory, "languages");
+	}
+
+	/** @return the generated default core translation */
+	public File getDefaultLanguageFile() {
+		return new File(getLanguageDirectory(), DEFAULT_FILENAME);
+	}
+
+	/** @return the generated core translation of each language other than the default, in order */
+	public List<File> getLanguageFiles() {
+		List<File> files = new ArrayList<File>(this.languageCount);
+		for(int i = 0 ; i < this.languageCount ; ++i) {
+			files.add(new File(getLanguageDirectory(), "frontlineSMS_" + getLanguageCode(i) + ".properties"));
+		}
+		return files;
+	}
+
+	/** @return the generated plugin controllers */
+	public List<Class<? extends PluginController>> getPluginClasses() {
+		if(this.pluginClasses == null) {
+			throw new IllegalStateException("The repository has not been generated.");
+		}
+		return this.pluginClasses;
+	}
+
+	/** @return the locale of a translation file generated by this */
+	public static Locale getLocale(File languageFile) {
+		String name = languageFile.getName();
+		if(name.equals(DEFAULT_FILENAME)) {
+			return new Locale("");
+		}
+		return new Locale(name.substring("frontlineSMS_".length(), name.length() - ".properties".length()));
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Generates the repository, and compiles and loads its plugin controllers.
+	 * @throws IOException if the repository could not be written or its plugin controllers could not be compiled
+	 */
+	public void generate() throws IOException {
+		// Share the keys between the core and the plugins; plugins get about 40% of them
+		int pluginKeyCount = this.pluginCount == 0 ? 0 : (this.keyCount * 2) / 5;
+		Map<String, String> coreDefaults = createDefaults(CORE_PREFIXES, null, this.keyCount - pluginKeyCount);
+		List<Map<String, String>> pluginDefaults = new ArrayList<Map<String, String>>();
+		for(int i = 0 ; i < this.pluginCount ; ++i) {
+			int count = pluginKeyCount / this.pluginCount + (i < pluginKeyCount % this.pluginCount ? 1 : 0);
+			pluginDefaults.add(createDefaults(CORE_PREFIXES, "plugins." + getPluginName(i) + ".", count));
+		}
+
+		File languageDirectory = getLanguageDirectory();
+		languageDirectory.mkdirs();
+		writeProperties(getDefaultLanguageFile(), getBundleProperties("English", "en", "gb"), coreDefaults);
+		for(int i = 0 ; i < this.pluginCount ; ++i) {
+			writeProperties(new File(getPluginDirectory(i), "text.properties"), Collections.<String, String>emptyMap(), pluginDefaults.get(i));
+		}
+
+		for(int lang = 0 ; lang < this.languageCount ; ++lang) {
+			String code = getLanguageCode(lang);
+			double missingRatio = this.random.nextDouble() * this.maximumMissingRatio;
+			writeProperties(new File(languageDirectory, "frontlineSMS_" + code + ".properties"),
+					getBundleProperties("Language " + code, code, "zz"), translate(coreDefaults, code, missingRatio));
+			for(int i = 0 ; i < this.pluginCount ; ++i) {
+				writeProperties(new File(getPluginDirectory(i), "text_" + code + ".properties"),
+						Collections.<String, String>emptyMap(), translate(pluginDefaults.get(i), code, missingRatio));
+			}
+		}
+
+		this.pluginClasses = compilePluginControllers();
+	}
+
+	/**
+	 * Creates default values for keys made from the supplied prefixes.
+	 * @param namespace prefix of every key, or <code>null</code> if keys should not share a prefix
+	 */
+	private Map<String, String> createDefaults(String[] prefixes, String namespace, int count) {
+		Map<String, String> defaults = new HashMap<String, String>();
+		while(defaults.size() < count) {
+			StringBuilder key = new StringBuilder();
+			if(namespace != null) {
+				key.append(namespace);
+			}
+			key.append(prefixes[this.random.nextInt(prefixes.length)]);
+			// Keys are two to four parts long, and the last part is numbered so that there are enough of them
+			int parts = 1 + this.random.nextInt(3);
+			for(int i = 0 ; i < parts ; ++i) {
+				key.append('.').append(KEY_WORDS[this.random.nextInt(KEY_WORDS.length)]);
+			}
+			key.append('.').append(defaults.size());
+			defaults.put(key.toString(), createValue(""));
+		}
+		return defaults;
+	}
+
+	/** @return a translation of the supplied values, with the supplied share of them left untranslated */
+	private Map<String, String> translate(Map<String, String> defaults, String languageCode, double missingRatio) {
+		Map<String, String> translations = new HashMap<String, String>();
+		for(Map.Entry<String, String> e : defaults.entrySet()) {
+			if(this.random.nextDouble() >= missingRatio) {
+				translations.put(e.getKey(), createValue(languageCode + " "));
+			}
+		}
+		return translations;
+	}
+
+	/** @return a value of a realistic length: mostly a few words, sometimes a sentence or two */
+	private String createValue(String prefix) {
+		int wordCount = 1 + (int) Math.min(40, -Math.log(1 - this.random.nextDouble()) * 4);
+		StringBuilder value = new StringBuilder(prefix);
+		for(int i = 0 ; i < wordCount ; ++i) {
+			if(i > 0) value.append(' ');
+			value.append(VALUE_WORDS[this.random.nextInt(VALUE_WORDS.length)]);
+		}
+		if(this.random.nextInt(10) == 0) {
+			value.append(" %0");
+		}
+		return value.toString();
+	}
+
+	/** @return the <code>bundle.</code> properties of a language */
+	private static Map<String, String> getBundleProperties(String name, String code, String country) {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put(LanguageBundle.KEY_LANGUAGE_NAME, name);
+		properties.put(LanguageBundle.KEY_LANGUAGE_CODE, code);
+		properties.put(LanguageBundle.KEY_LANGUAGE_COUNTRY, country);
+		return properties;
+	}
+
+	/**
+	 * Writes the Java source of a {@link PluginController} for each plugin, and compiles and loads them.
+	 * @return the loaded plugin controllers
+	 */
+	private List<Class<? extends PluginController>> compilePluginControllers() throws IOException {
+		File sourceDirectory = new File(this.directory, "src/" + PLUGIN_PACKAGE.replace('.', '/'));
+		File classDirectory = new File(this.directory, "classes");
+		sourceDirectory.mkdirs();
+		classDirectory.mkdirs();
+
+		List<String> arguments = new ArrayList<String>();
+		arguments.add("-nowarn");
+		arguments.add("-classpath");
+		arguments.add(System.getProperty("java.class.path"));
+		arguments.add("-d");
+		arguments.add(classDirectory.getAbsolutePath());
+		for(int i = 0 ; i < this.pluginCount ; ++i) {
+			File source = new File(sourceDirectory, getPluginClassName(i) + ".java");
+			writePluginController(source, i);
+			arguments.add(source.getAbsolutePath());
+		}
+
+		List<Class<? extends PluginController>> classes = new ArrayList<Class<? extends PluginController>>();
+		if(this.pluginCount == 0) {
+			return classes;
+		}
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if(compiler == null) {
+			throw new IOException("No Java compiler is available to compile the generated plugins.  Run this with a JDK.");
+		}
+		if(compiler.run(null, null, null, arguments.toArray(new String[arguments.size()])) != 0) {
+			throw new IOException("Unable to compile the generated plugins in " + sourceDirectory.getAbsolutePath());
+		}
+
+		ClassLoader classLoader = new URLClassLoader(new URL[] { classDirectory.toURI().toURL() }, getClass().getClassLoader());
+		try {
+			for(int i = 0 ; i < this.pluginCount ; ++i) {
+				classes.add(classLoader.loadClass(PLUGIN_PACKAGE + "." + getPluginClassName(i)).asSubclass(PluginController.class));
+			}
+		} catch (ClassNotFoundException ex) {
+			throw new IOException("Unable to load a generated plugin: " + ex.getMessage());
+		}
+		return classes;
+	}
+
+	/** Writes the Java source of a plugin controller which serves the text resources of a generated plugin. */
+	private void writePluginController(File source, int plugin) throws IOException {
+		String name = getPluginName(plugin);
+		String textDirectory = getPluginDirectory(plugin).getAbsolutePath().replace("\\", "\\\\");
+		Writer out = null;
+		try {
+			out = new OutputStreamWriter(new FileOutputStream(source), InternationalisationUtils.CHARSET_UTF8);
+			out.write("package " + PLUGIN_PACKAGE + ";\n\n"
+					+ "import java.io.File;\n"
+					+ "import java.util.Locale;\n"
+					+ "import java.util.Map;\n\n"
+					+ "import net.frontlinesms.plugins.PluginControllerProperties;\n"
+					+ "import net.frontlinesms.plugins.translation.SyntheticTranslationRepository;\n\n"
+					+ "/** Generated by " + SyntheticTranslationRepository.class.getName() + " */\n"
+					+ "@PluginControllerProperties(name=\"" + name + "\", i18nKey=\"plugins." + name + ".tab.name\", iconPath=\"/icons/translate.png\", "
+							+ "springConfigLocation=PluginControllerProperties.NO_VALUE, hibernateConfigPath=PluginControllerProperties.NO_VALUE)\n"
+					+ "public class " + getPluginClassName(plugin) + " extends net.frontlinesms.plugins.BasePluginController {\n"
+					+ "\tprivate static final File TEXT_DIRECTORY = new File(\"" + textDirectory + "\");\n"
+					+ "\tpublic Object initThinletTab(net.frontlinesms.ui.UiGeneratorController uiController) { return null; }\n"
+					+ "\tpublic void init(net.frontlinesms.FrontlineSMS frontlineController, org.springframework.context.ApplicationContext applicationContext) {}\n"
+					+ "\tpublic void deinit() {}\n"
+					+ "\tpublic String getName(Locale locale) { return \"" + name + "\"; }\n"
+					+ "\tpublic Map<String, String> getDefaultTextResource() { return SyntheticTranslationRepository.readPluginText(TEXT_DIRECTORY, null); }\n"
+					+ "\tpublic Map<String, String> getTextResource(Locale locale) { return SyntheticTranslationRepository.readPluginText(TEXT_DIRECTORY, locale); }\n"
+					+ "}\n");
+		} finally {
+			if(out != null) try { out.close(); } catch(IOException ex) {}
+		}
+	}
+
+	private File getPluginDirectory(int plugin) {
+		return new File(this.directory, "plugins/" + getPluginName(plugin));
+	}
+
+//> STATIC HELPER METHODS
+	/**
+	 * Reads a text resource of a generated plugin.  This is called by the generated plugin controllers.
+	 * @param textDirectory the directory containing the plugin's text resources
+	 * @param locale the locale to read, or <code>null</code> to read the default text resource
+	 * @return the text resource, or <code>null</code> if the plugin has no text resource for the locale
+	 */
+	public static Map<String, String> readPluginText(File textDirectory, Locale locale) {
+		File file = new File(textDirectory, locale == null ? "text.properties" : "text_" + locale.getLanguage() + ".properties");
+		if(!file.exists()) {
+			return null;
+		}
+		InputStreamReader in = null;
+		try {
+			in = new InputStreamReader(new FileInputStream(file), InternationalisationUtils.CHARSET_UTF8);
+			Properties properties = new Properties();
+			properties.load(in);
+			Map<String, String> text = new HashMap<String, String>();
+			for(String key : properties.stringPropertyNames()) {
+				text.put(key, properties.getProperty(key));
+			}
+			return text;
+		} catch (IOException ex) {
+			throw new IllegalStateException("Unable to read plugin text: " + file.getAbsolutePath(), ex);
+		} finally {
+			if(in != null) try { in.close(); } catch(IOException ex) {}
+		}
+	}
+
+	/** Writes a properties file.  The generated keys and values never need escaping. */
+	private static void writeProperties(File file, Map<String, String> bundleProperties, Map<String, String> translations) throws IOException {
+		file.getParentFile().mkdirs();
+		Writer out = null;
+		try {
+			out = new OutputStreamWriter(new FileOutputStream(file), InternationalisationUtils.CHARSET_UTF8);
+			writeProperties(out, bundleProperties);
+			writeProperties(out, translations);
+		} finally {
+			if(out != null) try { out.close(); } catch(IOException ex) {}
+		}
+	}
+
+	private static void writeProperties(Writer out, Map<String, String> properties) throws IOException {
+		for(Map.Entry<String, String> e : properties.entrySet()) {
+			out.write(e.getKey());
+			out.write('=');
+			out.write(e.getValue());
+			out.write('\n');
+		}
+	}
+
+	/** @return a made-up two or three letter language code which is unique for each language */
+	private static String getLanguageCode(int language) {
+		StringBuilder code = new StringBuilder();
+		int remaining = language;
+		do {
+			code.append((char) ('a' + remaining % 26));
+			remaining /= 26;
+		} while(remaining > 0 || code.length() < 2);
+		return code.reverse().toString();
+	}
+
+	private static String getPluginName(int plugin) {
+		return "synthetic" + plugin;
+	}
+
+	private static String getPluginClassName(int plugin) {
+		return "Synthetic" + plugin + "PluginController";
+	}
+
+//> MAIN
+	/**
+	 * Generates a repository.
+	 * @param args directory, number of languages, number of keys, number of plugins, and optionally the largest share of missing keys and the seed
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 4) {
+			throw new IllegalArgumentException("Usage: " + SyntheticTranslationRepository.class.getName() + " <directory> <languages> <keys> <plugins> [maximumMissingRatio] [seed]");
+		}
+		SyntheticTranslationRepository repository = new SyntheticTranslationRepository(new File(args[0]),
+				Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+				args.length > 4 ? Double.parseDouble(args[4]) : 0.3,
+				args.length > 5 ? Long.parseLong(args[5]) : 0);
+		repository.generate();
+		System.out.println("Generated repository in " + new File(args[0]).getAbsolutePath());
+	}
+}
@@ -0,0 +1,253 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+import net.frontlinesms.ui.i18n.LanguageBundle;
+
+/**
+ * Tests {@link TranslationHttpService} by sending it real HTTP requests.  Each test edits a language directory of its
+ * own, set with {@link MasterTranslationFile#PROPERTY_LANGUAGE_DIRECTORY}, containing a language with the first key
+ * of the default translation translated and the second missing.
+ */
+public class TranslationHttpServiceTest extends TestCase {
+//> STATIC CONSTANTS
+	/** Filename of the language written for the tests */
+	private static final String FILENAME = "frontlineSMS_zz.properties";
+	/** Translation of {@link #translatedKey} in the test language */
+	private static final String TRANSLATION = "Translated text";
+
+//> INSTANCE VARIABLES
+	/** Temporary directory holding the test's language directory, and the plugin's working directory alongside it */
+	private File directory;
+	/** The language file written for the test */
+	private File languageFile;
+	/** A key which the test language translates */
+	private String translatedKey;
+	/** A key which the test language does not translate */
+	private String missingKey;
+	/** The service under test, listening on a free port */
+	private TranslationHttpService service;
+	/** The token sent with each request; <code>null</code> to send no token */
+	private String token;
+
+//> SETUP METHODS
+	@Override
+	protected void setUp() throws Exception {
+		TranslationKeyIndex keyIndex = new TranslationKeyIndex(MasterTranslationFile.getDefault(), "bundle.");
+		assertTrue("The default translation must have at least two keys", keyIndex.size() >= 2);
+		this.translatedKey = keyIndex.getKey(0);
+		this.missingKey = keyIndex.getKey(1);
+
+		this.directory = File.createTempFile("translationservice", "");
+		this.directory.delete();
+		File languageDirectory = new File(this.directory, "languages");
+		languageDirectory.mkdirs();
+		System.setProperty(MasterTranslationFile.PROPERTY_LANGUAGE_DIRECTORY, languageDirectory.getAbsolutePath());
+		this.languageFile = new File(languageDirectory, FILENAME);
+		Writer out = new OutputStreamWriter(new FileOutputStream(this.languageFile), InternationalisationUtils.CHARSET_UTF8);
+		try {
+			out.write(LanguageBundle.KEY_LANGUAGE_CODE + "=zz\n");
+			out.write(LanguageBundle.KEY_LANGUAGE_NAME + "=Test language\n");
+			out.write(LanguageBundle.KEY_LANGUAGE_COUNTRY + "=zz\n");
+			out.write(this.translatedKey + "=" + TRANSLATION + "\n");
+		} finally {
+			out.close();
+		}
+
+		this.service = new TranslationHttpService(new InetSocketAddress("127.0.0.1", 0), new TranslationWorkspace());
+		this.service.start();
+		this.token = this.service.getToken();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.service.stop();
+		System.clearProperty(MasterTranslationFile.PROPERTY_LANGUAGE_DIRECTORY);
+		delete(this.directory);
+	}
+
+//> TEST METHODS
+	public void testRequestsWithoutTheTokenAreRejected() throws IOException {
+		this.token = null;
+		assertEquals(403, request("GET", "languages", null).status);
+		this.token = "0123456789abcdef0123456789abcdef";
+		assertEquals(403, request("GET", "languages", null).status);
+	}
+
+	public void testListLanguages() throws IOException {
+		Response response = request("GET", "languages", null);
+		assertEquals(200, response.status);
+		assertTrue(response.body, response.body.contains("\"file\":\"" + FILENAME + "\""));
+	}
+
+	public void testListTranslations() throws IOException {
+		Response response = request("GET", "languages/" + FILENAME + "/keys?limit=2", null);
+		assertEquals(200, response.status);
+		assertTrue(response.body, response.body.contains("\"key\":" + TranslationHttpService.quote(this.translatedKey)
+				+ ",\"value\":" + TranslationHttpService.quote(TRANSLATION)));
+		assertTrue(response.body, response.body.contains("\"key\":" + TranslationHttpService.quote(this.missingKey) + ",\"value\":null"));
+	}
+
+	public void testGetTranslation() throws IOException {
+		Response response = request("GET", "languages/" + FILENAME + "/keys/" + encode(this.translatedKey), null);
+		assertEquals(200, response.status);
+		assertTrue(response.body, response.body.contains("\"value\":" + TranslationHttpService.quote(TRANSLATION)));
+		assertTrue(response.body, response.body.contains("\"version\":" + TranslationHttpService.quote(TranslationHttpService.getVersion(TRANSLATION))));
+
+		assertEquals(404, request("GET", "languages/" + FILENAME + "/keys/not.a.key", null).status);
+		assertEquals(404, request("GET", "languages/frontlineSMS_unknown.properties/keys", null).status);
+	}
+
+	public void testUpdateAndSave() throws IOException {
+		Response response = request("POST", "languages/" + FILENAME + "/keys",
+				"key=" + encode(this.missingKey) + "&value=" + encode("New translation") + "&version=");
+		assertEquals(200, response.status);
+		assertTrue(response.body, response.body.contains("\"status\":\"updated\""));
+
+		response = request("GET", "languages/" + FILENAME + "/keys/" + encode(this.missingKey), null);
+		assertTrue(response.body, response.body.contains("\"value\":\"New translation\""));
+		assertTrue(response.body, response.body.contains("\"edited\":true"));
+
+		response = request("POST", "languages/" + FILENAME + "/save", "");
+		assertEquals(200, response.status);
+		assertEquals("{\"saved\":true}", response.body);
+		Properties saved = readLanguageFile();
+		assertEquals("New translation", saved.getProperty(this.missingKey));
+		assertEquals(TRANSLATION, saved.getProperty(this.translatedKey));
+	}
+
+	public void testUpdateOfChangedTranslationConflicts() throws IOException {
+		Response response = request("POST", "languages/" + FILENAME + "/keys",
+				"key=" + encode(this.translatedKey) + "&value=" + encode("Overwritten") + "&version=" + TranslationHttpService.getVersion("Old text")
+				+ "&key=" + encode(this.missingKey) + "&value=" + encode("Added") + "&version=");
+		assertEquals(409, response.status);
+		assertTrue(response.body, response.body.contains("\"key\":" + TranslationHttpService.quote(this.translatedKey)
+				+ ",\"status\":\"conflict\",\"value\":" + TranslationHttpService.quote(TRANSLATION)));
+		assertTrue(response.body, response.body.contains("\"key\":" + TranslationHttpService.quote(this.missingKey)
+				+ ",\"status\":\"updated\""));
+
+		request("POST", "languages/" + FILENAME + "/save", "");
+		Properties saved = readLanguageFile();
+		assertEquals(TRANSLATION, saved.getProperty(this.translatedKey));
+		assertEquals("Added", saved.getProperty(this.missingKey));
+	}
+
+	public void testUpdatesAreValidated() throws IOException {
+		Response response = request("POST", "languages/" + FILENAME + "/keys",
+				"key=" + encode(this.missingKey) + "&value=" + encode("Added {99}") + "&version=");
+		assertEquals(200, response.status);
+		assertTrue(response.body, response.body.contains("\"findings\":[{\"type\":\"UNKNOWN_ARGUMENT\""));
+	}
+
+	public void testInvalidUpdatesAreRejected() throws IOException {
+		assertEquals(400, request("POST", "languages/" + FILENAME + "/keys", "key=not.a.key&value=x&version=").status);
+		assertEquals(400, request("POST", "languages/" + FILENAME + "/keys",
+				"key=" + encode(this.missingKey) + "&value=" + encode("two\nlines") + "&version=").status);
+		assertEquals(400, request("POST", "languages/" + FILENAME + "/keys", "key=" + encode(this.missingKey)).status);
+		assertEquals(405, request("DELETE", "languages/" + FILENAME + "/keys", null).status);
+		assertEquals(TRANSLATION, readLanguageFile().getProperty(this.translatedKey));
+		assertNull(readLanguageFile().getProperty(this.missingKey));
+	}
+
+//> HELPER METHODS
+	/**
+	 * Sends a request to the service.
+	 * @param method the HTTP method
+	 * @param path the path under {@link TranslationHttpService#CONTEXT_PATH}, including any query
+	 * @param body the form-encoded body, or <code>null</code> to send none
+	 * @return the response
+	 */
+	private Response request(String method, String path, String body) throws IOException {
+		InetSocketAddress address = this.service.getAddress();
+		URL url = new URL("http://" + address.getHostName() + ":" + address.getPort() + TranslationHttpService.CONTEXT_PATH + path);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		if(this.token != null) {
+			connection.setRequestProperty(TranslationHttpService.HEADER_TOKEN, this.token);
+		}
+		if(body != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+			OutputStream out = connection.getOutputStream();
+			try {
+				out.write(body.getBytes(InternationalisationUtils.CHARSET_UTF8));
+			} finally {
+				out.close();
+			}
+		}
+		int status = connection.getResponseCode();
+		InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while((read = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return new Response(status, new String(bytes.toByteArray(), InternationalisationUtils.CHARSET_UTF8));
+		} finally {
+			in.close();
+			connection.disconnect();
+		}
+	}
+
+	/** @return the translations in the test language file, as they are on disk */
+	private Properties readLanguageFile() throws IOException {
+		Properties properties = new Properties();
+		Reader in = new InputStreamReader(new FileInputStream(this.languageFile), InternationalisationUtils.CHARSET_UTF8);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		return properties;
+	}
+
+	private static String encode(String text) throws IOException {
+		return URLEncoder.encode(text, InternationalisationUtils.CHARSET_UTF8);
+	}
+
+	/** Deletes a file, or a directory and everything in it */
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+//> INNER CLASSES
+	/** The status and body of a response */
+	private static class Response {
+		private final int status;
+		private final String body;
+
+		Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+}
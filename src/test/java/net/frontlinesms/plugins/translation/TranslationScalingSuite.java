@@ -0,0 +1,305 @@
+/**
+ *
+ */
+package net.frontlinesms.plugins.translation;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+import net.frontlinesms.plugins.PluginController;
+import net.frontlinesms.ui.FrontlineUI;
+
+/**
+ * Measures how the time and heap used by the translation plugin grow with the size of the translation repository,
+ * using repositories made by {@link SyntheticTranslationRepository}.
+ * <p>For each scale the suite times:
+ * <ul>
+ * <li>loading every language, as {@link MasterTranslationFile#getAll()} does</li>
+ * <li>building the records of the translation tables for a language with {@link TranslationTableModel}, as the
+ * translation tab's <code>refreshTables()</code> does</li>
+ * <li>filtering those records with a {@link TranslationQuery}, as the filter field does</li>
+ * <li>saving a language</li>
+ * </ul>
+ * Each measurement is compared with the one at the smallest scale.  If its cost grows faster than
+ * <code>size^maximumExponent</code>, the test fails.</p>
+ * <p>By default the suite runs at a small scale, so that it is quick enough to run with the other tests.  To measure
+ * realistic repositories, set the system properties {@link #PROPERTY_BASE_SIZES}, e.g. <code>10,2000,3</code>, and
+ * {@link #PROPERTY_SCALES}, e.g. <code>1,2,4,8</code>.  Set {@link #PROPERTY_MAXIMUM_EXPONENT} to change the allowed
+ * growth.</p>
+ */
+public class TranslationScalingSuite extends TestCase {
+//> STATIC CONSTANTS
+	/** System property: the base numbers of languages, keys and plugins, separated by commas.  Defaults to {@link #DEFAULT_BASE_SIZES}. */
+	static final String PROPERTY_BASE_SIZES = "frontlinesms.translation.scaling.baseSizes";
+	/** System property: the scales the base sizes are multiplied by, separated by commas.  Defaults to {@link #DEFAULT_SCALES}. */
+	static final String PROPERTY_SCALES = "frontlinesms.translation.scaling.scales";
+	/** System property: the largest allowed exponent of the growth of cost with size.  Defaults to {@link #DEFAULT_MAXIMUM_EXPONENT}. */
+	static final String PROPERTY_MAXIMUM_EXPONENT = "frontlinesms.translation.scaling.maximumExponent";
+	/** Default for {@link #PROPERTY_BASE_SIZES} */
+	private static final String DEFAULT_BASE_SIZES = "3,500,1";
+	/** Default for {@link #PROPERTY_SCALES} */
+	private static final String DEFAULT_SCALES = "1,2";
+	/** Default for {@link #PROPERTY_MAXIMUM_EXPONENT}.  Linear growth is 1; this leaves room for timing noise and GC. */
+	private static final double DEFAULT_MAXIMUM_EXPONENT = 1.3;
+	/** Timings shorter than this are too noisy to check for growth */
+	private static final long MINIMUM_CHECKED_NANOS = 20 * 1000 * 1000L;
+	/** Number of times each operation is repeated; the fastest run is used */
+	private static final int REPETITIONS = 3;
+	/** Query used when timing filtering; it mixes text, field and status terms so that the whole plan is run */
+	private static final String FILTER_QUERY = "message -key:common. (is:translated or default~[0-9])";
+
+//> INSTANCE VARIABLES
+	/** Directory the repositories are generated in */
+	private File workingDirectory;
+	private int baseLanguages;
+	private int baseKeys;
+	private int basePlugins;
+	private double maximumExponent;
+
+	/** Measurements at the smallest scale, which the others are compared with; <code>null</code> until it has been measured */
+	private Measurement[] baseline;
+	/** Descriptions of any measurements which grew too quickly */
+	private final List<String> failures = new ArrayList<String>();
+
+//> SETUP METHODS
+	@Override
+	protected void setUp() throws Exception {
+		this.workingDirectory = File.createTempFile("scaling", "");
+		this.workingDirectory.delete();
+		this.workingDirectory.mkdirs();
+		List<Integer> baseSizes = getIntegers(PROPERTY_BASE_SIZES, DEFAULT_BASE_SIZES);
+		assertEquals(PROPERTY_BASE_SIZES + " must have the numbers of languages, keys and plugins", 3, baseSizes.size());
+		this.baseLanguages = baseSizes.get(0);
+		this.baseKeys = baseSizes.get(1);
+		this.basePlugins = baseSizes.get(2);
+		this.maximumExponent = Double.parseDouble(System.getProperty(PROPERTY_MAXIMUM_EXPONENT, Double.toString(DEFAULT_MAXIMUM_EXPONENT)));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		delete(this.workingDirectory);
+	}
+
+//> TEST METHODS
+	public void testGrowthIsCloseToLinear() throws IOException {
+		List<Integer> scales = getIntegers(PROPERTY_SCALES, DEFAULT_SCALES);
+		// Warm up the JIT at the smallest scale, so that the baseline is not slowed down by compilation
+		run(new File(this.workingDirectory, "warmup"), scales.get(0));
+		this.baseline = null;
+		this.failures.clear();
+		for(int scale : scales) {
+			run(this.workingDirectory, scale);
+		}
+		if(!this.failures.isEmpty()) {
+			fail(this.failures.size() + " measurement(s) grew faster than linear: " + this.failures);
+		}
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Measures every operation at the supplied scale, and checks the growth since the smallest scale.
+	 * @param workingDirectory directory the repository is generated in
+	 * @param scale multiplier of the base numbers of languages, keys and plugins
+	 */
+	private void run(File workingDirectory, int scale) throws IOException {
+		int languages = this.baseLanguages * scale;
+		int keys = this.baseKeys * scale;
+		int plugins = this.basePlugins * scale;
+		File directory = new File(workingDirectory, "scale" + scale);
+		SyntheticTranslationRepository repository = new SyntheticTranslationRepository(directory, languages, keys, plugins, 0.3, scale);
+		repository.generate();
+		List<Class<? extends PluginController>> pluginClasses = repository.getPluginClasses();
+
+		// The plugin loader names plugins using the current UI language, which is not set up outside the UI
+		MasterTranslationFile defaultTranslation = MasterTranslationFile.get(repository.getDefaultLanguageFile(), new Locale(""), pluginClasses);
+		if(FrontlineUI.currentResourceBundle == null) {
+			FrontlineUI.currentResourceBundle = MasterTranslationFile.get(repository.getDefaultLanguageFile(), new Locale(""),
+					Collections.<Class<? extends PluginController>>emptyList());
+		}
+		TranslationKeyIndex keyIndex = new TranslationKeyIndex(defaultTranslation, "bundle.");
+		File languageFile = repository.getLanguageFiles().get(0);
+		// No fingerprints have been recorded for the generated languages, so none of their translations is stale
+		SourceFingerprintIndex fingerprints = SourceFingerprintIndex.load(new File(directory, "fingerprints"));
+
+		Measurement[] measurements = {
+				measureLoadAll(repository, pluginClasses, (long) languages * keys),
+				measureBuildRows(languageFile, pluginClasses, keyIndex, fingerprints, keys),
+				measureFilter(languageFile, pluginClasses, keyIndex, fingerprints, keys),
+				measureSave(languageFile, pluginClasses, new File(directory, "saved"), keys),
+		};
+		System.out.println("Scale " + scale + ": " + languages + " languages, " + keys + " keys, " + plugins + " plugins");
+		for(int i = 0 ; i < measurements.length ; ++i) {
+			System.out.println("  " + measurements[i]);
+			if(this.baseline != null) {
+				check(this.baseline[i], measurements[i]);
+			}
+		}
+		if(this.baseline == null) {
+			this.baseline = measurements;
+		}
+	}
+
+	/** Loads every language, keeping them all in memory */
+	private Measurement measureLoadAll(SyntheticTranslationRepository repository, List<Class<? extends PluginController>> pluginClasses, long size) {
+		Measurement measurement = new Measurement("load all languages", size);
+		for(int run = 0 ; run < REPETITIONS ; ++run) {
+			long heapBefore = getUsedHeap();
+			long start = System.nanoTime();
+			List<MasterTranslationFile> all = new ArrayList<MasterTranslationFile>();
+			for(File file : repository.getLanguageFiles()) {
+				all.add(MasterTranslationFile.get(file, SyntheticTranslationRepository.getLocale(file), pluginClasses));
+			}
+			measurement.record(System.nanoTime() - start, getUsedHeap() - heapBefore);
+			all.clear();
+		}
+		return measurement;
+	}
+
+	/** Builds the records of the translation tables for every key of a language, as the translation tab does */
+	private Measurement measureBuildRows(File languageFile, List<Class<? extends PluginController>> pluginClasses, TranslationKeyIndex keyIndex,
+			SourceFingerprintIndex fingerprints, long size) {
+		Measurement measurement = new Measurement("build table rows", size);
+		for(int run = 0 ; run < REPETITIONS ; ++run) {
+			MasterTranslationFile lang = MasterTranslationFile.get(languageFile, SyntheticTranslationRepository.getLocale(languageFile), pluginClasses);
+			long heapBefore = getUsedHeap();
+			long start = System.nanoTime();
+			TranslationTableModel model = buildModel(lang, keyIndex, fingerprints);
+			measurement.record(System.nanoTime() - start, getUsedHeap() - heapBefore);
+			if(model.getRecords(TranslationView.ALL).size() != keyIndex.size()) {
+				throw new IllegalStateException("Expected a record for each of the " + keyIndex.size() + " keys, but got "
+						+ model.getRecords(TranslationView.ALL).size());
+			}
+		}
+		return measurement;
+	}
+
+	/** Filters the records of the all table of a language */
+	private Measurement measureFilter(File languageFile, List<Class<? extends PluginController>> pluginClasses, TranslationKeyIndex keyIndex,
+			SourceFingerprintIndex fingerprints, long size) {
+		Measurement measurement = new Measurement("filter table rows", size);
+		MasterTranslationFile lang = MasterTranslationFile.get(languageFile, SyntheticTranslationRepository.getLocale(languageFile), pluginClasses);
+		TranslationQuery query;
+		try {
+			query = TranslationQuery.compile(FILTER_QUERY);
+		} catch (ParseException ex) {
+			throw new IllegalStateException("Invalid filter query: " + FILTER_QUERY, ex);
+		}
+		for(int run = 0 ; run < REPETITIONS ; ++run) {
+			// Records keep lower case copies of their text once filtered, so each run filters new records, as the tab does after refreshing its tables
+			List<TranslationQuery.Record> records = buildModel(lang, keyIndex, fingerprints).getRecords(TranslationView.ALL);
+			long heapBefore = getUsedHeap();
+			long start = System.nanoTime();
+			List<TranslationQuery.Record> shown = new ArrayList<TranslationQuery.Record>();
+			for(TranslationQuery.Record record : records) {
+				if(query.matches(record)) {
+					shown.add(record);
+				}
+			}
+			measurement.record(System.nanoTime() - start, getUsedHeap() - heapBefore);
+		}
+		return measurement;
+	}
+
+	/** Edits and saves a language */
+	private Measurement measureSave(File languageFile, List<Class<? extends PluginController>> pluginClasses, File targetDirectory, long size) throws IOException {
+		Measurement measurement = new Measurement("save language", size);
+		targetDirectory.mkdirs();
+		for(int run = 0 ; run < REPETITIONS ; ++run) {
+			MasterTranslationFile lang = MasterTranslationFile.get(languageFile, SyntheticTranslationRepository.getLocale(languageFile), pluginClasses);
+			lang.add("common.scaling.edited", "edited " + run);
+			long heapBefore = getUsedHeap();
+			long start = System.nanoTime();
+			lang.saveToDisk(targetDirectory);
+			measurement.record(System.nanoTime() - start, getUsedHeap() - heapBefore);
+		}
+		return measurement;
+	}
+
+	/** Records a failure if the cost of a measurement grew faster than allowed since the baseline */
+	private void check(Measurement baseline, Measurement measurement) {
+		if(measurement.nanos < MINIMUM_CHECKED_NANOS) {
+			return;
+		}
+		double sizeRatio = (double) measurement.size / baseline.size;
+		// Short baseline timings are mostly noise, so they are treated as if they took the minimum checked time
+		double timeRatio = (double) measurement.nanos / Math.max(baseline.nanos, MINIMUM_CHECKED_NANOS / sizeRatio);
+		double exponent = Math.log(timeRatio) / Math.log(sizeRatio);
+		if(exponent > this.maximumExponent) {
+			String failure = measurement.name + ": " + String.format("%.1f", timeRatio) + "x slower for " + String.format("%.1f", sizeRatio)
+					+ "x the size (growth exponent " + String.format("%.2f", exponent) + " > " + this.maximumExponent + ")";
+			System.out.println("  FAILED " + failure);
+			this.failures.add(failure);
+		}
+	}
+
+//> STATIC HELPER METHODS
+	/** Builds the records of the translation tables for every key of a language, with no unsaved edits */
+	private static TranslationTableModel buildModel(MasterTranslationFile lang, TranslationKeyIndex keyIndex, SourceFingerprintIndex fingerprints) {
+		return TranslationTableModel.build(lang, keyIndex, fingerprints, Collections.<String>emptySet(), "");
+	}
+
+	/** @return the heap in use, after collecting garbage */
+	private static long getUsedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0 ; i < 3 ; ++i) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/** @return the comma-separated integers in a system property, or in its default value if it is not set */
+	private static List<Integer> getIntegers(String property, String defaultValue) {
+		List<Integer> integers = new ArrayList<Integer>();
+		for(String integer : System.getProperty(property, defaultValue).split(",")) {
+			integers.add(Integer.valueOf(integer.trim()));
+		}
+		return integers;
+	}
+
+	/** Deletes a file, or a directory and everything in it */
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+//> INNER CLASSES
+	/** The fastest run of an operation at one scale, and the heap it used */
+	private static class Measurement {
+		private final String name;
+		/** Size of the data the operation works on, e.g. number of keys */
+		private final long size;
+		/** Time taken by the fastest run */
+		private long nanos = Long.MAX_VALUE;
+		/** Heap retained by the fastest run */
+		private long heapBytes;
+
+		Measurement(String name, long size) {
+			this.name = name;
+			this.size = size;
+		}
+
+		void record(long nanos, long heapBytes) {
+			if(nanos < this.nanos) {
+				this.nanos = nanos;
+				this.heapBytes = heapBytes;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-20s size %10d: %8.1fms, %8dKB heap", this.name, this.size, this.nanos / 1e6, Math.max(0, this.heapBytes) / 1024);
+		}
+	}
+}